@@ -0,0 +1,397 @@
+package com.qcadoo.mes.basicProductionCounting;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
+import com.qcadoo.mes.basicProductionCounting.hooks.util.ProductionProgressModifyLockHelper;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Creates production counting quantities, operation runs and basic production countings of an order with batch statements.
+ *
+ * Rows are computed in memory from the product quantities of the order technology - type of material is resolved against an
+ * index of input products of parent operations and duplicates are detected against an index of already existing rows, so
+ * there are no per row queries. Basic production countings are linked with one update.
+ *
+ * Technologies producing or using sets aren't handled here, because set components are generated by model hooks of
+ * production counting quantities - such orders have to be created through data definitions.
+ */
+@Service
+class BasicProductionCountingBulkService {
+
+    private static final String L_ID = "id";
+
+    private static final String L_ORDER_ID = "order_id";
+
+    private static final String L_PRODUCT_ID = "product_id";
+
+    private static final String L_TECHNOLOGY_OPERATION_COMPONENT_ID = "technologyoperationcomponent_id";
+
+    private static final String L_BASIC_PRODUCTION_COUNTING_ID = "basicproductioncounting_id";
+
+    private static final String L_ROLE = "role";
+
+    private static final String L_TYPE_OF_MATERIAL = "typeofmaterial";
+
+    private static final String L_IS_NON_COMPONENT = "isnoncomponent";
+
+    private static final String L_PLANNED_QUANTITY = "plannedquantity";
+
+    private static final String L_RUNS = "runs";
+
+    private static final String L_QUANTITY = "quantity";
+
+    private static final int L_MAX_UNSCALED_VALUE = 9;
+
+    private static final String CONTAINS_SETS_QUERY = "WITH RECURSIVE technologyIds(id) AS ("
+            + "SELECT CAST(:technologyId AS bigint) UNION "
+            + "SELECT toc.referencetechnology_id FROM technologies_technologyoperationcomponent toc "
+            + "JOIN technologyIds ON technologyIds.id = toc.technology_id WHERE toc.referencetechnology_id IS NOT NULL) "
+            + "SELECT EXISTS (SELECT 1 FROM technologies_technology technology "
+            + "JOIN technologies_technologyoperationcomponent root ON root.technology_id = technology.id AND root.parent_id IS NULL "
+            + "JOIN technologies_operationproductoutcomponent opoc ON opoc.operationcomponent_id = root.id "
+            + "WHERE opoc.set AND (technology.id = :technologyId OR (technology.master AND technology.product_id IN ("
+            + "SELECT opic.product_id FROM technologies_operationproductincomponent opic "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id "
+            + "WHERE toc.technology_id IN (SELECT id FROM technologyIds)))))";
+
+    private static final String ROOT_OPERATION_COMPONENT_QUERY = "SELECT id FROM technologies_technologyoperationcomponent "
+            + "WHERE technology_id = :technologyId AND parent_id IS NULL";
+
+    private static final String PARENT_INPUT_PRODUCTS_QUERY = "SELECT toc.id, opic.product_id "
+            + "FROM technologies_technologyoperationcomponent toc "
+            + "JOIN technologies_operationproductincomponent opic ON opic.operationcomponent_id = toc.parent_id "
+            + "WHERE toc.id IN (:technologyOperationComponentIds)";
+
+    private static final String EXISTING_PRODUCTION_COUNTING_QUANTITIES_QUERY = "SELECT technologyoperationcomponent_id, "
+            + "product_id, role, typeofmaterial FROM basicproductioncounting_productioncountingquantity WHERE order_id = :orderId";
+
+    private static final String EXISTING_BASIC_PRODUCTION_COUNTINGS_QUERY = "SELECT id, product_id "
+            + "FROM basicproductioncounting_basicproductioncounting WHERE order_id = :orderId ORDER BY id";
+
+    private static final String BASIC_PRODUCTION_COUNTING_PRODUCTS_QUERY = "SELECT product_id "
+            + "FROM basicproductioncounting_productioncountingquantity WHERE order_id = :orderId "
+            + "AND (role = :usedRole OR (role = :producedRole AND typeofmaterial = :wasteTypeOfMaterial)) ORDER BY id";
+
+    private static final String NEXT_BASIC_PRODUCTION_COUNTING_IDS_QUERY = "SELECT nextval(pg_get_serial_sequence("
+            + "'basicproductioncounting_basicproductioncounting', 'id')) FROM generate_series(1, :count)";
+
+    private static final String INSERT_BASIC_PRODUCTION_COUNTING_QUERY = "INSERT INTO basicproductioncounting_basicproductioncounting "
+            + "(id, order_id, product_id, usedquantity, producedquantity) "
+            + "VALUES (:id, :order_id, :product_id, :quantity, :quantity)";
+
+    private static final String INSERT_OPERATION_RUN_QUERY = "INSERT INTO basicproductioncounting_productioncountingoperationrun "
+            + "(order_id, technologyoperationcomponent_id, runs) VALUES (:order_id, :technologyoperationcomponent_id, :runs)";
+
+    private static final String INSERT_PRODUCTION_COUNTING_QUANTITY_QUERY = "INSERT INTO basicproductioncounting_productioncountingquantity "
+            + "(order_id, technologyoperationcomponent_id, product_id, basicproductioncounting_id, role, typeofmaterial, "
+            + "isnoncomponent, plannedquantity) VALUES (:order_id, :technologyoperationcomponent_id, :product_id, "
+            + ":basicproductioncounting_id, :role, :typeofmaterial, :isnoncomponent, :plannedquantity)";
+
+    private static final String ASSOCIATE_BASIC_PRODUCTION_COUNTINGS_QUERY = "UPDATE basicproductioncounting_productioncountingquantity pcq "
+            + "SET basicproductioncounting_id = bpc.id FROM (SELECT product_id, MAX(id) AS id "
+            + "FROM basicproductioncounting_basicproductioncounting WHERE order_id = :orderId GROUP BY product_id) bpc "
+            + "WHERE pcq.order_id = :orderId AND pcq.product_id = bpc.product_id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Autowired
+    private ProductionProgressModifyLockHelper progressModifyLockHelper;
+
+    public boolean canCreateInBulk(final Entity order) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        if (Objects.isNull(order.getId()) || Objects.isNull(technology)) {
+            return false;
+        }
+
+        return !jdbcTemplate.queryForObject(CONTAINS_SETS_QUERY, Collections.singletonMap("technologyId", technology.getId()),
+                Boolean.class);
+    }
+
+    public void createProductionCountingQuantitiesAndOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns,
+            final OperationProductComponentWithQuantityContainer productComponentQuantities,
+            final Set<OperationProductComponentHolder> nonComponents) {
+        createProductionCountingOperationRuns(order, operationRuns);
+
+        // planned quantities of orders with locked production progress are rejected by productionCountingQuantity validators
+        if (!progressModifyLockHelper.isLocked(order)) {
+            createProductionCountingQuantities(order, productComponentQuantities, nonComponents);
+        }
+    }
+
+    private void createProductionCountingOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
+        if (operationRuns.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_OPERATION_RUN_QUERY, operationRuns.entrySet().stream()
+                .map(operationRun -> new MapSqlParameterSource().addValue(L_ORDER_ID, order.getId())
+                        .addValue(L_TECHNOLOGY_OPERATION_COMPONENT_ID, operationRun.getKey())
+                        .addValue(L_RUNS, numberService.setScale(operationRun.getValue())))
+                .toArray(SqlParameterSource[]::new));
+    }
+
+    private void createProductionCountingQuantities(final Entity order,
+            final OperationProductComponentWithQuantityContainer productComponentQuantities,
+            final Set<OperationProductComponentHolder> nonComponents) {
+        Map<OperationProductComponentHolder, BigDecimal> quantities = productComponentQuantities.asMap();
+
+        if (quantities.isEmpty()) {
+            return;
+        }
+
+        Map<List<Long>, Integer> parentInputProducts = getParentInputProducts(quantities.keySet());
+        Set<List<Object>> existingRows = getExistingProductionCountingQuantities(order);
+
+        Long finalProductId = getFinalProductId(order);
+        Long rootOperationComponentId = getRootOperationComponentId(order);
+
+        boolean finalProductExists = existingRows.stream().anyMatch(
+                row -> ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue().equals(row.get(3)));
+
+        List<Map<String, Object>> rows = Lists.newArrayList();
+
+        for (Entry<OperationProductComponentHolder, BigDecimal> productComponentQuantity : quantities.entrySet()) {
+            OperationProductComponentHolder operationProductComponentHolder = productComponentQuantity.getKey();
+            BigDecimal plannedQuantity = numberService.setScale(productComponentQuantity.getValue());
+
+            Long technologyOperationComponentId = operationProductComponentHolder.getTechnologyOperationComponentId();
+            Long productId = operationProductComponentHolder.getProductId();
+
+            String role = getRole(operationProductComponentHolder);
+            boolean isNonComponent = nonComponents.contains(operationProductComponentHolder);
+            String typeOfMaterial = getTypeOfMaterial(technologyOperationComponentId, productId, role, isNonComponent,
+                    finalProductId, rootOperationComponentId, parentInputProducts);
+
+            if (!isPlannedQuantityValid(plannedQuantity)
+                    || !existingRows.add(Arrays.<Object> asList(technologyOperationComponentId, productId, role, typeOfMaterial))) {
+                continue;
+            }
+
+            if (ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue().equals(typeOfMaterial)) {
+                if (finalProductExists) {
+                    continue;
+                }
+
+                finalProductExists = true;
+            }
+
+            Map<String, Object> row = Maps.newHashMap();
+
+            row.put(L_ORDER_ID, order.getId());
+            row.put(L_TECHNOLOGY_OPERATION_COMPONENT_ID, technologyOperationComponentId);
+            row.put(L_PRODUCT_ID, productId);
+            row.put(L_BASIC_PRODUCTION_COUNTING_ID, null);
+            row.put(L_ROLE, role);
+            row.put(L_TYPE_OF_MATERIAL, typeOfMaterial);
+            row.put(L_IS_NON_COMPONENT, isNonComponent);
+            row.put(L_PLANNED_QUANTITY, plannedQuantity);
+
+            rows.add(row);
+        }
+
+        fillBasicProductionCountings(order, rows);
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_PRODUCTION_COUNTING_QUANTITY_QUERY,
+                rows.stream().map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new));
+    }
+
+    private String getRole(final OperationProductComponentHolder operationProductComponentHolder) {
+        if (operationProductComponentHolder.isEntityTypeSame(OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT)) {
+            return ProductionCountingQuantityRole.PRODUCED.getStringValue();
+        } else {
+            return ProductionCountingQuantityRole.USED.getStringValue();
+        }
+    }
+
+    private String getTypeOfMaterial(final Long technologyOperationComponentId, final Long productId, final String role,
+            final boolean isNonComponent, final Long finalProductId, final Long rootOperationComponentId,
+            final Map<List<Long>, Integer> parentInputProducts) {
+        if (isNonComponent) {
+            return ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue();
+        } else if (ProductionCountingQuantityRole.PRODUCED.getStringValue().equals(role)) {
+            if (Objects.nonNull(finalProductId) && finalProductId.equals(productId)
+                    && Objects.nonNull(rootOperationComponentId)
+                    && rootOperationComponentId.equals(technologyOperationComponentId)) {
+                return ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue();
+            } else if (parentInputProducts.getOrDefault(Arrays.asList(technologyOperationComponentId, productId), 0) == 1) {
+                return ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue();
+            } else {
+                return ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue();
+            }
+        } else {
+            return ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue();
+        }
+    }
+
+    private boolean isPlannedQuantityValid(final BigDecimal plannedQuantity) {
+        return Objects.nonNull(plannedQuantity) && plannedQuantity.signum() > 0
+                && plannedQuantity.precision() - plannedQuantity.scale() <= L_MAX_UNSCALED_VALUE;
+    }
+
+    private Map<List<Long>, Integer> getParentInputProducts(final Set<OperationProductComponentHolder> holders) {
+        Map<List<Long>, Integer> parentInputProducts = Maps.newHashMap();
+
+        Set<Long> technologyOperationComponentIds = holders.stream()
+                .map(OperationProductComponentHolder::getTechnologyOperationComponentId).filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        if (technologyOperationComponentIds.isEmpty()) {
+            return parentInputProducts;
+        }
+
+        jdbcTemplate.query(PARENT_INPUT_PRODUCTS_QUERY,
+                Collections.singletonMap("technologyOperationComponentIds", technologyOperationComponentIds),
+                (RowCallbackHandler) rs -> parentInputProducts.merge(Arrays.asList(rs.getLong(L_ID), rs.getLong(L_PRODUCT_ID)),
+                        1, Integer::sum));
+
+        return parentInputProducts;
+    }
+
+    private Set<List<Object>> getExistingProductionCountingQuantities(final Entity order) {
+        Set<List<Object>> existingRows = Sets.newHashSet();
+
+        jdbcTemplate.query(EXISTING_PRODUCTION_COUNTING_QUANTITIES_QUERY, Collections.singletonMap("orderId", order.getId()),
+                (RowCallbackHandler) rs -> existingRows.add(Arrays.<Object> asList(
+                        rs.getObject(L_TECHNOLOGY_OPERATION_COMPONENT_ID), rs.getObject(L_PRODUCT_ID),
+                        rs.getString(L_ROLE), rs.getString(L_TYPE_OF_MATERIAL))));
+
+        return existingRows;
+    }
+
+    private Long getFinalProductId(final Entity order) {
+        Entity product = order.getBelongsToField(OrderFields.PRODUCT);
+
+        return Objects.isNull(product) ? null : product.getId();
+    }
+
+    private Long getRootOperationComponentId(final Entity order) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        List<Long> rootIds = jdbcTemplate.queryForList(ROOT_OPERATION_COMPONENT_QUERY,
+                Collections.singletonMap("technologyId", technology.getId()), Long.class);
+
+        return rootIds.isEmpty() ? null : rootIds.get(0);
+    }
+
+    private void fillBasicProductionCountings(final Entity order, final List<Map<String, Object>> rows) {
+        Map<Long, Long> basicProductionCountingIds = getBasicProductionCountingIds(order);
+
+        // the same as productionCountingQuantity onCreate hook - basic production countings are filled only when they exist
+        if (basicProductionCountingIds.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, Object>> rowsToFill = rows.stream().filter(this::shouldFillBasicProductionCounting)
+                .collect(Collectors.toList());
+
+        Set<Long> missingProductIds = rowsToFill.stream().map(row -> (Long) row.get(L_PRODUCT_ID))
+                .filter(productId -> !basicProductionCountingIds.containsKey(productId))
+                .collect(Collectors.toCollection(Sets::newLinkedHashSet));
+
+        basicProductionCountingIds.putAll(insertBasicProductionCountings(order, missingProductIds));
+
+        rowsToFill.forEach(row -> row.put(L_BASIC_PRODUCTION_COUNTING_ID, basicProductionCountingIds.get(row.get(L_PRODUCT_ID))));
+    }
+
+    private boolean shouldFillBasicProductionCounting(final Map<String, Object> row) {
+        return ProductionCountingQuantityRole.USED.getStringValue().equals(row.get(L_ROLE))
+                || ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue().equals(row.get(L_TYPE_OF_MATERIAL));
+    }
+
+    private Map<Long, Long> getBasicProductionCountingIds(final Entity order) {
+        Map<Long, Long> basicProductionCountingIds = Maps.newHashMap();
+
+        jdbcTemplate.query(EXISTING_BASIC_PRODUCTION_COUNTINGS_QUERY, Collections.singletonMap("orderId", order.getId()),
+                (RowCallbackHandler) rs -> basicProductionCountingIds.putIfAbsent(rs.getLong(L_PRODUCT_ID), rs.getLong(L_ID)));
+
+        return basicProductionCountingIds;
+    }
+
+    public void createBasicProductionCountings(final Entity order) {
+        if (!getBasicProductionCountingIds(order).isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("orderId", order.getId());
+        params.put("usedRole", ProductionCountingQuantityRole.USED.getStringValue());
+        params.put("producedRole", ProductionCountingQuantityRole.PRODUCED.getStringValue());
+        params.put("wasteTypeOfMaterial", ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue());
+
+        Set<Long> productIds = Sets.newLinkedHashSet(jdbcTemplate.queryForList(BASIC_PRODUCTION_COUNTING_PRODUCTS_QUERY, params,
+                Long.class));
+
+        productIds.add(getFinalProductId(order));
+
+        insertBasicProductionCountings(order, productIds);
+    }
+
+    private Map<Long, Long> insertBasicProductionCountings(final Entity order, final Set<Long> productIds) {
+        Map<Long, Long> basicProductionCountingIds = Maps.newHashMap();
+
+        if (productIds.isEmpty()) {
+            return basicProductionCountingIds;
+        }
+
+        Iterator<Long> newIds = jdbcTemplate.queryForList(NEXT_BASIC_PRODUCTION_COUNTING_IDS_QUERY,
+                Collections.singletonMap("count", productIds.size()), Long.class).iterator();
+
+        BigDecimal quantity = numberService.setScale(BigDecimal.ZERO);
+
+        List<SqlParameterSource> params = Lists.newArrayList();
+
+        for (Long productId : productIds) {
+            Long id = newIds.next();
+
+            basicProductionCountingIds.put(productId, id);
+
+            params.add(new MapSqlParameterSource().addValue(L_ID, id).addValue(L_ORDER_ID, order.getId())
+                    .addValue(L_PRODUCT_ID, productId).addValue(L_QUANTITY, quantity));
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_BASIC_PRODUCTION_COUNTING_QUERY, params.toArray(new SqlParameterSource[0]));
+
+        return basicProductionCountingIds;
+    }
+
+    public void associateProductionCountingQuantitiesWithBasicProductionCountings(final Entity order) {
+        jdbcTemplate.update(ASSOCIATE_BASIC_PRODUCTION_COUNTINGS_QUERY, Collections.singletonMap("orderId", order.getId()));
+    }
+
+}
@@ -35,6 +35,17 @@ import com.qcadoo.view.api.ViewDefinitionState;
 
 public interface BasicProductionCountingService {
 
+    /**
+     * Creates production counting quantities and operation runs, optionally basic production countings, and associates them,
+     * checking only once whether they can be created in bulk
+     * 
+     * @param order
+     *            order
+     * @param withBasicProductionCountings
+     *            if basic production countings should be created too
+     */
+    void createProductionCounting(final Entity order, final boolean withBasicProductionCountings);
+
     /**
      * Creates production counting quantities
      * 
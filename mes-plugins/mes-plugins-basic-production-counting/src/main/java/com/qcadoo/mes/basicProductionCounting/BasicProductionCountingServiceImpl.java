@@ -82,16 +82,41 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     @Autowired
     private ProductionCountingQuantitySetService productionCountingQuantitySetService;
 
+    @Autowired
+    private BasicProductionCountingBulkService basicProductionCountingBulkService;
+
+    @Override
+    public void createProductionCounting(final Entity order, final boolean withBasicProductionCountings) {
+        boolean createInBulk = basicProductionCountingBulkService.canCreateInBulk(order);
+
+        createProductionCountingQuantitiesAndOperationRuns(order, createInBulk);
+
+        if (withBasicProductionCountings) {
+            createBasicProductionCountings(order, createInBulk);
+        }
+
+        associateProductionCountingQuantitiesWithBasicProductionCountings(order, createInBulk);
+    }
+
     @Override
     public void createProductionCountingQuantitiesAndOperationRuns(final Entity order) {
+        createProductionCountingQuantitiesAndOperationRuns(order, basicProductionCountingBulkService.canCreateInBulk(order));
+    }
+
+    private void createProductionCountingQuantitiesAndOperationRuns(final Entity order, final boolean createInBulk) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
         Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
 
         final OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
                 .getProductComponentWithQuantities(Arrays.asList(order), operationRuns, nonComponents);
 
-        createProductionCountingOperationRuns(order, operationRuns);
-        createProductionCountingQuantities(order, productComponentQuantities, nonComponents);
+        if (createInBulk) {
+            basicProductionCountingBulkService.createProductionCountingQuantitiesAndOperationRuns(order, operationRuns,
+                    productComponentQuantities, nonComponents);
+        } else {
+            createProductionCountingOperationRuns(order, operationRuns);
+            createProductionCountingQuantities(order, productComponentQuantities, nonComponents);
+        }
     }
 
     private void createProductionCountingOperationRuns(final Entity order, final Map<Long, BigDecimal> operationRuns) {
@@ -342,6 +367,16 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     }
 
     public void createBasicProductionCountings(final Entity order) {
+        createBasicProductionCountings(order, basicProductionCountingBulkService.canCreateInBulk(order));
+    }
+
+    private void createBasicProductionCountings(final Entity order, final boolean createInBulk) {
+        if (createInBulk) {
+            basicProductionCountingBulkService.createBasicProductionCountings(order);
+
+            return;
+        }
+
         final List<Entity> basicProductionCountings = getBasicProductionCountingDD().find()
                 .add(SearchRestrictions.belongsTo(BasicProductionCountingFields.ORDER, order)).list().getEntities();
 
@@ -388,6 +423,18 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
     @Override
     public void associateProductionCountingQuantitiesWithBasicProductionCountings(final Entity order) {
+        associateProductionCountingQuantitiesWithBasicProductionCountings(order,
+                basicProductionCountingBulkService.canCreateInBulk(order));
+    }
+
+    private void associateProductionCountingQuantitiesWithBasicProductionCountings(final Entity order,
+            final boolean createInBulk) {
+        if (createInBulk) {
+            basicProductionCountingBulkService.associateProductionCountingQuantitiesWithBasicProductionCountings(order);
+
+            return;
+        }
+
         final List<Entity> basicProductionCountings = order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS).find()
                 .list().getEntities();
 
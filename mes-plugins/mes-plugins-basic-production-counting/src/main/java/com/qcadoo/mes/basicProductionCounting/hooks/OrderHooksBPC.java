@@ -58,8 +58,7 @@ public class OrderHooksBPC {
                 basicProductionCountingService.updateProductionCountingQuantitiesAndOperationRuns(order);
             } else {
                 if (checkIfProductionCountingQuantitiesAndOperationsRunsAreEmpty(order)) {
-                    basicProductionCountingService.createProductionCountingQuantitiesAndOperationRuns(order);
-                    basicProductionCountingService.associateProductionCountingQuantitiesWithBasicProductionCountings(order);
+                    basicProductionCountingService.createProductionCounting(order, false);
                 }
             }
         }
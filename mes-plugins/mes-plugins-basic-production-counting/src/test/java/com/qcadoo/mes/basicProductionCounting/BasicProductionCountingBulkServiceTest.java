@@ -0,0 +1,260 @@
+package com.qcadoo.mes.basicProductionCounting;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
+import com.qcadoo.mes.basicProductionCounting.hooks.util.ProductionProgressModifyLockHelper;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+public class BasicProductionCountingBulkServiceTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_TECHNOLOGY_ID = 2L;
+
+    private static final Long L_ROOT_ID = 10L;
+
+    private static final Long L_CHILD_ID = 11L;
+
+    private static final Long L_FINAL_PRODUCT_ID = 100L;
+
+    private static final String L_INSERT_PRODUCTION_COUNTING_QUANTITY = "INSERT INTO basicproductioncounting_productioncountingquantity";
+
+    private BasicProductionCountingBulkService basicProductionCountingBulkService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductionProgressModifyLockHelper progressModifyLockHelper;
+
+    @Mock
+    private Entity order, technology, product;
+
+    private List<List<Long>> parentInputProducts;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        basicProductionCountingBulkService = new BasicProductionCountingBulkService();
+
+        ReflectionTestUtils.setField(basicProductionCountingBulkService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(basicProductionCountingBulkService, "numberService", numberService);
+        ReflectionTestUtils.setField(basicProductionCountingBulkService, "progressModifyLockHelper", progressModifyLockHelper);
+
+        given(order.getId()).willReturn(L_ORDER_ID);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technology);
+        given(order.getBelongsToField(OrderFields.PRODUCT)).willReturn(product);
+        given(technology.getId()).willReturn(L_TECHNOLOGY_ID);
+        given(product.getId()).willReturn(L_FINAL_PRODUCT_ID);
+
+        given(numberService.setScale(any(BigDecimal.class))).willAnswer(invocation -> invocation.getArguments()[0]);
+        given(jdbcTemplate.queryForList(startsWith("SELECT id FROM technologies_technologyoperationcomponent"), anyMap(),
+                eq(Long.class))).willReturn(Lists.newArrayList(L_ROOT_ID));
+
+        parentInputProducts = Lists.newArrayList();
+
+        willAnswer(invocation -> {
+            for (List<Long> parentInputProduct : parentInputProducts) {
+                ResultSet rs = mock(ResultSet.class);
+
+                given(rs.getLong("id")).willReturn(parentInputProduct.get(0));
+                given(rs.getLong("product_id")).willReturn(parentInputProduct.get(1));
+
+                ((RowCallbackHandler) invocation.getArguments()[2]).processRow(rs);
+            }
+
+            return null;
+        }).given(jdbcTemplate).query(startsWith("SELECT toc.id, opic.product_id"), anyMap(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public void shouldResolveTypeOfMaterialFromIndexOfParentInputProducts() {
+        // given
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+
+        quantities.put(out(L_FINAL_PRODUCT_ID, L_ROOT_ID), BigDecimal.ONE);
+        quantities.put(out(201L, L_CHILD_ID), BigDecimal.ONE);
+        quantities.put(out(202L, L_CHILD_ID), BigDecimal.ONE);
+        quantities.put(in(300L, L_CHILD_ID), BigDecimal.ONE);
+
+        parentInputProducts.add(Arrays.asList(L_CHILD_ID, 201L));
+
+        // when
+        basicProductionCountingBulkService.createProductionCountingQuantitiesAndOperationRuns(order, Maps.newHashMap(),
+                quantities, Sets.newHashSet());
+
+        // then
+        Map<Long, String> typesOfMaterial = getInsertedTypesOfMaterial();
+
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue(),
+                typesOfMaterial.get(L_FINAL_PRODUCT_ID));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue(), typesOfMaterial.get(201L));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue(), typesOfMaterial.get(202L));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue(), typesOfMaterial.get(300L));
+    }
+
+    @Test
+    public void shouldSkipRowsWithoutPositivePlannedQuantity() {
+        // given
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+
+        quantities.put(in(300L, L_CHILD_ID), BigDecimal.ZERO);
+        quantities.put(in(301L, L_CHILD_ID), BigDecimal.TEN);
+
+        // when
+        basicProductionCountingBulkService.createProductionCountingQuantitiesAndOperationRuns(order, Maps.newHashMap(),
+                quantities, Sets.newHashSet());
+
+        // then
+        assertEquals(Sets.newHashSet(301L), getInsertedTypesOfMaterial().keySet());
+    }
+
+    @Test
+    public void shouldNotCreateProductionCountingQuantitiesWhenProductionProgressIsLocked() {
+        // given
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+
+        quantities.put(in(300L, L_CHILD_ID), BigDecimal.TEN);
+
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        operationRuns.put(L_CHILD_ID, BigDecimal.ONE);
+
+        given(progressModifyLockHelper.isLocked(order)).willReturn(true);
+
+        // when
+        basicProductionCountingBulkService.createProductionCountingQuantitiesAndOperationRuns(order, operationRuns, quantities,
+                Sets.newHashSet());
+
+        // then
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO basicproductioncounting_productioncountingoperationrun"),
+                any(SqlParameterSource[].class));
+        verify(jdbcTemplate, never()).batchUpdate(startsWith(L_INSERT_PRODUCTION_COUNTING_QUANTITY),
+                any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldCreateRowsOfLargeTechnologyWithConstantNumberOfStatements() {
+        // given
+        int operationsCount = 80;
+        int componentsCount = 500;
+
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        quantities.put(out(L_FINAL_PRODUCT_ID, L_ROOT_ID), BigDecimal.TEN);
+        operationRuns.put(L_ROOT_ID, BigDecimal.TEN);
+
+        for (long operation = 1; operation < operationsCount; operation++) {
+            Long technologyOperationComponentId = L_ROOT_ID + operation;
+            Long parentId = technologyOperationComponentId - 1;
+            Long intermediateId = 1000L + operation;
+
+            quantities.put(out(intermediateId, technologyOperationComponentId), BigDecimal.TEN);
+            quantities.put(in(intermediateId, parentId), BigDecimal.TEN);
+            nonComponents.add(in(intermediateId, parentId));
+            operationRuns.put(technologyOperationComponentId, BigDecimal.TEN);
+            parentInputProducts.add(Arrays.asList(technologyOperationComponentId, intermediateId));
+        }
+
+        for (long component = 0; component < componentsCount; component++) {
+            quantities.put(in(5000L + component, L_ROOT_ID + component % operationsCount), BigDecimal.ONE);
+        }
+
+        // when
+        basicProductionCountingBulkService.createProductionCountingQuantitiesAndOperationRuns(order, operationRuns, quantities,
+                nonComponents);
+
+        // then
+        Map<Long, String> typesOfMaterial = getInsertedTypesOfMaterial();
+
+        assertEquals(1 + componentsCount + operationsCount - 1, typesOfMaterial.size());
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue(),
+                typesOfMaterial.get(L_FINAL_PRODUCT_ID));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue(), typesOfMaterial.get(1001L));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.INTERMEDIATE.getStringValue(),
+                typesOfMaterial.get(1000L + operationsCount - 1));
+        assertEquals(ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue(),
+                typesOfMaterial.get(5000L + componentsCount - 1));
+
+        verify(jdbcTemplate, times(3)).query(any(String.class), anyMap(), any(RowCallbackHandler.class));
+        verify(jdbcTemplate, times(1)).queryForList(any(String.class), anyMap(), eq(Long.class));
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith("INSERT INTO basicproductioncounting_productioncountingoperationrun"),
+                any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldAssociateBasicProductionCountingsWithOneUpdate() {
+        // when
+        basicProductionCountingBulkService.associateProductionCountingQuantitiesWithBasicProductionCountings(order);
+
+        // then
+        verify(jdbcTemplate, times(1)).update(startsWith("UPDATE basicproductioncounting_productioncountingquantity"), anyMap());
+    }
+
+    private Map<Long, String> getInsertedTypesOfMaterial() {
+        ArgumentCaptor<SqlParameterSource[]> rows = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith(L_INSERT_PRODUCTION_COUNTING_QUANTITY), rows.capture());
+
+        Map<Long, String> typesOfMaterial = Maps.newHashMap();
+
+        for (SqlParameterSource row : rows.getValue()) {
+            typesOfMaterial.put((Long) row.getValue("product_id"), (String) row.getValue("typeofmaterial"));
+        }
+
+        return typesOfMaterial;
+    }
+
+    private OperationProductComponentHolder in(final Long productId, final Long technologyOperationComponentId) {
+        return new OperationProductComponentHolder(productId, technologyOperationComponentId, null, null,
+                OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+    }
+
+    private OperationProductComponentHolder out(final Long productId, final Long technologyOperationComponentId) {
+        return new OperationProductComponentHolder(productId, technologyOperationComponentId, null, null,
+                OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT);
+    }
+
+}
@@ -23,18 +23,79 @@
  */
 package com.qcadoo.mes.basicProductionCounting;
 
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anySet;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
 import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.Entity;
 
 public class BasicProductionCountingServiceTest {
 
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private BasicProductionCountingBulkService basicProductionCountingBulkService;
+
+    @Mock
+    private Entity order;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
 
         basicProductionCountingService = new BasicProductionCountingServiceImpl();
+
+        ReflectionTestUtils.setField(basicProductionCountingService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(basicProductionCountingService, "basicProductionCountingBulkService",
+                basicProductionCountingBulkService);
+
+        given(productQuantitiesService.getProductComponentWithQuantities(anyList(), anyMap(), anySet())).willReturn(
+                new OperationProductComponentWithQuantityContainer());
+        given(basicProductionCountingBulkService.canCreateInBulk(order)).willReturn(true);
+    }
+
+    @Test
+    public void shouldCheckIfProductionCountingCanBeCreatedInBulkOncePerOrder() {
+        // given
+
+        // when
+        basicProductionCountingService.createProductionCounting(order, true);
+
+        // then
+        verify(basicProductionCountingBulkService, times(1)).canCreateInBulk(order);
+        verify(basicProductionCountingBulkService).createProductionCountingQuantitiesAndOperationRuns(eq(order), anyMap(),
+                eq(new OperationProductComponentWithQuantityContainer()), anySet());
+        verify(basicProductionCountingBulkService).createBasicProductionCountings(order);
+        verify(basicProductionCountingBulkService).associateProductionCountingQuantitiesWithBasicProductionCountings(order);
+    }
+
+    @Test
+    public void shouldSkipBasicProductionCountingsWhenNotRequested() {
+        // given
+
+        // when
+        basicProductionCountingService.createProductionCounting(order, false);
+
+        // then
+        verify(basicProductionCountingBulkService, times(1)).canCreateInBulk(order);
+        verify(basicProductionCountingBulkService, never()).createBasicProductionCountings(order);
+        verify(basicProductionCountingBulkService).associateProductionCountingQuantitiesWithBasicProductionCountings(order);
     }
 
 }
@@ -0,0 +1,45 @@
+package com.qcadoo.mes.basic;
+
+/**
+ * Last row of previously loaded grid page, used to seek the next page instead of skipping rows with OFFSET.
+ */
+public class GridKeyset {
+
+    private Integer lastPage;
+    private Long lastId;
+    private String lastValue;
+
+    public GridKeyset() {
+    }
+
+    public GridKeyset(Integer lastPage, Long lastId, String lastValue) {
+        this.lastPage = lastPage;
+        this.lastId = lastId;
+        this.lastValue = lastValue;
+    }
+
+    public Integer getLastPage() {
+        return lastPage;
+    }
+
+    public void setLastPage(Integer lastPage) {
+        this.lastPage = lastPage;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public String getLastValue() {
+        return lastValue;
+    }
+
+    public void setLastValue(String lastValue) {
+        this.lastValue = lastValue;
+    }
+
+}
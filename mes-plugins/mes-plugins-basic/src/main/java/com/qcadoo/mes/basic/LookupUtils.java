@@ -1,6 +1,7 @@
 package com.qcadoo.mes.basic;
 
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -19,6 +20,12 @@ import com.google.common.base.Preconditions;
 @Service
 public class LookupUtils {
 
+    private static final String L_ID = "id";
+
+    private static final String L_KEYSET_ID = "keysetId";
+
+    private static final String L_KEYSET_VALUE = "keysetValue";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -46,6 +53,108 @@ public class LookupUtils {
         return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
     }
 
+    /**
+     * Gets grid response ordered by sort column and id.
+     *
+     * Next page is sought after the last row of previous page, when keyset of that page is given and sort column is a number
+     * or a string, otherwise rows are skipped with OFFSET. Count query is used when no filter is set, so it can count only the
+     * base table instead of the whole joined query.
+     */
+    public <R> GridResponse<R> getGridResponse(String query, String countQuery, String sidx, String sord, Integer page,
+            int perPage, R recordExample, Map<String, Object> parameters, GridKeyset keyset) {
+        sidx = sidx != null ? sidx.toLowerCase() : "";
+        sord = sord != null ? sord.toLowerCase() : "";
+
+        Preconditions.checkState(Arrays.asList("asc", "desc", "").contains(sord));
+
+        Map<String, Field> fields = Arrays.stream(recordExample.getClass().getDeclaredFields())
+                .collect(Collectors.toMap(field -> field.getName().toLowerCase(), field -> field));
+
+        Preconditions.checkState(fields.containsKey(sidx));
+        Preconditions.checkState(fields.containsKey(L_ID));
+
+        String where = addQueryWhereForObject(recordExample);
+
+        parameters.putAll(getParametersForObject(recordExample));
+
+        Integer countRecords;
+
+        if (where.isEmpty()) {
+            countRecords = jdbcTemplate.queryForObject(countQuery, parameters, Long.class).intValue();
+        } else {
+            countRecords = jdbcTemplate.queryForObject(String.format(query + where, "COUNT(*)", ""), parameters, Long.class)
+                    .intValue();
+        }
+
+        boolean descending = "desc".equals(sord);
+        String orderBy = "ORDER BY " + sidx + " " + sord + (L_ID.equals(sidx) ? "" : ", " + L_ID + " " + sord);
+        String seekCondition = getSeekCondition(sidx, descending, fields.get(sidx), page, keyset, parameters);
+
+        String queryRecords;
+
+        if (seekCondition == null) {
+            queryRecords = String.format(query + where, "*", "") + " " + orderBy
+                    + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
+        } else {
+            queryRecords = String.format(query + where + (where.isEmpty() ? " WHERE " : " AND ") + seekCondition, "*", "") + " "
+                    + orderBy + String.format(" LIMIT %d", perPage);
+        }
+
+        List<R> records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+
+        return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
+    }
+
+    private String getSeekCondition(String sidx, boolean descending, Field sortField, Integer page, GridKeyset keyset,
+            Map<String, Object> parameters) {
+        if (keyset == null || keyset.getLastId() == null || keyset.getLastPage() == null
+                || keyset.getLastPage() != page - 1) {
+            return null;
+        }
+
+        String operator = descending ? "<" : ">";
+
+        parameters.put(L_KEYSET_ID, keyset.getLastId());
+
+        if (L_ID.equals(sidx)) {
+            return String.format("%s %s :%s", L_ID, operator, L_KEYSET_ID);
+        }
+
+        Object lastValue = getKeysetValue(sortField.getType(), keyset.getLastValue());
+
+        if (lastValue == null) {
+            return null;
+        }
+
+        parameters.put(L_KEYSET_VALUE, lastValue);
+
+        // nulls are sorted last in ascending order and first in descending order
+        return String.format("(%1$s %2$s :%3$s OR (%1$s = :%3$s AND %4$s %2$s :%5$s)%6$s)", sidx, operator, L_KEYSET_VALUE, L_ID,
+                L_KEYSET_ID, descending ? "" : " OR " + sidx + " IS NULL");
+    }
+
+    private Object getKeysetValue(Class<?> type, String lastValue) {
+        if (lastValue == null || lastValue.isEmpty()) {
+            return null;
+        }
+
+        try {
+            if (String.class.equals(type)) {
+                return lastValue;
+            } else if (Long.class.equals(type)) {
+                return Long.valueOf(lastValue);
+            } else if (Integer.class.equals(type)) {
+                return Integer.valueOf(lastValue);
+            } else if (BigDecimal.class.equals(type)) {
+                return new BigDecimal(lastValue);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        return null;
+    }
+
     private String addQueryWhereForObject(Object object) {
         List<String> items = new ArrayList<>();
 
@@ -33,10 +33,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
@@ -51,10 +49,11 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.constants.BasicConstants;
-import com.qcadoo.mes.basic.constants.ShiftFields;
-import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftTimetableException;
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -93,14 +92,14 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String FROM_DATE_FIELD = "fromDate";
 
-    private static final long STEP = DateTimeConstants.MILLIS_PER_WEEK;
-
-    private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0, 0, 0).toDate().getTime();
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
 
-    private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0, 0, 0).toDate().getTime();
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
 
     @Autowired
-    private DataDefinitionService dataDefinitionService;
+    private ShiftsDataProvider shiftsDataProvider;
 
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
@@ -203,18 +202,14 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private List<Interval> manageExceptions(List<Interval> shiftWorkTimes, final Shift shift, final DateTime currentDate,
             final DateTime baseDate) {
-        List<Entity> exceptions = shift.getEntity().getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS).stream()
-                .filter(exception -> new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE))
-                        .compareTo(currentDate.toLocalDate()) >= 0
-                        && new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE))
-                                .compareTo(currentDate.toLocalDate()) <= 0)
-                .collect(Collectors.toList());
+        LocalDate day = currentDate.toLocalDate();
+        List<ShiftTimetableException> exceptions = shift.findTimetableExceptions(day.toDateTimeAtStartOfDay().toDate(), day
+                .plusDays(1).toDateTimeAtStartOfDay().minusMillis(1).toDate());
         List<Interval> updatedWorkTimes = Lists.newArrayList(shiftWorkTimes);
-        for (Entity exception : exceptions) {
-            DateTime dateFrom = new DateTime(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
-            DateTime dateTo = new DateTime(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE));
-            if (exception.getStringField(ShiftTimetableExceptionFields.TYPE)
-                    .equals(TimetableExceptionType.WORK_TIME.getStringValue())) {
+        for (ShiftTimetableException exception : exceptions) {
+            DateTime dateFrom = new DateTime(exception.getFromDate());
+            DateTime dateTo = new DateTime(exception.getToDate());
+            if (TimetableExceptionType.WORK_TIME == exception.getType()) {
                 if (dateFrom.isBefore(baseDate)) {
                     dateFrom = baseDate;
                 }
@@ -228,11 +223,10 @@ public class ShiftsServiceImpl implements ShiftsService {
             }
         }
         List<Interval> finalWorkTimes = Lists.newArrayList(updatedWorkTimes);
-        for (Entity exception : exceptions) {
-            DateTime dateFrom = new DateTime(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
-            DateTime dateTo = new DateTime(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE));
-            if (exception.getStringField(ShiftTimetableExceptionFields.TYPE)
-                    .equals(TimetableExceptionType.FREE_TIME.getStringValue())) {
+        for (ShiftTimetableException exception : exceptions) {
+            DateTime dateFrom = new DateTime(exception.getFromDate());
+            DateTime dateTo = new DateTime(exception.getToDate());
+            if (TimetableExceptionType.FREE_TIME == exception.getType()) {
 
                 for (Interval workTime : updatedWorkTimes) {
                     DateTime workTimeFrom = workTime.getStart();
@@ -288,11 +282,8 @@ public class ShiftsServiceImpl implements ShiftsService {
                 return true;
             }
         }
-        List<Entity> exceptions = shift.getEntity().getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
-        return exceptions.stream()
-                .anyMatch(exception -> exception.getStringField(ShiftTimetableExceptionFields.TYPE)
-                        .equals(TimetableExceptionType.WORK_TIME.getStringValue())
-                        && exception.getDateField(ShiftTimetableExceptionFields.TO_DATE).compareTo(date.toDate()) >= 0);
+        return shift.findTimetableExceptions(TimetableExceptionType.WORK_TIME).stream()
+                .anyMatch(workTime -> workTime.getTo().compareTo(date.toDate()) >= 0);
     }
 
     private DateTime convertToDateTime(final DateTime currentDate, final LocalTime time) {
@@ -326,7 +317,7 @@ public class ShiftsServiceImpl implements ShiftsService {
 
             @Override
             public Shift apply(final Entity shiftEntity) {
-                return new Shift(shiftEntity);
+                return shiftsDataProvider.getShift(shiftEntity);
             }
         }).toList();
     }
@@ -403,55 +394,12 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForOrder(final Date dateFrom, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
-        }
-        long start = dateFrom.getTime();
-        long remaining = seconds;
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(start), new Date(start + STEP));
-            for (ShiftsServiceImpl.ShiftHour hour : hours) {
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-                if (diff >= remaining) {
-                    return new Date(hour.getDateFrom().getTime() + (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
-            start += STEP;
-            if (start > MAX_TIMESTAMP) {
-                return null;
-            }
-        }
-        return null;
+        return workingTimeCalendarService.getCalendar().findDateAfterWorkingSeconds(dateFrom, seconds).orElse(null);
     }
 
     @Override
     public Date findDateFromForOrder(final Date dateTo, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
-            return null;
-        }
-        long stop = dateTo.getTime();
-        long remaining = seconds;
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(stop - STEP), new Date(stop));
-            for (int i = hours.size() - 1; i >= 0; i--) {
-                ShiftsServiceImpl.ShiftHour hour = hours.get(i);
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-                if (diff >= remaining) {
-                    return new Date(hour.getDateTo().getTime() - (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
-            stop -= STEP;
-            if (stop < MIN_TIMESTAMP) {
-                return null;
-            }
-        }
-        return null;
+        return workingTimeCalendarService.getCalendar().findDateBeforeWorkingSeconds(dateTo, seconds).orElse(null);
     }
 
     @Override
@@ -10,10 +10,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
@@ -36,77 +34,65 @@ public class DataProvider {
 
     private String prepareProductsQuery() {
         return "SELECT product.id AS id, product.number AS code, product.number AS number, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query ;";
+                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query";
     }
 
-    private String prepareProductsQueryWithLimit(int limit) {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query LIMIT " + limit + ";";
-    }
-
-    private String prepareAdditionalCodeQuery(final String productnumber) {
-        String productNumberCondition = Strings.isNullOrEmpty(productnumber) ? ""
-                : "AND product.number = '" + productnumber + "'";
-
-        return "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
-                + "FROM basic_additionalcode additionalcode "
-                + "JOIN basic_product product ON (additionalcode.product_id = product.id " + productNumberCondition + ")"
-                + "WHERE additionalcode.code ilike :query;";
-    }
-
-    private String prepareAdditionalCodeQueryWithLimit(int limit) {
+    private String prepareAdditionalCodeQuery() {
         return "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
                 + "FROM basic_additionalcode additionalcode "
                 + "JOIN basic_product product ON (additionalcode.product_id = product.id AND (product.number = :productnumber OR COALESCE(:productnumber,'')='' ))"
-                + "WHERE additionalcode.code ilike :query LIMIT " + limit + ";";
+                + "WHERE additionalcode.code ilike :query";
     }
 
     private String preparePalletNumbersQuery() {
         return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
-                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query;";
+                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query";
     }
 
-    private String preparePalletNumbersQueryWithLimit(int limit) {
-        return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
-                + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true AND palletnumber.number ilike :query LIMIT "
-                + limit + ";";
+    public DataResponse getProductsResponseByQuery(final String query) {
+        return getDataResponse(query, prepareProductsQuery(), ProductDTO.class, Maps.newHashMap());
     }
 
-    private int countQueryResults(final String preparedQuery, final String query, final Map<String, Object> paramMap) {
-        String countQuery = "SELECT count(*) AS cnt FROM (" + preparedQuery.replace(";", "") + ") sq;";
+    public DataResponse getAdditionalCodesResponseByQuery(final String query, final String productnumber) {
+        Map<String, Object> paramMap = Maps.newHashMap();
 
-        paramMap.put("query", "%" + query + "%");
+        paramMap.put("productnumber", productnumber);
 
-        return jdbcTemplate.queryForObject(countQuery, paramMap, Integer.class);
+        return getDataResponse(query, prepareAdditionalCodeQuery(), AdditionalCodeDTO.class, paramMap);
     }
 
-    public DataResponse getProductsResponseByQuery(final String query) {
-        return getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap());
+    public DataResponse getPalletNumbersResponseByQuery(final String query) {
+        return getDataResponse(query, preparePalletNumbersQuery(), PalletNumberDTO.class, Maps.newHashMap());
     }
 
-    public DataResponse getAdditionalCodesResponseByQuery(final String query, final String productnumber) {
-        return getDataResponse(query, prepareAdditionalCodeQuery(productnumber), getAdditionalCodesByQuery(query, productnumber),
-                Maps.newHashMap());
+    public DataResponse getDataResponse(final String query, final String preparedQuery,
+            final Class<? extends AbstractDTO> dtoClass, final Map<String, Object> paramMap) {
+        return getDataResponse(query, preparedQuery, dtoClass, paramMap, true);
     }
 
-    public DataResponse getPalletNumbersResponseByQuery(final String query) {
-        return getDataResponse(query, preparePalletNumbersQuery(), getPalletNumbersByQuery(query), Maps.newHashMap());
-    }
+    /**
+     * Runs lookup query with :query parameter bound to the given query wrapped in wildcards.
+     *
+     * When results are limited, at most MAX_RESULTS + 1 rows are fetched, so too many results are detected with the lookup
+     * query itself, without counting all matching rows. In that case entities are empty and number of results is MAX_RESULTS.
+     */
+    public DataResponse getDataResponse(final String query, final String preparedQuery,
+            final Class<? extends AbstractDTO> dtoClass, final Map<String, Object> paramMap, final boolean shouldCheckMaxResults) {
+        String lookupQuery = preparedQuery.replace(";", "");
 
-    public DataResponse getDataResponse(final String query, final String preparedQuery, final List<AbstractDTO> entities,
-            final Map<String, Object> paramMap) {
-        return getDataResponse(query, preparedQuery, entities, paramMap, true);
-    }
+        if (shouldCheckMaxResults) {
+            lookupQuery = lookupQuery + " LIMIT " + (MAX_RESULTS + 1);
+        }
+
+        paramMap.put("query", "%" + query + "%");
 
-    public DataResponse getDataResponse(final String query, final String preparedQuery, final List<AbstractDTO> entities,
-            Map<String, Object> paramMap, boolean shouldCheckMaxResults) {
-        int numberOfResults = countQueryResults(preparedQuery, query, paramMap);
+        List<AbstractDTO> entities = jdbcTemplate.query(lookupQuery, paramMap, new BeanPropertyRowMapper(dtoClass));
 
-        if (shouldCheckMaxResults && (numberOfResults > MAX_RESULTS)) {
-            return new DataResponse(Lists.newArrayList(), numberOfResults);
+        if (shouldCheckMaxResults && (entities.size() > MAX_RESULTS)) {
+            return new DataResponse(Lists.newArrayList(), MAX_RESULTS);
         }
 
-        return new DataResponse(entities, numberOfResults);
+        return new DataResponse(entities, entities.size());
     }
 
     public List<ProductDTO> getAllProducts(final String sidx, final String sord) {
@@ -120,20 +106,6 @@ public class DataProvider {
         return products;
     }
 
-    public List<AbstractDTO> getProductsByQuery(final String query) {
-        String _query = prepareProductsQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        parameters.put("query", "%" + query + "%");
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
-
-        List<AbstractDTO> products = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(ProductDTO.class));
-
-        return products;
-    }
-
     public List<AdditionalCodeDTO> getAllAdditionalCodes(final String sidx, final String sord) {
         // TODO sort
         String _query = "SELECT additionalcode.id AS id, additionalcode.code AS code, product.number AS productnumber "
@@ -146,21 +118,6 @@ public class DataProvider {
         return codes;
     }
 
-    public List<AbstractDTO> getAdditionalCodesByQuery(final String query, final String productnumber) {
-        String _query = prepareAdditionalCodeQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        parameters.put("query", "%" + query + "%");
-        parameters.put("productnumber", productnumber);
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
-
-        List<AbstractDTO> codes = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(AdditionalCodeDTO.class));
-
-        return codes;
-    }
-
     public List<PalletNumberDTO> getAllPalletNumbers(final String sidx, final String sord) {
         String _query = "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
                 + "FROM basic_palletnumber palletnumber WHERE palletnumber.active = true;";
@@ -171,20 +128,6 @@ public class DataProvider {
         return pallets;
     }
 
-    public List<AbstractDTO> getPalletNumbersByQuery(final String query) {
-        String _query = preparePalletNumbersQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        parameters.put("query", "%" + query + "%");
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
-
-        List<AbstractDTO> pallets = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(PalletNumberDTO.class));
-
-        return pallets;
-    }
-
     public List<Map<String, String>> getUnits() {
         return dictionaryService.getKeys("units").stream().map(unit -> {
             Map<String, String> type = Maps.newHashMap();
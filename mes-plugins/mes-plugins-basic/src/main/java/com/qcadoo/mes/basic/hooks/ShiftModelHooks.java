@@ -0,0 +1,32 @@
+package com.qcadoo.mes.basic.hooks;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class ShiftModelHooks {
+
+    @Autowired
+    private ShiftsDataProvider shiftsDataProvider;
+
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
+    public void onSave(final DataDefinition dataDefinition, final Entity entity) {
+        shiftsDataProvider.invalidate();
+        workingTimeCalendarService.invalidate();
+    }
+
+    public boolean onDelete(final DataDefinition dataDefinition, final Entity entity) {
+        shiftsDataProvider.invalidate();
+        workingTimeCalendarService.invalidate();
+
+        return true;
+    }
+
+}
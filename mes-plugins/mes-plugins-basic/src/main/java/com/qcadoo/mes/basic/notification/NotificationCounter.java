@@ -0,0 +1,96 @@
+package com.qcadoo.mes.basic.notification;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In memory counts of entities shown in notifications, so notification components don't have to query the database on each
+ * notification poll.
+ *
+ * Counts are changed from model hooks and periodically replaced with counts loaded by one aggregated query, which corrects
+ * changes made outside of the hooks. Changes made in a transaction are applied after it commits.
+ *
+ * @param <K>
+ *            type of the key entities are counted by
+ */
+public class NotificationCounter<K> {
+
+    private volatile ConcurrentMap<K, AtomicLong> counts;
+
+    public boolean isLoaded() {
+        return counts != null;
+    }
+
+    public void load(final Map<K, Long> loadedCounts) {
+        ConcurrentMap<K, AtomicLong> newCounts = new ConcurrentHashMap<>();
+
+        loadedCounts.forEach((key, count) -> newCounts.put(key, new AtomicLong(count)));
+
+        counts = newCounts;
+    }
+
+    public void increment(final K key) {
+        add(key, 1);
+    }
+
+    public void decrement(final K key) {
+        add(key, -1);
+    }
+
+    public long get(final K key) {
+        ConcurrentMap<K, AtomicLong> current = counts;
+
+        if (current == null) {
+            return 0;
+        }
+
+        AtomicLong count = current.get(key);
+
+        return count == null ? 0 : Math.max(count.get(), 0);
+    }
+
+    public long sum() {
+        return sum(key -> true);
+    }
+
+    public long sum(final Predicate<K> keyFilter) {
+        ConcurrentMap<K, AtomicLong> current = counts;
+
+        if (current == null) {
+            return 0;
+        }
+
+        return current.entrySet().stream().filter(entry -> keyFilter.test(entry.getKey()))
+                .mapToLong(entry -> Math.max(entry.getValue().get(), 0)).sum();
+    }
+
+    private void add(final K key, final long delta) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    apply(key, delta);
+                }
+
+            });
+        } else {
+            apply(key, delta);
+        }
+    }
+
+    private void apply(final K key, final long delta) {
+        ConcurrentMap<K, AtomicLong> current = counts;
+
+        if (current != null) {
+            current.computeIfAbsent(key, k -> new AtomicLong()).addAndGet(delta);
+        }
+    }
+
+}
@@ -31,6 +31,9 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 @Component
@@ -48,15 +51,33 @@ class AssortmentCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity assortment = getAssortmentDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq("name", cellValue))
-                .uniqueResult();
-        if (null != assortment) {
-            valueConsumer.accept(assortment);
+    public void prefetch(Collection<String> cellValues, LookupCache lookupCache) {
+        lookupCache.prefetch(BasicConstants.MODEL_ASSORTMENT, cellValues, "name", this::findAssortments);
+    }
+
+    @Override
+    public void parse(String cellValue, LookupCache lookupCache, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Optional<Entity> assortment = lookupCache.find(BasicConstants.MODEL_ASSORTMENT, cellValue, this::findAssortment);
+        if (assortment.isPresent()) {
+            valueConsumer.accept(assortment.get());
         } else {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
     }
+
+    private List<Entity> findAssortments(Collection<String> names) {
+        return getAssortmentDataDefinition()
+                .find()
+                .add(SearchRestrictions.in("name", names))
+                .list()
+                .getEntities();
+    }
+
+    private Entity findAssortment(String name) {
+        return getAssortmentDataDefinition()
+                .find()
+                .add(SearchRestrictions.eq("name", name))
+                .uniqueResult();
+    }
 }
@@ -23,8 +23,14 @@
  */
 package com.qcadoo.mes.basic.product.importing;
 
+import java.util.Collection;
 import java.util.function.Consumer;
 
 interface CellParser {
-    void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer);
+    void parse(String cellValue, LookupCache lookupCache, BindingErrorsAccessor errorsAccessor,
+               Consumer<Object> valueConsumer);
+
+    default void prefetch(Collection<String> cellValues, LookupCache lookupCache) {
+        // nothing to look up
+    }
 }
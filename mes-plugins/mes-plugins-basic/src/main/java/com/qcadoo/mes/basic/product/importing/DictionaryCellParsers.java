@@ -28,6 +28,8 @@ import com.qcadoo.model.api.Entity;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 import static com.qcadoo.model.api.search.SearchRestrictions.*;
@@ -54,33 +56,51 @@ class DictionaryCellParsers {
 
         private final String dictionaryName;
 
+        private final String lookupName;
+
         private DictionaryParser(String dictionaryName) {
             this.dictionaryName = dictionaryName;
+            this.lookupName = "dictionary." + dictionaryName;
+        }
+
+        @Override
+        public void prefetch(Collection<String> cellValues, LookupCache lookupCache) {
+            Entity dictionary = getProductCategoryDictionary(lookupCache).orElse(null);
+
+            lookupCache.prefetch(lookupName, cellValues, "name", names -> dataDefinitionService
+                    .get("qcadooModel", "dictionaryItem")
+                    .find()
+                    .add(and(in("name", names), belongsTo("dictionary", dictionary)))
+                    .list()
+                    .getEntities());
         }
 
         @Override
-        public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-            Entity categoryItem = dataDefinitionService
+        public void parse(String cellValue, LookupCache lookupCache, BindingErrorsAccessor errorsAccessor,
+                          Consumer<Object> valueConsumer) {
+            Entity dictionary = getProductCategoryDictionary(lookupCache).orElse(null);
+
+            Optional<Entity> categoryItem = lookupCache.find(lookupName, cellValue, name -> dataDefinitionService
                     .get("qcadooModel", "dictionaryItem")
                     .find()
-                    .add(and(eq("name", cellValue), belongsTo("dictionary", getProductCategoryDictionary())))
-                    .uniqueResult();
-            if (null == categoryItem) {
+                    .add(and(eq("name", name), belongsTo("dictionary", dictionary)))
+                    .uniqueResult());
+            if (!categoryItem.isPresent()) {
                 errorsAccessor.addError("qcadooView.validate.field.error.invalidDictionaryItem");
-            } else if (!categoryItem.isActive()) {
+            } else if (!categoryItem.get().isActive()) {
                 errorsAccessor.addError("basic.productsImport.error.field.inactiveDictionaryItem");
             } else {
                 valueConsumer.accept(cellValue);
             }
         }
 
-        private Entity getProductCategoryDictionary() {
-            return dataDefinitionService
+        private Optional<Entity> getProductCategoryDictionary(LookupCache lookupCache) {
+            return lookupCache.find("dictionary", dictionaryName, name -> dataDefinitionService
                     .get("qcadooModel", "dictionary")
                     .find()
-                    .add(eq("name", dictionaryName))
+                    .add(eq("name", name))
                     .setMaxResults(1)
-                    .uniqueResult();
+                    .uniqueResult());
         }
 
     }
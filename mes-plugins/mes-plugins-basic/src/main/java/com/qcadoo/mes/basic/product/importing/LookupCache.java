@@ -0,0 +1,57 @@
+package com.qcadoo.mes.basic.product.importing;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Entities looked up by cell values during one import, so every distinct value is resolved once instead of once per row.
+ */
+final class LookupCache {
+
+    private final Map<String, Map<String, Optional<Entity>>> lookups = Maps.newHashMap();
+
+    Optional<Entity> find(final String lookupName, final String key, final Function<String, Entity> finder) {
+        return getLookup(lookupName).computeIfAbsent(key, k -> Optional.ofNullable(finder.apply(k)));
+    }
+
+    /**
+     * Resolves all values not looked up yet with one query. Values matching more than one entity are left for
+     * {@link #find(String, String, Function)}, which reports them the same way as a single lookup.
+     */
+    void prefetch(final String lookupName, final Collection<String> keys, final String keyField,
+            final Function<Collection<String>, List<Entity>> finder) {
+        Map<String, Optional<Entity>> lookup = getLookup(lookupName);
+
+        Set<String> missingKeys = keys.stream().filter(key -> !lookup.containsKey(key)).collect(Collectors.toSet());
+
+        if (missingKeys.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Entity>> entitiesByKey = finder.apply(missingKeys).stream()
+                .collect(Collectors.groupingBy(entity -> entity.getStringField(keyField)));
+
+        for (String key : missingKeys) {
+            List<Entity> entities = entitiesByKey.get(key);
+
+            if (entities == null) {
+                lookup.put(key, Optional.empty());
+            } else if (entities.size() == 1) {
+                lookup.put(key, Optional.of(entities.get(0)));
+            }
+        }
+    }
+
+    private Map<String, Optional<Entity>> getLookup(final String lookupName) {
+        return lookups.computeIfAbsent(lookupName, name -> Maps.newHashMap());
+    }
+
+}
@@ -32,6 +32,9 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 @Component
@@ -49,15 +52,33 @@ class ProducerCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity companyCandidate = getCompanyDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq(CompanyFields.NUMBER, cellValue))
-                .uniqueResult();
-        if (null != companyCandidate) {
-            valueConsumer.accept(companyCandidate);
+    public void prefetch(Collection<String> cellValues, LookupCache lookupCache) {
+        lookupCache.prefetch(BasicConstants.MODEL_COMPANY, cellValues, CompanyFields.NUMBER, this::findCompanies);
+    }
+
+    @Override
+    public void parse(String cellValue, LookupCache lookupCache, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Optional<Entity> companyCandidate = lookupCache.find(BasicConstants.MODEL_COMPANY, cellValue, this::findCompany);
+        if (companyCandidate.isPresent()) {
+            valueConsumer.accept(companyCandidate.get());
         } else {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
         }
     }
+
+    private List<Entity> findCompanies(Collection<String> numbers) {
+        return getCompanyDataDefinition()
+                .find()
+                .add(SearchRestrictions.in(CompanyFields.NUMBER, numbers))
+                .list()
+                .getEntities();
+    }
+
+    private Entity findCompany(String number) {
+        return getCompanyDataDefinition()
+                .find()
+                .add(SearchRestrictions.eq(CompanyFields.NUMBER, number))
+                .uniqueResult();
+    }
 }
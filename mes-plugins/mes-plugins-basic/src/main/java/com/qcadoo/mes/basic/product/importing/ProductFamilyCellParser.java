@@ -32,6 +32,9 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
 
 import static com.qcadoo.mes.basic.constants.ProductFamilyElementType.PRODUCTS_FAMILY;
@@ -52,18 +55,36 @@ class ProductFamilyCellParser implements CellParser {
     }
 
     @Override
-    public void parse(String cellValue, BindingErrorsAccessor errorsAccessor, Consumer<Object> valueConsumer) {
-        Entity familyProductCandidate = getProductDataDefinition()
-                .find()
-                .add(SearchRestrictions.eq(ProductFields.NUMBER, cellValue))
-                .uniqueResult();
+    public void prefetch(Collection<String> cellValues, LookupCache lookupCache) {
+        lookupCache.prefetch(BasicConstants.MODEL_PRODUCT, cellValues, ProductFields.NUMBER, this::findProducts);
+    }
 
-        if (null == familyProductCandidate) {
+    @Override
+    public void parse(String cellValue, LookupCache lookupCache, BindingErrorsAccessor errorsAccessor,
+                      Consumer<Object> valueConsumer) {
+        Optional<Entity> familyProductCandidate = lookupCache.find(BasicConstants.MODEL_PRODUCT, cellValue, this::findProduct);
+
+        if (!familyProductCandidate.isPresent()) {
             errorsAccessor.addError("qcadooView.validate.field.error.lookupCodeNotFound");
-        } else if (!PRODUCTS_FAMILY.getStringValue().equals(familyProductCandidate.getStringField(ENTITY_TYPE))) {
+        } else if (!PRODUCTS_FAMILY.getStringValue().equals(familyProductCandidate.get().getStringField(ENTITY_TYPE))) {
             errorsAccessor.addError("basic.productsImport.error.field.notFamily");
         } else {
-            valueConsumer.accept(familyProductCandidate);
+            valueConsumer.accept(familyProductCandidate.get());
         }
     }
+
+    private List<Entity> findProducts(Collection<String> numbers) {
+        return getProductDataDefinition()
+                .find()
+                .add(SearchRestrictions.in(ProductFields.NUMBER, numbers))
+                .list()
+                .getEntities();
+    }
+
+    private Entity findProduct(String number) {
+        return getProductDataDefinition()
+                .find()
+                .add(SearchRestrictions.eq(ProductFields.NUMBER, number))
+                .uniqueResult();
+    }
 }
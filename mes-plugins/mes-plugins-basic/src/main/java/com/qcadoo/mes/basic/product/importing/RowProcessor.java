@@ -23,13 +23,11 @@
  */
 package com.qcadoo.mes.basic.product.importing;
 
-import org.apache.poi.ss.usermodel.Cell;
-
 public interface RowProcessor {
 
     boolean isEmpty();
 
-    void append(Cell cell);
+    void append(String cellValue);
 
     void process();
 }
@@ -23,10 +23,17 @@
  */
 package com.qcadoo.mes.basic.product.importing;
 
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
@@ -34,34 +41,34 @@ import org.springframework.transaction.interceptor.TransactionAspectSupport;
 @Service
 public class XlsxImportService {
 
+    private static final int CHUNK_SIZE = 500;
+
     private final RowProcessorFactory rowProcessorFactory;
 
+    private final CellBinderRegistry cellBinderRegistry;
+
     @Autowired
-    public XlsxImportService(RowProcessorFactory rowProcessorFactory) {
+    public XlsxImportService(RowProcessorFactory rowProcessorFactory, CellBinderRegistry cellBinderRegistry) {
         this.rowProcessorFactory = rowProcessorFactory;
+        this.cellBinderRegistry = cellBinderRegistry;
     }
 
     @Transactional
-    public ImportStatus importFrom(final XSSFWorkbook workbook) {
+    public ImportStatus importFrom(final File file) throws IOException {
 
         ImportStatus importStatus = new ImportStatus();
-        XSSFSheet sheet = workbook.getSheetAt(0);
+        LookupCache lookupCache = new LookupCache();
+        Map<Integer, String[]> chunk = new LinkedHashMap<>();
 
-        for (int rowIndex = SpreadsheetSchemaInfo.START_ROW_INDEX; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
+        Locale locale = LocaleContextHolder.getLocale();
 
-            Row row = sheet.getRow(rowIndex);
-            if (row == null) { // This whole row is empty
-                break;
-            }
-            final RowProcessor rowProcessor = rowProcessorFactory.create(importStatus, rowIndex);
-            for (int colIndex = 0; colIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER; colIndex++) {
-                rowProcessor.append(row.getCell(colIndex, Row.RETURN_BLANK_AS_NULL));
+        XlsxRowsReader.readFirstSheet(file, null == locale ? Locale.getDefault() : locale, (rowIndex, cellValues) -> {
+            chunk.put(rowIndex, cellValues);
+            if (chunk.size() == CHUNK_SIZE) {
+                processChunk(chunk, importStatus, lookupCache);
             }
-            if (rowProcessor.isEmpty()) {
-                break; // We are done. The whole row was empty so stop processing
-            }
-            rowProcessor.process();
-        }
+        });
+        processChunk(chunk, importStatus, lookupCache);
 
         if (importStatus.hasErrors()) { // We have to rollback transaction here
             TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
@@ -69,4 +76,27 @@ public class XlsxImportService {
         return importStatus;
     }
 
+    private void processChunk(final Map<Integer, String[]> chunk, final ImportStatus importStatus,
+            final LookupCache lookupCache) {
+        // Values looked up in other tables are resolved for the whole chunk at once
+        for (int colIndex = 0; colIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER; colIndex++) {
+            final int column = colIndex;
+            Set<String> cellValues = chunk.values().stream().map(row -> row[column]).filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+            if (!cellValues.isEmpty()) {
+                cellBinderRegistry.getCellBinder(colIndex).getCellParser().prefetch(cellValues, lookupCache);
+            }
+        }
+
+        for (Map.Entry<Integer, String[]> row : chunk.entrySet()) {
+            final RowProcessor rowProcessor = rowProcessorFactory.create(importStatus, lookupCache, row.getKey());
+            for (String cellValue : row.getValue()) {
+                rowProcessor.append(cellValue);
+            }
+            rowProcessor.process();
+        }
+
+        chunk.clear();
+    }
+
 }
@@ -0,0 +1,159 @@
+package com.qcadoo.mes.basic.product.importing;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Streams rows of the first sheet of a xlsx file with a SAX parser, so only the row being read is kept in memory.
+ *
+ * Rows are read from {@link SpreadsheetSchemaInfo#START_ROW_INDEX} up to the first missing or empty row. Cell values are
+ * formatted the way they are displayed in the spreadsheet and trimmed, blank cells are passed as nulls.
+ */
+final class XlsxRowsReader {
+
+    interface RowConsumer {
+
+        void accept(int rowIndex, String[] cellValues);
+
+    }
+
+    private XlsxRowsReader() {
+        // empty by design
+    }
+
+    static void readFirstSheet(final File file, final Locale locale, final RowConsumer rowConsumer) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+
+        try {
+            OPCPackage opcPackage = OPCPackage.open(file, PackageAccess.READ);
+
+            try {
+                XSSFReader xssfReader = new XSSFReader(opcPackage);
+                StylesTable styles = xssfReader.getStylesTable();
+                ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(opcPackage);
+                Iterator<InputStream> sheets = xssfReader.getSheetsData();
+
+                if (!sheets.hasNext()) {
+                    return;
+                }
+
+                try (InputStream sheet = sheets.next()) {
+                    XMLReader xmlReader = createXmlReader();
+
+                    xmlReader.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new RowsHandler(rowConsumer),
+                            new DataFormatter(locale), false));
+                    xmlReader.parse(new InputSource(sheet));
+                }
+            } finally {
+                opcPackage.revert();
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static XMLReader createXmlReader() throws ParserConfigurationException, SAXException {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+
+        saxParserFactory.setNamespaceAware(true);
+        saxParserFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+
+        return saxParserFactory.newSAXParser().getXMLReader();
+    }
+
+    private static final class RowsHandler implements SheetContentsHandler {
+
+        private final RowConsumer rowConsumer;
+
+        private int expectedRowIndex = SpreadsheetSchemaInfo.START_ROW_INDEX;
+
+        private boolean finished;
+
+        private String[] cellValues;
+
+        private RowsHandler(final RowConsumer rowConsumer) {
+            this.rowConsumer = rowConsumer;
+        }
+
+        @Override
+        public void startRow(final int rowIndex) {
+            if (rowIndex > expectedRowIndex) { // This whole row is empty
+                finished = true;
+            }
+
+            cellValues = null;
+
+            if (!finished && rowIndex == expectedRowIndex) {
+                cellValues = new String[SpreadsheetSchemaInfo.COLUMN_NUMBER];
+            }
+        }
+
+        @Override
+        public void cell(final String cellReference, final String formattedValue, final XSSFComment comment) {
+            if (cellValues == null || cellReference == null || formattedValue == null) {
+                return;
+            }
+
+            int colIndex = new CellReference(cellReference).getCol();
+
+            if (colIndex < SpreadsheetSchemaInfo.COLUMN_NUMBER) {
+                cellValues[colIndex] = formattedValue.trim();
+            }
+        }
+
+        @Override
+        public void endRow(final int rowIndex) {
+            if (cellValues == null) {
+                return;
+            }
+
+            boolean empty = true;
+
+            for (String cellValue : cellValues) {
+                if (cellValue != null) {
+                    empty = false;
+                }
+            }
+
+            if (empty) { // We are done. The whole row was empty so stop processing
+                finished = true;
+            } else {
+                rowConsumer.accept(rowIndex, cellValues);
+                expectedRowIndex++;
+            }
+
+            cellValues = null;
+        }
+
+        @Override
+        public void headerFooter(final String text, final boolean isHeader, final String tagName) {
+            // headers and footers are not imported
+        }
+
+    }
+
+}
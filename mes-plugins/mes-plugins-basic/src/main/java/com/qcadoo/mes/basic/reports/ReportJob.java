@@ -0,0 +1,124 @@
+package com.qcadoo.mes.basic.reports;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Status and progress of a report generated by {@link ReportJobService}. Fields are updated by a report job thread, so the job
+ * can be read at any time.
+ */
+public class ReportJob {
+
+    private final String reportType;
+
+    private final Long entityId;
+
+    private final long queueTime;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile ReportJobStatus status = ReportJobStatus.QUEUED;
+
+    private volatile int progress;
+
+    private volatile String errorMessage;
+
+    private volatile long startTime;
+
+    private volatile long finishTime;
+
+    ReportJob(final String reportType, final Long entityId) {
+        this.reportType = reportType;
+        this.entityId = entityId;
+        this.queueTime = System.nanoTime();
+    }
+
+    void start() {
+        startTime = System.nanoTime();
+        status = ReportJobStatus.RUNNING;
+    }
+
+    void finish() {
+        progress = 100;
+
+        complete(ReportJobStatus.FINISHED);
+    }
+
+    void fail(final Exception exception) {
+        errorMessage = String.valueOf(exception.getMessage());
+
+        complete(ReportJobStatus.FAILED);
+    }
+
+    private void complete(final ReportJobStatus finalStatus) {
+        finishTime = System.nanoTime();
+        status = finalStatus;
+
+        done.countDown();
+    }
+
+    public String getReportType() {
+        return reportType;
+    }
+
+    public Long getEntityId() {
+        return entityId;
+    }
+
+    public ReportJobStatus getStatus() {
+        return status;
+    }
+
+    public boolean isDone() {
+        return status.isDone();
+    }
+
+    /**
+     * @return progress in percents, as reported by the task
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * @param progress
+     *            progress in percents, values outside of 0-100 are clamped
+     */
+    public void setProgress(final int progress) {
+        this.progress = Math.max(0, Math.min(100, progress));
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return milliseconds the job has been waiting in the queue, or has waited before it was started
+     */
+    public long getQueuedMillis() {
+        long endTime = startTime == 0 ? System.nanoTime() : startTime;
+
+        return TimeUnit.NANOSECONDS.toMillis(endTime - queueTime);
+    }
+
+    /**
+     * @return milliseconds since the job was finished, or zero for jobs which are not done yet
+     */
+    long getMillisSinceFinish() {
+        if (finishTime == 0) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - finishTime);
+    }
+
+    public boolean awaitDone(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s report job for entity %d: %s (%d%%)", reportType, entityId, status, progress);
+    }
+
+}
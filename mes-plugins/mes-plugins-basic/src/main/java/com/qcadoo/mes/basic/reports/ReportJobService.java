@@ -0,0 +1,263 @@
+package com.qcadoo.mes.basic.reports;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Generates big reports outside of request threads, so a few users generating reports at once don't starve the server.
+ *
+ * Jobs are queued per report type and run on a small shared pool. Each report type runs at most its limit of jobs at once, the
+ * rest wait in its queue. Jobs submitted in a transaction are queued after it commits, so they see the report entity. A job of a
+ * report entity which is already queued or running is not submitted again. Services generating documents report progress of the
+ * job running on their thread with {@link #reportProgress(int, int)}.
+ */
+@Service
+public class ReportJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReportJobService.class);
+
+    // every running job holds its own transaction and a whole document in memory
+    private static final int MAX_POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final int DEFAULT_REPORT_TYPE_LIMIT = 1;
+
+    private static final int MAX_QUEUED_JOBS = 50;
+
+    private static final long FINISHED_JOBS_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private ReportJobWorker reportJobWorker;
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_POOL_SIZE, new ThreadFactoryBuilder()
+            .setNameFormat("report-job-%d").setDaemon(true).build());
+
+    private final Map<String, Integer> reportTypeLimits = Maps.newHashMap();
+
+    private final Map<String, ReportTypeQueue> reportTypeQueues = Maps.newHashMap();
+
+    private final Map<List<Object>, ReportJob> jobs = Maps.newHashMap();
+
+    private final ThreadLocal<ReportJob> currentJob = new ThreadLocal<ReportJob>();
+
+    private int queuedJobs;
+
+    /**
+     * @param reportType
+     *            report type, e.g. model name of the report entity
+     * @param limit
+     *            number of jobs of given type which may run at once
+     */
+    public synchronized void setReportTypeLimit(final String reportType, final int limit) {
+        reportTypeLimits.put(reportType, Math.max(1, limit));
+
+        dispatch(reportType);
+    }
+
+    /**
+     * Queues generation of a report.
+     * 
+     * @param reportType
+     *            report type, e.g. model name of the report entity
+     * @param entityId
+     *            id of the report entity
+     * @param task
+     *            generates the document
+     * @return submitted job, already queued or running job of the same report entity, or empty if too many jobs are queued
+     */
+    public synchronized Optional<ReportJob> submit(final String reportType, final Long entityId, final ReportJobTask task) {
+        removeFinishedJobs();
+
+        List<Object> key = Arrays.<Object> asList(reportType, entityId);
+        ReportJob job = jobs.get(key);
+
+        if (job != null && !job.isDone()) {
+            return Optional.of(job);
+        }
+
+        if (queuedJobs >= MAX_QUEUED_JOBS) {
+            LOG.warn("Report job queue is full, " + reportType + " report " + entityId + " rejected");
+
+            return Optional.empty();
+        }
+
+        job = new ReportJob(reportType, entityId);
+
+        QueuedJob queuedJob = new QueuedJob(job, task);
+
+        jobs.put(key, job);
+        queuedJobs++;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    enqueue(queuedJob, status == STATUS_COMMITTED);
+                }
+
+            });
+        } else {
+            enqueue(queuedJob, true);
+        }
+
+        return Optional.of(job);
+    }
+
+    /**
+     * @return last job of the report entity, finished jobs are kept for an hour
+     */
+    public synchronized Optional<ReportJob> findJob(final String reportType, final Long entityId) {
+        return Optional.ofNullable(jobs.get(Arrays.<Object> asList(reportType, entityId)));
+    }
+
+    /**
+     * Reports progress of the job running on the current thread. Does nothing outside of report jobs, e.g. when a document is
+     * generated on a request thread.
+     * 
+     * @param processed
+     *            number of processed chunks of the document, e.g. rows
+     * @param total
+     *            number of all chunks of the document
+     */
+    public void reportProgress(final int processed, final int total) {
+        ReportJob job = currentJob.get();
+
+        if (job != null && total > 0) {
+            // the document is stored after its last chunk, so a job reaches 100% only when it's finished
+            job.setProgress(Math.min(99, (int) (100L * processed / total)));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private synchronized void enqueue(final QueuedJob queuedJob, final boolean committed) {
+        ReportJob job = queuedJob.job;
+
+        if (committed) {
+            getReportTypeQueue(job.getReportType()).pending.add(queuedJob);
+
+            dispatch(job.getReportType());
+        } else {
+            queuedJobs--;
+
+            job.fail(new IllegalStateException("Transaction which submitted the report job was rolled back"));
+        }
+    }
+
+    private void dispatch(final String reportType) {
+        ReportTypeQueue queue = getReportTypeQueue(reportType);
+        int limit = reportTypeLimits.getOrDefault(reportType, DEFAULT_REPORT_TYPE_LIMIT);
+
+        while (queue.running < limit && !queue.pending.isEmpty() && !executorService.isShutdown()) {
+            QueuedJob queuedJob = queue.pending.poll();
+
+            queue.running++;
+            queuedJobs--;
+
+            executorService.execute(() -> run(queuedJob));
+        }
+    }
+
+    private void run(final QueuedJob queuedJob) {
+        ReportJob job = queuedJob.job;
+
+        SecurityContextHolder.setContext(queuedJob.securityContext);
+        LocaleContextHolder.setLocale(queuedJob.locale);
+        currentJob.set(job);
+
+        job.start();
+
+        try {
+            reportJobWorker.run(queuedJob.task, job);
+
+            job.finish();
+        } catch (Exception e) {
+            LOG.error("Report job failed: " + job, e);
+
+            job.fail(e);
+        } finally {
+            currentJob.remove();
+            LocaleContextHolder.resetLocaleContext();
+            SecurityContextHolder.clearContext();
+
+            completed(job.getReportType());
+        }
+
+        LOG.info(job + ", waited in queue for " + job.getQueuedMillis() + " ms");
+    }
+
+    private synchronized void completed(final String reportType) {
+        getReportTypeQueue(reportType).running--;
+
+        dispatch(reportType);
+    }
+
+    private void removeFinishedJobs() {
+        Iterator<ReportJob> iterator = jobs.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().getMillisSinceFinish() > FINISHED_JOBS_RETENTION_MILLIS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private ReportTypeQueue getReportTypeQueue(final String reportType) {
+        return reportTypeQueues.computeIfAbsent(reportType, type -> new ReportTypeQueue());
+    }
+
+    private static final class ReportTypeQueue {
+
+        private final Deque<QueuedJob> pending = Queues.newArrayDeque();
+
+        private int running;
+
+    }
+
+    private static final class QueuedJob {
+
+        private final ReportJob job;
+
+        private final ReportJobTask task;
+
+        private final SecurityContext securityContext;
+
+        private final Locale locale;
+
+        private QueuedJob(final ReportJob job, final ReportJobTask task) {
+            this.job = job;
+            this.task = task;
+            this.securityContext = SecurityContextHolder.getContext();
+            this.locale = LocaleContextHolder.getLocale();
+        }
+
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.qcadoo.mes.basic.reports;
+
+public enum ReportJobStatus {
+
+    QUEUED, RUNNING, FINISHED, FAILED;
+
+    public boolean isDone() {
+        return this == FINISHED || this == FAILED;
+    }
+
+}
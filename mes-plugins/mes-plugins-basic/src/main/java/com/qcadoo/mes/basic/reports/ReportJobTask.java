@@ -0,0 +1,17 @@
+package com.qcadoo.mes.basic.reports;
+
+/**
+ * Generates a report document and stores it for download, usually under the file name of the report entity.
+ */
+@FunctionalInterface
+public interface ReportJobTask {
+
+    /**
+     * Called from a report job thread in a new transaction, with security context and locale of the user who submitted the job.
+     * 
+     * @param job
+     *            job to report progress to
+     */
+    void run(final ReportJob job) throws Exception;
+
+}
@@ -0,0 +1,15 @@
+package com.qcadoo.mes.basic.reports;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Service
+class ReportJobWorker {
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW, rollbackFor = Exception.class)
+    public void run(final ReportJobTask task, final ReportJob job) throws Exception {
+        task.run(job);
+    }
+
+}
@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.basic.shift;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -296,6 +297,31 @@ public class Shift {
                 });
     }
 
+    /**
+     * Returns date ranges of shift's timetable exceptions of given type.
+     * 
+     * @param type
+     *            timetable exception type
+     * @return date ranges of timetable exceptions
+     */
+    public Collection<DateRange> findTimetableExceptions(final TimetableExceptionType type) {
+        return timetableExceptions.getDateRanges(type);
+    }
+
+    /**
+     * Returns shift's timetable exceptions overlapping given dates (both ends inclusive), without reading them again from the
+     * underlying entity.
+     * 
+     * @param from
+     *            start of dates range
+     * @param to
+     *            end of dates range
+     * @return overlapping timetable exceptions, in order of shift's timetable exceptions
+     */
+    public List<ShiftTimetableException> findTimetableExceptions(final Date from, final Date to) {
+        return timetableExceptions.findOverlapping(from, to);
+    }
+
     /**
      * Returns a copy of the underlying entity.
      * 
@@ -0,0 +1,61 @@
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Date;
+
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Immutable timetable exception of a shift, read once from shiftTimetableException entity.
+ */
+public final class ShiftTimetableException {
+
+    private final TimetableExceptionType type;
+
+    private final Date fromDate;
+
+    private final Date toDate;
+
+    private final boolean relatesToPrevDay;
+
+    public ShiftTimetableException(final Entity timetableException) {
+        this.type = TimetableExceptionType.parseString(timetableException.getStringField(ShiftTimetableExceptionFields.TYPE));
+        this.fromDate = copyOf(timetableException.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
+        this.toDate = copyOf(timetableException.getDateField(ShiftTimetableExceptionFields.TO_DATE));
+        this.relatesToPrevDay = timetableException.getBooleanField(ShiftTimetableExceptionFields.RELATES_TO_PREV_DAY);
+    }
+
+    private static Date copyOf(final Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    public TimetableExceptionType getType() {
+        return type;
+    }
+
+    public Date getFromDate() {
+        return copyOf(fromDate);
+    }
+
+    public Date getToDate() {
+        return copyOf(toDate);
+    }
+
+    public boolean isRelatesToPrevDay() {
+        return relatesToPrevDay;
+    }
+
+    long getFromMillis() {
+        return fromDate.getTime();
+    }
+
+    long getToMillis() {
+        return toDate.getTime();
+    }
+
+    boolean hasDates() {
+        return fromDate != null && toDate != null;
+    }
+
+}
@@ -23,16 +23,21 @@
  */
 package com.qcadoo.mes.basic.shift;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.ObjectUtils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimaps;
 import com.qcadoo.commons.dateTime.DateRange;
 import com.qcadoo.mes.basic.constants.ShiftFields;
@@ -40,6 +45,12 @@ import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.model.api.Entity;
 
+/**
+ * Timetable exceptions of a shift.
+ *
+ * Besides exceptions grouped by type, exceptions are kept sorted by start date together with the latest end date of all
+ * exceptions up to each position, so exceptions overlapping given dates are found without scanning all of them.
+ */
 public class ShiftTimetableExceptions {
 
     private static final Function<Entity, DateRange> EXTRACT_DATE_RANGE = new Function<Entity, DateRange>() {
@@ -63,12 +74,34 @@ public class ShiftTimetableExceptions {
 
     private final ImmutableMultimap<TimetableExceptionType, DateRange> exceptions;
 
+    private final List<ShiftTimetableException> exceptionsInOrder;
+
+    private final ShiftTimetableException[] exceptionsByFromDate;
+
+    private final int[] positions;
+
+    private final long[] maxToDates;
+
     public ShiftTimetableExceptions(final Entity shift) {
-        this.exceptions = getExceptions(shift);
+        List<Entity> timetableExceptionEntities = Lists.newArrayList(shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS)
+                .iterator());
+
+        this.exceptions = getExceptions(timetableExceptionEntities);
+        this.exceptionsInOrder = ImmutableList.copyOf(timetableExceptionEntities.stream().map(ShiftTimetableException::new)
+                .filter(ShiftTimetableException::hasDates).collect(Collectors.toList()));
+        this.positions = IntStream.range(0, exceptionsInOrder.size()).boxed()
+                .sorted(Comparator.comparingLong(position -> exceptionsInOrder.get(position).getFromMillis()))
+                .mapToInt(Integer::intValue).toArray();
+        this.exceptionsByFromDate = new ShiftTimetableException[positions.length];
+        this.maxToDates = new long[positions.length];
+
+        for (int i = 0; i < positions.length; i++) {
+            exceptionsByFromDate[i] = exceptionsInOrder.get(positions[i]);
+            maxToDates[i] = Math.max(i == 0 ? Long.MIN_VALUE : maxToDates[i - 1], exceptionsByFromDate[i].getToMillis());
+        }
     }
 
-    private ImmutableMultimap<TimetableExceptionType, DateRange> getExceptions(final Entity shift) {
-        List<Entity> timetableExceptionEntities = shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+    private ImmutableMultimap<TimetableExceptionType, DateRange> getExceptions(final List<Entity> timetableExceptionEntities) {
         return ImmutableMultimap.copyOf(Multimaps.transformValues(Multimaps.index(timetableExceptionEntities, EXTRACT_TYPE),
                 EXTRACT_DATE_RANGE));
     }
@@ -82,15 +115,64 @@ public class ShiftTimetableExceptions {
     }
 
     public Optional<DateRange> findDateRangeFor(final TimetableExceptionType type, final Date date) {
-        // TODO MAKU optimize if needed (sorted dates + break if subsequent date range doesn't start after given date?).
-        // But for now this might be an overhead so I'm leaving it out.
-        return Iterables.tryFind(exceptions.get(type), new Predicate<DateRange>() {
+        for (ShiftTimetableException exception : findOverlapping(date, date)) {
+            if (type == exception.getType()) {
+                DateRange dateRange = new DateRange(exception.getFromDate(), exception.getToDate());
+
+                if (dateRange.contains(date)) {
+                    return Optional.of(dateRange);
+                }
+            }
+        }
+
+        return Optional.absent();
+    }
+
+    /**
+     * Finds exceptions which overlap given dates, both ends inclusive.
+     *
+     * @param from
+     *            start of dates range
+     * @param to
+     *            end of dates range
+     * @return overlapping exceptions, in order of shift's timetable exceptions
+     */
+    public List<ShiftTimetableException> findOverlapping(final Date from, final Date to) {
+        long fromMillis = from.getTime();
+        long toMillis = to.getTime();
+
+        int low = 0;
+        int high = exceptionsByFromDate.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (exceptionsByFromDate[middle].getFromMillis() <= toMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        List<Integer> overlappingPositions = Lists.newArrayList();
 
-            @Override
-            public boolean apply(final DateRange dateRange) {
-                return dateRange.contains(date);
+        for (int i = low - 1; i >= 0 && maxToDates[i] >= fromMillis; i--) {
+            if (exceptionsByFromDate[i].getToMillis() >= fromMillis) {
+                overlappingPositions.add(positions[i]);
             }
-        });
+        }
+
+        if (overlappingPositions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Collections.sort(overlappingPositions);
+
+        return overlappingPositions.stream().map(exceptionsInOrder::get).collect(Collectors.toList());
+    }
+
+    public Collection<DateRange> getDateRanges(final TimetableExceptionType type) {
+        return exceptions.get(type);
     }
 
     @Override
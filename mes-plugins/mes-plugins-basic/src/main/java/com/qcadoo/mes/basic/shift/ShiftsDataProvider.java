@@ -24,9 +24,32 @@
 package com.qcadoo.mes.basic.shift;
 
 import java.util.List;
+import java.util.Optional;
 
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Provides shifts, which are shared between calculations - shifts are built once and reused until shifts or their timetable
+ * exceptions change.
+ */
 public interface ShiftsDataProvider {
 
     List<Shift> findAll();
 
+    Optional<Shift> findById(final Long shiftId);
+
+    /**
+     * Gets shift for given shift entity, builds new shift if it's not known yet.
+     *
+     * @param shiftEntity
+     *            shift entity
+     * @return shift
+     */
+    Shift getShift(final Entity shiftEntity);
+
+    /**
+     * Drops shifts, so they are built again on next use. Called by shift and shift timetable exception model hooks.
+     */
+    void invalidate();
+
 }
@@ -24,25 +24,62 @@
 package com.qcadoo.mes.basic.shift;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.util.VersionedCache;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 
+/**
+ * Keeps shifts with parsed working hours and timetable exceptions, so they are built once instead of on every calculation.
+ *
+ * Shifts are invalidated by shift and shift timetable exception model hooks. Shifts built from data read before invalidation
+ * are never published.
+ */
 @Service
 public final class ShiftsDataProviderImpl implements ShiftsDataProvider {
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    private static final String L_SHIFTS = "shifts";
+
+    private final VersionedCache<String, CachedShifts> shiftsCache = new VersionedCache<>(1, 0);
+
     @Override
     public List<Shift> findAll() {
+        return getShifts().shifts;
+    }
+
+    @Override
+    public Optional<Shift> findById(final Long shiftId) {
+        return Optional.ofNullable(getShifts().shiftsById.get(shiftId));
+    }
+
+    @Override
+    public Shift getShift(final Entity shiftEntity) {
+        return findById(shiftEntity.getId()).orElseGet(() -> new Shift(shiftEntity));
+    }
+
+    @Override
+    public void invalidate() {
+        shiftsCache.invalidateAll();
+    }
+
+    private CachedShifts getShifts() {
+        return shiftsCache.get(L_SHIFTS, () -> new CachedShifts(buildShifts()));
+    }
+
+    private List<Shift> buildShifts() {
         return FluentIterable.from(getAllShifts()).transform(new Function<Entity, Shift>() {
 
             @Override
@@ -59,4 +96,18 @@ public final class ShiftsDataProviderImpl implements ShiftsDataProvider {
     private DataDefinition getShiftDataDefinition() {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT);
     }
+
+    private static final class CachedShifts {
+
+        private final List<Shift> shifts;
+
+        private final Map<Long, Shift> shiftsById;
+
+        private CachedShifts(final List<Shift> shifts) {
+            this.shifts = shifts;
+            this.shiftsById = Maps.uniqueIndex(shifts, Shift::getId);
+        }
+
+    }
+
 }
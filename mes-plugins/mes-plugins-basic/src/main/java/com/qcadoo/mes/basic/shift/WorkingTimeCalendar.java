@@ -0,0 +1,295 @@
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.commons.dateTime.DateRange;
+import com.qcadoo.commons.dateTime.TimeRange;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+
+/**
+ * Immutable working time calendar of all shifts.
+ *
+ * Work times are kept as a sorted array of disjoint intervals with prefix sums of working time, so the date after (or before)
+ * given amount of working time is found with binary search instead of walking the calendar week by week.
+ */
+public final class WorkingTimeCalendar {
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final long[] workingMillisBefore;
+
+    private WorkingTimeCalendar(final long[] starts, final long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        this.workingMillisBefore = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            workingMillisBefore[i + 1] = workingMillisBefore[i] + (ends[i] - starts[i]);
+        }
+    }
+
+    /**
+     * Builds calendar for given shifts between given dates.
+     *
+     * Free time exceptions of a shift remove its work time (including work time exceptions), overlapping work times of
+     * different shifts are merged.
+     */
+    public static WorkingTimeCalendar build(final Collection<Shift> shifts, final DateTime rangeFrom, final DateTime rangeTo) {
+        List<long[]> intervals = Lists.newArrayList();
+
+        for (Shift shift : shifts) {
+            List<long[]> shiftIntervals = getWorkTimesForShift(shift, rangeFrom.toLocalDate().minusDays(1),
+                    rangeTo.toLocalDate());
+
+            for (DateRange workTime : shift.findTimetableExceptions(TimetableExceptionType.WORK_TIME)) {
+                addInterval(shiftIntervals, workTime);
+            }
+
+            List<long[]> freeTimes = Lists.newArrayList();
+
+            for (DateRange freeTime : shift.findTimetableExceptions(TimetableExceptionType.FREE_TIME)) {
+                addInterval(freeTimes, freeTime);
+            }
+
+            intervals.addAll(subtract(merge(shiftIntervals), merge(freeTimes)));
+        }
+
+        List<long[]> mergedIntervals = subtract(merge(intervals),
+                Lists.newArrayList(new long[] { Long.MIN_VALUE, rangeFrom.getMillis() },
+                        new long[] { rangeTo.getMillis(), Long.MAX_VALUE }));
+
+        long[] starts = new long[mergedIntervals.size()];
+        long[] ends = new long[mergedIntervals.size()];
+
+        for (int i = 0; i < mergedIntervals.size(); i++) {
+            starts[i] = mergedIntervals.get(i)[0];
+            ends[i] = mergedIntervals.get(i)[1];
+        }
+
+        return new WorkingTimeCalendar(starts, ends);
+    }
+
+    private static List<long[]> getWorkTimesForShift(final Shift shift, final LocalDate dayFrom, final LocalDate dayTo) {
+        List<long[]> workTimes = Lists.newArrayList();
+
+        for (LocalDate day = dayFrom; !day.isAfter(dayTo); day = day.plusDays(1)) {
+            for (TimeRange timeRange : shift.findWorkTimeAt(day)) {
+                LocalDate dayOfEnd = timeRange.getFrom().isAfter(timeRange.getTo()) ? day.plusDays(1) : day;
+
+                long[] interval = toInterval(toMillis(day, timeRange.getFrom()), toMillis(dayOfEnd, timeRange.getTo()));
+
+                if (interval != null) {
+                    workTimes.add(interval);
+                }
+            }
+        }
+
+        return workTimes;
+    }
+
+    private static long toMillis(final LocalDate day, final LocalTime time) {
+        LocalDateTime localDateTime = day.toLocalDateTime(time);
+
+        DateTimeZone zone = DateTimeZone.getDefault();
+
+        while (zone.isLocalDateTimeGap(localDateTime)) {
+            localDateTime = localDateTime.plusMinutes(1);
+        }
+
+        return localDateTime.toDateTime(zone).getMillis();
+    }
+
+    private static void addInterval(final List<long[]> intervals, final DateRange dateRange) {
+        if (dateRange.getFrom() == null || dateRange.getTo() == null) {
+            return;
+        }
+
+        long[] interval = toInterval(dateRange.getFrom().getTime(), dateRange.getTo().getTime());
+
+        if (interval != null) {
+            intervals.add(interval);
+        }
+    }
+
+    private static long[] toInterval(final long from, final long to) {
+        if (from >= to) {
+            return null;
+        }
+
+        return new long[] { from, to };
+    }
+
+    private static List<long[]> merge(final List<long[]> intervals) {
+        List<long[]> sortedIntervals = Lists.newArrayList(intervals);
+
+        sortedIntervals.sort((first, second) -> first[0] == second[0] ? Long.compare(first[1], second[1]) : Long.compare(
+                first[0], second[0]));
+
+        List<long[]> mergedIntervals = Lists.newArrayList();
+
+        long[] current = null;
+
+        for (long[] interval : sortedIntervals) {
+            if (current == null) {
+                current = interval.clone();
+            } else if (current[1] < interval[0]) {
+                mergedIntervals.add(current);
+
+                current = interval.clone();
+            } else if (current[1] < interval[1]) {
+                current[1] = interval[1];
+            }
+        }
+
+        if (current != null) {
+            mergedIntervals.add(current);
+        }
+
+        return mergedIntervals;
+    }
+
+    private static List<long[]> subtract(final List<long[]> intervals, final List<long[]> intervalsToRemove) {
+        List<long[]> result = Lists.newArrayList();
+
+        int removeIndex = 0;
+
+        for (long[] interval : intervals) {
+            long start = interval[0];
+            long end = interval[1];
+
+            while (removeIndex < intervalsToRemove.size() && intervalsToRemove.get(removeIndex)[1] <= start) {
+                removeIndex++;
+            }
+
+            int index = removeIndex;
+
+            while (start < end && index < intervalsToRemove.size() && intervalsToRemove.get(index)[0] < end) {
+                long[] intervalToRemove = intervalsToRemove.get(index);
+
+                if (intervalToRemove[0] > start) {
+                    result.add(new long[] { start, intervalToRemove[0] });
+                }
+
+                start = Math.max(start, intervalToRemove[1]);
+
+                index++;
+            }
+
+            if (start < end) {
+                result.add(new long[] { start, end });
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds date, at which given amount of working time, counted from given date, passes.
+     *
+     * @param dateFrom
+     *            date to count from
+     * @param seconds
+     *            working time in seconds
+     * @return date after given working time, or empty if calendar ends earlier
+     */
+    public Optional<Date> findDateAfterWorkingSeconds(final Date dateFrom, final long seconds) {
+        long from = dateFrom.getTime();
+
+        int index = firstIndexEndingAfter(from);
+
+        if (index >= starts.length) {
+            return Optional.empty();
+        }
+
+        long target = workingMillisBefore[index] + Math.max(0L, from - starts[index]) + seconds * MILLIS_PER_SECOND;
+
+        if (target > workingMillisBefore[starts.length]) {
+            return Optional.empty();
+        }
+
+        int low = index;
+        int high = starts.length - 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (workingMillisBefore[middle + 1] >= target) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return Optional.of(new Date(starts[low] + (target - workingMillisBefore[low])));
+    }
+
+    /**
+     * Finds date, from which given amount of working time passes until given date.
+     *
+     * @param dateTo
+     *            date to count back from
+     * @param seconds
+     *            working time in seconds
+     * @return date before given working time, or empty if calendar starts later
+     */
+    public Optional<Date> findDateBeforeWorkingSeconds(final Date dateTo, final long seconds) {
+        long to = dateTo.getTime();
+
+        int index = firstIndexEndingAfter(to);
+
+        if (index >= starts.length || starts[index] >= to) {
+            index--;
+        }
+
+        if (index < 0) {
+            return Optional.empty();
+        }
+
+        long target = workingMillisBefore[index] + (Math.min(to, ends[index]) - starts[index]) - seconds * MILLIS_PER_SECOND;
+
+        if (target < 0) {
+            return Optional.empty();
+        }
+
+        int low = 0;
+        int high = index;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (workingMillisBefore[middle] <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return Optional.of(new Date(starts[low] + (target - workingMillisBefore[low])));
+    }
+
+    private int firstIndexEndingAfter(final long millis) {
+        int index = Arrays.binarySearch(ends, millis);
+
+        if (index >= 0) {
+            return index + 1;
+        }
+
+        return -index - 1;
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.qcadoo.mes.basic.shift;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.util.VersionedCache;
+
+/**
+ * Keeps {@link WorkingTimeCalendar} of all shifts, so it is built once instead of on every order time calculation.
+ *
+ * Calendar is kept in {@link VersionedCache} and invalidated by shift and shift timetable exception model hooks.
+ */
+@Service
+public class WorkingTimeCalendarService {
+
+    private static final DateTime CALENDAR_FROM = new DateTime(2000, 1, 1, 0, 0, 0, 0).minus(DateTimeConstants.MILLIS_PER_WEEK);
+
+    private static final DateTime CALENDAR_TO = new DateTime(2100, 1, 1, 0, 0, 0, 0).plus(DateTimeConstants.MILLIS_PER_WEEK);
+
+    private static final String L_CALENDAR = "calendar";
+
+    @Autowired
+    private ShiftsDataProvider shiftsDataProvider;
+
+    private final VersionedCache<String, WorkingTimeCalendar> calendarCache = new VersionedCache<>(1, 0);
+
+    public WorkingTimeCalendar getCalendar() {
+        return calendarCache.get(L_CALENDAR,
+                () -> WorkingTimeCalendar.build(shiftsDataProvider.findAll(), CALENDAR_FROM, CALENDAR_TO));
+    }
+
+    public void invalidate() {
+        calendarCache.invalidateAll();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.qcadoo.mes.basic.util;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs queries of big reports with rows fetched by cursor instead of being loaded into memory at once.
+ *
+ * PostgreSQL driver uses fetch size only when autocommit is off, so queries are run in a (read only) transaction.
+ */
+@Service
+public class StreamingQueryService {
+
+    private static final int FETCH_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private volatile NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    @Transactional(readOnly = true)
+    public void query(final String query, final Map<String, ?> params, final RowCallbackHandler rowCallbackHandler) {
+        query(query, new MapSqlParameterSource(params), rowCallbackHandler);
+    }
+
+    @Transactional(readOnly = true)
+    public void query(final String query, final SqlParameterSource params, final RowCallbackHandler rowCallbackHandler) {
+        getStreamingJdbcTemplate().query(query, params, rowCallbackHandler);
+    }
+
+    private NamedParameterJdbcTemplate getStreamingJdbcTemplate() {
+        if (streamingJdbcTemplate == null) {
+            JdbcTemplate template = new JdbcTemplate(((JdbcTemplate) jdbcTemplate.getJdbcOperations()).getDataSource());
+            template.setFetchSize(FETCH_SIZE);
+
+            streamingJdbcTemplate = new NamedParameterJdbcTemplate(template);
+        }
+
+        return streamingJdbcTemplate;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.qcadoo.mes.basic.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps values loaded from the database in memory, for services which would otherwise reload the same data on every call.
+ *
+ * Entries are dropped on invalidation, once more after the transaction completes, so values loaded from uncommitted changes
+ * don't stay in the cache. Values loaded from data read before an invalidation are never published. Least recently used
+ * entries are dropped above the maximal number of entries and, if maximal age is given, entries older than that are reloaded
+ * as a safety net for changes made outside of the application.
+ *
+ * @param <K>
+ *            type of keys
+ * @param <V>
+ *            type of values
+ */
+public class VersionedCache<K, V> {
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final long maxAge;
+
+    private final Map<K, CacheEntry<V>> entries;
+
+    /**
+     * @param maxEntries
+     *            maximal number of kept entries
+     * @param maxAge
+     *            maximal age of entries in milliseconds, 0 if entries don't expire
+     */
+    public VersionedCache(final int maxEntries, final long maxAge) {
+        this.maxAge = maxAge;
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > maxEntries) {
+                    entryRemoved(eldest.getKey(), eldest.getValue().value);
+
+                    return true;
+                }
+
+                return false;
+            }
+
+        };
+    }
+
+    public V get(final K key, final Supplier<V> loader) {
+        long currentVersion = version.get();
+
+        synchronized (entries) {
+            CacheEntry<V> entry = entries.get(key);
+
+            if (entry != null && !isExpired(entry)) {
+                return entry.value;
+            }
+        }
+
+        V value = loader.get();
+
+        synchronized (entries) {
+            if (version.get() == currentVersion) {
+                CacheEntry<V> previousEntry = entries.put(key, new CacheEntry<V>(value));
+
+                if (previousEntry != null) {
+                    entryRemoved(key, previousEntry.value);
+                }
+
+                entryAdded(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    public void invalidate(final K key) {
+        invalidateAfterCompletion(() -> remove(key));
+    }
+
+    public void invalidateAll() {
+        invalidateAfterCompletion(this::clear);
+    }
+
+    /**
+     * Called under the cache lock after an entry is published.
+     */
+    protected void entryAdded(final K key, final V value) {
+    }
+
+    /**
+     * Called under the cache lock after an entry is replaced, invalidated or dropped.
+     */
+    protected void entryRemoved(final K key, final V value) {
+    }
+
+    private boolean isExpired(final CacheEntry<V> entry) {
+        return maxAge > 0 && System.currentTimeMillis() - entry.loadTime > maxAge;
+    }
+
+    private void remove(final K key) {
+        synchronized (entries) {
+            CacheEntry<V> entry = entries.remove(key);
+
+            if (entry != null) {
+                entryRemoved(key, entry.value);
+            }
+        }
+    }
+
+    private void clear() {
+        synchronized (entries) {
+            entries.forEach((key, entry) -> entryRemoved(key, entry.value));
+            entries.clear();
+        }
+    }
+
+    private void invalidateAfterCompletion(final Runnable invalidation) {
+        version.incrementAndGet();
+        invalidation.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    version.incrementAndGet();
+                    invalidation.run();
+                }
+
+            });
+        }
+    }
+
+    private static final class CacheEntry<V> {
+
+        private final V value;
+
+        private final long loadTime = System.currentTimeMillis();
+
+        private CacheEntry(final V value) {
+            this.value = value;
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Maps;
+
+public class LookupUtilsTest {
+
+    private static final String QUERY = "SELECT %s FROM (SELECT id, number FROM basic_product %s) q ";
+
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM basic_product";
+
+    public static class Record {
+
+        private Long id;
+
+        private String number;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getNumber() {
+            return number;
+        }
+
+        public void setNumber(String number) {
+            this.number = number;
+        }
+
+    }
+
+    private LookupUtils lookupUtils;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        lookupUtils = new LookupUtils();
+
+        ReflectionTestUtils.setField(lookupUtils, "jdbcTemplate", jdbcTemplate);
+
+        given(jdbcTemplate.queryForObject(anyString(), anyMap(), eq(Long.class))).willReturn(100L);
+    }
+
+    @Test
+    public void shouldSeekNextPageAfterLastRow() {
+        // given
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        // when
+        GridResponse<Record> response = lookupUtils.getGridResponse(QUERY, COUNT_QUERY, "number", "asc", 3, 20, new Record(),
+                parameters, new GridKeyset(2, 40L, "P-040"));
+
+        // then
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).queryForObject(eq(COUNT_QUERY), anyMap(), eq(Long.class));
+        verify(jdbcTemplate).query(query.capture(), anyMap(), any(RowMapper.class));
+
+        assertTrue(query.getValue().contains("number > :keysetValue OR (number = :keysetValue AND id > :keysetId)"));
+        assertTrue(query.getValue().endsWith("ORDER BY number asc, id asc LIMIT 20"));
+        assertEquals("P-040", parameters.get("keysetValue"));
+        assertEquals(40L, parameters.get("keysetId"));
+        assertEquals(100, response.getRecords());
+        assertEquals(5, response.getTotal());
+    }
+
+    @Test
+    public void shouldUseOffsetWhenPageIsNotNextOne() {
+        // when
+        lookupUtils.getGridResponse(QUERY, COUNT_QUERY, "id", "desc", 5, 20, new Record(), Maps.newHashMap(),
+                new GridKeyset(2, 40L, "40"));
+
+        // then
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).query(query.capture(), anyMap(), any(RowMapper.class));
+
+        assertFalse(query.getValue().contains(":keysetId"));
+        assertTrue(query.getValue().endsWith("ORDER BY id desc LIMIT 20 OFFSET 80"));
+    }
+
+}
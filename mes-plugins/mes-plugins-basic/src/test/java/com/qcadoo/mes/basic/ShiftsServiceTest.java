@@ -33,18 +33,21 @@ import java.util.List;
 
 import junit.framework.Assert;
 
+import org.joda.time.DateTime;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchResult;
 
 public class ShiftsServiceTest {
 
@@ -56,10 +59,15 @@ public class ShiftsServiceTest {
     @Mock
     private DataDefinition dataDefinition;
 
+    @Mock
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
     @Mock
     private Entity entity, shift, exception;
 
-    List<Entity> shifts = new ArrayList<Entity>();
+    private static final DateTime CALENDAR_FROM = new DateTime(2016, 1, 1, 0, 0);
+
+    private static final DateTime CALENDAR_TO = new DateTime(2017, 1, 1, 0, 0);
 
     List<Entity> exceptions;
 
@@ -69,6 +77,7 @@ public class ShiftsServiceTest {
         MockitoAnnotations.initMocks(this);
 
         ReflectionTestUtils.setField(shiftsService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(shiftsService, "workingTimeCalendarService", workingTimeCalendarService);
     }
 
     private EntityList mockEntityList(List<Entity> list) {
@@ -157,13 +166,9 @@ public class ShiftsServiceTest {
     @Test
     public void shouldReturnNullWhenShiftDoesnotExist() throws Exception {
         // given
-        Date dateTo = mock(Date.class);
-        SearchCriteriaBuilder builder = mock(SearchCriteriaBuilder.class);
-        SearchResult result = mock(SearchResult.class);
-        when(dataDefinitionService.get("basic", "shift")).thenReturn(dataDefinition);
-        when(dataDefinition.find()).thenReturn(builder);
-        when(builder.list()).thenReturn(result);
-        when(result.getTotalNumberOfEntities()).thenReturn(0);
+        Date dateTo = new DateTime(2016, 5, 2, 12, 0).toDate();
+        when(workingTimeCalendarService.getCalendar()).thenReturn(
+                WorkingTimeCalendar.build(new ArrayList<Shift>(), CALENDAR_FROM, CALENDAR_TO));
         // when
         Date dateToFromMethod = shiftsService.findDateFromForOrder(dateTo, 123L);
         // then
@@ -173,37 +178,36 @@ public class ShiftsServiceTest {
     @Test
     public void shouldReturnDateFrom() throws Exception {
         // given
-        Date dateTo = mock(Date.class);
-        shifts.add(shift);
-        exceptions = mockEntityList(new ArrayList<Entity>());
-        exceptions.add(exception);
-        String hours = "07:00-15:00";
-        SearchCriteriaBuilder builder = mock(SearchCriteriaBuilder.class);
-        SearchResult result = mock(SearchResult.class);
-        when(dataDefinitionService.get("basic", "shift")).thenReturn(dataDefinition);
-        when(dataDefinition.find()).thenReturn(builder);
-        when(builder.list()).thenReturn(result);
-        when(result.getTotalNumberOfEntities()).thenReturn(1);
-        when(result.getEntities()).thenReturn(shifts);
-
-        when(shift.getField("mondayWorking")).thenReturn(true);
-        when(shift.getStringField("mondayHours")).thenReturn(hours);
-        when(shift.getField("tuesdayWorking")).thenReturn(true);
-        when(shift.getStringField("tuesdayHours")).thenReturn(hours);
-        when(shift.getField("wensdayWorking")).thenReturn(true);
-        when(shift.getStringField("wensdayHours")).thenReturn(hours);
-        when(shift.getField("thursdayWorking")).thenReturn(true);
-        when(shift.getStringField("thursdayHours")).thenReturn(hours);
-        when(shift.getField("fridayWorking")).thenReturn(true);
-        when(shift.getStringField("fridayHours")).thenReturn(hours);
-        when(shift.getField("saturdayWorking")).thenReturn(true);
-        when(shift.getStringField("saturdayHours")).thenReturn(hours);
-        when(shift.getField("sundayWorking")).thenReturn(true);
-        when(shift.getStringField("sundayHours")).thenReturn(hours);
+        Date dateTo = new DateTime(2016, 5, 3, 8, 0).toDate();
+        mockShiftWorkingEveryDay("07:00-15:00");
+        // when
+        Date dateFrom = shiftsService.findDateFromForOrder(dateTo, 2 * 3600L);
+        // then
+        assertEquals(new DateTime(2016, 5, 2, 14, 0).toDate(), dateFrom);
+    }
 
-        when(shift.getHasManyField("timetableExceptions")).thenReturn((EntityList) exceptions);
+    @Test
+    public void shouldReturnDateTo() throws Exception {
+        // given
+        Date dateFrom = new DateTime(2016, 5, 2, 14, 0).toDate();
+        mockShiftWorkingEveryDay("07:00-15:00");
         // when
-        shiftsService.findDateFromForOrder(dateTo, 123L);
+        Date dateTo = shiftsService.findDateToForOrder(dateFrom, 2 * 3600L);
         // then
+        assertEquals(new DateTime(2016, 5, 3, 8, 0).toDate(), dateTo);
+    }
+
+    private void mockShiftWorkingEveryDay(final String hours) {
+        exceptions = mockEntityList(new ArrayList<Entity>());
+
+        when(shift.copy()).thenReturn(shift);
+        for (String day : new String[] { "monday", "tuesday", "wensday", "thursday", "friday", "saturday", "sunday" }) {
+            when(shift.getBooleanField(day + "Working")).thenReturn(true);
+            when(shift.getStringField(day + "Hours")).thenReturn(hours);
+        }
+        when(shift.getHasManyField("timetableExceptions")).thenReturn((EntityList) exceptions);
+
+        when(workingTimeCalendarService.getCalendar()).thenReturn(
+                WorkingTimeCalendar.build(Lists.newArrayList(new Shift(shift)), CALENDAR_FROM, CALENDAR_TO));
     }
 }
@@ -0,0 +1,79 @@
+package com.qcadoo.mes.basic.controllers.dataProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
+
+public class DataProviderTest {
+
+    private DataProvider dataProvider;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        dataProvider = new DataProvider();
+
+        ReflectionTestUtils.setField(dataProvider, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @Test
+    public void shouldReturnProductsWithOneLimitedQuery() {
+        // given
+        List<AbstractDTO> products = Collections.nCopies(3, mock(ProductDTO.class));
+
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(products);
+
+        // when
+        DataResponse response = dataProvider.getProductsResponseByQuery("abc");
+
+        // then
+        assertEquals(3, response.getNumberOfResults());
+        assertEquals(3, response.getEntities().size());
+
+        verify(jdbcTemplate, times(1)).query(endsWith("LIMIT 21"), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    public void shouldDetectTooManyResultsWithoutCounting() {
+        // given
+        List<AbstractDTO> products = Collections.nCopies(21, mock(ProductDTO.class));
+
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(products);
+
+        // when
+        DataResponse response = dataProvider.getProductsResponseByQuery("a");
+
+        // then
+        assertEquals(20, response.getNumberOfResults());
+        assertTrue(response.getEntities().isEmpty());
+
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.qcadoo.mes.basic.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class NotificationCounterTest {
+
+    private NotificationCounter<Long> notificationCounter;
+
+    @Before
+    public void init() {
+        notificationCounter = new NotificationCounter<>();
+    }
+
+    @Test
+    public void shouldIgnoreChangesBeforeCountsAreLoaded() {
+        // when
+        notificationCounter.increment(1L);
+
+        // then
+        assertFalse(notificationCounter.isLoaded());
+        assertEquals(0, notificationCounter.get(1L));
+    }
+
+    @Test
+    public void shouldApplyChangesToLoadedCounts() {
+        // given
+        notificationCounter.load(ImmutableMap.of(1L, 2L, 2L, 1L));
+
+        // when
+        notificationCounter.increment(1L);
+        notificationCounter.decrement(2L);
+        notificationCounter.increment(3L);
+
+        // then
+        assertTrue(notificationCounter.isLoaded());
+        assertEquals(3, notificationCounter.get(1L));
+        assertEquals(0, notificationCounter.get(2L));
+        assertEquals(4, notificationCounter.sum());
+        assertEquals(1, notificationCounter.sum(key -> key > 2L));
+    }
+
+    @Test
+    public void shouldNotReturnNegativeCounts() {
+        // given
+        notificationCounter.load(ImmutableMap.of(1L, 0L));
+
+        // when
+        notificationCounter.decrement(1L);
+
+        // then
+        assertEquals(0, notificationCounter.get(1L));
+        assertEquals(0, notificationCounter.sum());
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.qcadoo.mes.basic.product.importing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.Entity;
+
+public class LookupCacheTest {
+
+    private LookupCache lookupCache;
+
+    private List<Collection<String>> prefetchedKeys;
+
+    private List<String> foundKeys;
+
+    private Entity unit, firstDuplicate, secondDuplicate;
+
+    @Before
+    public void init() {
+        lookupCache = new LookupCache();
+        prefetchedKeys = Lists.newArrayList();
+        foundKeys = Lists.newArrayList();
+
+        unit = mockEntity("szt");
+        firstDuplicate = mockEntity("kg");
+        secondDuplicate = mockEntity("kg");
+    }
+
+    @Test
+    public void shouldResolveEveryValueOnce() {
+        // given
+        lookupCache.prefetch("units", Lists.newArrayList("szt", "m"), "name", this::findAll);
+
+        // when
+        lookupCache.prefetch("units", Lists.newArrayList("szt", "m"), "name", this::findAll);
+
+        // then
+        assertEquals(1, prefetchedKeys.size());
+        assertEquals(unit, lookupCache.find("units", "szt", this::find).get());
+        assertFalse(lookupCache.find("units", "m", this::find).isPresent());
+        assertEquals(0, foundKeys.size());
+    }
+
+    @Test
+    public void shouldLeaveAmbiguousValuesForSingleLookup() {
+        // given
+        lookupCache.prefetch("units", Lists.newArrayList("kg"), "name", this::findAll);
+
+        // when
+        lookupCache.find("units", "kg", this::find);
+        lookupCache.find("units", "kg", this::find);
+
+        // then
+        assertEquals(Lists.newArrayList("kg"), foundKeys);
+    }
+
+    @Test
+    public void shouldKeepLookupsSeparate() {
+        // given
+        Function<String, Entity> finder = key -> unit;
+
+        // when
+        lookupCache.find("units", "szt", finder);
+
+        // then
+        assertFalse(lookupCache.find("categories", "szt", this::find).isPresent());
+        assertEquals(Lists.newArrayList("szt"), foundKeys);
+    }
+
+    private List<Entity> findAll(final Collection<String> keys) {
+        prefetchedKeys.add(keys);
+
+        List<Entity> entities = Lists.newArrayList();
+
+        for (Entity entity : Lists.newArrayList(unit, firstDuplicate, secondDuplicate)) {
+            if (keys.contains(entity.getStringField("name"))) {
+                entities.add(entity);
+            }
+        }
+
+        return entities;
+    }
+
+    private Entity find(final String key) {
+        foundKeys.add(key);
+
+        return null;
+    }
+
+    private Entity mockEntity(final String name) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getStringField("name")).willReturn(name);
+
+        return entity;
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.qcadoo.mes.basic.product.importing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class XlsxRowsReaderTest {
+
+    private File file;
+
+    private List<Integer> rowIndexes;
+
+    private List<String[]> rows;
+
+    @Before
+    public void init() throws IOException {
+        file = File.createTempFile("productsImport", ".xlsx");
+        rowIndexes = Lists.newArrayList();
+        rows = Lists.newArrayList();
+    }
+
+    @After
+    public void cleanUp() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadFormattedAndTrimmedCellsSkippingHeader() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        sheet.createRow(0).createCell(0).setCellValue("number");
+
+        Row row = sheet.createRow(1);
+
+        row.createCell(0).setCellValue(" P-1 ");
+        row.createCell(3).setCellValue("szt");
+        row.createCell(10).setCellValue(12);
+        row.createCell(20).setCellValue("outside of schema");
+
+        write(workbook);
+
+        // when
+        XlsxRowsReader.readFirstSheet(file, Locale.ENGLISH, this::collect);
+
+        // then
+        assertEquals(Lists.newArrayList(1), rowIndexes);
+        assertEquals("P-1", rows.get(0)[0]);
+        assertNull(rows.get(0)[1]);
+        assertEquals("szt", rows.get(0)[3]);
+        assertEquals("12", rows.get(0)[10]);
+        assertEquals(SpreadsheetSchemaInfo.COLUMN_NUMBER, rows.get(0).length);
+    }
+
+    @Test
+    public void shouldStopAtFirstMissingRow() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        sheet.createRow(1).createCell(0).setCellValue("P-1");
+        sheet.createRow(2).createCell(1).setCellValue("name");
+        sheet.createRow(4).createCell(0).setCellValue("P-4");
+
+        write(workbook);
+
+        // when
+        XlsxRowsReader.readFirstSheet(file, Locale.ENGLISH, this::collect);
+
+        // then
+        assertEquals(Lists.newArrayList(1, 2), rowIndexes);
+        assertNull(rows.get(1)[0]);
+        assertEquals("name", rows.get(1)[1]);
+    }
+
+    @Test
+    public void shouldStopAtFirstRowWithoutValues() throws IOException {
+        // given
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        sheet.createRow(1).createCell(0).setCellValue("P-1");
+        sheet.createRow(2).createCell(0);
+        sheet.createRow(3).createCell(0).setCellValue("P-3");
+
+        write(workbook);
+
+        // when
+        XlsxRowsReader.readFirstSheet(file, Locale.ENGLISH, this::collect);
+
+        // then
+        assertEquals(Lists.newArrayList(1), rowIndexes);
+    }
+
+    @Test
+    public void shouldStreamLargeSheet() throws IOException {
+        // given
+        int rowsCount = 20000;
+
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+
+        for (int rowIndex = 1; rowIndex <= rowsCount; rowIndex++) {
+            Row row = sheet.createRow(rowIndex);
+
+            row.createCell(0).setCellValue("P-" + rowIndex);
+            row.createCell(1).setCellValue("Product " + rowIndex);
+            row.createCell(3).setCellValue("szt");
+        }
+
+        write(workbook);
+
+        AtomicInteger readRowsCount = new AtomicInteger();
+
+        // when
+        XlsxRowsReader.readFirstSheet(file, Locale.ENGLISH, (rowIndex, cellValues) -> {
+            int expectedRowIndex = readRowsCount.incrementAndGet();
+
+            assertEquals(expectedRowIndex, rowIndex);
+            assertEquals("P-" + expectedRowIndex, cellValues[0]);
+            assertEquals("Product " + expectedRowIndex, cellValues[1]);
+            assertEquals("szt", cellValues[3]);
+        });
+
+        // then
+        assertEquals(rowsCount, readRowsCount.get());
+    }
+
+    private void collect(final int rowIndex, final String[] cellValues) {
+        rowIndexes.add(rowIndex);
+        rows.add(cellValues);
+    }
+
+    private void write(final XSSFWorkbook workbook) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            workbook.write(outputStream);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.qcadoo.mes.basic.reports;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+public class ReportJobServiceTest {
+
+    private static final String L_REPORT_TYPE = "report";
+
+    private static final long L_TIMEOUT_SECONDS = 10;
+
+    private ReportJobService reportJobService;
+
+    private CountDownLatch release;
+
+    @Before
+    public void init() {
+        reportJobService = new ReportJobService();
+
+        ReflectionTestUtils.setField(reportJobService, "reportJobWorker", new ReportJobWorker());
+
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+
+        reportJobService.shutdown();
+    }
+
+    @Test
+    public void shouldNotRunMoreJobsOfOneTypeThanItsLimit() throws InterruptedException {
+        // given
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        reportJobService.setReportTypeLimit(L_REPORT_TYPE, 2);
+
+        // when
+        List<ReportJob> jobs = Lists.newArrayList();
+
+        for (long entityId = 1; entityId <= 6; entityId++) {
+            jobs.add(reportJobService.submit(L_REPORT_TYPE, entityId, job -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+                Thread.sleep(20);
+
+                running.decrementAndGet();
+            }).get());
+        }
+
+        // then
+        for (ReportJob job : jobs) {
+            assertTrue(job.awaitDone(L_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(ReportJobStatus.FINISHED, job.getStatus());
+            assertEquals(100, job.getProgress());
+        }
+
+        assertTrue("At most 2 jobs should run at once, but " + maxRunning.get() + " did", maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void shouldReturnUnfinishedJobOfTheSameReport() throws InterruptedException {
+        // given
+        ReportJob job = reportJobService.submit(L_REPORT_TYPE, 1L, this::awaitRelease).get();
+
+        // when
+        ReportJob resubmittedJob = reportJobService.submit(L_REPORT_TYPE, 1L, this::awaitRelease).get();
+
+        // then
+        assertSame(job, resubmittedJob);
+        assertSame(job, reportJobService.findJob(L_REPORT_TYPE, 1L).get());
+        assertFalse(job.isDone());
+
+        release.countDown();
+
+        assertTrue(job.awaitDone(L_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(ReportJobStatus.FINISHED, job.getStatus());
+    }
+
+    @Test
+    public void shouldMarkJobAsFailedWhenTaskThrowsException() throws InterruptedException {
+        // when
+        ReportJob job = reportJobService.submit(L_REPORT_TYPE, 1L, reportJob -> {
+            reportJob.setProgress(40);
+
+            throw new IllegalStateException("Problem with saving report");
+        }).get();
+
+        // then
+        assertTrue(job.awaitDone(L_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(ReportJobStatus.FAILED, job.getStatus());
+        assertEquals("Problem with saving report", job.getErrorMessage());
+        assertEquals(40, job.getProgress());
+    }
+
+    @Test
+    public void shouldReportProgressOfJobRunningOnCurrentThread() throws InterruptedException {
+        // given
+        List<Integer> progress = Lists.newArrayList();
+
+        // when
+        ReportJob job = reportJobService.submit(L_REPORT_TYPE, 1L, reportJob -> {
+            for (int processed = 1; processed <= 4; processed++) {
+                reportJobService.reportProgress(processed, 4);
+
+                progress.add(reportJob.getProgress());
+            }
+        }).get();
+
+        // then
+        assertTrue(job.awaitDone(L_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Lists.newArrayList(25, 50, 75, 99), progress);
+        assertEquals(100, job.getProgress());
+    }
+
+    @Test
+    public void shouldIgnoreProgressOutsideOfJobs() {
+        // when
+        reportJobService.reportProgress(1, 2);
+
+        // then
+        assertFalse(reportJobService.findJob(L_REPORT_TYPE, 1L).isPresent());
+    }
+
+    @Test
+    public void shouldRejectJobsWhenQueueIsFull() {
+        // given
+        for (long entityId = 1; entityId <= 51; entityId++) {
+            assertTrue(reportJobService.submit(L_REPORT_TYPE, entityId, this::awaitRelease).isPresent());
+        }
+
+        // when
+        Optional<ReportJob> rejectedJob = reportJobService.submit(L_REPORT_TYPE, 52L, this::awaitRelease);
+
+        // then
+        assertFalse(rejectedJob.isPresent());
+    }
+
+    private void awaitRelease(final ReportJob job) throws InterruptedException {
+        release.await(L_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+}
@@ -124,6 +124,39 @@ public class ShiftTest {
         assertEquals(expectedTimeRanges, timeRanges);
     }
 
+    @Test
+    public final void shouldFindTimetableExceptionsOverlappingDatesInTheirOriginalOrder() {
+        // given
+        DateTime mondayMidnight = new DateTime(2013, 9, 2, 0, 0);
+
+        Entity longFreeTime = mockTimetableException(TimetableExceptionType.FREE_TIME, mondayMidnight.minusDays(10),
+                mondayMidnight.plusDays(1));
+        Entity nextWeekWorkTime = mockTimetableException(TimetableExceptionType.WORK_TIME, mondayMidnight.plusDays(7),
+                mondayMidnight.plusDays(7).plusHours(8));
+        Entity workTime = mockTimetableException(TimetableExceptionType.WORK_TIME, mondayMidnight.plusHours(20),
+                mondayMidnight.plusHours(22));
+        Entity pastFreeTime = mockTimetableException(TimetableExceptionType.FREE_TIME, mondayMidnight.minusDays(20),
+                mondayMidnight.minusDays(19));
+
+        EntityList timetableExceptionsList = mockEntityList(Lists.newArrayList(longFreeTime, nextWeekWorkTime, workTime,
+                pastFreeTime));
+        given(shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS)).willReturn(timetableExceptionsList);
+
+        // when
+        Shift shift = new Shift(shiftEntity);
+        List<ShiftTimetableException> exceptions = shift.findTimetableExceptions(mondayMidnight.plusHours(12).toDate(),
+                mondayMidnight.plusHours(21).toDate());
+
+        // then
+        assertEquals(2, exceptions.size());
+        assertEquals(TimetableExceptionType.FREE_TIME, exceptions.get(0).getType());
+        assertEquals(mondayMidnight.minusDays(10).toDate(), exceptions.get(0).getFromDate());
+        assertEquals(TimetableExceptionType.WORK_TIME, exceptions.get(1).getType());
+        assertEquals(mondayMidnight.plusHours(20).toDate(), exceptions.get(1).getFromDate());
+        assertTrue(shift.findTimetableExceptions(mondayMidnight.plusDays(2).toDate(), mondayMidnight.plusDays(3).toDate())
+                .isEmpty());
+    }
+
     private EntityList mockEntityList(final List<Entity> entities) {
         EntityList entityList = mock(EntityList.class);
         given(entityList.iterator()).willReturn(entities.iterator());
@@ -0,0 +1,115 @@
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class WorkingTimeCalendarTest {
+
+    private static final DateTime CALENDAR_FROM = new DateTime(2013, 8, 1, 0, 0);
+
+    private static final DateTime CALENDAR_TO = new DateTime(2013, 10, 1, 0, 0);
+
+    // 2013-09-02 is monday
+    private static final DateTime MONDAY_MIDNIGHT = new DateTime(2013, 9, 2, 0, 0);
+
+    @Test
+    public final void shouldSkipGapsBetweenWorkTimes() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar(mockShift("6:00-12:00, 21:30-2:30"));
+
+        // when
+        Date dateTo = calendar.findDateAfterWorkingSeconds(MONDAY_MIDNIGHT.plusHours(10).toDate(), 4 * 3600L).get();
+        Date dateFrom = calendar.findDateBeforeWorkingSeconds(dateTo, 4 * 3600L).get();
+
+        // then
+        assertEquals(MONDAY_MIDNIGHT.plusHours(23).plusMinutes(30).toDate(), dateTo);
+        assertEquals(MONDAY_MIDNIGHT.plusHours(10).toDate(), dateFrom);
+    }
+
+    @Test
+    public final void shouldMergeOverlappingShifts() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar(mockShift("6:00-14:00"), mockShift("12:00-18:00"));
+
+        // when
+        Date dateTo = calendar.findDateAfterWorkingSeconds(MONDAY_MIDNIGHT.toDate(), 13 * 3600L).get();
+
+        // then
+        assertEquals(MONDAY_MIDNIGHT.plusDays(1).plusHours(7).toDate(), dateTo);
+    }
+
+    @Test
+    public final void shouldApplyTimetableExceptions() {
+        // given
+        Entity freeTime = mockTimetableException(TimetableExceptionType.FREE_TIME, MONDAY_MIDNIGHT.plusHours(8),
+                MONDAY_MIDNIGHT.plusHours(10));
+        Entity workTime = mockTimetableException(TimetableExceptionType.WORK_TIME, MONDAY_MIDNIGHT.plusHours(20),
+                MONDAY_MIDNIGHT.plusHours(22));
+        WorkingTimeCalendar calendar = buildCalendar(mockShift("6:00-12:00", freeTime, workTime));
+
+        // when
+        Date dateTo = calendar.findDateAfterWorkingSeconds(MONDAY_MIDNIGHT.plusHours(7).toDate(), 5 * 3600L).get();
+
+        // then
+        assertEquals(MONDAY_MIDNIGHT.plusHours(22).toDate(), dateTo);
+    }
+
+    @Test
+    public final void shouldReturnEmptyOutsideCalendar() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar(mockShift("6:00-14:00"));
+
+        // when & then
+        assertFalse(calendar.findDateAfterWorkingSeconds(CALENDAR_TO.minusDays(1).toDate(), 48 * 3600L).isPresent());
+        assertFalse(calendar.findDateBeforeWorkingSeconds(CALENDAR_FROM.plusDays(1).toDate(), 48 * 3600L).isPresent());
+        assertFalse(buildCalendar().findDateAfterWorkingSeconds(MONDAY_MIDNIGHT.toDate(), 0L).isPresent());
+    }
+
+    private WorkingTimeCalendar buildCalendar(final Shift... shifts) {
+        return WorkingTimeCalendar.build(Lists.newArrayList(shifts), CALENDAR_FROM, CALENDAR_TO);
+    }
+
+    private Shift mockShift(final String hours, final Entity... timetableExceptions) {
+        Entity shiftEntity = mock(Entity.class);
+        given(shiftEntity.copy()).willReturn(shiftEntity);
+        given(shiftEntity.getBooleanField(Mockito.anyString())).willReturn(true);
+        given(shiftEntity.getStringField(Mockito.anyString())).willReturn(hours);
+
+        EntityList timetableExceptionsList = mockEntityList(Lists.newArrayList(timetableExceptions));
+        given(shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS)).willReturn(timetableExceptionsList);
+
+        return new Shift(shiftEntity);
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willReturn(entities.iterator());
+        given(entityList.isEmpty()).willReturn(entities.isEmpty());
+        return entityList;
+    }
+
+    private Entity mockTimetableException(final TimetableExceptionType type, final DateTime from, final DateTime to) {
+        Entity timetableException = mock(Entity.class);
+        given(timetableException.getStringField(ShiftTimetableExceptionFields.TYPE)).willReturn(type.getStringValue());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.FROM_DATE)).willReturn(from.toDate());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.TO_DATE)).willReturn(to.toDate());
+        return timetableException;
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.qcadoo.mes.basic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class VersionedCacheTest {
+
+    private VersionedCache<Long, String> cache;
+
+    private List<Long> removedKeys;
+
+    private AtomicInteger loads;
+
+    @Before
+    public void init() {
+        removedKeys = Lists.newArrayList();
+        loads = new AtomicInteger();
+
+        cache = new VersionedCache<Long, String>(2, 0) {
+
+            @Override
+            protected void entryRemoved(final Long key, final String value) {
+                removedKeys.add(key);
+            }
+
+        };
+    }
+
+    @Test
+    public void shouldLoadValueOnce() {
+        // when
+        String first = cache.get(1L, () -> load(1L));
+        String second = cache.get(1L, () -> load(1L));
+
+        // then
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldReloadOnlyInvalidatedKey() {
+        // given
+        cache.get(1L, () -> load(1L));
+        cache.get(2L, () -> load(2L));
+
+        // when
+        cache.invalidate(1L);
+
+        cache.get(1L, () -> load(1L));
+        cache.get(2L, () -> load(2L));
+
+        // then
+        assertEquals(3, loads.get());
+        assertEquals(Lists.newArrayList(1L), removedKeys);
+    }
+
+    @Test
+    public void shouldReloadAllKeysAfterInvalidateAll() {
+        // given
+        cache.get(1L, () -> load(1L));
+        cache.get(2L, () -> load(2L));
+
+        // when
+        cache.invalidateAll();
+
+        cache.get(1L, () -> load(1L));
+        cache.get(2L, () -> load(2L));
+
+        // then
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void shouldNotPublishValueLoadedBeforeInvalidation() {
+        // given
+        cache.get(1L, () -> {
+            cache.invalidateAll();
+
+            return load(1L);
+        });
+
+        // when
+        cache.get(1L, () -> load(1L));
+
+        // then
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsedEntryAboveMaxEntries() {
+        // given
+        cache.get(1L, () -> load(1L));
+        cache.get(2L, () -> load(2L));
+        cache.get(1L, () -> load(1L));
+
+        // when
+        cache.get(3L, () -> load(3L));
+
+        // then
+        assertEquals(Lists.newArrayList(2L), removedKeys);
+        assertEquals(3, loads.get());
+    }
+
+    private String load(final Long key) {
+        loads.incrementAndGet();
+
+        return "value " + key;
+    }
+
+}
@@ -23,6 +23,8 @@
  */
 package com.qcadoo.mes.cmmsMachineParts;
 
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.notification.NotificationCounter;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventFields;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventType;
@@ -31,22 +33,37 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.constants.QcadooSecurityConstants;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class MaintenanceEventService {
 
+    private static final long RELOAD_COUNTS_DELAY = 5 * 60 * 1000L;
+
+    private static final Long L_NO_FACTORY = 0L;
+
+    private static final String SOUND_NOTIFICATIONS_COUNTS_QUERY = "SELECT COALESCE(factory_id, 0) AS factory_id, COUNT(*) AS events "
+            + "FROM cmmsmachineparts_maintenanceevent WHERE soundnotifications = true GROUP BY COALESCE(factory_id, 0)";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final NotificationCounter<Long> soundNotificationsCounter = new NotificationCounter<>();
+
     public boolean existOpenFailrueForObjectFromEvent(final Entity event) {
 
         return !getExistingEventsForEvent(event, MaintenanceEventType.FAILURE.getStringValue()).isEmpty();
@@ -113,25 +130,61 @@ public class MaintenanceEventService {
     }
 
     public boolean existsNewEventsToNotification(Long currentUserId) {
+        if (!soundNotificationsCounter.isLoaded()) {
+            reloadSoundNotificationsCounts();
+        }
+
         Entity user = dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER, QcadooSecurityConstants.MODEL_USER)
                 .get(currentUserId);
         Entity factory = user.getBelongsToField("factory");
 
-       SearchCriteriaBuilder scb = getMaintenanceEventDD()
-                .find()
-                .setProjection(SearchProjections.alias(SearchProjections.rowCount(), "countrows"))
-                .add(SearchRestrictions.eq(MaintenanceEventFields.SOUND_NOTIFICATIONS, true));
-
         if (factory != null) {
-            scb = scb.add(SearchRestrictions.belongsTo("factory", factory));
+            return soundNotificationsCounter.get(factory.getId()) > 0;
+        }
+        return soundNotificationsCounter.sum() > 0;
+    }
+
+    public void onEventSave(final DataDefinition eventDD, final Entity event) {
+        if (!soundNotificationsCounter.isLoaded()) {
+            return;
         }
 
-        scb = scb.addOrder(SearchOrders.asc("countrows"));
+        if (event.getId() != null) {
+            Entity eventDB = eventDD.get(event.getId());
 
-        Entity entity = scb.setFirstResult(0).setMaxResults(1).uniqueResult();
-        if (entity.getLongField("countrows") > 0) {
-            return true;
+            if (eventDB != null && eventDB.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS)) {
+                soundNotificationsCounter.decrement(getFactoryId(eventDB));
+            }
         }
-        return false;
+
+        if (event.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS)) {
+            soundNotificationsCounter.increment(getFactoryId(event));
+        }
+    }
+
+    public void onEventDelete(final Entity event) {
+        if (soundNotificationsCounter.isLoaded() && event.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS)) {
+            soundNotificationsCounter.decrement(getFactoryId(event));
+        }
+    }
+
+    /**
+     * Events with sound notifications are counted in memory per factory, counts are changed by event model hooks and reloaded
+     * periodically with one aggregated query.
+     */
+    @Scheduled(initialDelay = RELOAD_COUNTS_DELAY, fixedDelay = RELOAD_COUNTS_DELAY)
+    public synchronized void reloadSoundNotificationsCounts() {
+        Map<Long, Long> counts = Maps.newHashMap();
+
+        jdbcTemplate.query(SOUND_NOTIFICATIONS_COUNTS_QUERY, Collections.emptyMap(),
+                (RowCallbackHandler) rs -> counts.put(rs.getLong("factory_id"), rs.getLong("events")));
+
+        soundNotificationsCounter.load(counts);
+    }
+
+    private Long getFactoryId(final Entity event) {
+        Entity factory = event.getBelongsToField(MaintenanceEventFields.FACTORY);
+
+        return factory == null ? L_NO_FACTORY : factory.getId();
     }
 }
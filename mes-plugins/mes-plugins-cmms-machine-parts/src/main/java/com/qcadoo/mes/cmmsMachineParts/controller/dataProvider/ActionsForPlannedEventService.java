@@ -10,7 +10,6 @@ import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
@@ -21,7 +20,6 @@ import com.qcadoo.mes.basic.BasicException;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.LookupUtils;
 import com.qcadoo.mes.basic.controllers.dataProvider.DataProvider;
-import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
 import com.qcadoo.mes.cmmsMachineParts.constants.ActionForPlannedEventFields;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
@@ -101,19 +99,6 @@ public class ActionsForPlannedEventService {
         }).collect(Collectors.toList());
     }
 
-    public List<AbstractDTO> getActions(String q, Long plannedEventId) {
-
-        if (plannedEventId == null) {
-            return Lists.newArrayList();
-        } else {
-            Map<String, Object> paramMap = new HashMap<>();
-            paramMap.put("id", plannedEventId);
-            paramMap.put("query", '%' + q + '%');
-            String query = generateQuery(plannedEventId) + " LIMIT 20";
-            return jdbcTemplate.query(query, paramMap, new BeanPropertyRowMapper(ActionDTO.class));
-        }
-    }
-
     private String generateQuery(Long plannedEventId) {
         Entity plannedEvent = dataDefinitionService
                 .get(CmmsMachinePartsConstants.PLUGIN_IDENTIFIER, CmmsMachinePartsConstants.MODEL_PLANNED_EVENT)
@@ -147,26 +132,19 @@ public class ActionsForPlannedEventService {
     }
 
     public DataResponse getActionsForObject(String q, Long plannedEventId) {
-        List<AbstractDTO> entities = getActions(q, plannedEventId);
+        if (plannedEventId == null) {
+            return new DataResponse(Lists.newArrayList(), 0);
+        }
         Map<String, Object> paramMap = new HashMap<>();
         paramMap.put("id", plannedEventId);
-        return dataProvider.getDataResponse(q, generateQuery(plannedEventId), entities, paramMap);
-
-    }
-
-    public List<AbstractDTO> getWorkers(String q) {
-        Map<String, Object> paramMap = new HashMap<>();
-        paramMap.put("q", '%' + q + '%');
-        String query = "SELECT id, name  || ' ' || surname || ' - ' || number AS code FROM basic_staff WHERE name  || ' ' || surname || ' - ' || number ilike :q LIMIT 20;";
-        return jdbcTemplate.query(query, paramMap, new BeanPropertyRowMapper(WorkerDTO.class));
+        return dataProvider.getDataResponse(q, generateQuery(plannedEventId), ActionDTO.class, paramMap);
     }
 
     public DataResponse getAllWorkers(String query) {
-        List<AbstractDTO> entities = getWorkers(query);
         Map<String, Object> paramMap = new HashMap<>();
         return dataProvider.getDataResponse(query,
                 "SELECT id, name  || ' ' || surname || ' - ' || number AS code FROM basic_staff WHERE name  || ' ' || surname || ' - ' || number ilike :query;",
-                entities, paramMap);
+                WorkerDTO.class, paramMap);
     }
 
     private Long getWorkerId(String q) {
@@ -1,7 +1,9 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents;
 
-import com.google.common.base.Function;
-import com.google.common.collect.*;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.StreamingQueryService;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MachinePartDTO;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MaintenanceEventDTO;
@@ -12,20 +14,36 @@ import com.qcadoo.model.api.Entity;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+/**
+ * Reads maintenance events for the report with one query over events and their single valued references, work times, machine
+ * parts and state changes are read with separate queries keyed by ids of a chunk of events, so child rows are never
+ * multiplied by each other.
+ */
 @Service public class MaintenanceEventsXLSDataProvider {
 
+    private static final int CHUNK_SIZE = 500;
+
+    private static final String L_EVENT_ID = "eventId";
+
+    private static final String L_EVENT_IDS = "eventIds";
+
     @Autowired private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Autowired private DataDefinitionService dataDefinitionService;
 
+    @Autowired private StreamingQueryService streamingQueryService;
+
     private final static String query =
             "SELECT maintenanceevent.id as id, \n" + "maintenanceevent.number as number, \n" + "maintenanceevent.type as type, \n"
                     + "factory.number as factoryNumber, \n" + "division.number as divisionNumber,\n"
@@ -33,28 +51,11 @@ import java.util.stream.Collectors;
                     + "subassembly.number as subassemblyNumber,\n" + "faulttype.name as faultTypeName,\n"
                     + "maintenanceevent.description as description,\n"
                     + "(personreceiving.surname || ' ' || personreceiving.name ) as personReceiving,\n"
-                    + "sourcecost.number as sourceCost,\n" + "staffworktime.id as staffworkTimeId,\n"
-                    + "(staffworktimestaff.surname || ' ' || staffworktimestaff.name ) as staffWorkTimeWorker,\n"
-                    + "staffworktime.laborTime as staffWorkTimeLaborTime,\n" + "docpos.id as machinePartId,\n"
-                    + "product.number as partNumber,\n" + "product.name as partName,\n" + "warehouse.number as warehouseNumber,\n"
-                    + "product.lastpurchasecost * docpos.quantity as lastPurchaseCost,\n"
-                    + "docpos.price * docpos.quantity as priceFromDocumentPosition,\n" + "docpos.price as priceFromPosition,\n"
-                    + "docpos.quantity as quantityFromPosition,\n"
-                    + "docpos.quantity as partPlannedQuantity,\n" + "product.unit as partUnit,\n"
+                    + "sourcecost.number as sourceCost,\n"
                     + "maintenanceevent.createdate as createDate,\n" + "maintenanceevent.createuser as createUser,\n"
-                    + "statechange.id as stateChangeId, \n" + "statechange.dateandtime as stateChangeDateAndTime, \n"
-                    + "statechange.sourcestate as stateChangeSourceState, \n"
-                    + "statechange.targetstate as stateChangeTargetState , \n" + "statechange.status as stateStatus,\n"
-                    + "statechange.worker as stateWorker,\n" + "maintenanceevent.state as state,\n"
+                    + "maintenanceevent.state as state,\n"
                     + "maintenanceevent.solutiondescription as solutionDescription\n"
                     + "FROM cmmsmachineparts_maintenanceevent maintenanceevent\n"
-                    + "LEFT JOIN cmmsmachineparts_staffworktime staffworktime ON maintenanceevent.id = staffworktime.maintenanceevent_id\n"
-                    + "LEFT JOIN basic_staff staffworktimestaff ON staffworktime.worker_id = staffworktimestaff.id\n"
-                    + "LEFT JOIN materialflowresources_document doc ON maintenanceevent.id = doc.maintenanceevent_id and doc.state = '02accepted'\n"
-                    + "LEFT JOIN materialflowresources_position docpos ON docpos.document_id = doc.id\n"
-                    + "LEFT JOIN basic_product product ON docpos.product_id = product.id\n"
-                    + "LEFT JOIN materialflow_location warehouse ON doc.locationfrom_id = warehouse.id\n"
-                    + "LEFT JOIN cmmsmachineparts_maintenanceeventstatechange statechange ON maintenanceevent.id = statechange.maintenanceevent_id\n"
                     + "LEFT JOIN basic_factory factory ON maintenanceevent.factory_id = factory.id\n"
                     + "LEFT JOIN basic_division division ON maintenanceevent.division_id = division.id\n"
                     + "LEFT JOIN productionlines_productionline productionline ON maintenanceevent.productionline_id = productionline.id\n"
@@ -66,102 +67,80 @@ import java.util.stream.Collectors;
 
     private final static String ORDER_BY = " ORDER BY maintenanceevent.number";
 
-    public List<MaintenanceEventDTO> getEvents(final Map<String, Object> filters) {
-        List<MaintenanceEventDTO> events = Lists.newArrayList();
-        String _query = buildQuery(filters);
-        events = jdbcTemplate.query(_query, new BeanPropertyRowMapper(MaintenanceEventDTO.class));
-        List<MaintenanceEventDTO> finalEvents = processResults(events);
-        finalEvents.sort((e1, e2) -> e1.getNumber().compareTo(e2.getNumber()));
-        return finalEvents;
-    }
-
-    private List<MaintenanceEventDTO> processResults(List<MaintenanceEventDTO> events) {
-        Multimap<Long, MaintenanceEventDTO> eventsMap = ArrayListMultimap.create();
-        eventsMap = Multimaps.index(events, new Function<MaintenanceEventDTO, Long>() {
-
-            @Override public Long apply(MaintenanceEventDTO maintenanceEventDTO) {
-                return maintenanceEventDTO.getId();
+    private final static String WORK_TIMES_QUERY = "SELECT staffworktime.maintenanceevent_id as eventId, \n"
+            + "staffworktime.id as staffworkTimeId,\n"
+            + "(staffworktimestaff.surname || ' ' || staffworktimestaff.name ) as staffWorkTimeWorker,\n"
+            + "staffworktime.laborTime as staffWorkTimeLaborTime\n"
+            + "FROM cmmsmachineparts_staffworktime staffworktime\n"
+            + "LEFT JOIN basic_staff staffworktimestaff ON staffworktime.worker_id = staffworktimestaff.id\n"
+            + "WHERE staffworktime.maintenanceevent_id IN (:eventIds)\n" + "ORDER BY staffworktime.id";
+
+    private final static String MACHINE_PARTS_QUERY = "SELECT doc.maintenanceevent_id as eventId, \n"
+            + "docpos.id as machinePartId,\n" + "product.number as partNumber,\n" + "product.name as partName,\n"
+            + "warehouse.number as warehouseNumber,\n"
+            + "COALESCE(docpos.price * docpos.quantity, product.lastpurchasecost * docpos.quantity) as value,\n"
+            + "docpos.quantity as partPlannedQuantity,\n" + "product.unit as partUnit\n"
+            + "FROM materialflowresources_document doc\n"
+            + "JOIN materialflowresources_position docpos ON docpos.document_id = doc.id\n"
+            + "LEFT JOIN basic_product product ON docpos.product_id = product.id\n"
+            + "LEFT JOIN materialflow_location warehouse ON doc.locationfrom_id = warehouse.id\n"
+            + "WHERE doc.maintenanceevent_id IN (:eventIds) and doc.state = '02accepted'\n" + "ORDER BY docpos.id";
+
+    private final static String STATE_CHANGES_QUERY = "SELECT statechange.maintenanceevent_id as eventId, \n"
+            + "statechange.id as stateChangeId, \n" + "statechange.dateandtime as stateChangeDateAndTime, \n"
+            + "statechange.sourcestate as stateChangeSourceState, \n"
+            + "statechange.targetstate as stateChangeTargetState , \n" + "statechange.status as stateStatus,\n"
+            + "statechange.worker as stateWorker\n"
+            + "FROM cmmsmachineparts_maintenanceeventstatechange statechange\n"
+            + "WHERE statechange.maintenanceevent_id IN (:eventIds) and statechange.status = '03successful'\n"
+            + "ORDER BY statechange.id";
+
+    public void streamEvents(final Map<String, Object> filters, final Consumer<MaintenanceEventDTO> consumer) {
+        RowMapper<MaintenanceEventDTO> rowMapper = BeanPropertyRowMapper.newInstance(MaintenanceEventDTO.class);
+        List<MaintenanceEventDTO> chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+
+        streamingQueryService.query(buildQuery(filters), Collections.emptyMap(), (RowCallbackHandler) resultSet -> {
+            chunk.add(rowMapper.mapRow(resultSet, resultSet.getRow()));
+
+            if (chunk.size() == CHUNK_SIZE) {
+                processChunk(chunk, consumer);
             }
         });
 
-        Map<Long, MaintenanceEventDTO> _events = Maps.newHashMap();
-        for (Long eID : eventsMap.keySet()) {
-            _events.put(eID, eventsMap.get(eID).iterator().next());
-        }
-        List<MaintenanceEventDTO> finalEvents = Lists.newArrayList(_events.values());
-        for (MaintenanceEventDTO maintenanceEventDTO : finalEvents) {
-            List<MaintenanceEventDTO> _subEvents = Lists.newArrayList(eventsMap.get(maintenanceEventDTO.getId()));
-
-            List<WorkTimeDTO> workTimes = fillWorkTimes(_subEvents);
-            maintenanceEventDTO.setWorkTimes(workTimes);
-
-            List<MachinePartDTO> parts = fillParts(_subEvents);
-            maintenanceEventDTO.setMachineParts(parts);
-
-            List<StateChangeDTO> hists = fillHist(_subEvents);
-            maintenanceEventDTO.setStateChange(hists);
+        processChunk(chunk, consumer);
+    }
 
+    private void processChunk(final List<MaintenanceEventDTO> chunk, final Consumer<MaintenanceEventDTO> consumer) {
+        if (chunk.isEmpty()) {
+            return;
         }
-        return finalEvents;
-    }
 
-    private List<StateChangeDTO> fillHist(List<MaintenanceEventDTO> subEvents) {
-        return subEvents.stream().map(e -> toHist(e)).filter(Objects::nonNull)
-                .filter(e -> "03successful".equals(e.getStateStatus())).distinct().collect(Collectors.toList());
+        List<Long> eventIds = chunk.stream().map(MaintenanceEventDTO::getId).collect(Collectors.toList());
 
-    }
+        ListMultimap<Long, WorkTimeDTO> workTimes = getChildren(WORK_TIMES_QUERY, eventIds, WorkTimeDTO.class);
+        ListMultimap<Long, MachinePartDTO> parts = getChildren(MACHINE_PARTS_QUERY, eventIds, MachinePartDTO.class);
+        ListMultimap<Long, StateChangeDTO> stateChanges = getChildren(STATE_CHANGES_QUERY, eventIds, StateChangeDTO.class);
 
-    private StateChangeDTO toHist(MaintenanceEventDTO e) {
-        if (e.getStateChangeId() == null) {
-            return null;
+        for (MaintenanceEventDTO event : chunk) {
+            event.setWorkTimes(workTimes.get(event.getId()));
+            event.setMachineParts(parts.get(event.getId()));
+            event.setStateChange(stateChanges.get(event.getId()));
+
+            consumer.accept(event);
         }
-        StateChangeDTO state = new StateChangeDTO();
-        state.setStateChangeDateAndTime(e.getStateChangeDateAndTime());
-        state.setStateChangeId(e.getStateChangeId());
-        state.setStateChangeSourceState(e.getStateChangeSourceState());
-        state.setStateChangeTargetState(e.getStateChangeTargetState());
-        state.setStateStatus(e.getStateStatus());
-        state.setStateWorker(e.getStateWorker());
-
-        return state;
-    }
 
-    private List<MachinePartDTO> fillParts(final List<MaintenanceEventDTO> subEvents) {
-        return subEvents.stream().map(e -> toPart(e)).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        chunk.clear();
     }
 
-    private MachinePartDTO toPart(MaintenanceEventDTO e) {
-        if (e.getMachinePartId() == null) {
-            return null;
-        }
-        MachinePartDTO part = new MachinePartDTO();
-        part.setMachinePartId(e.getMachinePartId());
-        part.setPartName(e.getPartName());
-        part.setPartNumber(e.getPartNumber());
-        part.setPartPlannedQuantity(e.getPartPlannedQuantity());
-        part.setPartUnit(e.getPartUnit());
-        part.setWarehouseNumber(e.getWarehouseNumber());
-        if(e.getPriceFromDocumentPosition() != null){
-            part.setValue(e.getPriceFromDocumentPosition());
-        } else {
-            part.setValue(e.getLastPurchaseCost());
-        }
-        return part;
-    }
+    private <T> ListMultimap<Long, T> getChildren(final String childrenQuery, final List<Long> eventIds, final Class<T> rowClass) {
+        RowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+        ListMultimap<Long, T> children = ArrayListMultimap.create();
 
-    private List<WorkTimeDTO> fillWorkTimes(final List<MaintenanceEventDTO> subEvents) {
-        return subEvents.stream().map(e -> toWorkTime(e)).filter(Objects::nonNull).distinct().collect(Collectors.toList());
-    }
+        jdbcTemplate.query(childrenQuery, Collections.singletonMap(L_EVENT_IDS, eventIds),
+                (RowCallbackHandler) resultSet -> children.put(resultSet.getLong(L_EVENT_ID),
+                        rowMapper.mapRow(resultSet, resultSet.getRow())));
 
-    private WorkTimeDTO toWorkTime(MaintenanceEventDTO e) {
-        if (e.getStaffworkTimeId() == null) {
-            return null;
-        }
-        WorkTimeDTO workTime = new WorkTimeDTO();
-        workTime.setStaffworkTimeId(e.getStaffworkTimeId());
-        workTime.setStaffWorkTimeLaborTime(e.getStaffWorkTimeLaborTime());
-        workTime.setStaffWorkTimeWorker(e.getStaffWorkTimeWorker());
-        return workTime;
+        return children;
     }
 
     private String buildQuery(final Map<String, Object> filters) {
@@ -177,4 +156,4 @@ import java.util.stream.Collectors;
         queryBuilder.append(ORDER_BY);
         return queryBuilder.toString();
     }
-}
\ No newline at end of file
+}
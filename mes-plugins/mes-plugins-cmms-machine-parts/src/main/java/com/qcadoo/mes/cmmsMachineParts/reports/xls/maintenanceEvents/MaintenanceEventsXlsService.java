@@ -8,6 +8,7 @@ import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.StateCh
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.WorkTimeDTO;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventStateStringValues;
 import com.qcadoo.model.api.NumberService;
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -52,12 +53,9 @@ public class MaintenanceEventsXlsService {
         CellStyle timeStyle = xssfWorkbook.createCellStyle();
         timeStyle.setDataFormat(dataFormat.getFormat("[HH]:MM:SS"));
 
-        List<MaintenanceEventDTO> events = dataProvider.getEvents(filters);
-        int rowCounter = 1;
-        for (MaintenanceEventDTO maintenanceEventDTO : events) {
-            rowCounter = fillEventsRows(xssfWorkbook, sheet, maintenanceEventDTO, rowCounter, numberStyle, dateStyle,
-                    dateTimeStyle, timeStyle, locale);
-        }
+        MutableInt rowCounter = new MutableInt(1);
+        dataProvider.streamEvents(filters, maintenanceEventDTO -> rowCounter.setValue(fillEventsRows(xssfWorkbook, sheet,
+                maintenanceEventDTO, rowCounter.intValue(), numberStyle, dateStyle, dateTimeStyle, timeStyle, locale)));
 
     }
 
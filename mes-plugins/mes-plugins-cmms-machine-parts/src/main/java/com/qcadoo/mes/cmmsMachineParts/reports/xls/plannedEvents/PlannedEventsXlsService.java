@@ -9,6 +9,7 @@ import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.PlannedEven
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.PlannedEventStateChangeDTO;
 import com.qcadoo.mes.cmmsMachineParts.states.constants.PlannedEventStateStringValues;
 import com.qcadoo.model.api.NumberService;
+import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.poi.hssf.usermodel.HSSFFont;
 import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.Cell;
@@ -47,7 +48,6 @@ public class PlannedEventsXlsService {
 
     public void buildExcelContent(final XSSFWorkbook workbook, final XSSFSheet sheet, final Map<String, Object> filters,
             final Locale locale) {
-        List<PlannedEventDTO> events = plannedEventsXLSDataProvider.getEvents(filters);
         fillHeaderRow(workbook, sheet, 0, locale);
         DataFormat dataFormat = workbook.createDataFormat();
         CellStyle numberStyle = workbook.createCellStyle();
@@ -62,11 +62,9 @@ public class PlannedEventsXlsService {
         CellStyle timeStyle = workbook.createCellStyle();
         timeStyle.setDataFormat(dataFormat.getFormat("[HH]:MM:SS"));
 
-        int rowCounter = 1;
-        for (PlannedEventDTO plannedEventDTO : events) {
-            rowCounter = fillEventsRows(workbook, sheet, plannedEventDTO, rowCounter++, numberStyle, dateStyle, dateTimeStyle,
-                    timeStyle, locale);
-        }
+        MutableInt rowCounter = new MutableInt(1);
+        plannedEventsXLSDataProvider.streamEvents(filters, plannedEventDTO -> rowCounter.setValue(fillEventsRows(workbook,
+                sheet, plannedEventDTO, rowCounter.intValue(), numberStyle, dateStyle, dateTimeStyle, timeStyle, locale)));
     }
 
     private void fillHeaderRow(final XSSFWorkbook workbook, final XSSFSheet sheet, Integer rowNum, final Locale locale) {
@@ -0,0 +1,165 @@
+package com.qcadoo.mes.cmmsMachineParts.hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.notification.NotificationCounter;
+import com.qcadoo.mes.cmmsMachineParts.MaintenanceEventService;
+import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventFields;
+import com.qcadoo.mes.cmmsMachineParts.states.constants.MaintenanceEventState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+public class MaintenanceEventHooksTest {
+
+    private static final Long L_EVENT_ID = 1L;
+
+    private MaintenanceEventHooks maintenanceEventHooks;
+
+    private MaintenanceEventService maintenanceEventService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition eventDD;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity factoryA, factoryB;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        maintenanceEventService = new MaintenanceEventService();
+
+        ReflectionTestUtils.setField(maintenanceEventService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(maintenanceEventService, "jdbcTemplate", jdbcTemplate);
+
+        maintenanceEventHooks = new MaintenanceEventHooks();
+
+        ReflectionTestUtils.setField(maintenanceEventHooks, "maintenanceEventService", maintenanceEventService);
+
+        given(factoryA.getId()).willReturn(101L);
+        given(factoryB.getId()).willReturn(102L);
+
+        // no events with sound notifications in the database
+        maintenanceEventService.reloadSoundNotificationsCounts();
+    }
+
+    @Test
+    public void shouldCountCreatedEventWithSoundNotificationsWithoutReadingIt() {
+        // given
+        Entity event = mockEvent(null, MaintenanceEventState.NEW, true, factoryA);
+
+        // when
+        maintenanceEventHooks.onSave(eventDD, event);
+
+        // then
+        verify(eventDD, never()).get(anyLong());
+
+        assertEquals(1, getCounter().get(factoryA.getId()));
+        assertEquals(0, getCounter().get(factoryB.getId()));
+    }
+
+    @Test
+    public void shouldUncountEventWhenItLeavesNewState() {
+        // given
+        maintenanceEventHooks.onSave(eventDD, mockEvent(null, MaintenanceEventState.NEW, true, factoryA));
+
+        Entity eventDB = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryA);
+        Entity event = mockEvent(L_EVENT_ID, MaintenanceEventState.IN_PROGRESS, false, factoryA);
+
+        given(eventDD.get(L_EVENT_ID)).willReturn(eventDB);
+
+        // when
+        maintenanceEventHooks.onSave(eventDD, event);
+
+        // then
+        verify(event).setField(MaintenanceEventFields.SOUND_NOTIFICATIONS, false);
+
+        assertEquals(0, getCounter().sum());
+    }
+
+    @Test
+    public void shouldNotCountEventTwiceWhenItIsSavedAgain() {
+        // given
+        maintenanceEventHooks.onSave(eventDD, mockEvent(null, MaintenanceEventState.NEW, true, factoryA));
+
+        Entity eventDB = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryA);
+        Entity event = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryA);
+
+        given(eventDD.get(L_EVENT_ID)).willReturn(eventDB);
+
+        // when
+        maintenanceEventHooks.onSave(eventDD, event);
+
+        // then
+        assertEquals(1, getCounter().sum());
+    }
+
+    @Test
+    public void shouldUncountDeletedEvent() {
+        // given
+        Entity event = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryA);
+
+        maintenanceEventHooks.onSave(eventDD, mockEvent(null, MaintenanceEventState.NEW, true, factoryA));
+
+        // when
+        maintenanceEventHooks.onDelete(eventDD, event);
+
+        // then
+        assertEquals(0, getCounter().sum());
+    }
+
+    @Test
+    public void shouldMoveEventToNewFactory() {
+        // given
+        maintenanceEventHooks.onSave(eventDD, mockEvent(null, MaintenanceEventState.NEW, true, factoryA));
+
+        Entity eventDB = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryA);
+        Entity event = mockEvent(L_EVENT_ID, MaintenanceEventState.NEW, true, factoryB);
+
+        given(eventDD.get(L_EVENT_ID)).willReturn(eventDB);
+
+        // when
+        maintenanceEventHooks.onSave(eventDD, event);
+
+        // then
+        assertEquals(0, getCounter().get(factoryA.getId()));
+        assertEquals(1, getCounter().get(factoryB.getId()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private NotificationCounter<Long> getCounter() {
+        return (NotificationCounter<Long>) ReflectionTestUtils.getField(maintenanceEventService, "soundNotificationsCounter");
+    }
+
+    private Entity mockEvent(final Long id, final MaintenanceEventState state, final boolean soundNotifications,
+            final Entity factory) {
+        Entity event = mock(Entity.class);
+
+        given(event.getId()).willReturn(id);
+        given(event.getStringField(MaintenanceEventFields.STATE)).willReturn(state.getStringValue());
+        given(event.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS)).willReturn(soundNotifications);
+        given(event.getBelongsToField(MaintenanceEventFields.FACTORY)).willReturn(factory);
+
+        return event;
+    }
+
+}
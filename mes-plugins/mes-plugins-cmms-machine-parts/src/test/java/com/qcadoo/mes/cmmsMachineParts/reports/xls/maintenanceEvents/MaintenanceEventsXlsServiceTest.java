@@ -0,0 +1,142 @@
+package com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MachinePartDTO;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.MaintenanceEventDTO;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.maintenanceEvents.dto.WorkTimeDTO;
+
+public class MaintenanceEventsXlsServiceTest {
+
+    private MaintenanceEventsXlsService maintenanceEventsXlsService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private MaintenanceEventsXLSDataProvider dataProvider;
+
+    private XSSFWorkbook workbook;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        maintenanceEventsXlsService = new MaintenanceEventsXlsService();
+
+        ReflectionTestUtils.setField(maintenanceEventsXlsService, "translationService", translationService);
+        ReflectionTestUtils.setField(maintenanceEventsXlsService, "dataProvider", dataProvider);
+
+        workbook = new XSSFWorkbook();
+    }
+
+    @Test
+    public void shouldWriteChildrenOfStreamedEventIntoSubRowsAndContinueBelowThem() {
+        // given
+        MaintenanceEventDTO first = event("ME-1");
+        MaintenanceEventDTO second = event("ME-2");
+
+        first.setWorkTimes(Lists.newArrayList(workTime("Kowalski Jan"), workTime("Nowak Anna")));
+        first.setMachineParts(Lists.newArrayList(part("P-1", BigDecimal.TEN)));
+
+        streamEvents(first, second);
+
+        // when
+        maintenanceEventsXlsService.buildExcelDocument(workbook, Collections.emptyMap(), Locale.ENGLISH);
+
+        // then
+        XSSFSheet sheet = workbook.getSheetAt(0);
+
+        assertEquals(3, sheet.getLastRowNum());
+
+        XSSFRow eventRow = sheet.getRow(1);
+
+        assertEquals("ME-1", getString(eventRow, MaintenanceEventsElementsReportEnum.NUMBER));
+        assertEquals("Kowalski Jan", getString(eventRow, MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_WORKER));
+        assertEquals("P-1", getString(eventRow, MaintenanceEventsElementsReportEnum.PART_NUMBER));
+        assertEquals(10d, eventRow.getCell(MaintenanceEventsElementsReportEnum.PART_PLANNED_QUANTITY.getPosition())
+                .getNumericCellValue(), 0d);
+
+        XSSFRow subRow = sheet.getRow(2);
+
+        assertEquals("ME-1", getString(subRow, MaintenanceEventsElementsReportEnum.NUMBER));
+        assertEquals("Nowak Anna", getString(subRow, MaintenanceEventsElementsReportEnum.STAFF_WORK_TIME_WORKER));
+        assertNull(subRow.getCell(MaintenanceEventsElementsReportEnum.PART_NUMBER.getPosition()));
+
+        assertEquals("ME-2", getString(sheet.getRow(3), MaintenanceEventsElementsReportEnum.NUMBER));
+    }
+
+    @Test
+    public void shouldWriteOnlyHeaderWhenNoEventsAreStreamed() {
+        // given
+        streamEvents();
+
+        // when
+        maintenanceEventsXlsService.buildExcelDocument(workbook, Collections.emptyMap(), Locale.ENGLISH);
+
+        // then
+        assertEquals(0, workbook.getSheetAt(0).getLastRowNum());
+    }
+
+    private void streamEvents(final MaintenanceEventDTO... events) {
+        willAnswer(invocation -> {
+            Consumer<MaintenanceEventDTO> consumer = (Consumer<MaintenanceEventDTO>) invocation.getArguments()[1];
+
+            for (MaintenanceEventDTO event : events) {
+                consumer.accept(event);
+            }
+
+            return null;
+        }).given(dataProvider).streamEvents(anyMap(), any(Consumer.class));
+    }
+
+    private String getString(final XSSFRow row, final MaintenanceEventsElementsReportEnum column) {
+        return row.getCell(column.getPosition()).getStringCellValue();
+    }
+
+    private MaintenanceEventDTO event(final String number) {
+        MaintenanceEventDTO event = new MaintenanceEventDTO();
+
+        event.setNumber(number);
+
+        return event;
+    }
+
+    private WorkTimeDTO workTime(final String worker) {
+        WorkTimeDTO workTime = new WorkTimeDTO();
+
+        workTime.setStaffWorkTimeWorker(worker);
+
+        return workTime;
+    }
+
+    private MachinePartDTO part(final String number, final BigDecimal quantity) {
+        MachinePartDTO part = new MachinePartDTO();
+
+        part.setPartNumber(number);
+        part.setPartPlannedQuantity(quantity);
+
+        return part;
+    }
+
+}
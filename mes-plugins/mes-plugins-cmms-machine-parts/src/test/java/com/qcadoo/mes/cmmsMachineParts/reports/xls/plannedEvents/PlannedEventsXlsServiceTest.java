@@ -0,0 +1,137 @@
+package com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.MachinePartForEventDTO;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.PlannedEventDTO;
+import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.PlannedEventRealizationDTO;
+
+public class PlannedEventsXlsServiceTest {
+
+    private static final int L_NUMBER = 0;
+
+    private static final int L_REALIZATION_WORKER = 21;
+
+    private static final int L_PART_NUMBER = 23;
+
+    private static final int L_PART_VALUE = 27;
+
+    private PlannedEventsXlsService plannedEventsXlsService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private PlannedEventsXLSDataProvider plannedEventsXLSDataProvider;
+
+    private XSSFWorkbook workbook;
+
+    private XSSFSheet sheet;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        plannedEventsXlsService = new PlannedEventsXlsService();
+
+        ReflectionTestUtils.setField(plannedEventsXlsService, "translationService", translationService);
+        ReflectionTestUtils.setField(plannedEventsXlsService, "plannedEventsXLSDataProvider", plannedEventsXLSDataProvider);
+
+        workbook = new XSSFWorkbook();
+        sheet = workbook.createSheet();
+    }
+
+    @Test
+    public void shouldWriteChildrenOfStreamedEventIntoSubRowsAndContinueBelowThem() {
+        // given
+        PlannedEventDTO first = event("PE-1");
+        PlannedEventDTO second = event("PE-2");
+
+        first.setRealizations(Lists.newArrayList(realization("Jan", "Kowalski")));
+        first.setParts(Lists.newArrayList(part("P-1", BigDecimal.ONE, new BigDecimal(25)), part("P-2", BigDecimal.ONE, null)));
+
+        streamEvents(first, second);
+
+        // when
+        plannedEventsXlsService.buildExcelContent(workbook, sheet, Collections.emptyMap(), Locale.ENGLISH);
+
+        // then
+        assertEquals(3, sheet.getLastRowNum());
+
+        XSSFRow eventRow = sheet.getRow(1);
+
+        assertEquals("PE-1", eventRow.getCell(L_NUMBER).getStringCellValue());
+        assertEquals("Jan Kowalski", eventRow.getCell(L_REALIZATION_WORKER).getStringCellValue());
+        assertEquals("P-1", eventRow.getCell(L_PART_NUMBER).getStringCellValue());
+        assertEquals(25d, eventRow.getCell(L_PART_VALUE).getNumericCellValue(), 0d);
+
+        XSSFRow subRow = sheet.getRow(2);
+
+        assertEquals("PE-1", subRow.getCell(L_NUMBER).getStringCellValue());
+        assertNull(subRow.getCell(L_REALIZATION_WORKER));
+        assertEquals("P-2", subRow.getCell(L_PART_NUMBER).getStringCellValue());
+        assertEquals(0d, subRow.getCell(L_PART_VALUE).getNumericCellValue(), 0d);
+
+        assertEquals("PE-2", sheet.getRow(3).getCell(L_NUMBER).getStringCellValue());
+    }
+
+    private void streamEvents(final PlannedEventDTO... events) {
+        willAnswer(invocation -> {
+            Consumer<PlannedEventDTO> consumer = (Consumer<PlannedEventDTO>) invocation.getArguments()[1];
+
+            for (PlannedEventDTO event : events) {
+                consumer.accept(event);
+            }
+
+            return null;
+        }).given(plannedEventsXLSDataProvider).streamEvents(anyMap(), any(Consumer.class));
+    }
+
+    private PlannedEventDTO event(final String number) {
+        PlannedEventDTO event = new PlannedEventDTO();
+
+        event.setNumber(number);
+
+        return event;
+    }
+
+    private PlannedEventRealizationDTO realization(final String name, final String surname) {
+        PlannedEventRealizationDTO realization = new PlannedEventRealizationDTO();
+
+        realization.setRealizationWorkerName(name);
+        realization.setRealizationWorkerSurname(surname);
+
+        return realization;
+    }
+
+    private MachinePartForEventDTO part(final String number, final BigDecimal quantity, final BigDecimal value) {
+        MachinePartForEventDTO part = new MachinePartForEventDTO();
+
+        part.setMachinePartNumber(number);
+        part.setMachinePartPlannedQuantity(quantity);
+        part.setValue(value);
+
+        return part;
+    }
+
+}
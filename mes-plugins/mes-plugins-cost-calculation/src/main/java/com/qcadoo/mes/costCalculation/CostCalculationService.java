@@ -25,6 +25,7 @@ package com.qcadoo.mes.costCalculation;
 
 import java.math.BigDecimal;
 
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
 import com.qcadoo.model.api.Entity;
 
 public interface CostCalculationService {
@@ -39,6 +40,18 @@ public interface CostCalculationService {
      */
     Entity calculateTotalCost(final Entity entity);
 
+    /**
+     * Calculates total cost using cost norms loaded up front for many cost calculations
+     * 
+     * @param entity
+     *            entity
+     * @param costNorms
+     *            cost norms of products, products missing there are loaded one by one
+     * 
+     * @return entity
+     */
+    Entity calculateTotalCost(final Entity entity, final ProductsCostNorms costNorms);
+
     /**
      * Calculates operations and products costs
      * 
@@ -31,6 +31,8 @@ import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -38,11 +40,16 @@ import org.springframework.stereotype.Service;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
 import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
 import com.qcadoo.mes.operationCostCalculations.OperationsCostCalculationService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
 import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.Entity;
@@ -57,6 +64,9 @@ public class CostCalculationServiceImpl implements CostCalculationService {
     @Autowired
     private ProductsCostCalculationService productsCostCalculationService;
 
+    @Autowired
+    private ProductQuantitiesService productQuantitiesService;
+
     @Autowired
     private NumberService numberService;
 
@@ -64,9 +74,14 @@ public class CostCalculationServiceImpl implements CostCalculationService {
 
     @Override
     public Entity calculateTotalCost(final Entity entity) {
+        return calculateTotalCost(entity, ProductsCostNorms.empty());
+    }
+
+    @Override
+    public Entity calculateTotalCost(final Entity entity, final ProductsCostNorms costNorms) {
         entity.setField(CostCalculationFields.DATE, new Date());
         // FIXME MAKU beware of side effects - order of computations matter!
-        calculateOperationsAndProductsCosts(entity);
+        calculateOperationsAndProductsCosts(entity, costNorms);
         final BigDecimal productionCosts = calculateProductionCost(entity);
         calculateMarginsAndOverheads(entity, productionCosts);
         final BigDecimal effectiveQuantity = getEffectiveQuantity(entity);
@@ -78,17 +93,52 @@ public class CostCalculationServiceImpl implements CostCalculationService {
 
     @Override
     public void calculateOperationsAndProductsCosts(final Entity entity) {
+        calculateOperationsAndProductsCosts(entity, ProductsCostNorms.empty());
+    }
+
+    private void calculateOperationsAndProductsCosts(final Entity entity, final ProductsCostNorms costNorms) {
         boolean hourlyCostFromOperation = true;
         String sourceOfOperationCosts = entity.getStringField("sourceOfOperationCosts");
         if (sourceOfOperationCosts != null
                 && SourceOfOperationCosts.PARAMETERS.equals(SourceOfOperationCosts.parseString(sourceOfOperationCosts))) {
             hourlyCostFromOperation = false;
         }
-        operationsCostCalculationService.calculateOperationsCost(entity, hourlyCostFromOperation);
+
+        // technology is exploded once and shared by operations and materials costs, as long as both use the same technology
+        Entity technology = entity.getBelongsToField(CostCalculationFields.TECHNOLOGY);
+        Entity operationsTechnology = getOperationsTechnology(entity);
+        BigDecimal quantity = BigDecimalUtils.convertNullToZero(entity.getDecimalField(CostCalculationFields.QUANTITY));
+
+        ProductQuantitiesHolder productQuantitiesAndOperationRuns = productQuantitiesService.getProductComponentQuantities(
+                operationsTechnology, quantity);
+
+        operationsCostCalculationService.calculateOperationsCost(entity, hourlyCostFromOperation,
+                productQuantitiesAndOperationRuns);
+
+        Map<Long, BigDecimal> neededProductQuantities;
+
+        if (Objects.equals(technology.getId(), operationsTechnology.getId())) {
+            neededProductQuantities = productQuantitiesService.getNeededProductQuantities(productQuantitiesAndOperationRuns,
+                    MrpAlgorithm.ONLY_COMPONENTS);
+        } else {
+            neededProductQuantities = productQuantitiesService.getNeededProductQuantities(technology, quantity,
+                    MrpAlgorithm.ONLY_COMPONENTS);
+        }
 
         final String sourceOfMaterialCosts = entity.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS);
 
-        productsCostCalculationService.calculateTotalProductsCost(entity, sourceOfMaterialCosts);
+        productsCostCalculationService.calculateTotalProductsCost(entity, sourceOfMaterialCosts, neededProductQuantities,
+                costNorms);
+    }
+
+    private Entity getOperationsTechnology(final Entity entity) {
+        Entity order = entity.getBelongsToField(CostCalculationFields.ORDER);
+
+        if (order == null) {
+            return entity.getBelongsToField(CostCalculationFields.TECHNOLOGY);
+        }
+
+        return order.getBelongsToField(OrderFields.TECHNOLOGY);
     }
 
     @Override
@@ -0,0 +1,100 @@
+package com.qcadoo.mes.costCalculation.batch;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress and throughput of cost calculations computed by {@link CostCalculationBatchService}. Counters are updated by the job
+ * thread while the batch is running, so the report can be read at any time.
+ */
+public class CostCalculationBatchReport {
+
+    private final int total;
+
+    private final long startTime;
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+
+    private final ConcurrentMap<Long, String> failures = new ConcurrentHashMap<>();
+
+    private volatile long finishTime;
+
+    CostCalculationBatchReport(final int total) {
+        this.total = total;
+        this.startTime = System.nanoTime();
+    }
+
+    void success() {
+        succeeded.incrementAndGet();
+    }
+
+    void failure(final Long costCalculationId, final String message) {
+        failures.put(costCalculationId, String.valueOf(message));
+    }
+
+    void finish() {
+        finishTime = System.nanoTime();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    public int getFailed() {
+        return failures.size();
+    }
+
+    public int getProcessed() {
+        return getSucceeded() + getFailed();
+    }
+
+    public Map<Long, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean isFinished() {
+        return finishTime != 0;
+    }
+
+    public int getProgress() {
+        if (total == 0) {
+            return 100;
+        }
+
+        return getProcessed() * 100 / total;
+    }
+
+    public long getElapsedMillis() {
+        long endTime = isFinished() ? finishTime : System.nanoTime();
+
+        return TimeUnit.NANOSECONDS.toMillis(endTime - startTime);
+    }
+
+    /**
+     * @return cost calculations processed per second
+     */
+    public double getThroughput() {
+        long elapsedMillis = getElapsedMillis();
+
+        if (elapsedMillis == 0) {
+            return 0;
+        }
+
+        return getProcessed() * 1000d / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d cost calculations processed (%d%%), %d failed, %d ms, %.2f/s", getProcessed(), total,
+                getProgress(), getFailed(), getElapsedMillis(), getThroughput());
+    }
+
+}
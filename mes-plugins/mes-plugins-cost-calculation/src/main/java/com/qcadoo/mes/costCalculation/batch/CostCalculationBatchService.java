@@ -0,0 +1,185 @@
+package com.qcadoo.mes.costCalculation.batch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.basic.reports.ReportJobService;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
+import com.qcadoo.security.api.SecurityService;
+
+/**
+ * Recalculates many cost calculations at once, e.g. after prices were updated.
+ *
+ * Cost norms of all products and order's material costs of all orders are loaded up front with one query per source and chunk
+ * of ids, and shared by all calculations. Each calculation is saved in its own transaction - failure of one calculation doesn't
+ * roll back the others.
+ *
+ * Batches started from views are queued as jobs of {@link ReportJobService}, so they run on its shared pool instead of request
+ * threads. Every user has at most one batch at a time, the report of the last finished one is kept until it's taken.
+ */
+@Service
+public class CostCalculationBatchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CostCalculationBatchService.class);
+
+    public static final String BATCH_JOB_TYPE = "costCalculationBatch";
+
+    private static final int COST_CALCULATION_IDS_CHUNK_SIZE = 1000;
+
+    private static final int LOG_PROGRESS_EVERY = 50;
+
+    private static final String ORDER_IDS_QUERY = "SELECT DISTINCT order_id FROM costcalculation_costcalculation "
+            + "WHERE id IN (:costCalculationIds) AND order_id IS NOT NULL";
+
+    private static final String PRODUCT_IDS_QUERY = "SELECT DISTINCT opic.product_id "
+            + "FROM technologies_operationproductincomponent opic "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id "
+            + "WHERE opic.product_id IS NOT NULL AND toc.technology_id IN ("
+            + "SELECT costcalculation.technology_id FROM costcalculation_costcalculation costcalculation "
+            + "WHERE costcalculation.id IN (:costCalculationIds) UNION "
+            + "SELECT ordersorder.technology_id FROM costcalculation_costcalculation costcalculation "
+            + "JOIN orders_order ordersorder ON ordersorder.id = costcalculation.order_id "
+            + "WHERE costcalculation.id IN (:costCalculationIds))";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ProductsCostCalculationService productsCostCalculationService;
+
+    @Autowired
+    private CostCalculationBatchWorker costCalculationBatchWorker;
+
+    @Autowired
+    private ReportJobService reportJobService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    private final Map<Long, CostCalculationBatchReport> finishedReports = new ConcurrentHashMap<>();
+
+    /**
+     * Queues recalculation of cost calculations as a job of the current user.
+     * 
+     * @param costCalculationIds
+     *            ids of cost calculations to recalculate
+     * @return submitted job, already queued or running job of the current user, or empty if too many jobs are queued
+     */
+    public Optional<ReportJob> submit(final List<Long> costCalculationIds) {
+        Long userId = securityService.getCurrentUserId();
+        List<Long> ids = ImmutableList.copyOf(costCalculationIds);
+
+        return reportJobService.submit(BATCH_JOB_TYPE, userId, job -> {
+            CostCalculationBatchReport report = calculateTotalCosts(ids,
+                    progress -> reportJobService.reportProgress(progress.getProcessed(), progress.getTotal()));
+
+            finishedReports.put(userId, report);
+        });
+    }
+
+    /**
+     * @return last job of the current user
+     */
+    public Optional<ReportJob> findJob() {
+        return reportJobService.findJob(BATCH_JOB_TYPE, securityService.getCurrentUserId());
+    }
+
+    /**
+     * @return report of the last finished job of the current user, which is removed, so it's returned only once
+     */
+    public Optional<CostCalculationBatchReport> takeFinishedReport() {
+        return Optional.ofNullable(finishedReports.remove(securityService.getCurrentUserId()));
+    }
+
+    public CostCalculationBatchReport calculateTotalCosts(final List<Long> costCalculationIds) {
+        return calculateTotalCosts(costCalculationIds, report -> {
+        });
+    }
+
+    /**
+     * @param costCalculationIds
+     *            ids of cost calculations to recalculate
+     * @param progressListener
+     *            called after each processed cost calculation
+     * @return final report, with errors of cost calculations that failed, or of all of them if cost norms couldn't be loaded
+     */
+    public CostCalculationBatchReport calculateTotalCosts(final List<Long> costCalculationIds,
+            final Consumer<CostCalculationBatchReport> progressListener) {
+        CostCalculationBatchReport report = new CostCalculationBatchReport(costCalculationIds.size());
+
+        if (!costCalculationIds.isEmpty()) {
+            Optional<ProductsCostNorms> costNorms = getCostNorms(costCalculationIds, report);
+
+            if (costNorms.isPresent()) {
+                for (Long costCalculationId : costCalculationIds) {
+                    calculateTotalCost(costCalculationId, costNorms.get(), report);
+
+                    progressListener.accept(report);
+                }
+            }
+        }
+
+        report.finish();
+
+        LOG.info("Cost calculations batch finished: " + report);
+
+        return report;
+    }
+
+    private Optional<ProductsCostNorms> getCostNorms(final List<Long> costCalculationIds,
+            final CostCalculationBatchReport report) {
+        Set<Long> orderIds = Sets.newHashSet();
+        Set<Long> productIds = Sets.newHashSet();
+
+        try {
+            for (List<Long> costCalculationIdsChunk : Lists.partition(costCalculationIds, COST_CALCULATION_IDS_CHUNK_SIZE)) {
+                Map<String, Object> params = Collections.singletonMap("costCalculationIds", costCalculationIdsChunk);
+
+                orderIds.addAll(jdbcTemplate.queryForList(ORDER_IDS_QUERY, params, Long.class));
+                productIds.addAll(jdbcTemplate.queryForList(PRODUCT_IDS_QUERY, params, Long.class));
+            }
+
+            return Optional.of(productsCostCalculationService.getCostNorms(productIds, orderIds));
+        } catch (RuntimeException e) {
+            LOG.error("Cost norms of cost calculations batch couldn't be loaded", e);
+
+            costCalculationIds.forEach(costCalculationId -> report.failure(costCalculationId, e.getMessage()));
+
+            return Optional.empty();
+        }
+    }
+
+    private void calculateTotalCost(final Long costCalculationId, final ProductsCostNorms costNorms,
+            final CostCalculationBatchReport report) {
+        try {
+            costCalculationBatchWorker.calculateTotalCost(costCalculationId, costNorms);
+
+            report.success();
+        } catch (RuntimeException e) {
+            LOG.warn("Cost calculation with id=" + costCalculationId + " failed", e);
+
+            report.failure(costCalculationId, e.getMessage());
+        }
+
+        if (report.getProcessed() % LOG_PROGRESS_EVERY == 0) {
+            LOG.info("Cost calculations batch: " + report);
+        }
+    }
+
+}
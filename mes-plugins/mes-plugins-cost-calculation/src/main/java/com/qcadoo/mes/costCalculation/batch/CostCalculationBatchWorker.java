@@ -0,0 +1,49 @@
+package com.qcadoo.mes.costCalculation.batch;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.mes.costCalculation.CostCalculationService;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+
+@Service
+class CostCalculationBatchWorker {
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private CostCalculationService costCalculationService;
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Entity calculateTotalCost(final Long costCalculationId, final ProductsCostNorms costNorms) {
+        Entity costCalculation = dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION).get(costCalculationId);
+
+        if (costCalculation == null) {
+            throw new IllegalStateException("Cost calculation with id=" + costCalculationId + " doesn't exist");
+        }
+
+        Entity savedCostCalculation = costCalculationService.calculateTotalCost(costCalculation, costNorms);
+
+        if (savedCostCalculation.isValid()) {
+            costCalculationService.calculateSellPriceOverhead(savedCostCalculation);
+            costCalculationService.calculateSellPrice(savedCostCalculation);
+
+            savedCostCalculation = savedCostCalculation.getDataDefinition().save(savedCostCalculation);
+        }
+
+        if (!savedCostCalculation.isValid()) {
+            throw new EntityRuntimeException(savedCostCalculation);
+        }
+
+        return savedCostCalculation;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.qcadoo.mes.costCalculation.hooks;
+
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.basic.reports.ReportJobStatus;
+import com.qcadoo.mes.costCalculation.batch.CostCalculationBatchReport;
+import com.qcadoo.mes.costCalculation.batch.CostCalculationBatchService;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.view.api.ComponentState.MessageType;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.GridComponent;
+
+@Service
+public class CostCalculationListHooks {
+
+    private static final String L_GRID = "grid";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private CostCalculationBatchService costCalculationBatchService;
+
+    public void showBatchJobStatus(final ViewDefinitionState view) {
+        Optional<ReportJob> job = costCalculationBatchService.findJob();
+
+        if (!job.isPresent()) {
+            return;
+        }
+
+        GridComponent grid = (GridComponent) view.getComponentByReference(L_GRID);
+        ReportJobStatus status = job.get().getStatus();
+
+        if (ReportJobStatus.QUEUED.equals(status)) {
+            grid.addMessage("costCalculation.costCalculationList.messages.info.calculationQueued", MessageType.INFO, false);
+        } else if (ReportJobStatus.RUNNING.equals(status)) {
+            grid.addMessage("costCalculation.costCalculationList.messages.info.calculationInProgress", MessageType.INFO, false,
+                    String.valueOf(job.get().getProgress()));
+        } else {
+            Optional<CostCalculationBatchReport> report = costCalculationBatchService.takeFinishedReport();
+
+            if (report.isPresent()) {
+                showBatchReport(grid, report.get());
+            } else if (ReportJobStatus.FAILED.equals(status)) {
+                grid.addMessage("costCalculation.costCalculationList.messages.failure.batchFailed", MessageType.FAILURE, false,
+                        job.get().getErrorMessage());
+            }
+        }
+    }
+
+    private void showBatchReport(final GridComponent grid, final CostCalculationBatchReport report) {
+        if (report.getSucceeded() > 0) {
+            grid.addMessage("costCalculation.costCalculationList.messages.success.calculationComplete", MessageType.SUCCESS,
+                    String.valueOf(report.getSucceeded()));
+        }
+
+        if (report.getFailed() > 0) {
+            String failedNumbers = dataDefinitionService
+                    .get(CostCalculationConstants.PLUGIN_IDENTIFIER, CostCalculationConstants.MODEL_COST_CALCULATION).find()
+                    .add(SearchRestrictions.in("id", report.getFailures().keySet()))
+                    .addOrder(SearchOrders.asc(CostCalculationFields.NUMBER)).list().getEntities().stream()
+                    .map(costCalculation -> costCalculation.getStringField(CostCalculationFields.NUMBER))
+                    .collect(Collectors.joining(", "));
+
+            grid.addMessage("costCalculation.costCalculationList.messages.failure.calculationFailed", MessageType.FAILURE,
+                    false, failedNumbers);
+        }
+    }
+
+}
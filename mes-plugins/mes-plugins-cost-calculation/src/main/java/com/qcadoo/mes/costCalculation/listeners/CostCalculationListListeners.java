@@ -0,0 +1,48 @@
+package com.qcadoo.mes.costCalculation.listeners;
+
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.costCalculation.batch.CostCalculationBatchService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.GridComponent;
+
+@Service
+public class CostCalculationListListeners {
+
+    private static final String L_GRID = "grid";
+
+    @Autowired
+    private CostCalculationBatchService costCalculationBatchService;
+
+    public void generateCostCalculations(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        GridComponent grid = (GridComponent) view.getComponentByReference(L_GRID);
+
+        Set<Long> costCalculationIds = grid.getSelectedEntitiesIds();
+
+        if (costCalculationIds.isEmpty()) {
+            return;
+        }
+
+        Optional<ReportJob> runningJob = costCalculationBatchService.findJob().filter(job -> !job.isDone());
+
+        // status of the queued or running job is shown by the list hooks
+        if (runningJob.isPresent()) {
+            return;
+        }
+
+        Optional<ReportJob> job = costCalculationBatchService.submit(Lists.newArrayList(costCalculationIds));
+
+        if (!job.isPresent()) {
+            grid.addMessage("costCalculation.costCalculationList.messages.failure.tooManyJobs", MessageType.FAILURE);
+        }
+    }
+
+}
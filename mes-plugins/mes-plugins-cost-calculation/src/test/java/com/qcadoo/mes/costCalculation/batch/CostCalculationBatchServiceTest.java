@@ -0,0 +1,216 @@
+package com.qcadoo.mes.costCalculation.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.basic.reports.ReportJobService;
+import com.qcadoo.mes.basic.reports.ReportJobTask;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
+import com.qcadoo.security.api.SecurityService;
+
+public class CostCalculationBatchServiceTest {
+
+    private static final String L_ORDER_IDS_QUERY = "SELECT DISTINCT order_id";
+
+    private static final String L_PRODUCT_IDS_QUERY = "SELECT DISTINCT opic.product_id";
+
+    private static final Long L_USER_ID = 7L;
+
+    private CostCalculationBatchService costCalculationBatchService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ProductsCostCalculationService productsCostCalculationService;
+
+    @Mock
+    private CostCalculationBatchWorker costCalculationBatchWorker;
+
+    @Mock
+    private ReportJobService reportJobService;
+
+    @Mock
+    private SecurityService securityService;
+
+    private ProductsCostNorms costNorms;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        costCalculationBatchService = new CostCalculationBatchService();
+
+        ReflectionTestUtils.setField(costCalculationBatchService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(costCalculationBatchService, "productsCostCalculationService",
+                productsCostCalculationService);
+        ReflectionTestUtils.setField(costCalculationBatchService, "costCalculationBatchWorker", costCalculationBatchWorker);
+        ReflectionTestUtils.setField(costCalculationBatchService, "reportJobService", reportJobService);
+        ReflectionTestUtils.setField(costCalculationBatchService, "securityService", securityService);
+
+        costNorms = ProductsCostNorms.empty();
+
+        given(jdbcTemplate.queryForList(startsWith(L_ORDER_IDS_QUERY), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(11L));
+        given(jdbcTemplate.queryForList(startsWith(L_PRODUCT_IDS_QUERY), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(21L, 22L));
+        given(productsCostCalculationService.getCostNorms(anyCollectionOf(Long.class), anyCollectionOf(Long.class)))
+                .willReturn(costNorms);
+        given(securityService.getCurrentUserId()).willReturn(L_USER_ID);
+    }
+
+    @Test
+    public void shouldLoadCostNormsWithOneQueryPerSourceAndChunkOfIds() {
+        // given
+        List<Long> costCalculationIds = LongStream.rangeClosed(1, 1500).boxed().collect(Collectors.toList());
+
+        // when
+        costCalculationBatchService.calculateTotalCosts(costCalculationIds);
+
+        // then
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(2)).queryForList(startsWith(L_ORDER_IDS_QUERY), paramsCaptor.capture(), eq(Long.class));
+        verify(jdbcTemplate, times(2)).queryForList(startsWith(L_PRODUCT_IDS_QUERY), anyMap(), eq(Long.class));
+
+        List<Map> params = paramsCaptor.getAllValues();
+
+        assertEquals(costCalculationIds.subList(0, 1000), params.get(0).get("costCalculationIds"));
+        assertEquals(costCalculationIds.subList(1000, 1500), params.get(1).get("costCalculationIds"));
+
+        ArgumentCaptor<Collection> productIdsCaptor = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<Collection> orderIdsCaptor = ArgumentCaptor.forClass(Collection.class);
+
+        verify(productsCostCalculationService).getCostNorms(productIdsCaptor.capture(), orderIdsCaptor.capture());
+
+        assertEquals(2, productIdsCaptor.getValue().size());
+        assertEquals(1, orderIdsCaptor.getValue().size());
+        verify(costCalculationBatchWorker, times(1500)).calculateTotalCost(anyLong(), eq(costNorms));
+    }
+
+    @Test
+    public void shouldCalculateOtherCostCalculationsWhenOneFails() {
+        // given
+        willThrow(new IllegalStateException("Cost calculation with id=2 doesn't exist")).given(costCalculationBatchWorker)
+                .calculateTotalCost(2L, costNorms);
+
+        // when
+        CostCalculationBatchReport report = costCalculationBatchService.calculateTotalCosts(Lists.newArrayList(1L, 2L, 3L));
+
+        // then
+        verify(costCalculationBatchWorker).calculateTotalCost(1L, costNorms);
+        verify(costCalculationBatchWorker).calculateTotalCost(3L, costNorms);
+
+        assertTrue(report.isFinished());
+        assertEquals(3, report.getTotal());
+        assertEquals(2, report.getSucceeded());
+        assertEquals(1, report.getFailed());
+        assertEquals(100, report.getProgress());
+        assertEquals(Collections.singletonMap(2L, "Cost calculation with id=2 doesn't exist"), report.getFailures());
+    }
+
+    @Test
+    public void shouldMarkAllCostCalculationsAsFailedWhenCostNormsCouldNotBeLoaded() {
+        // given
+        given(jdbcTemplate.queryForList(startsWith(L_PRODUCT_IDS_QUERY), anyMap(), eq(Long.class))).willThrow(
+                new QueryTimeoutException("Query timed out"));
+
+        // when
+        CostCalculationBatchReport report = costCalculationBatchService.calculateTotalCosts(Lists.newArrayList(1L, 2L));
+
+        // then
+        verify(costCalculationBatchWorker, never()).calculateTotalCost(anyLong(), any(ProductsCostNorms.class));
+
+        assertTrue(report.isFinished());
+        assertEquals(0, report.getSucceeded());
+        assertEquals(2, report.getFailed());
+        assertEquals("Query timed out", report.getFailures().get(1L));
+    }
+
+    @Test
+    public void shouldReportProgressAfterEachCostCalculation() {
+        // given
+        List<Integer> progress = Lists.newArrayList();
+
+        // when
+        costCalculationBatchService.calculateTotalCosts(Lists.newArrayList(1L, 2L, 3L, 4L),
+                report -> progress.add(report.getProgress()));
+
+        // then
+        assertEquals(Lists.newArrayList(25, 50, 75, 100), progress);
+    }
+
+    @Test
+    public void shouldFinishEmptyBatchWithoutQueries() {
+        // when
+        CostCalculationBatchReport report = costCalculationBatchService.calculateTotalCosts(Collections.<Long> emptyList());
+
+        // then
+        verify(productsCostCalculationService, never()).getCostNorms(anyCollectionOf(Long.class),
+                anyCollectionOf(Long.class));
+
+        assertTrue(report.isFinished());
+        assertEquals(100, report.getProgress());
+    }
+
+    @Test
+    public void shouldKeepReportOfSubmittedJobUntilItIsTaken() throws Exception {
+        // given
+        ReportJob job = mock(ReportJob.class);
+
+        ArgumentCaptor<ReportJobTask> taskCaptor = ArgumentCaptor.forClass(ReportJobTask.class);
+
+        given(reportJobService.submit(eq(CostCalculationBatchService.BATCH_JOB_TYPE), eq(L_USER_ID), taskCaptor.capture()))
+                .willReturn(Optional.of(job));
+
+        // when
+        Optional<ReportJob> submittedJob = costCalculationBatchService.submit(Lists.newArrayList(1L, 2L));
+
+        taskCaptor.getValue().run(job);
+
+        // then
+        assertSame(job, submittedJob.get());
+        verify(reportJobService).reportProgress(1, 2);
+        verify(reportJobService).reportProgress(2, 2);
+
+        Optional<CostCalculationBatchReport> report = costCalculationBatchService.takeFinishedReport();
+
+        assertEquals(2, report.get().getSucceeded());
+        assertFalse(costCalculationBatchService.takeFinishedReport().isPresent());
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.qcadoo.mes.costCalculation.batch;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.costCalculation.CostCalculationService;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostNorms;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+
+public class CostCalculationBatchWorkerTest {
+
+    private static final Long L_ID = 1L;
+
+    private CostCalculationBatchWorker costCalculationBatchWorker;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private CostCalculationService costCalculationService;
+
+    @Mock
+    private DataDefinition costCalculationDD;
+
+    @Mock
+    private Entity costCalculation, calculatedCostCalculation, savedCostCalculation;
+
+    private ProductsCostNorms costNorms;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        costCalculationBatchWorker = new CostCalculationBatchWorker();
+
+        ReflectionTestUtils.setField(costCalculationBatchWorker, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(costCalculationBatchWorker, "costCalculationService", costCalculationService);
+
+        costNorms = ProductsCostNorms.empty();
+
+        given(dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION)).willReturn(costCalculationDD);
+        given(costCalculationDD.get(L_ID)).willReturn(costCalculation);
+        given(costCalculationService.calculateTotalCost(costCalculation, costNorms)).willReturn(calculatedCostCalculation);
+        given(calculatedCostCalculation.getDataDefinition()).willReturn(costCalculationDD);
+        given(costCalculationDD.save(calculatedCostCalculation)).willReturn(savedCostCalculation);
+    }
+
+    @Test
+    public void shouldSaveCostCalculationWithSellPrices() {
+        // given
+        given(calculatedCostCalculation.isValid()).willReturn(true);
+        given(savedCostCalculation.isValid()).willReturn(true);
+
+        // when
+        Entity result = costCalculationBatchWorker.calculateTotalCost(L_ID, costNorms);
+
+        // then
+        InOrder inOrder = Mockito.inOrder(costCalculationService, costCalculationDD);
+
+        inOrder.verify(costCalculationService).calculateSellPriceOverhead(calculatedCostCalculation);
+        inOrder.verify(costCalculationService).calculateSellPrice(calculatedCostCalculation);
+        inOrder.verify(costCalculationDD).save(calculatedCostCalculation);
+
+        assertSame(savedCostCalculation, result);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldThrowExceptionWhenCostCalculationDoesNotExist() {
+        // given
+        given(costCalculationDD.get(L_ID)).willReturn(null);
+
+        // when
+        costCalculationBatchWorker.calculateTotalCost(L_ID, costNorms);
+    }
+
+    @Test
+    public void shouldThrowExceptionWithoutSellPricesWhenCalculatedCostCalculationIsInvalid() {
+        // given
+        given(calculatedCostCalculation.isValid()).willReturn(false);
+
+        // when
+        try {
+            costCalculationBatchWorker.calculateTotalCost(L_ID, costNorms);
+        } catch (EntityRuntimeException e) {
+            // then
+            verify(costCalculationService, never()).calculateSellPriceOverhead(any(Entity.class));
+            verify(costCalculationDD, never()).save(any(Entity.class));
+
+            return;
+        }
+
+        fail("EntityRuntimeException expected");
+    }
+
+    @Test(expected = EntityRuntimeException.class)
+    public void shouldThrowExceptionWhenSavedCostCalculationIsInvalid() {
+        // given
+        given(calculatedCostCalculation.isValid()).willReturn(true);
+        given(savedCostCalculation.isValid()).willReturn(false);
+
+        // when
+        costCalculationBatchWorker.calculateTotalCost(L_ID, costNorms);
+    }
+
+}
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.costNormsForMaterials;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Map;
 
 import com.qcadoo.model.api.Entity;
@@ -32,6 +33,11 @@ public interface ProductsCostCalculationService {
 
     void calculateTotalProductsCost(final Entity costCalculation, final String sourceOfMaterialCosts);
 
+    void calculateTotalProductsCost(final Entity costCalculation, final String sourceOfMaterialCosts,
+            final Map<Long, BigDecimal> neededProductQuantities, final ProductsCostNorms costNorms);
+
+    ProductsCostNorms getCostNorms(final Collection<Long> productIds, final Collection<Long> orderIds);
+
     BigDecimal calculateProductCostForGivenQuantity(final Entity product, final BigDecimal quantity,
             final String calculateMaterialCostsMode);
 
@@ -26,6 +26,7 @@ package com.qcadoo.mes.costNormsForMaterials;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,7 +37,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
@@ -49,12 +52,20 @@ import com.qcadoo.mes.orders.states.constants.OrderState;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
 public class ProductsCostCalculationServiceImpl implements ProductsCostCalculationService {
 
+    private static final String L_FROM_ORDERS_MATERIAL_COSTS = "02fromOrdersMaterialCosts";
+
+    private static final String L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT = "01currentGlobalDefinitionsInProduct";
+
+    private static final int IDS_CHUNK_SIZE = 1000;
+
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
@@ -67,9 +78,53 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
     @Override
     public void calculateTotalProductsCost(final Entity entity, final String sourceOfMaterialCosts) {
-        Map<Entity, BigDecimal> listProductWithCost = calculateListProductsCostForPlannedQuantity(entity, sourceOfMaterialCosts);
+        setTotalMaterialCosts(entity, calculateListProductsCostForPlannedQuantity(entity, sourceOfMaterialCosts));
+    }
+
+    @Override
+    public void calculateTotalProductsCost(final Entity entity, final String sourceOfMaterialCosts,
+            final Map<Long, BigDecimal> neededProductQuantities, final ProductsCostNorms costNorms) {
+        checkArgument(entity != null);
+
+        String calculateMaterialCostsMode = entity.getStringField("calculateMaterialCostsMode");
+
+        checkArgument(calculateMaterialCostsMode != null, "calculateMaterialCostsMode is null!");
+
+        Entity order = entity.getBelongsToField("order");
+
+        if (L_FROM_ORDERS_MATERIAL_COSTS.equals(sourceOfMaterialCosts)) {
+            if (OrderState.PENDING.equals(OrderState.of(order))) {
+                setTotalMaterialCosts(entity, getProductWithCostForNeededQuantities(neededProductQuantities,
+                        calculateMaterialCostsMode, order, costNorms));
+            } else {
+                setTotalMaterialCosts(entity, getProductWithCostForUsedMaterials(calculateMaterialCostsMode, order));
+            }
+        } else if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
+            setTotalMaterialCosts(entity, getProductWithCostForNeededQuantities(neededProductQuantities,
+                    calculateMaterialCostsMode, costNorms));
+        } else {
+            throw new IllegalStateException("sourceOfProductCosts is neither FROM_ORDER nor GLOBAL");
+        }
+    }
+
+    @Override
+    public ProductsCostNorms getCostNorms(final Collection<Long> productIds, final Collection<Long> orderIds) {
+        List<Entity> products = Lists.newArrayList();
+
+        for (List<Long> productIdsChunk : Lists.partition(Lists.newArrayList(productIds), IDS_CHUNK_SIZE)) {
+            products.addAll(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT).find()
+                    .add(SearchRestrictions.in("id", productIdsChunk)).list().getEntities());
+        }
+
+        return ProductsCostNorms.of(products, orderIds, orderMaterialCostsDataProvider.findAllForOrders(orderIds));
+    }
+
+    private void setTotalMaterialCosts(final Entity entity, final Map<Entity, BigDecimal> listProductWithCost) {
         BigDecimal result = BigDecimal.ZERO;
         for (Entry<Entity, BigDecimal> productWithCost : listProductWithCost.entrySet()) {
             result = result.add(productWithCost.getValue(), numberService.getMathContext());
@@ -90,9 +145,9 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
 
         Entity order = entity.getBelongsToField("order");
 
-        if ("02fromOrdersMaterialCosts".equals(sourceOfMaterialCosts)) {
+        if (L_FROM_ORDERS_MATERIAL_COSTS.equals(sourceOfMaterialCosts)) {
             return getProductWithCostForPlannedQuantities(technology, quantity, calculateMaterialCostsMode, order);
-        } else if ("01currentGlobalDefinitionsInProduct".equals(sourceOfMaterialCosts)) {
+        } else if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
             return getProductWithCostForPlannedQuantities(entity, technology, quantity, calculateMaterialCostsMode);
         }
 
@@ -123,9 +178,16 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
             final BigDecimal quantity, final String calculateMaterialCostsMode) {
         Map<Long, BigDecimal> neededProductQuantities = getNeededProductQuantities(entity, technology, quantity,
                 MrpAlgorithm.ONLY_COMPONENTS);
+
+        return getProductWithCostForNeededQuantities(neededProductQuantities, calculateMaterialCostsMode,
+                ProductsCostNorms.empty());
+    }
+
+    private Map<Entity, BigDecimal> getProductWithCostForNeededQuantities(final Map<Long, BigDecimal> neededProductQuantities,
+            final String calculateMaterialCostsMode, final ProductsCostNorms costNorms) {
         Map<Entity, BigDecimal> results = new HashMap<Entity, BigDecimal>();
         for (Entry<Long, BigDecimal> productQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(productQuantity.getKey());
+            Entity product = getProduct(productQuantity.getKey(), costNorms);
             BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(product, productQuantity.getValue(),
                     calculateMaterialCostsMode);
             results.put(product, thisProductsCost);
@@ -141,41 +203,53 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
     @Override
     public Map<Entity, BigDecimal> getProductWithCostForPlannedQuantities(final Entity technology, final BigDecimal quantity,
             final String calculateMaterialCostsMode, final Entity order) {
-        Map<Entity, BigDecimal> results = Maps.newHashMap();
         if (OrderState.PENDING.equals(OrderState.of(order))) {
             Map<Long, BigDecimal> neededProductQuantities = productQuantitiesService.getNeededProductQuantities(technology,
                     quantity, MrpAlgorithm.ONLY_COMPONENTS);
 
-            for (Entry<Long, BigDecimal> productQuantity : neededProductQuantities.entrySet()) {
-                Entity product = productQuantitiesService.getProduct(productQuantity.getKey());
-                for (Entity orderMaterialCosts : findOrderMaterialCosts(order, product).asSet()) {
-                    BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
-                            productQuantity.getValue(), calculateMaterialCostsMode);
-                    results.put(product, thisProductsCost);
-                }
-            }
+            return getProductWithCostForNeededQuantities(neededProductQuantities, calculateMaterialCostsMode, order,
+                    ProductsCostNorms.empty());
         } else {
+            return getProductWithCostForUsedMaterials(calculateMaterialCostsMode, order);
+        }
+    }
 
-            List<Entity> usedMaterials = basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order);
-            usedMaterials = usedMaterials
+    private Map<Entity, BigDecimal> getProductWithCostForNeededQuantities(final Map<Long, BigDecimal> neededProductQuantities,
+            final String calculateMaterialCostsMode, final Entity order, final ProductsCostNorms costNorms) {
+        Map<Entity, BigDecimal> results = Maps.newHashMap();
+        for (Entry<Long, BigDecimal> productQuantity : neededProductQuantities.entrySet()) {
+            Entity product = getProduct(productQuantity.getKey(), costNorms);
+            for (Entity orderMaterialCosts : findOrderMaterialCosts(order, product, costNorms).asSet()) {
+                BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
+                        productQuantity.getValue(), calculateMaterialCostsMode);
+                results.put(product, thisProductsCost);
+            }
+        }
+        return results;
+    }
+
+    private Map<Entity, BigDecimal> getProductWithCostForUsedMaterials(final String calculateMaterialCostsMode,
+            final Entity order) {
+        Map<Entity, BigDecimal> results = Maps.newHashMap();
+        List<Entity> usedMaterials = basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order);
+        usedMaterials = usedMaterials
+                .stream()
+                .filter(material -> material.getStringField(ProductionCountingQuantityFields.ROLE).equals(
+                        ProductionCountingQuantityRole.USED.getStringValue())
+                        && material.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL).equals(
+                                ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue()))
+                .collect(Collectors.toList());
+        List<Entity> allOrderMaterialCosts = order.getHasManyField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS);
+        for (Entity usedMaterial : usedMaterials) {
+            Entity product = usedMaterial.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
+            for (Entity orderMaterialCosts : allOrderMaterialCosts
                     .stream()
-                    .filter(material -> material.getStringField(ProductionCountingQuantityFields.ROLE).equals(
-                            ProductionCountingQuantityRole.USED.getStringValue())
-                            && material.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL).equals(
-                                    ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue()))
-                    .collect(Collectors.toList());
-            List<Entity> allOrderMaterialCosts = order.getHasManyField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS);
-            for (Entity usedMaterial : usedMaterials) {
-                Entity product = usedMaterial.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
-                for (Entity orderMaterialCosts : allOrderMaterialCosts
-                        .stream()
-                        .filter(cost -> cost.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT).getId()
-                                .equals(product.getId())).collect(Collectors.toList())) {
-                    BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
-                            usedMaterial.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY),
-                            calculateMaterialCostsMode);
-                    results.put(product, thisProductsCost);
-                }
+                    .filter(cost -> cost.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT).getId()
+                            .equals(product.getId())).collect(Collectors.toList())) {
+                BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
+                        usedMaterial.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY),
+                        calculateMaterialCostsMode);
+                results.put(product, thisProductsCost);
             }
         }
         return results;
@@ -183,7 +257,7 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
 
     @Override
     public Entity getAppropriateCostNormForProduct(final Entity product, final Entity order, final String sourceOfMaterialCosts) {
-        if ("01currentGlobalDefinitionsInProduct".equals(sourceOfMaterialCosts)) {
+        if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
             return product;
         }
         for (Entity orderMaterialCosts : findOrderMaterialCosts(order, product).asSet()) {
@@ -196,4 +270,20 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
     private Optional<Entity> findOrderMaterialCosts(final Entity order, final Entity product) {
         return orderMaterialCostsDataProvider.find(order.getId(), product.getId());
     }
+
+    private Optional<Entity> findOrderMaterialCosts(final Entity order, final Entity product, final ProductsCostNorms costNorms) {
+        if (costNorms.containsOrder(order.getId())) {
+            return costNorms.getOrderMaterialCosts(order.getId(), product.getId());
+        }
+
+        return findOrderMaterialCosts(order, product);
+    }
+
+    private Entity getProduct(final Long productId, final ProductsCostNorms costNorms) {
+        for (Entity product : costNorms.getProduct(productId).asSet()) {
+            return product;
+        }
+
+        return productQuantitiesService.getProduct(productId);
+    }
 }
@@ -0,0 +1,81 @@
+package com.qcadoo.mes.costNormsForMaterials;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.qcadoo.mes.costNormsForMaterials.constants.TechnologyInstOperProductInCompFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cost norms of products (global product costs and order's material costs) loaded up front for many cost calculations, so
+ * material costs don't have to be resolved with one query per product.
+ *
+ * Order's material costs are known for all products of orders given when loading, products missing from global costs have to
+ * be loaded by the caller.
+ */
+public final class ProductsCostNorms {
+
+    private static final ProductsCostNorms EMPTY = new ProductsCostNorms(Collections.<Long, Entity> emptyMap(),
+            ImmutableTable.<Long, Long, Entity> of(), Collections.<Long> emptySet());
+
+    private final Map<Long, Entity> products;
+
+    private final Table<Long, Long, Entity> orderMaterialCosts;
+
+    private final Set<Long> orderIds;
+
+    private ProductsCostNorms(final Map<Long, Entity> products, final Table<Long, Long, Entity> orderMaterialCosts,
+            final Set<Long> orderIds) {
+        this.products = products;
+        this.orderMaterialCosts = orderMaterialCosts;
+        this.orderIds = orderIds;
+    }
+
+    public static ProductsCostNorms empty() {
+        return EMPTY;
+    }
+
+    public static ProductsCostNorms of(final Collection<Entity> products, final Collection<Long> orderIds,
+            final Collection<Entity> orderMaterialCosts) {
+        Map<Long, Entity> productsById = Maps.newHashMapWithExpectedSize(products.size());
+
+        for (Entity product : products) {
+            productsById.put(product.getId(), product);
+        }
+
+        Table<Long, Long, Entity> orderMaterialCostsByOrderAndProduct = HashBasedTable.create();
+
+        for (Entity orderMaterialCost : orderMaterialCosts) {
+            Long orderId = orderMaterialCost.getBelongsToField(TechnologyInstOperProductInCompFields.ORDER).getId();
+            Long productId = orderMaterialCost.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT).getId();
+
+            if (!orderMaterialCostsByOrderAndProduct.contains(orderId, productId)) {
+                orderMaterialCostsByOrderAndProduct.put(orderId, productId, orderMaterialCost);
+            }
+        }
+
+        return new ProductsCostNorms(Collections.unmodifiableMap(productsById),
+                ImmutableTable.copyOf(orderMaterialCostsByOrderAndProduct), ImmutableSet.copyOf(orderIds));
+    }
+
+    public Optional<Entity> getProduct(final Long productId) {
+        return Optional.fromNullable(products.get(productId));
+    }
+
+    public boolean containsOrder(final Long orderId) {
+        return orderIds.contains(orderId);
+    }
+
+    public Optional<Entity> getOrderMaterialCosts(final Long orderId, final Long productId) {
+        return Optional.fromNullable(orderMaterialCosts.get(orderId, productId));
+    }
+
+}
@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.google.common.base.Optional;
@@ -66,4 +67,13 @@ public interface OrderMaterialCostsDataProvider {
      * @since 1.4
      */
     Optional<Entity> find(final Long orderId, final Long productId);
+
+    /**
+     * Find order's material costs entities of all given orders, using one query for each chunk of ids
+     *
+     * @param orderIds
+     *            ids of orders
+     * @return order's material costs entities belonging to given orders
+     */
+    List<Entity> findAllForOrders(final Collection<Long> orderIds);
 }
@@ -25,12 +25,14 @@ package com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider;
 
 import static com.qcadoo.model.api.search.SearchRestrictions.idEq;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 import com.qcadoo.mes.costNormsForMaterials.constants.CostNormsForMaterialsConstants;
 import com.qcadoo.mes.costNormsForMaterials.constants.TechnologyInstOperProductInCompFields;
 import com.qcadoo.model.api.DataDefinition;
@@ -41,6 +43,7 @@ import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchOrder;
 import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
 final class OrderMaterialCostsDataProviderImpl implements OrderMaterialCostsDataProvider {
@@ -49,6 +52,8 @@ final class OrderMaterialCostsDataProviderImpl implements OrderMaterialCostsData
 
     private static final String ORDER_ALIAS = "order_alias";
 
+    private static final int ORDER_IDS_CHUNK_SIZE = 1000;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -67,6 +72,21 @@ final class OrderMaterialCostsDataProviderImpl implements OrderMaterialCostsData
         return find(OrderMaterialCostsCriteria.forOrder(orderId).setProductCriteria(idEq(productId)));
     }
 
+    @Override
+    public List<Entity> findAllForOrders(final Collection<Long> orderIds) {
+        List<Entity> orderMaterialCosts = Lists.newArrayList();
+
+        for (List<Long> orderIdsChunk : Lists.partition(Lists.newArrayList(orderIds), ORDER_IDS_CHUNK_SIZE)) {
+            SearchCriteriaBuilder scb = createCriteriaBuilder();
+            scb.createCriteria(TechnologyInstOperProductInCompFields.ORDER, ORDER_ALIAS, JoinType.INNER).add(
+                    SearchRestrictions.in("id", orderIdsChunk));
+
+            orderMaterialCosts.addAll(scb.list().getEntities());
+        }
+
+        return orderMaterialCosts;
+    }
+
     private SearchCriteriaBuilder prepareCriteria(final OrderMaterialCostsCriteria criteria) {
         SearchCriteriaBuilder scb = createCriteriaBuilder();
         scb.createCriteria(TechnologyInstOperProductInCompFields.ORDER, ORDER_ALIAS, JoinType.INNER).add(
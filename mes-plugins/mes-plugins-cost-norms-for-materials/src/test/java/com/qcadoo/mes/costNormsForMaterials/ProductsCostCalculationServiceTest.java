@@ -33,6 +33,7 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import java.math.BigDecimal;
@@ -48,6 +49,7 @@ import org.mockito.stubbing.Answer;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.qcadoo.mes.costNormsForMaterials.constants.ProductsCostFields;
 import com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider.OrderMaterialCostsDataProvider;
@@ -210,6 +212,44 @@ public class ProductsCostCalculationServiceTest {
         verifySetDecimalField(costCalculation, "totalMaterialCosts", BigDecimal.valueOf(255));
     }
 
+    @Test
+    public void shouldCalculateTotalProductsCostFromPrefetchedOrderMaterialCosts() throws Exception {
+        // given
+        String sourceOfMaterialCosts = "02fromOrdersMaterialCosts";
+        String calculateMaterialCostsMode = "01nominal";
+
+        stubStringField(costCalculation, "calculateMaterialCostsMode", calculateMaterialCostsMode);
+        given(order.getId()).willReturn(7L);
+
+        Entity firstProduct = mockEntity(1L);
+        Entity secondProduct = mockEntity(2L);
+
+        Entity firstMaterialCosts = mockCostsHolder(11L, calculateMaterialCostsMode, BigDecimal.valueOf(100L),
+                BigDecimal.valueOf(20));
+        stubBelongsToField(firstMaterialCosts, "order", order);
+        stubBelongsToField(firstMaterialCosts, "product", firstProduct);
+        Entity secondMaterialCosts = mockCostsHolder(12L, calculateMaterialCostsMode, BigDecimal.valueOf(75L),
+                BigDecimal.valueOf(3L));
+        stubBelongsToField(secondMaterialCosts, "order", order);
+        stubBelongsToField(secondMaterialCosts, "product", secondProduct);
+
+        ProductsCostNorms costNorms = ProductsCostNorms.of(ImmutableList.of(firstProduct, secondProduct),
+                ImmutableList.of(7L), ImmutableList.of(firstMaterialCosts, secondMaterialCosts));
+
+        Map<Long, BigDecimal> neededProductQuantities = ImmutableMap.of(1L, BigDecimal.ONE, 2L, BigDecimal.valueOf(10L));
+
+        // when
+        productsCostCalculationService.calculateTotalProductsCost(costCalculation, sourceOfMaterialCosts,
+                neededProductQuantities, costNorms);
+
+        // then
+        verifySetDecimalField(costCalculation, "totalMaterialCosts", BigDecimal.valueOf(255));
+        verify(orderMaterialCostsDataProvider, never()).find(anyLong(), anyLong());
+        verify(productQuantitiesService, never()).getProduct(anyLong());
+        verify(productQuantitiesService, never()).getNeededProductQuantities(any(Entity.class), any(BigDecimal.class),
+                any(MrpAlgorithm.class));
+    }
+
     @Test
     public void shouldThrowExceptionWhenCalculateTotalProductsCostForIncorrectSource() throws Exception {
         // given
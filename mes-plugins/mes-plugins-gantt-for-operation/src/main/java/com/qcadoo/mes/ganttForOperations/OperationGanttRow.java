@@ -0,0 +1,45 @@
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.Date;
+
+/**
+ * Immutable row of the operations Gantt chart - an operation with its effective dates.
+ */
+final class OperationGanttRow {
+
+    private final Long operationComponentId;
+
+    private final String description;
+
+    private final long from;
+
+    private final long to;
+
+    OperationGanttRow(final Long operationComponentId, final String description, final Date from, final Date to) {
+        this.operationComponentId = operationComponentId;
+        this.description = description;
+        this.from = from.getTime();
+        this.to = to.getTime();
+    }
+
+    Long getOperationComponentId() {
+        return operationComponentId;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    Date getFrom() {
+        return new Date(from);
+    }
+
+    Date getTo() {
+        return new Date(to);
+    }
+
+    boolean isOutside(final Date dateFrom, final Date dateTo) {
+        return to < dateFrom.getTime() || (dateTo != null && from > dateTo.getTime());
+    }
+
+}
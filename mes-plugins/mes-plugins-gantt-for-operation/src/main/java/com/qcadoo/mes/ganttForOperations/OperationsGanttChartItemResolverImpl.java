@@ -38,6 +38,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionScheduling.OrderTimePredictionService;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
@@ -80,57 +82,33 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private OperationsGanttRowsCache operationsGanttRowsCache;
+
     @Override
     public Map<String, List<GanttChartItem>> resolve(final GanttChartScale scale, final JSONObject context, final Locale locale) {
         try {
             Long orderId = Long.valueOf(context.getString("orderId"));
-            Entity order = dataDefinitionService.get(ORDERS_MODEL, ORDER_FIELD).get(orderId);
 
-            if (order == null) {
-                LOG.warn("Cannot find order for " + orderId);
-                return Collections.emptyMap();
-            }
+            OperationsGanttRows operationsRows = operationsGanttRowsCache.getRows(orderId, () -> getRowsForOrder(orderId));
 
-            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
-
-            List<Entity> operations = dataDefinitionService
-                    .get(com.qcadoo.mes.technologies.constants.TechnologiesConstants.PLUGIN_IDENTIFIER,
-                            com.qcadoo.mes.technologies.constants.TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT)
-                    .find().add(SearchRestrictions.belongsTo(TechnologyOperationComponentFields.TECHNOLOGY, technology)).list()
-                    .getEntities();
-
-            if (operations.isEmpty()) {
-                LOG.warn("Cannot find operations for " + order);
+            if (operationsRows.isEmpty()) {
                 return Collections.emptyMap();
             }
 
             if (scale.getIsDatesSet() != null && scale.getIsDatesSet()) {
-                Date orderStartDate = orderTimePredictionService.getDateFromOrdersFromOperation(operations);
-                scale.setDateFrom(orderStartDate);
-
-                Date orderEndDate = orderTimePredictionService.getDateToOrdersFromOperation(operations);
-                scale.setDateTo(orderEndDate);
+                scale.setDateFrom(operationsRows.getDateFrom());
+                scale.setDateTo(operationsRows.getDateTo());
             }
             Map<String, List<GanttChartItem>> items = new LinkedHashMap<String, List<GanttChartItem>>();
             Map<String, Integer> counters = new HashMap<String, Integer>();
 
-            List<Entity> sortedOperationFromTree = entityTreeUtilsService.getSortedEntities(order.getBelongsToField(
-                    OrderFields.TECHNOLOGY).getTreeField(TechnologyFields.OPERATION_COMPONENTS));
-
-            for (Entity operationFromTree : sortedOperationFromTree) {
-                Entity operation = operations.get(operations.indexOf(operationFromTree));
-                Date dateFrom = operation.getBelongsToField(
-                        TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION).getDateField(
-                        EFFECTIVE_DATE_FROM_FIELD);
-                Date dateTo = operation
-                        .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION).getDateField(
-                                EFFECTIVE_DATE_TO_FIELD);
-
-                if (dateFrom == null || dateTo == null || dateTo.before(scale.getDateFrom())) {
+            for (OperationGanttRow row : operationsRows.getRows()) {
+                if (row.isOutside(scale.getDateFrom(), scale.getDateTo())) {
                     continue;
                 }
 
-                StringBuffer operationName = new StringBuffer(getDescriptionForOperarion(operation));
+                StringBuffer operationName = new StringBuffer(row.getDescription());
 
                 int counter = 0;
 
@@ -142,7 +120,7 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
                 }
 
                 GanttChartItem item = scale.createGanttChartItem(operationName.toString(), operationName.toString(),
-                        operation.getId(), dateFrom, dateTo);
+                        row.getOperationComponentId(), row.getFrom(), row.getTo());
 
                 if (item != null) {
                     items.put(operationName.toString(), Collections.singletonList(item));
@@ -158,6 +136,52 @@ public class OperationsGanttChartItemResolverImpl implements OperationsGanttChar
         }
     }
 
+    private OperationsGanttRows getRowsForOrder(final Long orderId) {
+        Entity order = dataDefinitionService.get(ORDERS_MODEL, ORDER_FIELD).get(orderId);
+
+        if (order == null) {
+            LOG.warn("Cannot find order for " + orderId);
+            return OperationsGanttRows.EMPTY;
+        }
+
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        List<Entity> operations = dataDefinitionService
+                .get(com.qcadoo.mes.technologies.constants.TechnologiesConstants.PLUGIN_IDENTIFIER,
+                        com.qcadoo.mes.technologies.constants.TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT)
+                .find().add(SearchRestrictions.belongsTo(TechnologyOperationComponentFields.TECHNOLOGY, technology)).list()
+                .getEntities();
+
+        if (operations.isEmpty()) {
+            LOG.warn("Cannot find operations for " + order);
+            return OperationsGanttRows.EMPTY;
+        }
+
+        Map<Long, Entity> operationsById = Maps.uniqueIndex(operations, Entity::getId);
+
+        List<Entity> sortedOperationFromTree = entityTreeUtilsService.getSortedEntities(technology
+                .getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+
+        List<OperationGanttRow> rows = Lists.newArrayListWithCapacity(sortedOperationFromTree.size());
+
+        for (Entity operationFromTree : sortedOperationFromTree) {
+            Entity operation = operationsById.get(operationFromTree.getId());
+            Entity techOperCompTimeCalculation = operation
+                    .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION);
+            Date dateFrom = techOperCompTimeCalculation.getDateField(EFFECTIVE_DATE_FROM_FIELD);
+            Date dateTo = techOperCompTimeCalculation.getDateField(EFFECTIVE_DATE_TO_FIELD);
+
+            if (dateFrom == null || dateTo == null) {
+                continue;
+            }
+
+            rows.add(new OperationGanttRow(operation.getId(), getDescriptionForOperarion(operation), dateFrom, dateTo));
+        }
+
+        return new OperationsGanttRows(rows, orderTimePredictionService.getDateFromOrdersFromOperation(operations),
+                orderTimePredictionService.getDateToOrdersFromOperation(operations));
+    }
+
     private String getDescriptionForOperarion(final Entity operation) {
         return operation.getStringField(NODE_NUMBER_FIELD) + " "
                 + operation.getBelongsToField(OPERATION_FIELD).getStringField(NUMBER_FIELD) + " "
@@ -0,0 +1,46 @@
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Rows of all operations of an order in technology tree order, together with the dates of the first and the last operation.
+ */
+final class OperationsGanttRows {
+
+    static final OperationsGanttRows EMPTY = new OperationsGanttRows(Collections.<OperationGanttRow> emptyList(), null, null);
+
+    private final List<OperationGanttRow> rows;
+
+    private final Date dateFrom;
+
+    private final Date dateTo;
+
+    OperationsGanttRows(final List<OperationGanttRow> rows, final Date dateFrom, final Date dateTo) {
+        this.rows = Collections.unmodifiableList(rows);
+        this.dateFrom = copyOf(dateFrom);
+        this.dateTo = copyOf(dateTo);
+    }
+
+    private static Date copyOf(final Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    List<OperationGanttRow> getRows() {
+        return rows;
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    Date getDateFrom() {
+        return copyOf(dateFrom);
+    }
+
+    Date getDateTo() {
+        return copyOf(dateTo);
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.qcadoo.mes.ganttForOperations;
+
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.util.VersionedCache;
+
+/**
+ * Keeps resolved operation rows of recently drawn orders, so redrawing or scrolling the chart doesn't reload the technology.
+ *
+ * Rows are invalidated by model hooks of orders, operations, technology operation components and their time calculations.
+ * Rows loaded from data read before invalidation are never published.
+ */
+@Service
+public class OperationsGanttRowsCache {
+
+    private static final int L_MAX_ORDERS = 64;
+
+    private final VersionedCache<Long, OperationsGanttRows> rowsByOrder = new VersionedCache<>(L_MAX_ORDERS, 0);
+
+    OperationsGanttRows getRows(final Long orderId, final Supplier<OperationsGanttRows> rowsLoader) {
+        return rowsByOrder.get(orderId, rowsLoader);
+    }
+
+    public void invalidate() {
+        rowsByOrder.invalidateAll();
+    }
+
+}
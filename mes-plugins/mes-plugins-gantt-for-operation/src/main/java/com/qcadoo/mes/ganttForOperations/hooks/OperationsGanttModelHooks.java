@@ -0,0 +1,26 @@
+package com.qcadoo.mes.ganttForOperations.hooks;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.ganttForOperations.OperationsGanttRowsCache;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class OperationsGanttModelHooks {
+
+    @Autowired
+    private OperationsGanttRowsCache operationsGanttRowsCache;
+
+    public void onSave(final DataDefinition dataDefinition, final Entity entity) {
+        operationsGanttRowsCache.invalidate();
+    }
+
+    public boolean onDelete(final DataDefinition dataDefinition, final Entity entity) {
+        operationsGanttRowsCache.invalidate();
+
+        return true;
+    }
+
+}
@@ -23,7 +23,6 @@
  */
 package com.qcadoo.mes.ganttForOrders;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -35,9 +34,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.view.api.components.ganttChart.GanttChartItem;
 import com.qcadoo.view.api.components.ganttChart.GanttChartScale;
@@ -51,23 +53,41 @@ public class OrderGanttChartItemResolverImpl implements OrderGanttChartItemResol
     @Autowired
     private TranslationService translationService;
 
+    @Autowired
+    private OrderGanttRowsCache orderGanttRowsCache;
+
     @Override
     @Transactional
     public Map<String, List<GanttChartItem>> resolve(final GanttChartScale scale, final JSONObject context, final Locale locale) {
+        List<OrderGanttRow> rows = orderGanttRowsCache.getRows(scale.getDateFrom(), scale.getDateTo(), locale,
+                () -> getRowsForWindow(scale.getDateFrom(), scale.getDateTo(), locale));
+
+        List<GanttChartItem> items = Lists.newArrayListWithCapacity(rows.size());
+
+        for (OrderGanttRow row : rows) {
+            items.add(row.createItem(scale));
+        }
+
+        return Collections.singletonMap("", items);
+    }
+
+    private List<OrderGanttRow> getRowsForWindow(final Date dateFrom, final Date dateTo, final Locale locale) {
         List<Entity> orders = dataDefinitionService.get("orders", "order").find()
-                .add(SearchRestrictions.ne("state", "04completed")).add(SearchRestrictions.lt("dateFrom", scale.getDateTo()))
-                .add(SearchRestrictions.gt("dateTo", scale.getDateFrom())).list().getEntities();
+                .add(SearchRestrictions.ne("state", "04completed")).add(SearchRestrictions.lt("dateFrom", dateTo))
+                .add(SearchRestrictions.gt("dateTo", dateFrom)).addOrder(SearchOrders.asc("dateFrom")).list().getEntities();
 
-        List<GanttChartItem> items = new ArrayList<GanttChartItem>();
+        Map<String, String> stateDescriptions = Maps.newHashMap();
+
+        List<OrderGanttRow> rows = Lists.newArrayListWithCapacity(orders.size());
 
         for (Entity order : orders) {
-            items.add(getItemForOrder(order, scale, locale));
+            rows.add(getRowForOrder(order, stateDescriptions, locale));
         }
 
-        return Collections.singletonMap("", items);
+        return Collections.unmodifiableList(rows);
     }
 
-    private GanttChartItem getItemForOrder(final Entity order, final GanttChartScale scale, final Locale locale) {
+    private OrderGanttRow getRowForOrder(final Entity order, final Map<String, String> stateDescriptions, final Locale locale) {
         Date from = (Date) order.getField("dateFrom");
         Date to = (Date) order.getField("dateTo");
 
@@ -77,13 +97,15 @@ public class OrderGanttChartItemResolverImpl implements OrderGanttChartItemResol
             to = new Date(from.getTime() + diff);
         }
 
-        return scale.createGanttChartItem("", getOrderDescription(order, locale), order.getId(), from, to);
+        return new OrderGanttRow(order.getId(), getOrderDescription(order, stateDescriptions, locale), from, to);
     }
 
-    private String getOrderDescription(final Entity order, final Locale locale) {
-        return order.getStringField("number") + " - " + order.getStringField("name") + "<br/>"
-                + translationService.translate("orders.order.state.label", locale) + ": "
-                + translationService.translate("orders.order.state.value." + order.getStringField("state"), locale);
+    private String getOrderDescription(final Entity order, final Map<String, String> stateDescriptions, final Locale locale) {
+        String stateDescription = stateDescriptions.computeIfAbsent(order.getStringField("state"),
+                state -> translationService.translate("orders.order.state.label", locale) + ": "
+                        + translationService.translate("orders.order.state.value." + state, locale));
+
+        return order.getStringField("number") + " - " + order.getStringField("name") + "<br/>" + stateDescription;
     }
 
 }
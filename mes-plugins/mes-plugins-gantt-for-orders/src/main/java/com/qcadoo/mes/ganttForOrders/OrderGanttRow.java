@@ -0,0 +1,32 @@
+package com.qcadoo.mes.ganttForOrders;
+
+import java.util.Date;
+
+import com.qcadoo.view.api.components.ganttChart.GanttChartItem;
+import com.qcadoo.view.api.components.ganttChart.GanttChartScale;
+
+/**
+ * Immutable row of the orders Gantt chart, independent of the scale it is drawn on.
+ */
+final class OrderGanttRow {
+
+    private final Long orderId;
+
+    private final String description;
+
+    private final long from;
+
+    private final long to;
+
+    OrderGanttRow(final Long orderId, final String description, final Date from, final Date to) {
+        this.orderId = orderId;
+        this.description = description;
+        this.from = from.getTime();
+        this.to = to.getTime();
+    }
+
+    GanttChartItem createItem(final GanttChartScale scale) {
+        return scale.createGanttChartItem("", description, orderId, new Date(from), new Date(to));
+    }
+
+}
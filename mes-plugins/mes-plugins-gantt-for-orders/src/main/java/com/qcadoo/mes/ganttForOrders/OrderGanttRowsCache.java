@@ -0,0 +1,34 @@
+package com.qcadoo.mes.ganttForOrders;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.util.VersionedCache;
+
+/**
+ * Keeps resolved rows of recently drawn time windows, so redrawing or scrolling back to a window doesn't query orders again.
+ *
+ * Rows are invalidated by order model hooks. Rows loaded from data read before invalidation are never published.
+ */
+@Service
+public class OrderGanttRowsCache {
+
+    private static final int L_MAX_WINDOWS = 32;
+
+    private final VersionedCache<List<Object>, List<OrderGanttRow>> rowsByWindow = new VersionedCache<>(L_MAX_WINDOWS, 0);
+
+    List<OrderGanttRow> getRows(final Date dateFrom, final Date dateTo, final Locale locale,
+            final Supplier<List<OrderGanttRow>> rowsLoader) {
+        return rowsByWindow.get(Arrays.<Object> asList(dateFrom.getTime(), dateTo.getTime(), locale), rowsLoader);
+    }
+
+    public void invalidate() {
+        rowsByWindow.invalidateAll();
+    }
+
+}
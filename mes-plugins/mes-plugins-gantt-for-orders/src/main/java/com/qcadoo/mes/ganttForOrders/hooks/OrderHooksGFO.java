@@ -0,0 +1,26 @@
+package com.qcadoo.mes.ganttForOrders.hooks;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.ganttForOrders.OrderGanttRowsCache;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class OrderHooksGFO {
+
+    @Autowired
+    private OrderGanttRowsCache orderGanttRowsCache;
+
+    public void onSave(final DataDefinition orderDD, final Entity order) {
+        orderGanttRowsCache.invalidate();
+    }
+
+    public boolean onDelete(final DataDefinition orderDD, final Entity order) {
+        orderGanttRowsCache.invalidate();
+
+        return true;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Line changeover norms keyed by (from, to, production line), separately for technologies and technology groups.
+ *
+ * Matching follows {@link ChangeoverNormsSearchService#findBestMatching}: norms for technologies win over norms for technology
+ * groups, norms for given production line win over norms without production line and the newest norm wins among the rest.
+ */
+public final class ChangeoverNormsMatrix {
+
+    private static final Comparator<Norm> BEST_MATCHING_FIRST = Comparator
+            .comparing(Norm::getChangeoverType, Comparator.nullsLast(Comparator.<String> naturalOrder()))
+            .thenComparing(norm -> norm.getProductionLineId() == null).thenComparing(Norm::getId, Comparator.reverseOrder());
+
+    private final Map<List<Long>, Norm> technologyNorms = Maps.newHashMap();
+
+    private final Map<List<Long>, Norm> technologyGroupNorms = Maps.newHashMap();
+
+    public ChangeoverNormsMatrix(final Collection<Norm> norms) {
+        for (Norm norm : norms) {
+            if (norm.fromTechnologyId != null && norm.toTechnologyId != null) {
+                putIfBetter(technologyNorms, Arrays.asList(norm.fromTechnologyId, norm.toTechnologyId, norm.productionLineId),
+                        norm);
+            }
+
+            if (norm.fromTechnologyGroupId != null && norm.toTechnologyGroupId != null) {
+                putIfBetter(technologyGroupNorms,
+                        Arrays.asList(norm.fromTechnologyGroupId, norm.toTechnologyGroupId, norm.productionLineId), norm);
+            }
+        }
+    }
+
+    private void putIfBetter(final Map<List<Long>, Norm> norms, final List<Long> key, final Norm norm) {
+        norms.merge(key, norm, (existing, added) -> BEST_MATCHING_FIRST.compare(existing, added) <= 0 ? existing : added);
+    }
+
+    public Optional<Norm> findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId,
+            final Long toTechnologyId, final Long toTechnologyGroupId, final Long productionLineId) {
+        return Stream
+                .concat(getCandidates(technologyNorms, fromTechnologyId, toTechnologyId, productionLineId),
+                        getCandidates(technologyGroupNorms, fromTechnologyGroupId, toTechnologyGroupId, productionLineId))
+                .min(BEST_MATCHING_FIRST);
+    }
+
+    private Stream<Norm> getCandidates(final Map<List<Long>, Norm> norms, final Long fromId, final Long toId,
+            final Long productionLineId) {
+        if (fromId == null || toId == null) {
+            return Stream.empty();
+        }
+
+        Stream<Norm> withoutProductionLine = Stream.of(norms.get(Arrays.asList(fromId, toId, null)));
+
+        if (productionLineId == null) {
+            return withoutProductionLine.filter(Objects::nonNull);
+        }
+
+        return Stream.concat(Stream.of(norms.get(Arrays.asList(fromId, toId, productionLineId))), withoutProductionLine).filter(
+                Objects::nonNull);
+    }
+
+    public static class Norm {
+
+        private final Long id;
+
+        private final String changeoverType;
+
+        private final Long fromTechnologyId;
+
+        private final Long toTechnologyId;
+
+        private final Long fromTechnologyGroupId;
+
+        private final Long toTechnologyGroupId;
+
+        private final Long productionLineId;
+
+        private final Integer duration;
+
+        public Norm(final Long id, final String changeoverType, final Long fromTechnologyId, final Long toTechnologyId,
+                final Long fromTechnologyGroupId, final Long toTechnologyGroupId, final Long productionLineId,
+                final Integer duration) {
+            this.id = id;
+            this.changeoverType = changeoverType;
+            this.fromTechnologyId = fromTechnologyId;
+            this.toTechnologyId = toTechnologyId;
+            this.fromTechnologyGroupId = fromTechnologyGroupId;
+            this.toTechnologyGroupId = toTechnologyGroupId;
+            this.productionLineId = productionLineId;
+            this.duration = duration;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getChangeoverType() {
+            return changeoverType;
+        }
+
+        public Long getProductionLineId() {
+            return productionLineId;
+        }
+
+        public Integer getDuration() {
+            return duration;
+        }
+
+    }
+
+}
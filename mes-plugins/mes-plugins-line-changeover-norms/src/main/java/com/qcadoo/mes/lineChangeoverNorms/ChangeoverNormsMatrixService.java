@@ -0,0 +1,99 @@
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.util.VersionedCache;
+
+/**
+ * Keeps all line changeover norms in memory as {@link ChangeoverNormsMatrix}, so matching norms for a sequence of orders
+ * doesn't run a query for each pair of orders.
+ *
+ * The matrix is loaded with one query on first use and kept in {@link VersionedCache}, so it's dropped when line changeover
+ * norms are saved or deleted (once more after the transaction completes) and reloaded after {@link #MAX_AGE} as a safety net
+ * for changes made outside of the application.
+ */
+@Service
+public class ChangeoverNormsMatrixService {
+
+    private static final long MAX_AGE = 10 * 60 * 1000L;
+
+    private static final String L_MATRIX = "matrix";
+
+    private static final String NORMS_QUERY = "SELECT id, changeovertype, fromtechnology_id, totechnology_id, "
+            + "fromtechnologygroup_id, totechnologygroup_id, productionline_id, duration "
+            + "FROM linechangeovernorms_linechangeovernorms";
+
+    private static final String TECHNOLOGY_GROUPS_QUERY = "SELECT id, technologygroup_id FROM technologies_technology "
+            + "WHERE id IN (:technologyIds) AND technologygroup_id IS NOT NULL";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final VersionedCache<String, ChangeoverNormsMatrix> matrixCache = new VersionedCache<>(1, MAX_AGE);
+
+    public ChangeoverNormsMatrix getMatrix() {
+        return matrixCache.get(L_MATRIX, this::load);
+    }
+
+    private ChangeoverNormsMatrix load() {
+        List<ChangeoverNormsMatrix.Norm> norms = jdbcTemplate.query(NORMS_QUERY, Collections.<String, Object> emptyMap(),
+                (rs, rowNum) -> new ChangeoverNormsMatrix.Norm(rs.getLong("id"), rs.getString("changeovertype"), getId(rs,
+                        "fromtechnology_id"), getId(rs, "totechnology_id"), getId(rs, "fromtechnologygroup_id"), getId(rs,
+                        "totechnologygroup_id"), getId(rs, "productionline_id"), getInteger(rs, "duration")));
+
+        return new ChangeoverNormsMatrix(norms);
+    }
+
+    public void invalidate() {
+        matrixCache.invalidateAll();
+    }
+
+    /**
+     * Gets technology groups of given technologies with one query.
+     *
+     * @param technologyIds
+     *            ids of technologies, may contain nulls
+     * @return ids of technology groups by ids of technologies, without technologies not assigned to any group
+     */
+    public Map<Long, Long> getTechnologyGroupIds(final Collection<Long> technologyIds) {
+        Set<Long> ids = technologyIds.stream().filter(Objects::nonNull).collect(Collectors.toSet());
+
+        Map<Long, Long> technologyGroupIds = Maps.newHashMap();
+
+        if (ids.isEmpty()) {
+            return technologyGroupIds;
+        }
+
+        jdbcTemplate.query(TECHNOLOGY_GROUPS_QUERY, Collections.singletonMap("technologyIds", ids),
+                (RowCallbackHandler) rs -> technologyGroupIds.put(rs.getLong("id"), rs.getLong("technologygroup_id")));
+
+        return technologyGroupIds;
+    }
+
+    private Long getId(final ResultSet rs, final String column) throws SQLException {
+        long id = rs.getLong(column);
+
+        return rs.wasNull() ? null : id;
+    }
+
+    private Integer getInteger(final ResultSet rs, final String column) throws SQLException {
+        int value = rs.getInt(column);
+
+        return rs.wasNull() ? null : value;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.lineChangeoverNorms.constants.ChangeoverType;
+
+public class ChangeoverNormsMatrixTest {
+
+    private static final Long FROM_TECH_ID = 1L;
+
+    private static final Long TO_TECH_ID = 2L;
+
+    private static final Long FROM_TECH_GROUP_ID = 101L;
+
+    private static final Long TO_TECH_GROUP_ID = 202L;
+
+    private static final Long PRODUCTION_LINE_ID = 1001L;
+
+    private static final String FOR_TECHNOLOGY = ChangeoverType.FOR_TECHNOLOGY.getStringValue();
+
+    private static final String FOR_TECHNOLOGY_GROUP = ChangeoverType.FOR_TECHNOLOGY_GROUP.getStringValue();
+
+    @Test
+    public void shouldPreferTechnologyNormsOverTechnologyGroupNorms() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(
+                technologyGroupNorm(10L, PRODUCTION_LINE_ID), technologyNorm(11L, null)));
+
+        // when
+        Long normId = matrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID).get().getId();
+
+        // then
+        assertEquals(Long.valueOf(11L), normId);
+    }
+
+    @Test
+    public void shouldPreferNormsForGivenProductionLineAndThenNewestNorms() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(technologyNorm(10L, null),
+                technologyNorm(12L, null), technologyNorm(11L, PRODUCTION_LINE_ID), technologyNorm(13L, 2002L)));
+
+        // when & then
+        assertEquals(Long.valueOf(11L),
+                matrix.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, PRODUCTION_LINE_ID).get().getId());
+        assertEquals(Long.valueOf(12L), matrix.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null).get().getId());
+    }
+
+    @Test
+    public void shouldFallBackToTechnologyGroupNorms() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(technologyGroupNorm(10L, null),
+                technologyNorm(11L, 2002L)));
+
+        // when
+        Long normId = matrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID).get().getId();
+
+        // then
+        assertEquals(Long.valueOf(10L), normId);
+    }
+
+    @Test
+    public void shouldNotMatchReversedTechnologies() {
+        // given
+        ChangeoverNormsMatrix matrix = new ChangeoverNormsMatrix(Lists.newArrayList(technologyNorm(10L, null)));
+
+        // when & then
+        assertFalse(matrix.findBestMatching(TO_TECH_ID, null, FROM_TECH_ID, null, null).isPresent());
+    }
+
+    private ChangeoverNormsMatrix.Norm technologyNorm(final Long id, final Long productionLineId) {
+        return new ChangeoverNormsMatrix.Norm(id, FOR_TECHNOLOGY, FROM_TECH_ID, TO_TECH_ID, null, null, productionLineId, 60);
+    }
+
+    private ChangeoverNormsMatrix.Norm technologyGroupNorm(final Long id, final Long productionLineId) {
+        return new ChangeoverNormsMatrix.Norm(id, FOR_TECHNOLOGY_GROUP, null, null, FROM_TECH_GROUP_ID, TO_TECH_GROUP_ID,
+                productionLineId, 120);
+    }
+
+}
@@ -34,6 +34,16 @@ public class GenerationOrderResult {
         ordersWithoutPps.add(number);
     }
 
+    public List<String> getGeneratedOrderNumbers() {
+        return generatedOrderNumbers;
+    }
+
+    public void addAll(GenerationOrderResult result) {
+        productOrderErrors.addAll(result.productOrderErrors);
+        generatedOrderNumbers.addAll(result.generatedOrderNumbers);
+        ordersWithoutPps.addAll(result.ordersWithoutPps);
+    }
+
     public void showMessage(ViewDefinitionState view) {
         if (!generatedOrderNumbers.isEmpty()) {
             view.addMessage("masterOrders.masterOrder.generationOrder.generatedOrderNumbers", ComponentState.MessageType.INFO,
@@ -1,54 +1,55 @@
 package com.qcadoo.mes.masterOrders;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
-import com.qcadoo.mes.basic.ShiftsService;
-import com.qcadoo.mes.basic.constants.BasicConstants;
-import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsService;
-import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
-import com.qcadoo.mes.lineChangeoverNormsForOrders.LineChangeoverNormsForOrdersService;
-import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
-import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
-import com.qcadoo.mes.masterOrders.constants.OrderFieldsMO;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendarService;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrixService;
 import com.qcadoo.mes.orders.OrderService;
 import com.qcadoo.mes.orders.TechnologyServiceO;
-import com.qcadoo.mes.orders.constants.OrderFields;
-import com.qcadoo.mes.orders.constants.OrderType;
-import com.qcadoo.mes.orders.constants.OrdersConstants;
-import com.qcadoo.mes.orders.constants.ParameterFieldsO;
-import com.qcadoo.mes.orders.states.constants.OrderState;
-import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
-import com.qcadoo.model.api.DataDefinition;
-import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.exception.EntityRuntimeException;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.view.api.utils.NumberGeneratorService;
-import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-
-import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
-import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
-
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Generates orders from master order products in chunks.
+ *
+ * Parameters, technologies, production lines, working time calendar, changeover norms and order numbers are loaded once for the
+ * whole generation. Every chunk is saved in its own transaction - failure of one chunk doesn't roll back orders generated by
+ * previous chunks, products of the failed chunk are reported as not generated.
+ */
 @Service
 public class OrdersFromMOProductsGenerationService {
 
-    private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
-            "registerQuantityOutProduct", "registerProductionTime", "registerPiecework", "justOne", "allowToClose",
-            "autoCloseOrder", "typeOfProductionRecording");
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersFromMOProductsGenerationService.class);
+
+    private static final int CHUNK_SIZE = 20;
+
+    private static final String L_CHUNK_FAILED = "masterOrders.masterOrder.generationOrder.chunkFailed";
+
+    // production line id 0 stands for orders without production line
+    private static final String LAST_ORDERS_QUERY = "SELECT DISTINCT ON (productionline_id) productionline_id, "
+            + "technologyprototype_id, startdate, finishdate FROM orders_order "
+            + "WHERE startdate IS NOT NULL AND COALESCE(productionline_id, 0) IN (:productionLineIds) "
+            + "ORDER BY productionline_id, startdate DESC";
 
     @Autowired
     private TechnologyServiceO technologyServiceO;
@@ -56,9 +57,6 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private ParameterService parameterService;
 
-    @Autowired
-    private DataDefinitionService dataDefinitionService;
-
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
@@ -69,236 +67,125 @@ public class OrdersFromMOProductsGenerationService {
     private TranslationService translationService;
 
     @Autowired
-    private ChangeoverNormsService changeoverNormsService;
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
+    @Autowired
+    private ChangeoverNormsMatrixService changeoverNormsMatrixService;
 
     @Autowired
-    private LineChangeoverNormsForOrdersService lineChangeoverNormsForOrdersService;
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Autowired
-    private ShiftsService shiftsService;
+    private OrdersFromMOProductsGenerationWorker ordersFromMOProductsGenerationWorker;
 
     public GenerationOrderResult generateOrders(List<Entity> masterOrderProducts, boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService);
-        boolean automaticPps = parameterService.getParameter().getBooleanField("ppsIsAutomatic");
-        masterOrderProducts.forEach(masterOrderProduct -> {
+
+        List<Entity> products = masterOrderProducts.stream().map(masterOrderProduct -> {
             Optional<Entity> dtoEntity = Optional.ofNullable(masterOrderProduct.getDataDefinition().getMasterModelEntity(
                     masterOrderProduct.getId()));
-            if (dtoEntity.isPresent()) {
-                generateOrder(generatePPS, automaticPps, result, dtoEntity.get());
-            } else {
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct);
-            }
-        });
+            return dtoEntity.orElse(masterOrderProduct);
+        }).collect(Collectors.toList());
 
-        return result;
+        OrdersGenerationContext context = createContext(products, generatePPS);
 
-    }
+        List<List<Entity>> chunks = Lists.partition(products, CHUNK_SIZE);
 
-    private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result, Entity masterOrderProduct) {
-        Entity order = createOrder(masterOrderProduct);
-        order = getOrderDD().save(order);
-        if (!order.isValid()) {
-            MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
-            productErrorContainer.setProduct(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)
-                    .getStringField(ProductFields.NUMBER));
-            productErrorContainer.setMasterOrder(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)
-                    .getStringField(MasterOrderFields.NUMBER));
-            productErrorContainer.setQuantity(order.getDecimalField(OrderFields.PLANNED_QUANTITY));
-            productErrorContainer.setErrorMessages(order.getGlobalErrors());
-            result.addNotGeneratedProductError(productErrorContainer);
-        } else {
-            result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
-        }
+        for (int index = 0; index < chunks.size(); index++) {
+            generateOrders(chunks.get(index), context, result);
 
-        if (order.isValid() && generatePPS && automaticPps) {
-            try {
-                tryGeneratePPS(order);
-            } catch (Exception ex) {
-                result.addOrderWithoutPps(order.getStringField(OrderFields.NUMBER));
-            }
+            LOG.info("Generation of orders from master order products: chunk " + (index + 1) + "/" + chunks.size()
+                    + " processed, " + result.getGeneratedOrderNumbers().size() + " orders generated");
         }
-    }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private void tryGeneratePPS(final Entity order) {
-        Date startDate = findStartDate(order);
-        generateEmptyPpsForOrder(order);
-        order.setField("generatePPS", true);
-        order.setField(OrderFields.START_DATE, startDate);
-        order.setField(OrderFields.FINISH_DATE, new DateTime(order.getDateField(OrderFields.START_DATE)).plusDays(1).toDate());
-        Entity storedOrder = order.getDataDefinition().save(order);
-        if (!storedOrder.isValid()) {
-            throw new EntityRuntimeException(storedOrder);
-        }
+        return result;
     }
 
-    private void generateEmptyPpsForOrder(Entity order) {
-        Entity productionPerShift = dataDefinitionService.get("productionPerShift", "productionPerShift").find()
-                .add(SearchRestrictions.belongsTo("order", order)).setMaxResults(1).uniqueResult();
-        if (productionPerShift != null) {
-            return;
-        }
-        boolean shouldBeCorrected = OrderState.of(order).compareTo(OrderState.PENDING) != 0;
-        productionPerShift = dataDefinitionService.get("productionPerShift", "productionPerShift").create();
-        productionPerShift.setField("order", order);
-        if (shouldBeCorrected) {
-            productionPerShift.setField("plannedProgressType", "02corrected");
-        } else {
-            productionPerShift.setField("plannedProgressType", "01planned");
-        }
-        productionPerShift.getDataDefinition().save(productionPerShift);
-    }
+    private void generateOrders(final List<Entity> chunk, final OrdersGenerationContext context,
+            final GenerationOrderResult result) {
+        OrdersGenerationContext.Checkpoint checkpoint = context.checkpoint();
 
-    private Date findStartDate(final Entity order) {
-        if (Objects.nonNull(order.getDateField(OrderFields.START_DATE))) {
-            return order.getDateField(OrderFields.START_DATE);
-        }
+        GenerationOrderResult chunkResult = new GenerationOrderResult(translationService);
 
-        Optional<Entity> previousOrder = findPreviousOrder(order);
-        if (previousOrder.isPresent()) {
-            Integer changeoverDurationInMillis = getChangeoverDurationInMillis(previousOrder.get(), order);
-            List<Entity> shifts = getAllShifts();
-            Optional<DateTime> maybeDate = shiftsService.getNearestWorkingDate(
-                    new DateTime(previousOrder.get().getDateField(OrderFields.FINISH_DATE)), shifts);
-            if (maybeDate.isPresent()) {
-                return calculateOrderStartDate(maybeDate.get().toDate(), changeoverDurationInMillis);
-            }
-        }
-
-        return DateTime.now().toDate();
-    }
+        try {
+            ordersFromMOProductsGenerationWorker.generateOrders(chunk, context, chunkResult);
 
-    private Date calculateOrderStartDate(Date finishDate, Integer changeoverDurationInMillis) {
-        DateTime finishDateTime = new DateTime(finishDate);
-        finishDateTime = finishDateTime.plusMillis(changeoverDurationInMillis);
-        return finishDateTime.toDate();
-    }
+            result.addAll(chunkResult);
+        } catch (RuntimeException e) {
+            LOG.warn("Generation of orders from master order products failed for chunk of " + chunk.size() + " products", e);
 
-    public Optional<Entity> findPreviousOrder(final Entity order) {
-        Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
-        Entity nextOrder = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER).find()
-                .add(SearchRestrictions.belongsTo(OrderFields.PRODUCTION_LINE, productionLine))
-                .add(SearchRestrictions.isNotNull(OrderFields.START_DATE)).addOrder(SearchOrders.desc(OrderFields.START_DATE))
-                .setMaxResults(1).uniqueResult();
-        return Optional.ofNullable(nextOrder);
-    }
+            context.rollback(checkpoint);
 
-    public Integer getChangeoverDurationInMillis(Entity previousOrder, final Entity nextOrder) {
-        Entity fromTechnology = previousOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
-        Entity toTechnology = nextOrder.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
-        Entity productionLine = nextOrder.getBelongsToField(PRODUCTION_LINE);
-        Entity changeover = changeoverNormsService.getMatchingChangeoverNorms(fromTechnology, toTechnology, productionLine);
-        if (changeover != null) {
-            Integer duration = changeover.getIntegerField(LineChangeoverNormsFields.DURATION);
-            if (duration == null) {
-                return 0;
-            }
-            return duration * 1000;
+            chunk.forEach(masterOrderProduct -> {
+                MasterOrderProductErrorContainer productErrorContainer = ordersFromMOProductsGenerationWorker
+                        .createErrorContainer(masterOrderProduct,
+                                ordersFromMOProductsGenerationWorker.getPlannedQuantityForOrder(masterOrderProduct));
+                productErrorContainer.setErrorMessages(Lists.newArrayList(new ErrorMessage(L_CHUNK_FAILED)));
+                result.addNotGeneratedProductError(productErrorContainer);
+            });
         }
-        return 0;
     }
 
-    public Entity createOrder(final Entity masterOrderProduct) {
+    private OrdersGenerationContext createContext(final List<Entity> masterOrderProducts, final boolean generatePPS) {
         Entity parameter = parameterService.getParameter();
-        Entity masterOrder = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER);
-        Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
-        Entity technology = getTechnology(masterOrderProduct);
-        Date masterOrderDeadline = masterOrder.getDateField(MasterOrderFields.DEADLINE);
-        Date masterOrderStartDate = masterOrder.getDateField(MasterOrderFields.START_DATE);
-        Date masterOrderFinishDate = masterOrder.getDateField(MasterOrderFields.FINISH_DATE);
-
-        Entity order = getOrderDD().create();
-        order.setField(OrderFields.NUMBER, generateOrderNumber(parameter, masterOrder));
-        order.setField(OrderFields.NAME, generateOrderName(product, technology));
-        order.setField(OrderFields.COMPANY, masterOrder.getBelongsToField(MasterOrderFields.COMPANY));
-        order.setField(OrderFields.ADDRESS, masterOrder.getBelongsToField(MasterOrderFields.ADDRESS));
-        order.setField(OrderFields.PRODUCT, product);
-        order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, technology);
-        order.setField(OrderFields.PRODUCTION_LINE, getProductionLine(technology));
-        order.setField(OrderFields.DATE_FROM, masterOrderStartDate);
-        order.setField(OrderFields.DATE_TO, masterOrderFinishDate);
-        order.setField(OrderFields.DEADLINE, masterOrderDeadline);
-        order.setField(OrderFields.EXTERNAL_SYNCHRONIZED, true);
-        order.setField("isSubcontracted", false);
-        order.setField(OrderFields.STATE, OrderStateStringValues.PENDING);
-        order.setField(OrderFieldsMO.MASTER_ORDER, masterOrder);
-        order.setField(OrderFields.ORDER_TYPE, OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
-        order.setField(OrderFields.PLANNED_QUANTITY, getPlannedQuantityForOrder(masterOrderProduct));
-
-        order.setField("ignoreMissingComponents", parameter.getBooleanField("ignoreMissingComponents"));
-
-        boolean fillOrderDescriptionBasedOnTechnology = dataDefinitionService
-                .get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PARAMETER).find().setMaxResults(1).uniqueResult()
-                .getBooleanField(ParameterFieldsO.FILL_ORDER_DESCRIPTION_BASED_ON_TECHNOLOGY_DESCRIPTION);
-
-        String orderDescription = orderService.buildOrderDescription(masterOrder, technology,
-                fillOrderDescriptionBasedOnTechnology);
-        order.setField(OrderFields.DESCRIPTION, orderDescription);
-        return order;
-    }
+        boolean generatePps = generatePPS && parameter.getBooleanField("ppsIsAutomatic");
 
-    private BigDecimal getPlannedQuantityForOrder(final Entity masterOrderProduct) {
-        BigDecimal masterOrderQuantity, cumulatedOrderQuantity;
-        masterOrderQuantity = masterOrderProduct.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY);
-        cumulatedOrderQuantity = masterOrderProduct.getDecimalField(MasterOrderProductFields.CUMULATED_ORDER_QUANTITY);
+        OrdersGenerationContext context = new OrdersGenerationContext(parameter, generatePps,
+                generatePps ? workingTimeCalendarService.getCalendar() : null,
+                generatePps ? changeoverNormsMatrixService.getMatrix() : null, technologyServiceO, orderService,
+                numberGeneratorService);
 
-        BigDecimal quantity = masterOrderQuantity.subtract(convertNullToZero(cumulatedOrderQuantity));
+        if (generatePps) {
+            preloadLastOrders(context, masterOrderProducts);
+        }
 
-        return quantity;
+        return context;
     }
 
-    private String generateOrderName(final Entity product, final Entity technology) {
-        return orderService.makeDefaultName(product, technology, LocaleContextHolder.getLocale());
-    }
+    private void preloadLastOrders(final OrdersGenerationContext context, final List<Entity> masterOrderProducts) {
+        Set<Long> technologyIds = Sets.newHashSet();
+        Set<Long> productionLineIds = Sets.newHashSet();
 
-    private String generateOrderNumber(final Entity parameter, final Entity masterOrder) {
-        return numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
-                masterOrder.getStringField(MasterOrderFields.NUMBER) + "-");
-    }
+        for (Entity masterOrderProduct : masterOrderProducts) {
+            Entity technology = context.getTechnology(masterOrderProduct);
+            Entity productionLine = context.getProductionLine(technology);
 
-    public Entity getProductionLine(final Entity technology) {
-        Entity productionLine = null;
-        if (Objects.nonNull(technology)) {
-            productionLine = technology.getBelongsToField("productionLine");
-        }
-        if (Objects.isNull(productionLine)) {
-            productionLine = orderService.getDefaultProductionLine();
+            if (Objects.nonNull(technology)) {
+                technologyIds.add(technology.getId());
+            }
+
+            productionLineIds.add(Objects.isNull(productionLine) ? 0L : productionLine.getId());
         }
-        return productionLine;
-    }
 
-    private Entity getTechnology(final Entity masterOrderProduct) {
-        Entity technology;
-        technology = masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY);
-        if (Objects.isNull(technology)) {
-            Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
-            technology = technologyServiceO.getDefaultTechnology(product);
+        if (productionLineIds.isEmpty()) {
+            return;
         }
 
-        return technology;
-    }
+        jdbcTemplate.query(LAST_ORDERS_QUERY, Collections.singletonMap("productionLineIds", productionLineIds),
+                (RowCallbackHandler) rs -> {
+                    Long technologyId = getId(rs, "technologyprototype_id");
 
-    private void fillPCParametersForOrder(final Entity orderEntity) {
-        Entity technology = orderEntity.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+                    if (Objects.nonNull(technologyId)) {
+                        technologyIds.add(technologyId);
+                    }
 
-        for (String field : L_TECHNOLOGY_FIELD_NAMES) {
-            orderEntity.setField(field, getDefaultValueForProductionCounting(technology, field));
-        }
-    }
+                    context.addLastOrder(getId(rs, "productionline_id"), technologyId, getDate(rs, "startdate"),
+                            getDate(rs, "finishdate"));
+                });
 
-    private Object getDefaultValueForProductionCounting(final Entity technology, final String fieldName) {
-        return technology.getField(fieldName);
+        context.addTechnologyGroupIds(changeoverNormsMatrixService.getTechnologyGroupIds(technologyIds));
     }
 
-    private DataDefinition getOrderDD() {
-        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
-    }
+    private Long getId(final ResultSet rs, final String column) throws SQLException {
+        long id = rs.getLong(column);
 
-    private List<Entity> getAllShifts() {
-        return getShiftDataDefinition().find().list().getEntities();
+        return rs.wasNull() ? null : id;
     }
 
-    private DataDefinition getShiftDataDefinition() {
-        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT);
+    private Date getDate(final ResultSet rs, final String column) throws SQLException {
+        Timestamp timestamp = rs.getTimestamp(column);
+
+        return timestamp == null ? null : new Date(timestamp.getTime());
     }
+
 }
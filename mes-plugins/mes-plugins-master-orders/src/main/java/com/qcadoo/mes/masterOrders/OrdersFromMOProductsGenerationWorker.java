@@ -0,0 +1,218 @@
+package com.qcadoo.mes.masterOrders;
+
+import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.masterOrders.constants.OrderFieldsMO;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrderType;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.constants.ParameterFieldsO;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+@Service
+class OrdersFromMOProductsGenerationWorker {
+
+    private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
+            "registerQuantityOutProduct", "registerProductionTime", "registerPiecework", "justOne", "allowToClose",
+            "autoCloseOrder", "typeOfProductionRecording");
+
+    private static final int MAX_ORDER_NUMBER_ATTEMPTS = 10;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void generateOrders(final List<Entity> masterOrderProducts, final OrdersGenerationContext context,
+            final GenerationOrderResult result) {
+        masterOrderProducts.forEach(masterOrderProduct -> generateOrder(context, result, masterOrderProduct));
+    }
+
+    private void generateOrder(final OrdersGenerationContext context, final GenerationOrderResult result,
+            final Entity masterOrderProduct) {
+        String orderNumberPrefix = getOrderNumberPrefix(masterOrderProduct);
+
+        Entity order = getOrderDD().save(createOrder(context, masterOrderProduct));
+
+        // number from the reserved block may have been taken meanwhile, e.g. by an order created by hand
+        for (int attempt = 1; isOrderNumberTaken(order) && attempt < MAX_ORDER_NUMBER_ATTEMPTS; attempt++) {
+            context.markOrderNumberAsUsed(orderNumberPrefix);
+
+            order = getOrderDD().save(createOrder(context, masterOrderProduct));
+        }
+
+        if (!order.isValid()) {
+            MasterOrderProductErrorContainer productErrorContainer = createErrorContainer(masterOrderProduct,
+                    order.getDecimalField(OrderFields.PLANNED_QUANTITY));
+            productErrorContainer.setErrorMessages(order.getGlobalErrors());
+            result.addNotGeneratedProductError(productErrorContainer);
+
+            return;
+        }
+
+        context.markOrderNumberAsUsed(orderNumberPrefix);
+        result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
+
+        if (context.isGeneratePps()) {
+            try {
+                tryGeneratePPS(context, order);
+            } catch (Exception ex) {
+                result.addOrderWithoutPps(order.getStringField(OrderFields.NUMBER));
+            }
+        } else {
+            context.addLastOrder(order);
+        }
+    }
+
+    private boolean isOrderNumberTaken(final Entity order) {
+        return !order.isValid() && Objects.nonNull(order.getError(OrderFields.NUMBER));
+    }
+
+    MasterOrderProductErrorContainer createErrorContainer(final Entity masterOrderProduct, final BigDecimal quantity) {
+        MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
+        productErrorContainer.setProduct(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)
+                .getStringField(ProductFields.NUMBER));
+        productErrorContainer.setMasterOrder(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)
+                .getStringField(MasterOrderFields.NUMBER));
+        productErrorContainer.setQuantity(quantity);
+        return productErrorContainer;
+    }
+
+    private void tryGeneratePPS(final OrdersGenerationContext context, final Entity order) {
+        Date startDate = findStartDate(context, order);
+        generateEmptyPpsForOrder(order);
+        order.setField("generatePPS", true);
+        order.setField(OrderFields.START_DATE, startDate);
+        order.setField(OrderFields.FINISH_DATE, new DateTime(order.getDateField(OrderFields.START_DATE)).plusDays(1).toDate());
+        Entity storedOrder = order.getDataDefinition().save(order);
+        if (!storedOrder.isValid()) {
+            throw new EntityRuntimeException(storedOrder);
+        }
+        context.addLastOrder(storedOrder);
+    }
+
+    private void generateEmptyPpsForOrder(Entity order) {
+        Entity productionPerShift = dataDefinitionService.get("productionPerShift", "productionPerShift").find()
+                .add(SearchRestrictions.belongsTo("order", order)).setMaxResults(1).uniqueResult();
+        if (productionPerShift != null) {
+            return;
+        }
+        boolean shouldBeCorrected = OrderState.of(order).compareTo(OrderState.PENDING) != 0;
+        productionPerShift = dataDefinitionService.get("productionPerShift", "productionPerShift").create();
+        productionPerShift.setField("order", order);
+        if (shouldBeCorrected) {
+            productionPerShift.setField("plannedProgressType", "02corrected");
+        } else {
+            productionPerShift.setField("plannedProgressType", "01planned");
+        }
+        productionPerShift.getDataDefinition().save(productionPerShift);
+    }
+
+    private Date findStartDate(final OrdersGenerationContext context, final Entity order) {
+        if (Objects.nonNull(order.getDateField(OrderFields.START_DATE))) {
+            return order.getDateField(OrderFields.START_DATE);
+        }
+
+        return context.findStartDateAfterLastOrder(order).orElseGet(() -> DateTime.now().toDate());
+    }
+
+    private Entity createOrder(final OrdersGenerationContext context, final Entity masterOrderProduct) {
+        Entity parameter = context.getParameter();
+        Entity masterOrder = masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER);
+        Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
+        Entity technology = context.getTechnology(masterOrderProduct);
+        Date masterOrderDeadline = masterOrder.getDateField(MasterOrderFields.DEADLINE);
+        Date masterOrderStartDate = masterOrder.getDateField(MasterOrderFields.START_DATE);
+        Date masterOrderFinishDate = masterOrder.getDateField(MasterOrderFields.FINISH_DATE);
+
+        Entity order = getOrderDD().create();
+        order.setField(OrderFields.NUMBER, context.getOrderNumber(getOrderNumberPrefix(masterOrderProduct)));
+        order.setField(OrderFields.NAME, generateOrderName(product, technology));
+        order.setField(OrderFields.COMPANY, masterOrder.getBelongsToField(MasterOrderFields.COMPANY));
+        order.setField(OrderFields.ADDRESS, masterOrder.getBelongsToField(MasterOrderFields.ADDRESS));
+        order.setField(OrderFields.PRODUCT, product);
+        order.setField(OrderFields.TECHNOLOGY_PROTOTYPE, technology);
+        order.setField(OrderFields.PRODUCTION_LINE, context.getProductionLine(technology));
+        order.setField(OrderFields.DATE_FROM, masterOrderStartDate);
+        order.setField(OrderFields.DATE_TO, masterOrderFinishDate);
+        order.setField(OrderFields.DEADLINE, masterOrderDeadline);
+        order.setField(OrderFields.EXTERNAL_SYNCHRONIZED, true);
+        order.setField("isSubcontracted", false);
+        order.setField(OrderFields.STATE, OrderStateStringValues.PENDING);
+        order.setField(OrderFieldsMO.MASTER_ORDER, masterOrder);
+        order.setField(OrderFields.ORDER_TYPE, OrderType.WITH_PATTERN_TECHNOLOGY.getStringValue());
+        order.setField(OrderFields.PLANNED_QUANTITY, getPlannedQuantityForOrder(masterOrderProduct));
+
+        order.setField("ignoreMissingComponents", parameter.getBooleanField("ignoreMissingComponents"));
+
+        boolean fillOrderDescriptionBasedOnTechnology = parameter
+                .getBooleanField(ParameterFieldsO.FILL_ORDER_DESCRIPTION_BASED_ON_TECHNOLOGY_DESCRIPTION);
+
+        String orderDescription = orderService.buildOrderDescription(masterOrder, technology,
+                fillOrderDescriptionBasedOnTechnology);
+        order.setField(OrderFields.DESCRIPTION, orderDescription);
+        return order;
+    }
+
+    BigDecimal getPlannedQuantityForOrder(final Entity masterOrderProduct) {
+        BigDecimal masterOrderQuantity, cumulatedOrderQuantity;
+        masterOrderQuantity = masterOrderProduct.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY);
+        cumulatedOrderQuantity = masterOrderProduct.getDecimalField(MasterOrderProductFields.CUMULATED_ORDER_QUANTITY);
+
+        BigDecimal quantity = masterOrderQuantity.subtract(convertNullToZero(cumulatedOrderQuantity));
+
+        return quantity;
+    }
+
+    private String generateOrderName(final Entity product, final Entity technology) {
+        return orderService.makeDefaultName(product, technology, LocaleContextHolder.getLocale());
+    }
+
+    private String getOrderNumberPrefix(final Entity masterOrderProduct) {
+        return masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER).getStringField(
+                MasterOrderFields.NUMBER)
+                + "-";
+    }
+
+    private void fillPCParametersForOrder(final Entity orderEntity) {
+        Entity technology = orderEntity.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE);
+
+        for (String field : L_TECHNOLOGY_FIELD_NAMES) {
+            orderEntity.setField(field, getDefaultValueForProductionCounting(technology, field));
+        }
+    }
+
+    private Object getDefaultValueForProductionCounting(final Entity technology, final String fieldName) {
+        return technology.getField(fieldName);
+    }
+
+    private DataDefinition getOrderDD() {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.qcadoo.mes.masterOrders;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
+import com.qcadoo.mes.lineChangeoverNorms.ChangeoverNormsMatrix;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.view.api.utils.NumberGeneratorService;
+
+/**
+ * State of one generation of orders from master order products, shared by all its chunks.
+ *
+ * Holds data loaded once per generation: parameters, default technologies and production lines, working time calendar,
+ * changeover norms and a block of order numbers for each master order. It also tracks the last order of each production line,
+ * so start dates of generated orders are chained in memory instead of searching the previous order for every order.
+ */
+final class OrdersGenerationContext {
+
+    private static final int ORDER_NUMBER_DIGITS = 3;
+
+    private final Entity parameter;
+
+    private final boolean generatePps;
+
+    private final WorkingTimeCalendar calendar;
+
+    private final ChangeoverNormsMatrix changeoverNormsMatrix;
+
+    private final TechnologyServiceO technologyServiceO;
+
+    private final OrderService orderService;
+
+    private final NumberGeneratorService numberGeneratorService;
+
+    private final Map<Long, Optional<Entity>> defaultTechnologies = Maps.newHashMap();
+
+    private Optional<Entity> defaultProductionLine;
+
+    private final Map<Long, Long> technologyGroupIds = Maps.newHashMap();
+
+    private Map<String, Integer> nextOrderNumbers = Maps.newHashMap();
+
+    private Map<Long, LastOrder> lastOrders = Maps.newHashMap();
+
+    OrdersGenerationContext(final Entity parameter, final boolean generatePps, final WorkingTimeCalendar calendar,
+            final ChangeoverNormsMatrix changeoverNormsMatrix, final TechnologyServiceO technologyServiceO,
+            final OrderService orderService, final NumberGeneratorService numberGeneratorService) {
+        this.parameter = parameter;
+        this.generatePps = generatePps;
+        this.calendar = calendar;
+        this.changeoverNormsMatrix = changeoverNormsMatrix;
+        this.technologyServiceO = technologyServiceO;
+        this.orderService = orderService;
+        this.numberGeneratorService = numberGeneratorService;
+    }
+
+    Entity getParameter() {
+        return parameter;
+    }
+
+    boolean isGeneratePps() {
+        return generatePps;
+    }
+
+    Entity getTechnology(final Entity masterOrderProduct) {
+        Entity technology = masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY);
+
+        if (Objects.nonNull(technology)) {
+            return technology;
+        }
+
+        Entity product = masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT);
+
+        return defaultTechnologies.computeIfAbsent(product.getId(),
+                productId -> Optional.ofNullable(technologyServiceO.getDefaultTechnology(product))).orElse(null);
+    }
+
+    Entity getProductionLine(final Entity technology) {
+        Entity productionLine = null;
+
+        if (Objects.nonNull(technology)) {
+            productionLine = technology.getBelongsToField("productionLine");
+        }
+
+        if (Objects.isNull(productionLine)) {
+            if (defaultProductionLine == null) {
+                defaultProductionLine = Optional.ofNullable(orderService.getDefaultProductionLine());
+            }
+
+            productionLine = defaultProductionLine.orElse(null);
+        }
+
+        return productionLine;
+    }
+
+    void addTechnologyGroupIds(final Map<Long, Long> technologyGroupIds) {
+        this.technologyGroupIds.putAll(technologyGroupIds);
+    }
+
+    void addLastOrder(final Long productionLineId, final Long technologyId, final Date startDate, final Date finishDate) {
+        LastOrder lastOrder = lastOrders.get(productionLineId);
+
+        if (Objects.nonNull(startDate) && (lastOrder == null || !startDate.before(lastOrder.startDate))) {
+            lastOrders.put(productionLineId, new LastOrder(technologyId, startDate, finishDate));
+        }
+    }
+
+    void addLastOrder(final Entity order) {
+        addLastOrder(getIdOrNull(order.getBelongsToField(OrderFields.PRODUCTION_LINE)),
+                getIdOrNull(order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)),
+                order.getDateField(OrderFields.START_DATE), order.getDateField(OrderFields.FINISH_DATE));
+    }
+
+    /**
+     * Finds start date of the order following the last order of its production line: the nearest working time after finish
+     * of the last order plus the changeover between technologies of both orders.
+     *
+     * @param order
+     *            order to find start date for
+     * @return start date, or empty if there is no previous order on the production line or no working time after it
+     */
+    Optional<Date> findStartDateAfterLastOrder(final Entity order) {
+        Long productionLineId = getIdOrNull(order.getBelongsToField(OrderFields.PRODUCTION_LINE));
+
+        LastOrder lastOrder = lastOrders.get(productionLineId);
+
+        if (lastOrder == null) {
+            return Optional.empty();
+        }
+
+        Date lastOrderFinishDate = Optional.ofNullable(lastOrder.finishDate).orElseGet(Date::new);
+
+        return calendar.findDateAfterWorkingSeconds(lastOrderFinishDate, 0).map(
+                nearestWorkingDate -> new Date(nearestWorkingDate.getTime()
+                        + getChangeoverDurationInMillis(lastOrder.technologyId,
+                                getIdOrNull(order.getBelongsToField(OrderFields.TECHNOLOGY_PROTOTYPE)), productionLineId)));
+    }
+
+    private long getChangeoverDurationInMillis(final Long fromTechnologyId, final Long toTechnologyId,
+            final Long productionLineId) {
+        if (fromTechnologyId == null || toTechnologyId == null) {
+            return 0L;
+        }
+
+        Integer duration = changeoverNormsMatrix
+                .findBestMatching(fromTechnologyId, technologyGroupIds.get(fromTechnologyId), toTechnologyId,
+                        technologyGroupIds.get(toTechnologyId), productionLineId)
+                .map(ChangeoverNormsMatrix.Norm::getDuration).orElse(null);
+
+        return duration == null ? 0L : duration * 1000L;
+    }
+
+    /**
+     * Gets next number of order with given prefix. Only the first number for each prefix is generated by
+     * {@link NumberGeneratorService}, next ones are taken from the reserved block. The number is taken until it's marked as
+     * used, either by a saved order or because it turned out to be taken already.
+     */
+    String getOrderNumber(final String prefix) {
+        Integer nextOrderNumber = nextOrderNumbers.get(prefix);
+
+        if (nextOrderNumber == null) {
+            String orderNumber = numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER,
+                    OrdersConstants.MODEL_ORDER, ORDER_NUMBER_DIGITS, prefix);
+
+            String suffix = StringUtils.removeStart(orderNumber, prefix);
+
+            if (!orderNumber.startsWith(prefix) || suffix.isEmpty() || !StringUtils.isNumeric(suffix)) {
+                return orderNumber;
+            }
+
+            nextOrderNumber = Integer.valueOf(suffix);
+
+            nextOrderNumbers.put(prefix, nextOrderNumber);
+        }
+
+        return prefix + Strings.padStart(String.valueOf(nextOrderNumber), ORDER_NUMBER_DIGITS, '0');
+    }
+
+    void markOrderNumberAsUsed(final String prefix) {
+        nextOrderNumbers.computeIfPresent(prefix, (key, nextOrderNumber) -> nextOrderNumber + 1);
+    }
+
+    /**
+     * Remembers order numbers and last orders of production lines, so they can be restored when chunk of orders is rolled back.
+     */
+    Checkpoint checkpoint() {
+        return new Checkpoint(Maps.newHashMap(nextOrderNumbers), Maps.newHashMap(lastOrders));
+    }
+
+    void rollback(final Checkpoint checkpoint) {
+        nextOrderNumbers = Maps.newHashMap(checkpoint.nextOrderNumbers);
+        lastOrders = Maps.newHashMap(checkpoint.lastOrders);
+    }
+
+    private Long getIdOrNull(final Entity entity) {
+        return entity == null ? null : entity.getId();
+    }
+
+    static final class Checkpoint {
+
+        private final Map<String, Integer> nextOrderNumbers;
+
+        private final Map<Long, LastOrder> lastOrders;
+
+        private Checkpoint(final Map<String, Integer> nextOrderNumbers, final Map<Long, LastOrder> lastOrders) {
+            this.nextOrderNumbers = nextOrderNumbers;
+            this.lastOrders = lastOrders;
+        }
+
+    }
+
+    private static final class LastOrder {
+
+        private final Long technologyId;
+
+        private final Date startDate;
+
+        private final Date finishDate;
+
+        private LastOrder(final Long technologyId, final Date startDate, final Date finishDate) {
+            this.technologyId = technologyId;
+            this.startDate = startDate;
+            this.finishDate = finishDate;
+        }
+
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.view.api.utils.NumberGeneratorService;
+
+public class OrdersFromMOProductsGenerationWorkerTest {
+
+    private static final String L_PREFIX = "MO-1-";
+
+    private OrdersFromMOProductsGenerationWorker ordersFromMOProductsGenerationWorker;
+
+    private OrdersGenerationContext context;
+
+    private GenerationOrderResult result;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private NumberGeneratorService numberGeneratorService;
+
+    @Mock
+    private DataDefinition orderDD;
+
+    @Mock
+    private Entity parameter, masterOrder, masterOrderProduct, product, technology;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersFromMOProductsGenerationWorker = new OrdersFromMOProductsGenerationWorker();
+
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationWorker, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationWorker, "orderService", orderService);
+
+        context = new OrdersGenerationContext(parameter, false, null, null, mock(TechnologyServiceO.class), orderService,
+                numberGeneratorService);
+        result = new GenerationOrderResult(mock(TranslationService.class));
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+        given(numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
+                L_PREFIX)).willReturn(L_PREFIX + "008");
+
+        given(masterOrder.getStringField(MasterOrderFields.NUMBER)).willReturn("MO-1");
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)).willReturn(masterOrder);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)).willReturn(product);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY)).willReturn(technology);
+        given(masterOrderProduct.getDecimalField(MasterOrderProductFields.MASTER_ORDER_QUANTITY)).willReturn(BigDecimal.TEN);
+    }
+
+    @Test
+    public final void shouldRetryWithNextOrderNumberWhenNumberIsTaken() {
+        // given
+        Entity firstOrder = mock(Entity.class);
+        Entity secondOrder = mock(Entity.class);
+        Entity notSavedOrder = mock(Entity.class);
+        Entity savedOrder = mock(Entity.class);
+
+        given(orderDD.create()).willReturn(firstOrder, secondOrder);
+        given(orderDD.save(firstOrder)).willReturn(notSavedOrder);
+        given(orderDD.save(secondOrder)).willReturn(savedOrder);
+        given(notSavedOrder.isValid()).willReturn(false);
+        given(notSavedOrder.getError(OrderFields.NUMBER)).willReturn(
+                new ErrorMessage("qcadooView.validate.field.error.duplicated"));
+        given(savedOrder.isValid()).willReturn(true);
+        given(savedOrder.getStringField(OrderFields.NUMBER)).willReturn(L_PREFIX + "009");
+
+        // when
+        ordersFromMOProductsGenerationWorker.generateOrders(Lists.newArrayList(masterOrderProduct), context, result);
+
+        // then
+        verify(firstOrder).setField(OrderFields.NUMBER, L_PREFIX + "008");
+        verify(secondOrder).setField(OrderFields.NUMBER, L_PREFIX + "009");
+        assertEquals(Lists.newArrayList(L_PREFIX + "009"), result.getGeneratedOrderNumbers());
+        assertEquals(L_PREFIX + "010", context.getOrderNumber(L_PREFIX));
+    }
+
+    @Test
+    public final void shouldGiveUpAfterLimitOfTakenOrderNumbers() {
+        // given
+        Entity order = mock(Entity.class);
+        Entity notSavedOrder = mock(Entity.class);
+
+        given(orderDD.create()).willReturn(order);
+        given(orderDD.save(any(Entity.class))).willReturn(notSavedOrder);
+        given(notSavedOrder.isValid()).willReturn(false);
+        given(notSavedOrder.getError(OrderFields.NUMBER)).willReturn(
+                new ErrorMessage("qcadooView.validate.field.error.duplicated"));
+
+        // when
+        ordersFromMOProductsGenerationWorker.generateOrders(Lists.newArrayList(masterOrderProduct), context, result);
+
+        // then
+        verify(orderDD, times(10)).save(order);
+        assertEquals(0, result.getGeneratedOrderNumbers().size());
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.TechnologyServiceO;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.view.api.utils.NumberGeneratorService;
+
+public class OrdersGenerationContextTest {
+
+    private static final String L_PREFIX = "MO-1-";
+
+    private OrdersGenerationContext context;
+
+    @Mock
+    private Entity parameter;
+
+    @Mock
+    private TechnologyServiceO technologyServiceO;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private NumberGeneratorService numberGeneratorService;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        context = new OrdersGenerationContext(parameter, false, null, null, technologyServiceO, orderService,
+                numberGeneratorService);
+
+        given(numberGeneratorService.generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER, 3,
+                L_PREFIX)).willReturn(L_PREFIX + "008");
+    }
+
+    @Test
+    public final void shouldGenerateFirstOrderNumberOnceAndTakeNextOnesFromReservedBlock() {
+        // when
+        String firstNumber = context.getOrderNumber(L_PREFIX);
+        context.markOrderNumberAsUsed(L_PREFIX);
+        String secondNumber = context.getOrderNumber(L_PREFIX);
+        context.markOrderNumberAsUsed(L_PREFIX);
+        String thirdNumber = context.getOrderNumber(L_PREFIX);
+
+        // then
+        assertEquals(L_PREFIX + "008", firstNumber);
+        assertEquals(L_PREFIX + "009", secondNumber);
+        assertEquals(L_PREFIX + "010", thirdNumber);
+        verify(numberGeneratorService, times(1)).generateNumberWithPrefix(OrdersConstants.PLUGIN_IDENTIFIER,
+                OrdersConstants.MODEL_ORDER, 3, L_PREFIX);
+    }
+
+    @Test
+    public final void shouldReuseOrderNumberOfNotSavedOrder() {
+        // when
+        String firstNumber = context.getOrderNumber(L_PREFIX);
+        String secondNumber = context.getOrderNumber(L_PREFIX);
+
+        // then
+        assertEquals(firstNumber, secondNumber);
+    }
+
+    @Test
+    public final void shouldRestoreOrderNumbersOfRolledBackChunk() {
+        // given
+        context.getOrderNumber(L_PREFIX);
+        OrdersGenerationContext.Checkpoint checkpoint = context.checkpoint();
+        context.markOrderNumberAsUsed(L_PREFIX);
+        context.markOrderNumberAsUsed(L_PREFIX);
+
+        // when
+        context.rollback(checkpoint);
+
+        // then
+        assertEquals(L_PREFIX + "008", context.getOrderNumber(L_PREFIX));
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+public class DocumentPositionBulkResult {
+
+    private final int index;
+
+    private Long id;
+
+    private final List<String> errors = Lists.newArrayList();
+
+    public DocumentPositionBulkResult(final int index) {
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(final Long id) {
+        this.id = id;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void addError(final String error) {
+        errors.add(error);
+    }
+
+    public void addErrors(final String message) {
+        if (message != null) {
+            errors.addAll(Arrays.asList(message.split("\n")));
+        }
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+}
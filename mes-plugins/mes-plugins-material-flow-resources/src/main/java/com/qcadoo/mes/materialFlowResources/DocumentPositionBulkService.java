@@ -0,0 +1,277 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.BasicException;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
+import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedger;
+import com.qcadoo.model.api.BigDecimalUtils;
+
+/**
+ * Creates many document positions at once.
+ *
+ * Referenced numbers are resolved with one query per dictionary, available quantities are checked against the demand of all
+ * positions and positions, reservations and stock changes are written with batch updates. Resource stocks and resources are
+ * locked for update while checked, like single position update locks them, so concurrent reservations can't exceed available
+ * quantities. Positions are written only when all of them are valid, otherwise errors are returned for each position. Ids of
+ * new positions are always taken from the sequence, ids sent by client are ignored.
+ */
+@Service
+public class DocumentPositionBulkService {
+
+    private static final String L_ID = "id";
+
+    private static final String L_PRODUCT_ID = "product_id";
+
+    private static final String L_RESOURCE_ID = "resource_id";
+
+    private static final String L_DOCUMENT_ID = "document_id";
+
+    private static final String L_QUANTITY = "quantity";
+
+    private static final String L_LOCATION_ID = "location_id";
+
+    private static final String L_NOT_ENOUGH_RESOURCES = "documentGrid.error.position.quantity.notEnoughResources";
+
+    private static final String L_POSITION_REQUIRED = "documentGrid.required.documentPosition";
+
+    private static final String L_DOCUMENT_REQUIRED = "documentGrid.required.documentPosition.document";
+
+    private static final String NEXT_POSITION_IDS_QUERY = "SELECT nextval(pg_get_serial_sequence('materialflowresources_position', 'id')) "
+            + "FROM generate_series(1, :count)";
+
+    private static final String LOCK_RESOURCE_STOCKS_QUERY = "SELECT location_id, product_id, availablequantity "
+            + "FROM materialflowresources_resourcestock WHERE location_id IN (:locationIds) AND product_id IN (:productIds) "
+            + "ORDER BY location_id, product_id FOR UPDATE";
+
+    private static final String LOCK_RESOURCES_QUERY = "SELECT id, availablequantity FROM materialflowresources_resource "
+            + "WHERE id IN (:resourceIds) ORDER BY id FOR UPDATE";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DocumentPositionValidator validator;
+
+    @Autowired
+    private DocumentPositionService documentPositionService;
+
+    @Autowired
+    private ReservationsService reservationsService;
+
+    @Transactional
+    public List<DocumentPositionBulkResult> create(final List<DocumentPositionDTO> positions) {
+        DocumentPositionLookups lookups = validator.loadLookups(positions);
+
+        List<DocumentPositionBulkResult> results = Lists.newArrayList();
+        List<Map<String, Object>> positionsParams = Lists.newArrayList();
+
+        for (int index = 0; index < positions.size(); index++) {
+            DocumentPositionDTO position = positions.get(index);
+            DocumentPositionBulkResult result = new DocumentPositionBulkResult(index);
+
+            results.add(result);
+            positionsParams.add(null);
+
+            String referenceError = validateReferences(position, lookups);
+
+            if (referenceError != null) {
+                result.addError(referenceError);
+
+                continue;
+            }
+
+            try {
+                Map<String, Object> params = validator.validateAndTryMapBeforeBulkCreate(position, lookups);
+
+                params.remove(L_ID);
+                params.put(L_LOCATION_ID, getReservationLocationId(params, lookups));
+
+                positionsParams.set(index, params);
+            } catch (BasicException e) {
+                result.addErrors(e.getMessage());
+            }
+        }
+
+        if (results.stream().anyMatch(DocumentPositionBulkResult::hasErrors)) {
+            return results;
+        }
+
+        Map<ResourceStockLedger.Key, BigDecimal> stockDemand = getStockDemand(positionsParams);
+        Map<Long, BigDecimal> resourceDemand = getResourceDemand(positionsParams);
+
+        validateAvailableQuantities(positionsParams, stockDemand, resourceDemand, results);
+
+        if (results.stream().anyMatch(DocumentPositionBulkResult::hasErrors)) {
+            return results;
+        }
+
+        insertPositions(positionsParams, results);
+
+        reservationsService.createReservationsFromDocumentPositions(positionsParams.stream()
+                .filter(params -> params.get(L_LOCATION_ID) != null).collect(Collectors.toList()));
+
+        positions.stream().map(DocumentPositionDTO::getDocument).distinct()
+                .forEach(documentPositionService::updateDocumentPositionsNumbers);
+
+        return results;
+    }
+
+    private String validateReferences(final DocumentPositionDTO position, final DocumentPositionLookups lookups) {
+        if (position == null) {
+            return L_POSITION_REQUIRED;
+        }
+        if (position.getDocument() == null || lookups.getDocument(position.getDocument()) == null) {
+            return L_DOCUMENT_REQUIRED;
+        }
+
+        return null;
+    }
+
+    private Long getReservationLocationId(final Map<String, Object> params, final DocumentPositionLookups lookups) {
+        DocumentDTO document = lookups.getDocument((Long) params.get(L_DOCUMENT_ID));
+
+        if (lookups.isDraftMakesReservation() && DocumentType.isOutbound(document.getType()) && !document.getInBuffer()) {
+            return document.getLocationFrom_id();
+        }
+
+        return null;
+    }
+
+    private Map<ResourceStockLedger.Key, BigDecimal> getStockDemand(final List<Map<String, Object>> positionsParams) {
+        Map<ResourceStockLedger.Key, BigDecimal> demand = Maps.newHashMap();
+
+        for (Map<String, Object> params : positionsParams) {
+            if (params.get(L_LOCATION_ID) != null) {
+                demand.merge(getStockKey(params), getQuantity(params), BigDecimal::add);
+            }
+        }
+
+        return demand;
+    }
+
+    private Map<Long, BigDecimal> getResourceDemand(final List<Map<String, Object>> positionsParams) {
+        Map<Long, BigDecimal> demand = Maps.newHashMap();
+
+        for (Map<String, Object> params : positionsParams) {
+            if (params.get(L_LOCATION_ID) != null && params.get(L_RESOURCE_ID) != null) {
+                demand.merge((Long) params.get(L_RESOURCE_ID), getQuantity(params), BigDecimal::add);
+            }
+        }
+
+        return demand;
+    }
+
+    private void validateAvailableQuantities(final List<Map<String, Object>> positionsParams,
+            final Map<ResourceStockLedger.Key, BigDecimal> stockDemand, final Map<Long, BigDecimal> resourceDemand,
+            final List<DocumentPositionBulkResult> results) {
+        Map<ResourceStockLedger.Key, BigDecimal> stockAvailableQuantities = lockResourceStocks(stockDemand.keySet());
+        Map<Long, BigDecimal> resourceAvailableQuantities = lockResources(resourceDemand.keySet());
+
+        for (int index = 0; index < positionsParams.size(); index++) {
+            Map<String, Object> params = positionsParams.get(index);
+
+            if (params.get(L_LOCATION_ID) == null) {
+                continue;
+            }
+
+            ResourceStockLedger.Key stockKey = getStockKey(params);
+            Long resourceId = (Long) params.get(L_RESOURCE_ID);
+
+            if (exceedsAvailableQuantity(stockDemand.get(stockKey), stockAvailableQuantities.get(stockKey))
+                    || (resourceId != null && exceedsAvailableQuantity(resourceDemand.get(resourceId),
+                            resourceAvailableQuantities.get(resourceId)))) {
+                results.get(index).addError(L_NOT_ENOUGH_RESOURCES);
+            }
+        }
+    }
+
+    private boolean exceedsAvailableQuantity(final BigDecimal demand, final BigDecimal availableQuantity) {
+        return availableQuantity == null || demand.compareTo(availableQuantity) > 0;
+    }
+
+    private Map<ResourceStockLedger.Key, BigDecimal> lockResourceStocks(final Set<ResourceStockLedger.Key> stockKeys) {
+        Map<ResourceStockLedger.Key, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        if (stockKeys.isEmpty()) {
+            return availableQuantities;
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("locationIds", stockKeys.stream().map(ResourceStockLedger.Key::getLocationId).collect(Collectors.toSet()));
+        params.put("productIds", stockKeys.stream().map(ResourceStockLedger.Key::getProductId).collect(Collectors.toSet()));
+
+        jdbcTemplate.query(LOCK_RESOURCE_STOCKS_QUERY, params, (RowCallbackHandler) rs -> availableQuantities.put(
+                new ResourceStockLedger.Key(rs.getLong(L_PRODUCT_ID), rs.getLong(L_LOCATION_ID)),
+                rs.getBigDecimal("availablequantity")));
+
+        return availableQuantities;
+    }
+
+    private Map<Long, BigDecimal> lockResources(final Set<Long> resourceIds) {
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        if (resourceIds.isEmpty()) {
+            return availableQuantities;
+        }
+
+        jdbcTemplate.query(LOCK_RESOURCES_QUERY, Collections.singletonMap("resourceIds", resourceIds),
+                (RowCallbackHandler) rs -> availableQuantities.put(rs.getLong(L_ID), rs.getBigDecimal("availablequantity")));
+
+        return availableQuantities;
+    }
+
+    private void insertPositions(final List<Map<String, Object>> positionsParams, final List<DocumentPositionBulkResult> results) {
+        if (positionsParams.isEmpty()) {
+            return;
+        }
+
+        Iterator<Long> newIds = jdbcTemplate.queryForList(NEXT_POSITION_IDS_QUERY,
+                Collections.singletonMap("count", positionsParams.size()), Long.class).iterator();
+
+        for (int index = 0; index < positionsParams.size(); index++) {
+            Long id = newIds.next();
+
+            positionsParams.get(index).put(L_ID, id);
+            results.get(index).setId(id);
+        }
+
+        Set<String> columns = Sets.newLinkedHashSet(positionsParams.get(0).keySet());
+
+        columns.remove(L_LOCATION_ID);
+
+        String query = String.format("INSERT INTO materialflowresources_position (%s) VALUES (%s)", String.join(", ", columns),
+                columns.stream().map(column -> ":" + column).collect(Collectors.joining(", ")));
+
+        jdbcTemplate.batchUpdate(query, positionsParams.stream().map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new));
+    }
+
+    private ResourceStockLedger.Key getStockKey(final Map<String, Object> params) {
+        return new ResourceStockLedger.Key((Long) params.get(L_PRODUCT_ID), (Long) params.get(L_LOCATION_ID));
+    }
+
+    private BigDecimal getQuantity(final Map<String, Object> params) {
+        return BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY));
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Documents, warehouses and dictionary ids referenced by a set of document positions, loaded once by
+ * {@link DocumentPositionValidator#loadLookups(Collection)} so positions can be validated and mapped without a query per
+ * referenced number.
+ */
+public class DocumentPositionLookups {
+
+    private final Map<Long, DocumentDTO> documents = Maps.newHashMap();
+
+    private final Map<Long, LocationDTO> warehouses = Maps.newHashMap();
+
+    private final Map<String, Long> productIds = Maps.newHashMap();
+
+    private final Map<String, Long> additionalCodeIds = Maps.newHashMap();
+
+    private final Map<String, Map<String, Long>> additionalCodeIdsByProduct = Maps.newHashMap();
+
+    private final Map<String, Long> palletNumberIds = Maps.newHashMap();
+
+    private final Map<String, Long> storageLocationIds = Maps.newHashMap();
+
+    private final Map<String, Long> resourceIds = Maps.newHashMap();
+
+    private boolean draftMakesReservation;
+
+    public DocumentDTO getDocument(final Long id) {
+        return documents.get(id);
+    }
+
+    public Collection<DocumentDTO> getDocuments() {
+        return documents.values();
+    }
+
+    public LocationDTO getWarehouse(final Long id) {
+        return warehouses.get(id);
+    }
+
+    public Long getProductId(final String number) {
+        return productIds.get(number);
+    }
+
+    public Long getAdditionalCodeId(final String code) {
+        return additionalCodeIds.get(code);
+    }
+
+    public Long getAdditionalCodeId(final String code, final String productNumber) {
+        Map<String, Long> ids = additionalCodeIdsByProduct.get(productNumber);
+
+        return ids == null ? null : ids.get(code);
+    }
+
+    public Long getPalletNumberId(final String number) {
+        return palletNumberIds.get(number);
+    }
+
+    public Long getStorageLocationId(final String number) {
+        return storageLocationIds.get(number);
+    }
+
+    public Long getResourceId(final String number) {
+        return resourceIds.get(number);
+    }
+
+    public boolean isDraftMakesReservation() {
+        return draftMakesReservation;
+    }
+
+    void addDocument(final DocumentDTO document) {
+        documents.put(document.getId(), document);
+    }
+
+    void addWarehouse(final LocationDTO warehouse) {
+        warehouses.put(warehouse.getId(), warehouse);
+    }
+
+    void addAdditionalCode(final String code, final String productNumber, final Long id) {
+        additionalCodeIds.putIfAbsent(code, id);
+
+        if (productNumber != null) {
+            additionalCodeIdsByProduct.computeIfAbsent(productNumber, number -> Maps.newHashMap()).put(code, id);
+        }
+    }
+
+    Map<String, Long> getProductIds() {
+        return productIds;
+    }
+
+    Map<String, Long> getPalletNumberIds() {
+        return palletNumberIds;
+    }
+
+    Map<String, Long> getStorageLocationIds() {
+        return storageLocationIds;
+    }
+
+    Map<String, Long> getResourceIds() {
+        return resourceIds;
+    }
+
+    void setDraftMakesReservation(final boolean draftMakesReservation) {
+        this.draftMakesReservation = draftMakesReservation;
+    }
+
+}
@@ -11,6 +11,7 @@ import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
@@ -18,19 +19,24 @@ import org.springframework.util.StringUtils;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.GridKeyset;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.LookupUtils;
 import com.qcadoo.mes.basic.controllers.dataProvider.DataProvider;
-import com.qcadoo.mes.basic.controllers.dataProvider.dto.AbstractDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
 import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceAllocationService;
 
 @Repository
 public class DocumentPositionService {
 
+    private static final String LAST_RESOURCE_CONDITION = "(p.quantity >= coalesce(resource.quantity,0) AND NOT EXISTS "
+            + "(SELECT 1 FROM materialflowresources_resource other WHERE other.palletnumber_id = resource.palletnumber_id "
+            + "AND other.id <> resource.id))";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -49,24 +55,53 @@ public class DocumentPositionService {
     @Autowired
     private ReservationsService reservationsService;
 
+    @Autowired
+    private ResourceAllocationService resourceAllocationService;
+
     public GridResponse<DocumentPositionDTO> findAll(final Long documentId, final String _sidx, final String _sord, int page,
-            int perPage, final DocumentPositionDTO position) {
+            int perPage, final DocumentPositionDTO position, final GridKeyset keyset) {
+        // last resource flag is computed in the query only to filter by it, for displayed rows it's computed after paging
+        String lastResource = (position.getLastResource() == null) ? "NULL::boolean" : LAST_RESOURCE_CONDITION;
+
         String query = "SELECT %s FROM ( SELECT p.*, p.document_id AS document, product.number AS product, product.name AS productName, product.unit, additionalcode.code AS additionalcode, "
                 + "palletnumber.number AS palletnumber, location.number AS storagelocation, resource.number AS resource, \n"
-                + "(coalesce(r1.resourcesCount,0) < 2 AND p.quantity >= coalesce(resource.quantity,0)) AS lastResource "
+                + lastResource + " AS lastResource "
                 + "	FROM materialflowresources_position p\n"
                 + "	LEFT JOIN basic_product product ON (p.product_id = product.id)\n"
                 + "	LEFT JOIN basic_additionalcode additionalcode ON (p.additionalcode_id = additionalcode.id)\n"
                 + "	LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id)\n"
                 + "	LEFT JOIN materialflowresources_resource resource ON (p.resource_id = resource.id)\n"
-                + " LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount FROM materialflowresources_resource GROUP BY palletnumber_id) r1 ON r1.palletnumber_id = resource.palletnumber_id \n"
                 + "	LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) WHERE p.document_id = :documentId %s) q ";
 
+        String countQuery = "SELECT COUNT(*) FROM materialflowresources_position WHERE document_id = :documentId";
+
         Map<String, Object> parameters = Maps.newHashMap();
 
         parameters.put("documentId", documentId);
 
-        return lookupUtils.getGridResponse(query, _sidx, _sord, page, perPage, position, parameters);
+        GridResponse<DocumentPositionDTO> response = lookupUtils.getGridResponse(query, countQuery, _sidx, _sord, page, perPage,
+                position, parameters, keyset);
+
+        fillLastResource(response.getRows());
+
+        return response;
+    }
+
+    private void fillLastResource(final List<DocumentPositionDTO> positions) {
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        String query = "SELECT p.id, " + LAST_RESOURCE_CONDITION + " AS lastResource FROM materialflowresources_position p "
+                + "LEFT JOIN materialflowresources_resource resource ON (p.resource_id = resource.id) WHERE p.id IN (:ids)";
+
+        Map<Long, Boolean> lastResources = Maps.newHashMap();
+
+        jdbcTemplate.query(query,
+                Collections.singletonMap("ids", positions.stream().map(DocumentPositionDTO::getId).collect(Collectors.toList())),
+                (RowCallbackHandler) resultSet -> lastResources.put(resultSet.getLong("id"), resultSet.getBoolean("lastResource")));
+
+        positions.forEach(position -> position.setLastResource(lastResources.get(position.getId())));
     }
 
     public void delete(final Long id) {
@@ -128,52 +163,23 @@ public class DocumentPositionService {
         jdbcTemplate.update(query, params);
     }
 
-    public List<AbstractDTO> getStorageLocations(final String q, final String product, final String document) {
-        if (Strings.isNullOrEmpty(q)) {
-            return Lists.newArrayList();
-        } else {
-            Map<String, Object> paramMap = Maps.newHashMap();
-
-            paramMap.put("q", '%' + q + '%');
-            paramMap.put("document", Integer.parseInt(document));
+    public DataResponse getStorageLocationsResponse(final String q, final String product, final String document) {
+        Map<String, Object> paramMap = Maps.newHashMap();
 
-            if (Strings.isNullOrEmpty(product)) {
-                String query = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :q "
-                        + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = :document) "
-                        + "LIMIT 20;";
+        paramMap.put("document", Integer.parseInt(document));
 
-                return jdbcTemplate.query(query, paramMap, new BeanPropertyRowMapper(StorageLocationDTO.class));
-            } else {
-                String query = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :q "
-                        + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = :document) "
-                        + "AND (product_id IN (SELECT id FROM basic_product WHERE number LIKE :product) OR product_id IS NULL) LIMIT 20;";
-                paramMap.put("product", product);
+        String preparedQuery = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :query "
+                + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = :document) "
+                + "AND active = true";
 
-                return jdbcTemplate.query(query, paramMap, new BeanPropertyRowMapper(StorageLocationDTO.class));
-            }
-        }
-    }
+        if (!Strings.isNullOrEmpty(product)) {
+            preparedQuery = preparedQuery
+                    + " AND (product_id IN (SELECT id FROM basic_product WHERE number LIKE :product) OR product_id IS NULL)";
 
-    public DataResponse getStorageLocationsResponse(final String q, String product, String document) {
-        String preparedQuery;
-
-        if (Strings.isNullOrEmpty(product)) {
-            preparedQuery = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :query "
-                    + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = "
-                    + Integer.parseInt(document) + ") AND active = true; ";
-        } else {
-
-            preparedQuery = "SELECT id, number FROM materialflowresources_storagelocation WHERE number ilike :query "
-                    + "AND location_id IN (SELECT DISTINCT COALESCE(locationfrom_id, locationto_id) FROM materialflowresources_document WHERE id = "
-                    + Integer.parseInt(document) + ") " + "AND (product_id IN (SELECT id FROM basic_product WHERE number LIKE '"
-                    + product + "') OR product_id IS NULL) AND active = true;";
+            paramMap.put("product", product);
         }
 
-        List<AbstractDTO> entities = getStorageLocations(q, product, document);
-
-        Map<String, Object> paramMap = Maps.newHashMap();
-
-        return dataProvider.getDataResponse(q, preparedQuery, entities, paramMap);
+        return dataProvider.getDataResponse(q, preparedQuery, StorageLocationDTO.class, paramMap);
     }
 
     public Map<String, Object> getGridConfig(final Long documentId) {
@@ -411,52 +417,55 @@ public class DocumentPositionService {
         Map<String, Object> filter = Maps.newHashMap();
 
         filter.put("product", product);
-        filter.put("conversion", conversion);
         filter.put("context", document);
 
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT COALESCE(document.locationfrom_id, document.locationto_id) AS location_id, ");
+        query.append("locationfrom.algorithm AS algorithm, (SELECT id FROM basic_product WHERE number = :product) AS product_id, ");
+
         if (useAdditionalCode) {
             filter.put("add_code", additionalCode);
+
+            query.append("(SELECT id FROM basic_additionalcode WHERE code = :add_code) AS additionalcode_id ");
+        } else {
+            query.append("NULL AS additionalcode_id ");
         }
 
-        String query = positionResourcesHelper.getResourceQuery(document, false, useAdditionalCode);
+        query.append("FROM materialflowresources_document document ");
+        query.append("LEFT JOIN materialflow_location locationfrom ON locationfrom.id = document.locationfrom_id ");
+        query.append("WHERE document.id = :context");
 
-        List<ResourceDTO> batches = jdbcTemplate.query(query, filter, new BeanPropertyRowMapper(ResourceDTO.class));
+        List<Map<String, Object>> contexts = jdbcTemplate.queryForList(query.toString(), filter);
 
-        if (batches.isEmpty() && useAdditionalCode) {
-            query = positionResourcesHelper.getResourceQuery(document, false, false);
-
-            batches = jdbcTemplate.query(query, filter, new BeanPropertyRowMapper(ResourceDTO.class));
+        if (contexts.isEmpty()) {
+            return null;
         }
-        batches = batches.stream().filter(resource -> resource.getAvailableQuantity().compareTo(BigDecimal.ZERO) > 0)
-                .collect(Collectors.toList());
 
-        if (batches.isEmpty()) {
+        Map<String, Object> context = contexts.get(0);
+
+        Long locationId = getId(context.get("location_id"));
+        Long productId = getId(context.get("product_id"));
+
+        if (locationId == null || productId == null) {
             return null;
-        } else {
-            return batches.get(0);
         }
-    }
-
-    public List<AbstractDTO> getResources(final Long document, final String q, final String product, final BigDecimal conversion,
-            boolean useAdditionalCode, final String additionalCode) {
-        if (Strings.isNullOrEmpty(q) || Strings.isNullOrEmpty(product)) {
-            return Lists.newArrayList();
-        } else {
-            Map<String, Object> paramMap = Maps.newHashMap();
 
-            paramMap.put("query", '%' + q + '%');
-            paramMap.put("product", product);
-            paramMap.put("conversion", conversion);
-            paramMap.put("context", document);
+        return resourceAllocationService
+                .getSuggestedResource(locationId, productId, conversion, getId(context.get("additionalcode_id")),
+                        (String) context.get("algorithm")).map(candidate -> {
+                    ResourceDTO resource = new ResourceDTO();
 
-            if (useAdditionalCode) {
-                paramMap.put("add_code", additionalCode);
-            }
+                    resource.setNumber(candidate.getNumber());
+                    resource.setBatch(candidate.getBatch());
+                    resource.setAvailableQuantity(candidate.getAvailableQuantity());
 
-            String query = positionResourcesHelper.getResourceQuery(document, true, useAdditionalCode);
+                    return resource;
+                }).orElse(null);
+    }
 
-            return jdbcTemplate.query(query, paramMap, new BeanPropertyRowMapper(ResourceDTO.class));
-        }
+    private Long getId(final Object id) {
+        return id == null ? null : ((Number) id).longValue();
     }
 
     public DataResponse getResourcesResponse(final Long document, final String q, final String product,
@@ -467,16 +476,19 @@ public class DocumentPositionService {
 
         boolean useAdditionalCode = org.apache.commons.lang3.StringUtils.isNotEmpty(additionalCode);
 
-        String query = '%' + q + '%';
-
-        List<AbstractDTO> entities = getResources(document, query, product, conversion, useAdditionalCode, additionalCode);
+        DataResponse response = getResourcesResponse(document, q, product, conversion, useAdditionalCode, additionalCode,
+                shouldCheckMaxResults);
 
-        if (entities.isEmpty() && useAdditionalCode) {
-            useAdditionalCode = false;
-
-            entities = getResources(document, query, product, conversion, false, additionalCode);
+        if ((response.getNumberOfResults() == 0) && useAdditionalCode) {
+            response = getResourcesResponse(document, q, product, conversion, false, additionalCode, shouldCheckMaxResults);
         }
 
+        return response;
+    }
+
+    private DataResponse getResourcesResponse(final Long document, final String q, final String product,
+            final BigDecimal conversion, final boolean useAdditionalCode, final String additionalCode,
+            final boolean shouldCheckMaxResults) {
         Map<String, Object> paramMap = Maps.newHashMap();
 
         paramMap.put("product", product);
@@ -489,7 +501,7 @@ public class DocumentPositionService {
 
         String preparedQuery = positionResourcesHelper.getResourceQuery(document, true, useAdditionalCode);
 
-        return dataProvider.getDataResponse(query, preparedQuery, entities, paramMap, shouldCheckMaxResults);
+        return dataProvider.getDataResponse(q, preparedQuery, ResourceDTO.class, paramMap, shouldCheckMaxResults);
     }
 
     public ResourceDTO getResourceByNumber(final String resource) {
@@ -6,18 +6,21 @@ import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.dao.DataAccessException;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
@@ -46,23 +49,101 @@ public class DocumentPositionValidator {
     private DocumentPositionService documentPositionService;
 
     public Map<String, Object> validateAndTryMapBeforeCreate(DocumentPositionDTO documentPositionDTO) {
-        return validateAndMap(documentPositionDTO);
+        return validateAndMap(documentPositionDTO, loadLookups(Collections.singletonList(documentPositionDTO)), true);
     }
 
     public Map<String, Object> validateAndTryMapBeforeUpdate(DocumentPositionDTO documentPositionDTO) {
-        return validateAndMap(documentPositionDTO);
+        return validateAndMap(documentPositionDTO, loadLookups(Collections.singletonList(documentPositionDTO)), true);
+    }
+
+    /**
+     * Validates and maps one of many positions created together, using lookups loaded for all of them. Available quantity is
+     * not checked here, as it has to be checked against the demand of all positions.
+     *
+     * @see DocumentPositionBulkService#create(List)
+     */
+    public Map<String, Object> validateAndTryMapBeforeBulkCreate(DocumentPositionDTO documentPositionDTO,
+            DocumentPositionLookups lookups) {
+        return validateAndMap(documentPositionDTO, lookups, false);
+    }
+
+    public DocumentPositionLookups loadLookups(Collection<DocumentPositionDTO> positions) {
+        DocumentPositionLookups lookups = new DocumentPositionLookups();
+
+        Set<Long> documentIds = positions.stream().filter(Objects::nonNull).map(DocumentPositionDTO::getDocument)
+                .filter(Objects::nonNull).collect(Collectors.toSet());
+
+        if (!documentIds.isEmpty()) {
+            jdbcTemplate.query("SELECT * FROM materialflowresources_document WHERE id IN (:ids)",
+                    Collections.singletonMap("ids", documentIds), new BeanPropertyRowMapper<DocumentDTO>(DocumentDTO.class))
+                    .forEach(lookups::addDocument);
+        }
+
+        Set<Long> warehouseIds = lookups.getDocuments().stream()
+                .flatMap(document -> Stream.of(document.getLocationFrom_id(), document.getLocationTo_id()))
+                .filter(Objects::nonNull).collect(Collectors.toSet());
+
+        if (!warehouseIds.isEmpty()) {
+            BeanPropertyRowMapper<LocationDTO> x = new BeanPropertyRowMapper<>(LocationDTO.class);
+            x.setPrimitivesDefaultedForNullValue(true);
+
+            jdbcTemplate.query("SELECT * FROM materialflow_location WHERE id IN (:ids)",
+                    Collections.singletonMap("ids", warehouseIds), x).forEach(lookups::addWarehouse);
+        }
+
+        lookups.setDraftMakesReservation(Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT draftmakesreservation FROM materialflowresources_documentpositionparameters LIMIT 1",
+                Collections.emptyMap(), Boolean.class)));
+
+        loadIdsByNumber("SELECT id, number FROM basic_product WHERE number IN (:numbers)",
+                getNumbers(positions, DocumentPositionDTO::getProduct), lookups.getProductIds());
+        loadIdsByNumber("SELECT id, number FROM basic_palletnumber WHERE number IN (:numbers)",
+                getNumbers(positions, DocumentPositionDTO::getPalletNumber), lookups.getPalletNumberIds());
+        loadIdsByNumber("SELECT id, number FROM materialflowresources_storagelocation WHERE number IN (:numbers)",
+                getNumbers(positions, DocumentPositionDTO::getStorageLocation), lookups.getStorageLocationIds());
+        loadIdsByNumber("SELECT id, number FROM materialflowresources_resource WHERE number IN (:numbers)",
+                getNumbers(positions, DocumentPositionDTO::getResource), lookups.getResourceIds());
+
+        Set<String> additionalCodes = getNumbers(positions, DocumentPositionDTO::getAdditionalCode);
+
+        if (!additionalCodes.isEmpty()) {
+            jdbcTemplate.query("SELECT additionalcode.id, additionalcode.code, product.number AS productnumber "
+                    + "FROM basic_additionalcode additionalcode "
+                    + "LEFT JOIN basic_product product ON (additionalcode.product_id = product.id) "
+                    + "WHERE additionalcode.code IN (:numbers) ORDER BY additionalcode.id",
+                    Collections.singletonMap("numbers", additionalCodes), (RowCallbackHandler) rs -> lookups.addAdditionalCode(
+                            rs.getString("code"), rs.getString("productnumber"), rs.getLong("id")));
+        }
+
+        return lookups;
+    }
+
+    private Set<String> getNumbers(final Collection<DocumentPositionDTO> positions,
+            final Function<DocumentPositionDTO, String> numberGetter) {
+        return positions.stream().filter(Objects::nonNull).map(numberGetter).filter(number -> !Strings.isNullOrEmpty(number))
+                .collect(Collectors.toSet());
+    }
+
+    private void loadIdsByNumber(final String query, final Set<String> numbers, final Map<String, Long> ids) {
+        if (numbers.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.query(query, Collections.singletonMap("numbers", numbers),
+                (RowCallbackHandler) rs -> ids.put(rs.getString("number"), rs.getLong("id")));
     }
 
     public void validateBeforeDelete(Long id) {
     }
 
-    private Map<String, Object> validateAndMap(DocumentPositionDTO position) {
+    private Map<String, Object> validateAndMap(DocumentPositionDTO position, DocumentPositionLookups lookups,
+            boolean validateAvailableQuantity) {
         Preconditions.checkNotNull(position, "documentGrid.required.documentPosition");
         Preconditions.checkNotNull(position.getDocument(), "documentGrid.required.documentPosition.document");
 
-        DocumentDTO document = jdbcTemplate
-                .queryForObject("SELECT * FROM materialflowresources_document WHERE id = :id", Collections.singletonMap("id",
-                        position.getDocument()), new BeanPropertyRowMapper<DocumentDTO>(DocumentDTO.class));
+        DocumentDTO document = lookups.getDocument(position.getDocument());
+
+        Preconditions.checkNotNull(document, "documentGrid.required.documentPosition.document");
 
         List<String> errors = Lists.newArrayList();
 
@@ -80,19 +161,19 @@ public class DocumentPositionValidator {
             }
 
             errors.addAll(validateConversion(position));
-            errors.addAll(validateAdditionalCode(position));
+            errors.addAll(validateAdditionalCode(position, lookups));
             errors.addAll(validatePrice(position));
             errors.addAll(validateQuantity(position));
             errors.addAll(validateGivenquantity(position));
             errors.addAll(validateDates(position));
-            errors.addAll(checkAttributesRequirement(position, document));
-            errors.addAll(validateResources(position, document));
+            errors.addAll(checkAttributesRequirement(position, document, lookups));
+            errors.addAll(validateResources(position, document, lookups));
             errors.addAll(validatePallet(position, document));
 
-            if (errors.isEmpty()) {
-                errors.addAll(validateAvailableQuantity(position, document, errors));
+            if (errors.isEmpty() && validateAvailableQuantity) {
+                errors.addAll(validateAvailableQuantity(position, document, lookups, errors));
             }
-            params = tryMapDocumentPositionVOToParams(position, errors);
+            params = tryMapDocumentPositionVOToParams(position, lookups, errors);
         }
 
         if (!errors.isEmpty()) {
@@ -106,11 +187,12 @@ public class DocumentPositionValidator {
         return DocumentState.parseString(document.getState()) == DocumentState.ACCEPTED;
     }
 
-    private List<String> checkAttributesRequirement(final DocumentPositionDTO position, final DocumentDTO document) {
+    private List<String> checkAttributesRequirement(final DocumentPositionDTO position, final DocumentDTO document,
+            final DocumentPositionLookups lookups) {
         DocumentType documentType = DocumentType.parseString(document.getType());
 
         if (documentType == DocumentType.RECEIPT || documentType == DocumentType.INTERNAL_INBOUND) {
-            LocationDTO warehouseTo = getWarehouseById(document.getLocationTo_id());
+            LocationDTO warehouseTo = lookups.getWarehouse(document.getLocationTo_id());
 
             return validatePositionAttributes(position, warehouseTo.isRequirePrice(), warehouseTo.isRequirebatch(),
                     warehouseTo.isRequirEproductionDate(), warehouseTo.isRequirEexpirationDate());
@@ -119,17 +201,13 @@ public class DocumentPositionValidator {
         return Lists.newArrayList();
     }
 
-    private List<String> validateAvailableQuantity(DocumentPositionDTO position, DocumentDTO document, List<String> errors) {
+    private List<String> validateAvailableQuantity(DocumentPositionDTO position, DocumentDTO document,
+            DocumentPositionLookups lookups, List<String> errors) {
         String type = document.getType();
 
-        String query = "SELECT draftmakesreservation FROM materialflowresources_documentpositionparameters LIMIT 1";
-
-        Boolean enabled = jdbcTemplate.queryForObject(query, new HashMap<String, Object>() {
-        }, Boolean.class);
-
-        if (enabled && DocumentType.isOutbound(type) && !document.getInBuffer()) {
+        if (lookups.isDraftMakesReservation() && DocumentType.isOutbound(type) && !document.getInBuffer()) {
             BigDecimal availableQuantity = getAvailableQuantityForProductAndLocation(position,
-                    tryGetProductIdByNumber(position.getProduct(), errors), document.getLocationFrom_id());
+                    tryGetProductIdByNumber(position.getProduct(), lookups, errors), document.getLocationFrom_id());
             BigDecimal quantity = position.getQuantity();
 
             if (availableQuantity == null || quantity.compareTo(availableQuantity) > 0) {
@@ -137,7 +215,7 @@ public class DocumentPositionValidator {
             } else {
                 if (!StringUtils.isEmpty(position.getResource())) {
                     BigDecimal resourceAvailableQuantity = getAvailableQuantityForResource(position,
-                            tryGetProductIdByNumber(position.getProduct(), errors), document.getLocationFrom_id());
+                            tryGetProductIdByNumber(position.getProduct(), lookups, errors), document.getLocationFrom_id());
 
                     if (resourceAvailableQuantity == null || quantity.compareTo(resourceAvailableQuantity) > 0) {
                         errors.add("documentGrid.error.position.quantity.notEnoughResources");
@@ -302,7 +380,8 @@ public class DocumentPositionValidator {
         return errors;
     }
 
-    private List<String> validateResources(final DocumentPositionDTO position, final DocumentDTO document) {
+    private List<String> validateResources(final DocumentPositionDTO position, final DocumentDTO document,
+            final DocumentPositionLookups lookups) {
         if (DocumentState.parseString(document.getState()).compareTo(DocumentState.ACCEPTED) == 0) {
             return Lists.newArrayList();
         }
@@ -311,7 +390,7 @@ public class DocumentPositionValidator {
 
         if (DocumentType.TRANSFER.equals(type) || DocumentType.RELEASE.equals(type)
                 || DocumentType.INTERNAL_OUTBOUND.equals(type)) {
-            LocationDTO warehouseFrom = getWarehouseById(document.getLocationFrom_id());
+            LocationDTO warehouseFrom = lookups.getWarehouse(document.getLocationFrom_id());
             String algorithm = warehouseFrom.getAlgorithm();
             if (WarehouseAlgorithm.MANUAL.getStringValue().compareTo(algorithm) == 0) {
                 boolean isValid = position.getResource() != null;
@@ -360,14 +439,6 @@ public class DocumentPositionValidator {
         return Lists.newArrayList();
     }
 
-    private LocationDTO getWarehouseById(Long id) {
-        BeanPropertyRowMapper<LocationDTO> x = new BeanPropertyRowMapper<>(LocationDTO.class);
-        x.setPrimitivesDefaultedForNullValue(true);
-
-        return jdbcTemplate.queryForObject("SELECT * FROM materialflow_location WHERE id = :id",
-                Collections.singletonMap("id", id), x);
-    }
-
     private Collection<? extends String> validateQuantity(DocumentPositionDTO position) {
         if (position.getQuantity() == null) {
             return Lists.newArrayList("documentGrid.error.position.quantity.required");
@@ -412,48 +483,35 @@ public class DocumentPositionValidator {
         }
     }
 
-    private Collection<? extends String> validateAdditionalCode(DocumentPositionDTO position) {
+    private Collection<? extends String> validateAdditionalCode(DocumentPositionDTO position, DocumentPositionLookups lookups) {
         String additionalCode = position.getAdditionalCode();
 
-        if (!StringUtils.isEmpty(additionalCode)) {
-            try {
-                Map<String, Object> filters = Maps.newHashMap();
-
-                filters.put("code", additionalCode);
-                filters.put("productNumber", position.getProduct());
-
-                Long additionalCodeId = jdbcTemplate
-                        .queryForObject(
-                                "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :code "
-                                        + "AND additionalcode.product_id IN (SELECT id FROM basic_product WHERE number = :productNumber)",
-                                filters, Long.class);
-
-            } catch (EmptyResultDataAccessException e) {
-                return Lists.newArrayList("documentGrid.error.position.additionalCode.doesntMatch");
-            }
+        if (!StringUtils.isEmpty(additionalCode) && lookups.getAdditionalCodeId(additionalCode, position.getProduct()) == null) {
+            return Lists.newArrayList("documentGrid.error.position.additionalCode.doesntMatch");
         }
 
         return Lists.newArrayList();
     }
 
-    private Map<String, Object> tryMapDocumentPositionVOToParams(DocumentPositionDTO vo, List<String> errors) {
+    private Map<String, Object> tryMapDocumentPositionVOToParams(DocumentPositionDTO vo, DocumentPositionLookups lookups,
+            List<String> errors) {
         Map<String, Object> params = Maps.newHashMap();
 
         params.put("id", vo.getId());
-        params.put("product_id", tryGetProductIdByNumber(vo.getProduct(), errors));
-        params.put("additionalcode_id", tryGetAdditionalCodeIdByCode(vo.getAdditionalCode(), errors));
+        params.put("product_id", tryGetProductIdByNumber(vo.getProduct(), lookups, errors));
+        params.put("additionalcode_id", tryGetAdditionalCodeIdByCode(vo.getAdditionalCode(), vo.getProduct(), lookups, errors));
         params.put("quantity", vo.getQuantity());
         params.put("givenquantity", vo.getGivenquantity());
         params.put("givenunit", vo.getGivenunit());
         params.put("conversion", vo.getUnit().equals(vo.getGivenunit()) ? 1 : vo.getConversion());
         params.put("expirationDate", vo.getExpirationDate());
-        params.put("palletnumber_id", tryGetPalletNumberIdByNumber(vo.getPalletNumber(), errors));
+        params.put("palletnumber_id", tryGetPalletNumberIdByNumber(vo.getPalletNumber(), lookups, errors));
         params.put("typeofpallet", vo.getTypeOfPallet());
-        params.put("storagelocation_id", tryGetStorageLocationIdByNumber(vo.getStorageLocation(), errors));
+        params.put("storagelocation_id", tryGetStorageLocationIdByNumber(vo.getStorageLocation(), lookups, errors));
         params.put("document_id", vo.getDocument());
         params.put("productionDate", vo.getProductionDate());
         params.put("price", vo.getPrice());
-        params.put("resource_id", tryGetResourceIdByNumber(vo.getResource(), errors));
+        params.put("resource_id", tryGetResourceIdByNumber(vo.getResource(), lookups, errors));
         params.put("batch", vo.getBatch().trim());
         params.put("waste", vo.isWaste());
         params.put("lastResource", vo.getLastResource());
@@ -461,94 +519,80 @@ public class DocumentPositionValidator {
         return params;
     }
 
-    private Long tryGetProductIdByNumber(String productNumber, List<String> errors) {
+    private Long tryGetProductIdByNumber(String productNumber, DocumentPositionLookups lookups, List<String> errors) {
         if (Strings.isNullOrEmpty(productNumber)) {
             return null;
         }
 
-        try {
-            Long productId = jdbcTemplate.queryForObject(
-                    "SELECT product.id FROM basic_product product WHERE product.number = :number",
-                    Collections.singletonMap("number", productNumber), Long.class);
+        Long productId = lookups.getProductId(productNumber);
 
-            return productId;
-        } catch (EmptyResultDataAccessException e) {
+        if (productId == null) {
             errors.add(String.format("Nie znaleziono takiego produktu: '%s'.", productNumber));
-
-            return null;
         }
+
+        return productId;
     }
 
-    private Long tryGetAdditionalCodeIdByCode(String additionalCode, List<String> errors) {
+    private Long tryGetAdditionalCodeIdByCode(String additionalCode, String productNumber, DocumentPositionLookups lookups,
+            List<String> errors) {
         if (Strings.isNullOrEmpty(additionalCode)) {
             return null;
         }
 
-        try {
-            Long additionalCodeId = jdbcTemplate.queryForObject(
-                    "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :code",
-                    Collections.singletonMap("code", additionalCode), Long.class);
+        Long additionalCodeId = lookups.getAdditionalCodeId(additionalCode, productNumber);
 
-            return additionalCodeId;
-        } catch (EmptyResultDataAccessException e) {
-            errors.add(String.format("Nie znaleziono takiego dodatkowego kodu: '%s'.", additionalCode));
+        if (additionalCodeId == null) {
+            additionalCodeId = lookups.getAdditionalCodeId(additionalCode);
+        }
 
-            return null;
+        if (additionalCodeId == null) {
+            errors.add(String.format("Nie znaleziono takiego dodatkowego kodu: '%s'.", additionalCode));
         }
+
+        return additionalCodeId;
     }
 
-    private Long tryGetPalletNumberIdByNumber(String palletNumber, List<String> errors) {
+    private Long tryGetPalletNumberIdByNumber(String palletNumber, DocumentPositionLookups lookups, List<String> errors) {
         if (Strings.isNullOrEmpty(palletNumber)) {
             return null;
         }
 
-        try {
-            Long palletNumberId = jdbcTemplate.queryForObject(
-                    "SELECT palletnumber.id FROM basic_palletnumber palletnumber WHERE palletnumber.number = :number",
-                    Collections.singletonMap("number", palletNumber), Long.class);
+        Long palletNumberId = lookups.getPalletNumberId(palletNumber);
 
-            return palletNumberId;
-        } catch (EmptyResultDataAccessException e) {
+        if (palletNumberId == null) {
             errors.add(String.format("Nie znaleziono takiego numeru palety: '%s'.", palletNumber));
-
-            return null;
         }
+
+        return palletNumberId;
     }
 
-    private Long tryGetStorageLocationIdByNumber(String storageLocationNumber, List<String> errors) {
+    private Long tryGetStorageLocationIdByNumber(String storageLocationNumber, DocumentPositionLookups lookups,
+            List<String> errors) {
         if (Strings.isNullOrEmpty(storageLocationNumber)) {
             return null;
         }
 
-        try {
-            Long storageLocationId = jdbcTemplate
-                    .queryForObject(
-                            "SELECT storagelocation.id FROM materialflowresources_storagelocation storagelocation WHERE storagelocation.number = :number",
-                            Collections.singletonMap("number", storageLocationNumber), Long.class);
+        Long storageLocationId = lookups.getStorageLocationId(storageLocationNumber);
 
-            return storageLocationId;
-        } catch (EmptyResultDataAccessException e) {
+        if (storageLocationId == null) {
             errors.add(String.format("Nie znaleziono takiego miejsca składowania: '%s'.", storageLocationNumber));
-
-            return null;
         }
+
+        return storageLocationId;
     }
 
-    private Object tryGetResourceIdByNumber(String resource, List<String> errors) {
+    private Long tryGetResourceIdByNumber(String resource, DocumentPositionLookups lookups, List<String> errors) {
         if (Strings.isNullOrEmpty(resource)) {
             return null;
         }
 
-        try {
-            Long resourceId = jdbcTemplate.queryForObject("SELECT id FROM materialflowresources_resource WHERE number = :number",
-                    Collections.singletonMap("number", resource), Long.class);
+        Long resourceId = lookups.getResourceId(resource);
 
-            return resourceId;
-        } catch (EmptyResultDataAccessException e) {
+        if (resourceId == null) {
             errors.add(String.format("Nie znaleziono takiego zasobu: '%s'.", resource));
-
-            return null;
         }
+
+        return resourceId;
     }
 
     private List<String> validateBigDecimal(BigDecimal value, String field, int maxScale, int maxPrecision) {
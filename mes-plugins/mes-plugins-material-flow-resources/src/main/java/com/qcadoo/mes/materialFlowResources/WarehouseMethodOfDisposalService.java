@@ -24,8 +24,10 @@ public class WarehouseMethodOfDisposalService {
         WarehouseAlgorithm algorithm = WarehouseAlgorithm.parseString(alg);
         switch (algorithm) {
             case FEFO:
+            case FEFO_FIFO:
                 return " expirationdate = (select min(expirationdate) from materialflowresources_resource ";
             case FIFO:
+            case BATCH_FIFO:
                 return " time = (select min(time) from materialflowresources_resource ";
             case LEFO:
                 return " expirationdate = (select max(expirationdate) from materialflowresources_resource ";
@@ -43,8 +45,10 @@ public class WarehouseMethodOfDisposalService {
         WarehouseAlgorithm algorithm = WarehouseAlgorithm.parseString(alg);
         switch (algorithm) {
             case FEFO:
+            case FEFO_FIFO:
                 return " select min(expirationdate) from materialflowresources_resource ";
             case FIFO:
+            case BATCH_FIFO:
                 return " select min(time) from materialflowresources_resource ";
             case LEFO:
                 return " select max(expirationdate) from materialflowresources_resource ";
@@ -65,6 +69,10 @@ public class WarehouseMethodOfDisposalService {
                 return " order by expirationdate asc, availablequantity ";
             case FIFO:
                 return " order by time asc ";
+            case FEFO_FIFO:
+                return " order by expirationdate asc, time asc ";
+            case BATCH_FIFO:
+                return " order by case when batch is null then time else min(time) over (partition by batch) end asc, batch, time asc ";
             case LEFO:
                 return " order by expirationdate desc, availablequantity ";
             case LIFO:
@@ -24,7 +24,8 @@
 package com.qcadoo.mes.materialFlowResources.constants;
 
 public enum WarehouseAlgorithm {
-    FIFO("01fifo"), LIFO("02lifo"), FEFO("03fefo"), LEFO("04lefo"), MANUAL("05manual");
+    FIFO("01fifo"), LIFO("02lifo"), FEFO("03fefo"), LEFO("04lefo"), MANUAL("05manual"), FEFO_FIFO("06fefoFifo"), BATCH_FIFO(
+            "07batchFifo");
 
     private final String value;
 
@@ -45,6 +46,10 @@ public enum WarehouseAlgorithm {
             return LEFO;
         } else if (MANUAL.getStringValue().equalsIgnoreCase(type)) {
             return MANUAL;
+        } else if (FEFO_FIFO.getStringValue().equalsIgnoreCase(type)) {
+            return FEFO_FIFO;
+        } else if (BATCH_FIFO.getStringValue().equalsIgnoreCase(type)) {
+            return BATCH_FIFO;
         } else {
             return FIFO;
         }
@@ -4,6 +4,7 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
@@ -24,9 +25,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import com.google.common.io.BaseEncoding;
+import com.qcadoo.mes.basic.GridKeyset;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.DataResponse;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionBulkResult;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionBulkService;
 import com.qcadoo.mes.materialFlowResources.DocumentPositionDTO;
 import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
 import com.qcadoo.mes.materialFlowResources.ResourceDTO;
@@ -39,12 +43,15 @@ public class DocumentPositionsController {
     @Autowired
     private DocumentPositionService documentPositionService;
 
+    @Autowired
+    private DocumentPositionBulkService documentPositionBulkService;
+
     @ResponseBody
     @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
     public GridResponse<DocumentPositionDTO> findAll(@PathVariable Long id, @RequestParam String sidx, @RequestParam String sord,
             @RequestParam(defaultValue = "1", required = false, value = "page") Integer page,
-            @RequestParam(value = "rows") int perPage, DocumentPositionDTO positionDTO) {
-        return documentPositionService.findAll(id, sidx, sord, page, perPage, positionDTO);
+            @RequestParam(value = "rows") int perPage, DocumentPositionDTO positionDTO, GridKeyset keyset) {
+        return documentPositionService.findAll(id, sidx, sord, page, perPage, positionDTO, keyset);
     }
 
     @ResponseBody
@@ -70,6 +77,12 @@ public class DocumentPositionsController {
         documentPositionService.updateDocumentPositionsNumbers(documentPositionVO.getDocument());
     }
 
+    @ResponseBody
+    @RequestMapping(value = "bulk", method = RequestMethod.PUT, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<DocumentPositionBulkResult> createAll(@RequestBody List<DocumentPositionDTO> documentPositionVOs) {
+        return documentPositionBulkService.create(documentPositionVOs);
+    }
+
     @ResponseBody
     @RequestMapping(value = "{ids}", method = RequestMethod.DELETE)
     public void delete(@PathVariable String ids) {
@@ -27,6 +27,7 @@ import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
 import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.service.DraftDocumentsNotificationService;
 import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
 import com.qcadoo.mes.materialFlowResources.validators.DocumentValidators;
 import com.qcadoo.model.api.DataDefinition;
@@ -52,6 +53,9 @@ public class DocumentModelHooks {
     @Autowired
     private ReservationsService reservationsService;
 
+    @Autowired
+    private DraftDocumentsNotificationService draftDocumentsNotificationService;
+
     public void onCreate(final DataDefinition documentDD, final Entity document) {
         setInitialDocumentNumber(document);
         setInitialDocumentInBuffer(document);
@@ -74,9 +78,17 @@ public class DocumentModelHooks {
         if (reservationsService.reservationsEnabledForDocumentPositions(document)) {
             documentValidators.validateAvailableQuantities(document);
         }
-        if (document.getBooleanField(DocumentFields.IN_BUFFER) && checkIfLocationsChange(document)) {
+        Entity documentDB = getDocumentFromDB(documentDD, document);
+
+        if (document.getBooleanField(DocumentFields.IN_BUFFER) && checkIfLocationsChange(document, documentDB)) {
             cleanPositionsResource(document);
         }
+        draftDocumentsNotificationService.onDocumentSave(document, documentDB);
+    }
+
+    public boolean onDelete(final DataDefinition documentDD, final Entity document) {
+        draftDocumentsNotificationService.onDocumentDelete(document);
+        return true;
     }
 
     private void cleanPositionsResource(final Entity document) {
@@ -87,11 +99,17 @@ public class DocumentModelHooks {
         });
     }
 
-    private boolean checkIfLocationsChange(final Entity document) {
+    private Entity getDocumentFromDB(final DataDefinition documentDD, final Entity document) {
         if (document.getId() == null) {
+            return null;
+        }
+        return documentDD.get(document.getId());
+    }
+
+    private boolean checkIfLocationsChange(final Entity document, final Entity documentDB) {
+        if (documentDB == null) {
             return false;
         }
-        Entity documentDB = document.getDataDefinition().get(document.getId());
         String documentType = document.getStringField(DocumentFields.TYPE);
 
         if (DocumentType.RECEIPT.getStringValue().equals(documentType)
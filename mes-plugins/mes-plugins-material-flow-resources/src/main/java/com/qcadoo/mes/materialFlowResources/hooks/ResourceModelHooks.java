@@ -25,6 +25,7 @@ package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.ResourceAllocationIndex;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -56,6 +57,9 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceAllocationIndex resourceAllocationIndex;
+
     public void onView(final DataDefinition resourceDD, final Entity resource) {
         BigDecimal quantity = resource.getDecimalField(ResourceFields.QUANTITY);
         BigDecimal price = resource.getDecimalField(ResourceFields.PRICE);
@@ -81,6 +85,14 @@ public class ResourceModelHooks {
                     String.class);
             resource.setField(ResourceFields.NUMBER, number);
         }
+
+        resourceAllocationIndex.invalidate(resource);
+    }
+
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        resourceAllocationIndex.invalidate(resource);
+
+        return true;
     }
 
     public void onCreate(final DataDefinition resourceDD, final Entity resource) {
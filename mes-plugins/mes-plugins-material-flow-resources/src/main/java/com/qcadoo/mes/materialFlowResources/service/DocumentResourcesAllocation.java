@@ -0,0 +1,82 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Candidate resources of all products of a single release document, loaded with one query.
+ *
+ * Resources are picked in memory with the same filters and strategies as in {@link ResourceAllocationService}, and changes made
+ * during allocation are collected, so each changed resource is saved once, after all positions are allocated.
+ */
+public class DocumentResourcesAllocation {
+
+    private final Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+    private final Map<Long, Entity> updatedResources = Maps.newLinkedHashMap();
+
+    private final Map<Long, Entity> deletedResources = Maps.newLinkedHashMap();
+
+    public DocumentResourcesAllocation(final Collection<Entity> resources) {
+        for (Entity resource : resources) {
+            resourcesByProduct.computeIfAbsent(resource.getBelongsToField(ResourceFields.PRODUCT).getId(),
+                    productId -> Lists.newArrayList()).add(resource);
+        }
+    }
+
+    public List<Entity> getResources(final Entity product, final Entity additionalCode, final Entity position,
+            final ResourceAllocationStrategy strategy) {
+        List<Entity> resources = resourcesByProduct.getOrDefault(product.getId(), Lists.newArrayList());
+
+        Map<Long, Entity> resourcesById = resources.stream().collect(Collectors.toMap(Entity::getId, Function.identity()));
+
+        List<ResourceCandidate> candidates = ResourceAllocationService.selectCandidates(
+                resources.stream().map(ResourceCandidate::fromEntity).collect(Collectors.toList()),
+                ResourceAllocationService.getConversion(product, position), additionalCode == null ? null : additionalCode.getId(),
+                strategy);
+
+        return candidates.stream().map(candidate -> resourcesById.get(candidate.getId())).collect(Collectors.toList());
+    }
+
+    public List<Entity> getResources(final Entity product) {
+        return Lists.newArrayList(resourcesByProduct.getOrDefault(product.getId(), Lists.newArrayList()));
+    }
+
+    public void updateResource(final Entity resource) {
+        updatedResources.put(resource.getId(), resource);
+    }
+
+    public void deleteResource(final Entity resource) {
+        updatedResources.remove(resource.getId());
+        deletedResources.put(resource.getId(), resource);
+
+        List<Entity> resources = resourcesByProduct.get(resource.getBelongsToField(ResourceFields.PRODUCT).getId());
+
+        if (resources != null) {
+            resources.removeIf(candidate -> candidate.getId().equals(resource.getId()));
+        }
+    }
+
+    public Collection<Entity> getUpdatedResources() {
+        return updatedResources.values();
+    }
+
+    public Collection<Entity> getDeletedResources() {
+        return deletedResources.values();
+    }
+
+    public Set<Long> getDeletedResourceIds() {
+        return Sets.newLinkedHashSet(deletedResources.keySet());
+    }
+
+}
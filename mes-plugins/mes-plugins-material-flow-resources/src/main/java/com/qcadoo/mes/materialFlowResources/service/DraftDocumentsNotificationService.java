@@ -1,16 +1,22 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
-import static com.qcadoo.model.api.search.SearchRestrictions.eq;
-import static com.qcadoo.model.api.search.SearchRestrictions.in;
-import static com.qcadoo.model.api.search.SearchRestrictions.isNull;
-import static com.qcadoo.model.api.search.SearchRestrictions.or;
-
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.notification.NotificationCounter;
 import com.qcadoo.mes.materialFlow.constants.UserFieldsMF;
 import com.qcadoo.mes.materialFlow.constants.UserLocationFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
@@ -20,26 +26,36 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
-import com.qcadoo.model.api.search.JoinType;
-import com.qcadoo.model.api.search.SearchConjunction;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.security.constants.QcadooSecurityConstants;
 
+/**
+ * Draft documents are counted in memory per pair of warehouses (from, to), counts are changed by document model hooks and
+ * reloaded periodically with one aggregated query.
+ */
 @Service
 public class DraftDocumentsNotificationService {
 
     static final String ROLE_DOCUMENTS_NOTIFICATION = "ROLE_DOCUMENTS_NOTIFICATION";
 
+    private static final long RELOAD_COUNTS_DELAY = 5 * 60 * 1000L;
+
+    private static final String L_ORDER = "order";
+
     private final SecurityService securityService;
 
     private final DataDefinitionService dataDefinitionService;
 
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final NotificationCounter<List<Long>> draftDocumentsCounter = new NotificationCounter<>();
+
     @Autowired
-    public DraftDocumentsNotificationService(SecurityService securityService, DataDefinitionService dataDefinitionService) {
+    public DraftDocumentsNotificationService(SecurityService securityService, DataDefinitionService dataDefinitionService,
+            NamedParameterJdbcTemplate jdbcTemplate) {
         this.securityService = securityService;
         this.dataDefinitionService = dataDefinitionService;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
     private DataDefinition userDataDefinition() {
@@ -58,23 +74,89 @@ public class DraftDocumentsNotificationService {
     }
 
     int countDraftDocumentsForUser(Long currentUserId) {
+        if (!draftDocumentsCounter.isLoaded()) {
+            reloadCounts();
+        }
+
         EntityList userLocations = userDataDefinition().get(currentUserId).getHasManyField(UserFieldsMF.USER_LOCATIONS);
-        SearchConjunction conjunction = SearchRestrictions.conjunction();
-        conjunction.add(eq(DocumentFields.STATE, DocumentState.DRAFT.getStringValue()));
-        conjunction.add(eq(DocumentFields.ACTIVE, Boolean.TRUE));
-        conjunction.add(isNull("order.id"));
-
-        SearchCriteriaBuilder criteriaBuilder = documentDataDefinition().find();
-        if (!userLocations.isEmpty()) {
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_FROM, "locFrom", JoinType.LEFT);
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_TO, "locTo", JoinType.LEFT);
-
-            Set<Long> locationIds = userLocations.stream().map(ul -> ul.getBelongsToField(UserLocationFields.LOCATION))
-                    .map(Entity::getId).collect(Collectors.toSet());
-            conjunction.add(or(in("locFrom.id", locationIds), in("locTo.id", locationIds)));
+
+        if (userLocations.isEmpty()) {
+            return (int) draftDocumentsCounter.sum();
+        }
+
+        Set<Long> locationIds = userLocations.stream().map(ul -> ul.getBelongsToField(UserLocationFields.LOCATION))
+                .map(Entity::getId).collect(Collectors.toSet());
+
+        return (int) draftDocumentsCounter.sum(key -> locationIds.contains(key.get(0)) || locationIds.contains(key.get(1)));
+    }
+
+    /**
+     * @param document
+     *            document being saved
+     * @param documentDB
+     *            the same document as stored in the database before this save, null for new documents
+     */
+    public void onDocumentSave(final Entity document, final Entity documentDB) {
+        if (!draftDocumentsCounter.isLoaded()) {
+            return;
+        }
+
+        if (documentDB != null && isDraftDocument(documentDB)) {
+            draftDocumentsCounter.decrement(getCounterKey(documentDB));
+        }
+
+        if (isDraftDocument(document)) {
+            draftDocumentsCounter.increment(getCounterKey(document));
+        }
+    }
+
+    public void onDocumentDelete(final Entity document) {
+        if (draftDocumentsCounter.isLoaded() && isDraftDocument(document)) {
+            draftDocumentsCounter.decrement(getCounterKey(document));
+        }
+    }
+
+    @Scheduled(initialDelay = RELOAD_COUNTS_DELAY, fixedDelay = RELOAD_COUNTS_DELAY)
+    public synchronized void reloadCounts() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT locationfrom_id, locationto_id, COUNT(*) AS documents FROM materialflowresources_document ");
+        query.append("WHERE state = :state AND active = true ");
+
+        if (documentDataDefinition().getField(L_ORDER) != null) {
+            query.append("AND order_id IS NULL ");
         }
-        criteriaBuilder.add(conjunction);
-        return criteriaBuilder.list().getTotalNumberOfEntities();
+
+        query.append("GROUP BY locationfrom_id, locationto_id");
+
+        Map<List<Long>, Long> counts = Maps.newHashMap();
+
+        jdbcTemplate.query(query.toString(), Collections.singletonMap("state", DocumentState.DRAFT.getStringValue()),
+                (RowCallbackHandler) rs -> counts.put(Arrays.asList(getId(rs, "locationfrom_id"), getId(rs, "locationto_id")),
+                        rs.getLong("documents")));
+
+        draftDocumentsCounter.load(counts);
+    }
+
+    private Long getId(final ResultSet rs, final String column) throws SQLException {
+        long id = rs.getLong(column);
+
+        return rs.wasNull() ? null : id;
+    }
+
+    private boolean isDraftDocument(final Entity document) {
+        return DocumentState.DRAFT.getStringValue().equals(document.getStringField(DocumentFields.STATE))
+                && !Boolean.FALSE.equals(document.getField(DocumentFields.ACTIVE))
+                && document.getBelongsToField(L_ORDER) == null;
+    }
+
+    private List<Long> getCounterKey(final Entity document) {
+        return Arrays.asList(getId(document.getBelongsToField(DocumentFields.LOCATION_FROM)),
+                getId(document.getBelongsToField(DocumentFields.LOCATION_TO)));
+    }
+
+    private Long getId(final Entity entity) {
+        return entity == null ? null : entity.getId();
     }
 
 }
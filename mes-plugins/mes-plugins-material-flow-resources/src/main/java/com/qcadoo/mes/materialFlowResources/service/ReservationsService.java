@@ -4,12 +4,15 @@ import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
@@ -48,6 +51,16 @@ public class ReservationsService {
 
     private final static String L_QUANTITY = "quantity";
 
+    private final static String L_PRODUCT_ID = "product_id";
+
+    private final static String L_RESOURCE_ID = "resource_id";
+
+    private final static String L_LOCATION_ID = "location_id";
+
+    private final static String INSERT_RESERVATION_QUERY = "INSERT INTO materialflowresources_reservation "
+            + "(location_id, product_id, quantity, position_id, resource_id) "
+            + "VALUES (:location_id, :product_id, :quantity, :id, :resource_id)";
+
     public void cleanReservationsTrigger() {
         multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
 
@@ -103,6 +116,41 @@ public class ReservationsService {
         resourceReservationsService.updateResourceQuantites(params, BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)));
     }
 
+    /**
+     * Creates reservations of many positions with batch statements and reserves their summed quantities in resource stocks
+     * and resources.
+     *
+     * @param positionsParams
+     *            maps containing keys: id (position id), quantity, product_id, resource_id and location_id (reservation
+     *            location), of positions, for which reservations are enabled
+     * @see ReservationsService#createReservationFromDocumentPosition(Map)
+     */
+    public void createReservationsFromDocumentPositions(final List<Map<String, Object>> positionsParams) {
+        if (positionsParams.isEmpty()) {
+            return;
+        }
+
+        Map<ResourceStockLedger.Key, BigDecimal> stockQuantities = Maps.newHashMap();
+        Map<Long, BigDecimal> resourceQuantities = Maps.newHashMap();
+
+        for (Map<String, Object> params : positionsParams) {
+            BigDecimal quantity = BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY));
+
+            stockQuantities.merge(new ResourceStockLedger.Key((Long) params.get(L_PRODUCT_ID), (Long) params.get(L_LOCATION_ID)),
+                    quantity, BigDecimal::add);
+
+            if (params.get(L_RESOURCE_ID) != null) {
+                resourceQuantities.merge((Long) params.get(L_RESOURCE_ID), quantity, BigDecimal::add);
+            }
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_RESERVATION_QUERY,
+                positionsParams.stream().map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new));
+
+        resourceStockService.updateResourceStocks(stockQuantities);
+        resourceReservationsService.updateResourceQuantities(resourceQuantities);
+    }
+
     /**
      * Creates new reservation for position and updates resource stock. Uses framework.
      *
@@ -0,0 +1,92 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.util.VersionedCache;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * In memory index of resources per (location, product), loaded with one query on first use and kept in {@link VersionedCache}.
+ *
+ * Entries are dropped when resources of their (location, product) are saved or deleted, once more after the transaction
+ * completes, so uncommitted changes don't stay in the index, and after {@link #MAX_AGE} as a safety net for changes made
+ * outside of the application. Keys of indexed resources are kept by resource id, so a single resource is invalidated without
+ * scanning the index.
+ */
+@Service
+public class ResourceAllocationIndex {
+
+    private static final long MAX_AGE = 10 * 60 * 1000L;
+
+    private static final int MAX_KEYS = 10000;
+
+    private static final String CANDIDATES_QUERY = "SELECT id, number, batch, time, expirationdate, availablequantity, conversion, "
+            + "additionalcode_id FROM materialflowresources_resource WHERE location_id = :location_id AND product_id = :product_id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final ConcurrentMap<Long, List<Long>> keysByResourceId = new ConcurrentHashMap<>();
+
+    private final VersionedCache<List<Long>, List<ResourceCandidate>> entries = new VersionedCache<List<Long>,
+            List<ResourceCandidate>>(MAX_KEYS, MAX_AGE) {
+
+        @Override
+        protected void entryAdded(final List<Long> key, final List<ResourceCandidate> candidates) {
+            candidates.forEach(candidate -> keysByResourceId.put(candidate.getId(), key));
+        }
+
+        @Override
+        protected void entryRemoved(final List<Long> key, final List<ResourceCandidate> candidates) {
+            candidates.forEach(candidate -> keysByResourceId.remove(candidate.getId(), key));
+        }
+
+    };
+
+    public List<ResourceCandidate> getCandidates(final Long locationId, final Long productId) {
+        return entries.get(Arrays.asList(locationId, productId),
+                () -> Collections.unmodifiableList(load(locationId, productId)));
+    }
+
+    public void invalidate(final Entity resource) {
+        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
+        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
+
+        if (location != null && product != null) {
+            invalidate(location.getId(), product.getId());
+        }
+    }
+
+    public void invalidate(final Long locationId, final Long productId) {
+        entries.invalidate(Arrays.asList(locationId, productId));
+    }
+
+    public void invalidateResource(final Long resourceId) {
+        List<Long> key = keysByResourceId.get(resourceId);
+
+        if (key != null) {
+            entries.invalidate(key);
+        }
+    }
+
+    private List<ResourceCandidate> load(final Long locationId, final Long productId) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("location_id", locationId);
+        params.put("product_id", productId);
+
+        return jdbcTemplate.query(CANDIDATES_QUERY, params, (resultSet, rowNum) -> ResourceCandidate.fromResultSet(resultSet));
+    }
+
+}
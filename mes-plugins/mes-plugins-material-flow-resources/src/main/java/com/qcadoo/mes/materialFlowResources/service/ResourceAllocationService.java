@@ -0,0 +1,116 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Picks resources to release with {@link ResourceAllocationStrategy strategies} of warehouse algorithms, from candidates kept by
+ * {@link ResourceAllocationIndex}.
+ */
+@Service
+public class ResourceAllocationService {
+
+    @Autowired
+    private ResourceAllocationIndex resourceAllocationIndex;
+
+    @Autowired
+    private ResourceAllocationStrategies resourceAllocationStrategies;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    /**
+     * Resources to release for position, in order of warehouse algorithm. Resources are read again by ids of picked candidates,
+     * so quantities are never taken from the index.
+     */
+    public List<Entity> getResources(final Entity warehouse, final Entity product, final Entity additionalCode,
+            final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+        List<ResourceCandidate> candidates = selectCandidates(
+                resourceAllocationIndex.getCandidates(warehouse.getId(), product.getId()), getConversion(product, position),
+                additionalCode == null ? null : additionalCode.getId(), resourceAllocationStrategies.getStrategy(warehouseAlgorithm));
+
+        if (candidates.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        Map<Long, Entity> resources = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
+                .add(SearchRestrictions.in("id", candidates.stream().map(ResourceCandidate::getId).collect(Collectors.toList())))
+                .list().getEntities().stream().collect(Collectors.toMap(Entity::getId, Function.identity()));
+
+        return candidates.stream().map(candidate -> resources.get(candidate.getId())).filter(Objects::nonNull)
+                .filter(resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY).compareTo(BigDecimal.ZERO) > 0)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * First resource to suggest for a new position. Only resources with given additional code are suggested, unless there are
+     * none of them.
+     */
+    public Optional<ResourceCandidate> getSuggestedResource(final Long locationId, final Long productId,
+            final BigDecimal conversion, final Long additionalCodeId, final String algorithm) {
+        List<ResourceCandidate> candidates = resourceAllocationIndex.getCandidates(locationId, productId).stream()
+                .filter(ResourceCandidate::isAvailable).filter(candidate -> candidate.hasConversion(conversion))
+                .collect(Collectors.toList());
+
+        if (additionalCodeId != null && candidates.stream().anyMatch(candidate -> candidate.hasAdditionalCode(additionalCodeId))) {
+            candidates = candidates.stream().filter(candidate -> candidate.hasAdditionalCode(additionalCodeId))
+                    .collect(Collectors.toList());
+        }
+
+        return resourceAllocationStrategies.getStrategy(algorithm).order(candidates).stream().findFirst();
+    }
+
+    /**
+     * Available candidates with given conversion in order of strategy, candidates with given additional code go first.
+     */
+    static List<ResourceCandidate> selectCandidates(final Collection<ResourceCandidate> candidates, final BigDecimal conversion,
+            final Long additionalCodeId, final ResourceAllocationStrategy strategy) {
+        List<ResourceCandidate> availableCandidates = candidates.stream().filter(ResourceCandidate::isAvailable)
+                .filter(candidate -> candidate.hasConversion(conversion)).collect(Collectors.toList());
+
+        if (additionalCodeId != null) {
+            Predicate<ResourceCandidate> hasAdditionalCode = candidate -> candidate.hasAdditionalCode(additionalCodeId);
+
+            List<ResourceCandidate> sortedCandidates = Lists.newArrayList(strategy.order(availableCandidates.stream()
+                    .filter(hasAdditionalCode).collect(Collectors.toList())));
+
+            sortedCandidates.addAll(strategy.order(availableCandidates.stream().filter(hasAdditionalCode.negate())
+                    .collect(Collectors.toList())));
+
+            return sortedCandidates;
+        }
+
+        return strategy.order(availableCandidates);
+    }
+
+    static BigDecimal getConversion(final Entity product, final Entity position) {
+        if (StringUtils.isEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            return BigDecimal.ONE;
+        }
+
+        return position.getDecimalField(PositionFields.CONVERSION);
+    }
+
+}
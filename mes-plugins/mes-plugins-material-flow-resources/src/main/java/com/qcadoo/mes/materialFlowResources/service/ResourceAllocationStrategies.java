@@ -0,0 +1,136 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+
+/**
+ * Strategies of all warehouse algorithms. Built-in strategies mirror the search orders used before by per position queries,
+ * nulls go last in ascending and first in descending order, as in the database, and id is the final tie breaker.
+ */
+@Service
+public class ResourceAllocationStrategies {
+
+    private final Map<String, ResourceAllocationStrategy> strategies = Maps.newConcurrentMap();
+
+    public ResourceAllocationStrategies() {
+        Comparator<ResourceCandidate> fifo = asc(ResourceCandidate::getTime);
+
+        register(new ComparatorStrategy(WarehouseAlgorithm.FIFO, fifo));
+        register(new ComparatorStrategy(WarehouseAlgorithm.LIFO, desc(ResourceCandidate::getTime)));
+        register(new ComparatorStrategy(WarehouseAlgorithm.FEFO, asc(ResourceCandidate::getExpirationDate).thenComparing(
+                asc(ResourceCandidate::getAvailableQuantity))));
+        register(new ComparatorStrategy(WarehouseAlgorithm.LEFO, desc(ResourceCandidate::getExpirationDate).thenComparing(
+                asc(ResourceCandidate::getAvailableQuantity))));
+        register(new ComparatorStrategy(WarehouseAlgorithm.MANUAL, fifo));
+        register(new ComparatorStrategy(WarehouseAlgorithm.FEFO_FIFO, asc(ResourceCandidate::getExpirationDate).thenComparing(
+                fifo)));
+        register(new BatchStrategy(WarehouseAlgorithm.BATCH_FIFO, fifo));
+    }
+
+    @Autowired(required = false)
+    public void setStrategies(final List<ResourceAllocationStrategy> strategies) {
+        strategies.forEach(this::register);
+    }
+
+    public ResourceAllocationStrategy getStrategy(final WarehouseAlgorithm warehouseAlgorithm) {
+        return getStrategy(warehouseAlgorithm.getStringValue());
+    }
+
+    public ResourceAllocationStrategy getStrategy(final String algorithm) {
+        ResourceAllocationStrategy strategy = algorithm == null ? null : strategies.get(algorithm);
+
+        if (strategy == null) {
+            return strategies.get(WarehouseAlgorithm.FIFO.getStringValue());
+        }
+
+        return strategy;
+    }
+
+    private void register(final ResourceAllocationStrategy strategy) {
+        strategies.put(strategy.getAlgorithm(), strategy);
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<ResourceCandidate> asc(
+            final Function<ResourceCandidate, T> keyExtractor) {
+        return Comparator.comparing(keyExtractor, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<ResourceCandidate> desc(
+            final Function<ResourceCandidate, T> keyExtractor) {
+        return Comparator.comparing(keyExtractor, Comparator.nullsFirst(Comparator.<T> reverseOrder()));
+    }
+
+    private static class ComparatorStrategy implements ResourceAllocationStrategy {
+
+        private final String algorithm;
+
+        private final Comparator<ResourceCandidate> comparator;
+
+        ComparatorStrategy(final WarehouseAlgorithm warehouseAlgorithm, final Comparator<ResourceCandidate> comparator) {
+            this.algorithm = warehouseAlgorithm.getStringValue();
+            this.comparator = comparator.thenComparing(ResourceCandidate::getId);
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public List<ResourceCandidate> order(final List<ResourceCandidate> candidates) {
+            return candidates.stream().sorted(comparator).collect(Collectors.toList());
+        }
+
+    }
+
+    /**
+     * Releases whole batches one by one. Batches are ordered by their first resource, resources of a batch by the given order,
+     * resources without batch are released as batches of their own.
+     */
+    private static class BatchStrategy implements ResourceAllocationStrategy {
+
+        private final String algorithm;
+
+        private final Comparator<ResourceCandidate> comparator;
+
+        BatchStrategy(final WarehouseAlgorithm warehouseAlgorithm, final Comparator<ResourceCandidate> comparator) {
+            this.algorithm = warehouseAlgorithm.getStringValue();
+            this.comparator = comparator.thenComparing(ResourceCandidate::getId);
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public List<ResourceCandidate> order(final List<ResourceCandidate> candidates) {
+            List<ResourceCandidate> sortedCandidates = candidates.stream().sorted(comparator).collect(Collectors.toList());
+
+            Map<Object, Integer> batchPositions = Maps.newHashMap();
+
+            for (int index = 0; index < sortedCandidates.size(); index++) {
+                batchPositions.putIfAbsent(getBatchKey(sortedCandidates.get(index)), index);
+            }
+
+            return sortedCandidates.stream()
+                    .sorted(Comparator.comparing((ResourceCandidate candidate) -> batchPositions.get(getBatchKey(candidate))))
+                    .collect(Collectors.toList());
+        }
+
+        private Object getBatchKey(final ResourceCandidate candidate) {
+            return candidate.getBatch() == null ? candidate.getId() : candidate.getBatch();
+        }
+
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.List;
+
+/**
+ * Order in which resources of a single product and warehouse are released.
+ *
+ * Built-in strategies are registered by {@link ResourceAllocationStrategies} for each {@link
+ * com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm}, beans implementing this interface replace the built-in
+ * strategy of their algorithm.
+ */
+public interface ResourceAllocationStrategy {
+
+    /**
+     * @return value of the warehouse algorithm field this strategy is used for
+     */
+    String getAlgorithm();
+
+    /**
+     * @param candidates
+     *            available resources with matching conversion
+     * @return candidates in the order they should be released in, ties have to be broken by id
+     */
+    List<ResourceCandidate> order(List<ResourceCandidate> candidates);
+
+}
@@ -0,0 +1,112 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Fields of a resource used to pick resources for release, kept by {@link ResourceAllocationIndex} instead of whole entities.
+ */
+public class ResourceCandidate {
+
+    private final Long id;
+
+    private final String number;
+
+    private final String batch;
+
+    private final Date time;
+
+    private final Date expirationDate;
+
+    private final BigDecimal availableQuantity;
+
+    private final BigDecimal conversion;
+
+    private final Long additionalCodeId;
+
+    public ResourceCandidate(final Long id, final String number, final String batch, final Date time,
+            final Date expirationDate, final BigDecimal availableQuantity, final BigDecimal conversion,
+            final Long additionalCodeId) {
+        this.id = id;
+        this.number = number;
+        this.batch = batch;
+        this.time = time;
+        this.expirationDate = expirationDate;
+        this.availableQuantity = availableQuantity;
+        this.conversion = conversion;
+        this.additionalCodeId = additionalCodeId;
+    }
+
+    public static ResourceCandidate fromEntity(final Entity resource) {
+        Entity additionalCode = resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE);
+
+        return new ResourceCandidate(resource.getId(), resource.getStringField(ResourceFields.NUMBER),
+                resource.getStringField(ResourceFields.BATCH), resource.getDateField(ResourceFields.TIME),
+                resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY),
+                resource.getDecimalField(ResourceFields.CONVERSION), additionalCode == null ? null : additionalCode.getId());
+    }
+
+    static ResourceCandidate fromResultSet(final ResultSet resultSet) throws SQLException {
+        long additionalCodeId = resultSet.getLong("additionalcode_id");
+        boolean withoutAdditionalCode = resultSet.wasNull();
+
+        return new ResourceCandidate(resultSet.getLong("id"), resultSet.getString("number"), resultSet.getString("batch"),
+                resultSet.getTimestamp("time"), resultSet.getDate("expirationdate"), resultSet.getBigDecimal("availablequantity"),
+                resultSet.getBigDecimal("conversion"), withoutAdditionalCode ? null : additionalCodeId);
+    }
+
+    public boolean isAvailable() {
+        return availableQuantity != null && availableQuantity.compareTo(BigDecimal.ZERO) > 0;
+    }
+
+    public boolean hasConversion(final BigDecimal otherConversion) {
+        if (conversion == null || otherConversion == null) {
+            return conversion == null && otherConversion == null;
+        }
+
+        return conversion.compareTo(otherConversion) == 0;
+    }
+
+    public boolean hasAdditionalCode(final Long otherAdditionalCodeId) {
+        return additionalCodeId != null && additionalCodeId.equals(otherAdditionalCodeId);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public String getBatch() {
+        return batch;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public Date getExpirationDate() {
+        return expirationDate;
+    }
+
+    public BigDecimal getAvailableQuantity() {
+        return availableQuantity;
+    }
+
+    public BigDecimal getConversion() {
+        return conversion;
+    }
+
+    public Long getAdditionalCodeId() {
+        return additionalCodeId;
+    }
+
+}
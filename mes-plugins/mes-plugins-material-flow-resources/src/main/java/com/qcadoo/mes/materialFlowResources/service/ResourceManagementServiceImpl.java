@@ -29,7 +29,7 @@ import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -59,9 +59,6 @@ import com.qcadoo.model.api.DictionaryService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchCriterion;
-import com.qcadoo.model.api.search.SearchOrder;
-import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.validators.ErrorMessage;
 
@@ -93,6 +90,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private NotEnoughResourcesErrorMessageHolderFactory notEnoughResourcesErrorMessageHolderFactory;
 
+    @Autowired
+    private ResourceAllocationService resourceAllocationService;
+
+    @Autowired
+    private ResourceAllocationStrategies resourceAllocationStrategies;
+
     public ResourceManagementServiceImpl() {
 
     }
@@ -125,8 +128,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Object date = document.getField(DocumentFields.TIME);
 
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
         for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
-            createResource(document, warehouse, position, date);
+            createResource(document, warehouse, position, date, resourceStockLedger);
 
             position = position.getDataDefinition().save(position);
 
@@ -138,9 +143,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                         .forEach(e -> document.addGlobalError(e.getMessage(), e.getAutoClose(), e.getVars()));
             }
         }
+
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
     }
 
-    private Entity createResource(final Entity document, final Entity warehouse, final Entity position, final Object date) {
+    private Entity createResource(final Entity document, final Entity warehouse, final Entity position, final Object date,
+            final ResourceStockLedger resourceStockLedger) {
         DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
 
@@ -180,7 +188,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             resource.setField(ResourceFields.CONVERSION, position.getField(PositionFields.CONVERSION));
         }
 
-        resourceStockService.addResourceStock(resource);
+        resourceStockLedger.addResourceStock(resource);
 
         resource = resourceDD.save(resource);
 
@@ -194,7 +202,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Entity createResource(final Entity position, final Entity warehouse, final Entity resource, final BigDecimal quantity,
-            Object date) {
+            final Object date, final ResourceStockLedger resourceStockLedger) {
         DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
 
@@ -234,7 +242,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         newResource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-        resourceStockService.addResourceStock(newResource);
+        resourceStockLedger.addResourceStock(newResource);
 
         return resourceDD.save(newResource);
     }
@@ -274,6 +282,11 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     public Multimap<Long, BigDecimal> getQuantitiesInWarehouse(final Entity warehouse,
             final Multimap<Entity, Entity> productsAndPositions) {
+        return getQuantitiesInWarehouse(warehouse, productsAndPositions, null);
+    }
+
+    private Multimap<Long, BigDecimal> getQuantitiesInWarehouse(final Entity warehouse,
+            final Multimap<Entity, Entity> productsAndPositions, final DocumentResourcesAllocation documentResourcesAllocation) {
         Multimap<Long, BigDecimal> result = ArrayListMultimap.create();
 
         String algorithm = warehouse.getStringField(LocationFieldsMFR.ALGORITHM);
@@ -291,7 +304,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
                 List<Entity> resources = Lists.newArrayList();
 
-                if (additionalCode != null) {
+                if (documentResourcesAllocation != null) {
+                    resources = documentResourcesAllocation.getResources(productAndPosition.getKey(), additionalCode,
+                            productAndPosition.getValue(), WarehouseAlgorithm.FIFO);
+                } else if (additionalCode != null) {
                     SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
                             warehouse);
 
@@ -319,7 +335,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                                     .list().getEntities());
                 }
 
-                if (resources.isEmpty()) {
+                if (resources.isEmpty() && documentResourcesAllocation == null) {
                     SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
                             warehouse);
 
@@ -357,6 +373,11 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     public BigDecimal getQuantityOfProductInWarehouse(final Entity warehouse, final Entity product, final Entity position) {
+        return getQuantityOfProductInWarehouse(warehouse, product, position, null);
+    }
+
+    private BigDecimal getQuantityOfProductInWarehouse(final Entity warehouse, final Entity product, final Entity position,
+            final DocumentResourcesAllocation documentResourcesAllocation) {
         BigDecimal quantity = BigDecimal.ZERO;
 
         Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
@@ -365,6 +386,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         if (resource != null) {
             quantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+        } else if (documentResourcesAllocation != null) {
+            for (Entity res : documentResourcesAllocation.getResources(product)) {
+                quantity = quantity.add(res.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+            }
         } else {
             List<Entity> resources = dataDefinitionService
                     .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
@@ -413,6 +438,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Multimap<Long, BigDecimal> quantitiesForWarehouse = ArrayListMultimap.create();
 
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        DocumentResourcesAllocation documentResourcesAllocation = createDocumentResourcesAllocation(document);
+
         for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
             Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
@@ -430,17 +459,20 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse.getStringField(LocationFieldsMFR.ALGORITHM));
             }
 
-            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm);
+            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm,
+                    resourceStockLedger, documentResourcesAllocation);
 
             enoughResources = enoughResources && position.isValid();
 
             if (!position.isValid()) {
                 if (quantitiesForWarehouse.isEmpty()) {
-                    quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse, getProductsAndPositionsFromDocument(document));
+                    quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse, getProductsAndPositionsFromDocument(document),
+                            documentResourcesAllocation);
                 }
                 BigDecimal quantityInWarehouse;
                 if (warehouseAlgorithm.equals(WarehouseAlgorithm.MANUAL)) {
-                    quantityInWarehouse = getQuantityOfProductInWarehouse(warehouse, product, position);
+                    quantityInWarehouse = getQuantityOfProductInWarehouse(warehouse, product, position,
+                            documentResourcesAllocation);
                 } else {
                     quantityInWarehouse = getQuantityOfProductFromMultimap(quantitiesForWarehouse, product);
                 }
@@ -467,11 +499,65 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
         }
 
+        if (documentResourcesAllocation != null) {
+            saveDocumentResourcesAllocation(documentResourcesAllocation);
+        }
+
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
+
         if (!enoughResources) {
             NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouse, errorMessageHolder);
         }
     }
 
+    /**
+     * Loads candidate resources for all products of release document with one query. Allocation in memory is used only when
+     * positions don't point at resources and reservations are disabled, in other cases resources are searched per position.
+     */
+    private DocumentResourcesAllocation createDocumentResourcesAllocation(final Entity document) {
+        Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        if (warehouse == null || positions.isEmpty()
+                || positions.stream().anyMatch(position -> position.getBelongsToField(PositionFields.RESOURCE) != null)
+                || reservationsService.reservationsEnabledForDocumentPositions(document)) {
+            return null;
+        }
+
+        List<Long> productIds = positions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                .distinct().collect(Collectors.toList());
+
+        List<Entity> resources = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
+                .add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                .add(SearchRestrictions.in("product.id", productIds))
+                .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO)).list().getEntities();
+
+        return new DocumentResourcesAllocation(resources);
+    }
+
+    private void saveDocumentResourcesAllocation(final DocumentResourcesAllocation documentResourcesAllocation) {
+        DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+
+        // each changed resource is saved once, after all positions are allocated, with the same validation as single saves
+        for (Entity resource : documentResourcesAllocation.getUpdatedResources()) {
+            Entity savedResource = resourceDD.save(resource);
+
+            if (!savedResource.isValid()) {
+                throw new InvalidResourceException(savedResource);
+            }
+        }
+
+        if (!documentResourcesAllocation.getDeletedResources().isEmpty()) {
+            // deleted through the data definition, so positions and corrections are nullified and reservation hooks still run
+            resourceDD.delete(documentResourcesAllocation.getDeletedResourceIds().toArray(new Long[0]));
+
+            documentResourcesAllocation.getDeletedResources().forEach(
+                    resource -> palletNumberDisposalService.tryToDispose(resource.getBelongsToField(ResourceFields.PALLET_NUMBER)));
+        }
+    }
+
     private void addPositionErrors(final Entity document, final Entity saved) {
         if (!saved.isValid()) {
             document.setNotValid();
@@ -500,7 +586,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         position.setField(PositionFields.GIVEN_QUANTITY, newPosition.getField(PositionFields.GIVEN_QUANTITY));
     }
 
-    private List<Entity> updateResources(final Entity warehouse, final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+    private List<Entity> updateResources(final Entity warehouse, final Entity position, final WarehouseAlgorithm warehouseAlgorithm,
+            final ResourceStockLedger resourceStockLedger, final DocumentResourcesAllocation documentResourcesAllocation) {
         DataDefinition positionDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_POSITION);
 
@@ -508,11 +595,19 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources;
+
+        if (documentResourcesAllocation != null) {
+            resources = documentResourcesAllocation.getResources(product,
+                    position.getBelongsToField(PositionFields.ADDITIONAL_CODE), position,
+                    resourceAllocationStrategies.getStrategy(warehouseAlgorithm));
+        } else {
+            resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        }
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
 
-        resourceStockService.removeResourceStock(product, warehouse, quantity);
+        resourceStockLedger.removeResourceStock(product, warehouse, quantity);
 
         for (Entity resource : resources) {
             BigDecimal resourceQuantity = resource.getDecimalField(ResourceFields.QUANTITY);
@@ -538,13 +633,17 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+                    newPosition.setField(PositionFields.RESOURCE, null);
 
-                    resource.getDataDefinition().delete(resource.getId());
+                    if (documentResourcesAllocation != null) {
+                        documentResourcesAllocation.deleteResource(resource);
+                    } else {
+                        Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
 
-                    newPosition.setField(PositionFields.RESOURCE, null);
+                        resource.getDataDefinition().delete(resource.getId());
 
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                        palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    }
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
@@ -556,11 +655,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT,
                             numberService.setScale(quantityInAdditionalUnit));
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    saveResource(resource, documentResourcesAllocation);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScale(resourceAvailableQuantity));
@@ -593,11 +688,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScale(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                saveResource(resource, documentResourcesAllocation);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScale(quantity));
 
@@ -616,6 +707,18 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return Lists.newArrayList(position);
     }
 
+    private void saveResource(final Entity resource, final DocumentResourcesAllocation documentResourcesAllocation) {
+        if (documentResourcesAllocation != null) {
+            documentResourcesAllocation.updateResource(resource);
+        } else {
+            Entity savedResource = resource.getDataDefinition().save(resource);
+
+            if (!savedResource.isValid()) {
+                throw new InvalidResourceException(savedResource);
+            }
+        }
+    }
+
     public BigDecimal convertToGivenUnit(final BigDecimal quantity, final Entity position) {
         BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
 
@@ -641,10 +744,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Multimap<Long, BigDecimal> quantitiesForWarehouse = ArrayListMultimap.create();
 
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
         for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            moveResources(warehouseFrom, warehouseTo, position, date, warehouseAlgorithm);
+            moveResources(warehouseFrom, warehouseTo, position, date, warehouseAlgorithm, resourceStockLedger);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -679,13 +784,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
         }
 
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
+
         if (!enoughResources) {
             NotEnoughResourcesErrorMessageCopyToEntityHelper.addError(document, warehouseFrom, errorMessageHolder);
         }
     }
 
     private void moveResources(final Entity warehouseFrom, final Entity warehouseTo, final Entity position, final Object date,
-            final WarehouseAlgorithm warehouseAlgorithm) {
+            final WarehouseAlgorithm warehouseAlgorithm, final ResourceStockLedger resourceStockLedger) {
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
         List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouseFrom, product, position,
@@ -696,7 +803,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
 
-        resourceStockService.removeResourceStock(product, warehouseFrom, quantity);
+        resourceStockLedger.removeResourceStock(product, warehouseFrom, quantity);
 
         for (Entity resource : resources) {
             BigDecimal resourceQuantity = resource.getDecimalField(QUANTITY);
@@ -727,7 +834,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.getDataDefinition().save(resource);
                 }
 
-                Entity newResource = createResource(position, warehouseTo, resource, resourceAvailableQuantity, date);
+                Entity newResource = createResource(position, warehouseTo, resource, resourceAvailableQuantity, date,
+                        resourceStockLedger);
 
                 if (BigDecimal.ZERO.compareTo(quantity) == 0) {
                     if (newResource.isValid()) {
@@ -753,7 +861,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
                 resource.getDataDefinition().save(resource);
 
-                Entity newResource = createResource(position, warehouseTo, resource, quantity, date);
+                Entity newResource = createResource(position, warehouseTo, resource, quantity, date, resourceStockLedger);
 
                 if (newResource.isValid()) {
                     return;
@@ -796,100 +904,11 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
 
             resources.add(resource);
-        } else if (WarehouseAlgorithm.FIFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductFIFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductLIFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductFEFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductLEFO(warehouse, product, additionalCode, position);
-        } else if (WarehouseAlgorithm.MANUAL.equals(warehouseAlgorithm)) {
-            resources = getResourcesForLocationAndProductMANUAL(warehouse, product, additionalCode, position);
-        }
-
-        return resources;
-    }
-
-    private List<Entity> getResourcesForLocationAndProductMANUAL(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
-
-        if (resource != null) {
-            return Lists.newArrayList(resource);
         } else {
-            return getResourcesForLocationAndProductFIFO(warehouse, product, additionalCode, position);
-        }
-    }
-
-    private List<Entity> getResourcesForLocationCommonCode(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position, SearchOrder... searchOrders) {
-        class SearchCriteriaHelper {
-
-            private List<Entity> getAll() {
-                return getAllThatSatisfies(null);
-            }
-
-            private List<Entity> getAllThatSatisfies(SearchCriterion searchCriterion) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(product, warehouse);
-
-                if (!StringUtils.isEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(PositionFields.CONVERSION,
-                            position.getDecimalField(PositionFields.CONVERSION)));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
-
-                Optional.ofNullable(searchCriterion).ifPresent(scb::add);
-
-                for (SearchOrder searchOrder : searchOrders) {
-                    scb.addOrder(searchOrder);
-                }
-
-                return scb.list().getEntities();
-            }
-        }
-
-        List<Entity> resources = Lists.newArrayList();
-
-        if (additionalCode != null) {
-            resources = new SearchCriteriaHelper()
-                    .getAllThatSatisfies(SearchRestrictions.belongsTo(ResourceFields.ADDITIONAL_CODE, additionalCode));
-
-            resources.addAll(new SearchCriteriaHelper()
-                    .getAllThatSatisfies(SearchRestrictions.or(SearchRestrictions.isNull(ResourceFields.ADDITIONAL_CODE),
-                            SearchRestrictions.ne("additionalCode.id", additionalCode.getId()))));
-        }
-
-        if (resources.isEmpty()) {
-            resources = new SearchCriteriaHelper().getAll();
+            resources = resourceAllocationService.getResources(warehouse, product, additionalCode, position, warehouseAlgorithm);
         }
 
         return resources;
     }
 
-    private List<Entity> getResourcesForLocationAndProductFIFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.asc(ResourceFields.TIME));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductLIFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.desc(ResourceFields.TIME));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductFEFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.asc(ResourceFields.EXPIRATION_DATE), SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
-    }
-
-    private List<Entity> getResourcesForLocationAndProductLEFO(final Entity warehouse, final Entity product,
-            final Entity additionalCode, final Entity position) {
-        return getResourcesForLocationCommonCode(warehouse, product, additionalCode, position,
-                SearchOrders.desc(ResourceFields.EXPIRATION_DATE), SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
-    }
-
 }
@@ -8,7 +8,9 @@ import org.hibernate.exception.LockAcquisitionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
@@ -48,17 +50,44 @@ public class ResourceReservationsService {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private ResourceAllocationIndex resourceAllocationIndex;
+
     private static final Logger logger = LoggerFactory.getLogger(ResourceReservationsService.class);
 
+    private static final String UPDATE_RESOURCE_QUANTITIES_QUERY = "UPDATE materialflowresources_resource "
+            + "SET reservedquantity = reservedquantity + :quantity_to_add, availablequantity = availablequantity - :quantity_to_add "
+            + "WHERE id = :resource_id";
+
     public void updateResourceQuantites(Map<String, Object> params, BigDecimal quantityToAdd) {
         if (params.get("resource_id") != null) {
             params.put("quantity_to_add", quantityToAdd);
-            String query = "UPDATE materialflowresources_resource SET reservedquantity = reservedquantity + :quantity_to_add, "
-                    + "availablequantity = availablequantity - :quantity_to_add WHERE id = :resource_id";
-            jdbcTemplate.update(query, params);
+            jdbcTemplate.update(UPDATE_RESOURCE_QUANTITIES_QUERY, params);
+
+            resourceAllocationIndex.invalidateResource(Long.valueOf(params.get("resource_id").toString()));
         }
     }
 
+    /**
+     * Reserves quantities of many resources with one batch update.
+     *
+     * @param quantitiesToAdd
+     *            reserved quantities to add by resource id
+     */
+    public void updateResourceQuantities(final Map<Long, BigDecimal> quantitiesToAdd) {
+        if (quantitiesToAdd.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = quantitiesToAdd.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .map(entry -> new MapSqlParameterSource().addValue("resource_id", entry.getKey()).addValue("quantity_to_add",
+                        entry.getValue())).toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(UPDATE_RESOURCE_QUANTITIES_QUERY, batchParams);
+
+        quantitiesToAdd.keySet().forEach(resourceAllocationIndex::invalidateResource);
+    }
+
     public void updateResourceQuantites(Entity position, BigDecimal quantityToAdd) {
         Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
         if (resource != null) {
@@ -0,0 +1,91 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Compares materialflowresources_resourcestock with quantities computed from materialflowresources_resource and
+ * materialflowresources_reservation, and rebuilds it when needed.
+ */
+@Service
+public class ResourceStockConsistencyService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceStockConsistencyService.class);
+
+    private static final String EXPECTED_RESOURCE_STOCK_QUERY = "SELECT resource.location_id, resource.product_id, "
+            + "SUM(resource.quantity) AS quantity, "
+            + "CASE WHEN SUM(resource.quantity) = 0 THEN 0 ELSE COALESCE(MAX(reservation.quantity), 0) END AS reservedquantity "
+            + "FROM materialflowresources_resource resource "
+            + "LEFT JOIN (SELECT location_id, product_id, SUM(quantity) AS quantity FROM materialflowresources_reservation "
+            + "GROUP BY location_id, product_id) reservation "
+            + "ON reservation.location_id = resource.location_id AND reservation.product_id = resource.product_id "
+            + "GROUP BY resource.location_id, resource.product_id";
+
+    private static final String INCONSISTENT_RESOURCE_STOCKS_QUERY = "SELECT COALESCE(stock.location_id, expected.location_id) AS location_id, "
+            + "COALESCE(stock.product_id, expected.product_id) AS product_id, "
+            + "COALESCE(stock.quantity, 0) AS quantity, COALESCE(expected.quantity, 0) AS expectedquantity, "
+            + "COALESCE(stock.reservedquantity, 0) AS reservedquantity, "
+            + "COALESCE(expected.reservedquantity, 0) AS expectedreservedquantity "
+            + "FROM materialflowresources_resourcestock stock FULL OUTER JOIN (" + EXPECTED_RESOURCE_STOCK_QUERY + ") expected "
+            + "ON expected.location_id = stock.location_id AND expected.product_id = stock.product_id "
+            + "WHERE COALESCE(stock.quantity, 0) <> COALESCE(expected.quantity, 0) "
+            + "OR COALESCE(stock.reservedquantity, 0) <> COALESCE(expected.reservedquantity, 0) "
+            + "OR COALESCE(stock.availablequantity, 0) <> COALESCE(expected.quantity, 0) - COALESCE(expected.reservedquantity, 0)";
+
+    private static final String REBUILD_EXISTING_RESOURCE_STOCKS_QUERY = "UPDATE materialflowresources_resourcestock stock SET "
+            + "quantity = COALESCE(expected.quantity, 0), reservedquantity = COALESCE(expected.reservedquantity, 0), "
+            + "availablequantity = COALESCE(expected.quantity, 0) - COALESCE(expected.reservedquantity, 0) "
+            + "FROM materialflowresources_resourcestock current LEFT JOIN (" + EXPECTED_RESOURCE_STOCK_QUERY + ") expected "
+            + "ON expected.location_id = current.location_id AND expected.product_id = current.product_id "
+            + "WHERE current.id = stock.id";
+
+    private static final String REBUILD_MISSING_RESOURCE_STOCKS_QUERY = "INSERT INTO materialflowresources_resourcestock "
+            + "(location_id, product_id, quantity, reservedquantity, availablequantity) "
+            + "SELECT expected.location_id, expected.product_id, expected.quantity, expected.reservedquantity, "
+            + "expected.quantity - expected.reservedquantity FROM (" + EXPECTED_RESOURCE_STOCK_QUERY + ") expected "
+            + "WHERE NOT EXISTS (SELECT 1 FROM materialflowresources_resourcestock stock "
+            + "WHERE stock.location_id = expected.location_id AND stock.product_id = expected.product_id)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Finds resource stocks, which differ from quantities computed from resources and reservations.
+     *
+     * @return rows with location_id, product_id, quantity, expectedquantity, reservedquantity and expectedreservedquantity
+     */
+    public List<Map<String, Object>> findInconsistentResourceStocks() {
+        return jdbcTemplate.queryForList(INCONSISTENT_RESOURCE_STOCKS_QUERY, Maps.newHashMap());
+    }
+
+    public boolean isResourceStockConsistent() {
+        return findInconsistentResourceStocks().isEmpty();
+    }
+
+    /**
+     * Rebuilds materialflowresources_resourcestock from materialflowresources_resource and materialflowresources_reservation.
+     *
+     * @return number of rebuilt resource stocks
+     */
+    @Transactional
+    public int rebuildResourceStocks() {
+        jdbcTemplate.getJdbcOperations().execute("LOCK TABLE materialflowresources_resourcestock IN EXCLUSIVE MODE");
+
+        int updated = jdbcTemplate.update(REBUILD_EXISTING_RESOURCE_STOCKS_QUERY, Maps.newHashMap());
+        int inserted = jdbcTemplate.update(REBUILD_MISSING_RESOURCE_STOCKS_QUERY, Maps.newHashMap());
+
+        LOG.info("Resource stocks rebuilt: updated = " + updated + ", inserted = " + inserted);
+
+        return updated + inserted;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Collects resource stock changes of a single document, so they can be applied at once by
+ * {@link ResourceStockService#applyResourceStockLedger(ResourceStockLedger)}.
+ *
+ * Deltas are aggregated per (product, location), positive values are receipts, negative values are releases.
+ */
+public class ResourceStockLedger {
+
+    private final Map<Key, BigDecimal> deltas = Maps.newLinkedHashMap();
+
+    public void addResourceStock(final Entity resource) {
+        addResourceStock(resource.getBelongsToField(ResourceFields.PRODUCT), resource.getBelongsToField(ResourceFields.LOCATION),
+                resource.getDecimalField(ResourceFields.QUANTITY));
+    }
+
+    public void addResourceStock(final Entity product, final Entity location, final BigDecimal quantity) {
+        registerDelta(product, location, quantity);
+    }
+
+    public void removeResourceStock(final Entity product, final Entity location, final BigDecimal quantity) {
+        if (quantity != null) {
+            registerDelta(product, location, quantity.negate());
+        }
+    }
+
+    private void registerDelta(final Entity product, final Entity location, final BigDecimal quantity) {
+        if (quantity == null || quantity.signum() == 0) {
+            return;
+        }
+
+        deltas.merge(new Key(product.getId(), location.getId()), quantity, BigDecimal::add);
+    }
+
+    public Map<Key, BigDecimal> getDeltas() {
+        return Collections.unmodifiableMap(deltas);
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty();
+    }
+
+    public void clear() {
+        deltas.clear();
+    }
+
+    public static final class Key {
+
+        private final Long productId;
+
+        private final Long locationId;
+
+        public Key(final Long productId, final Long locationId) {
+            this.productId = productId;
+            this.locationId = locationId;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public Long getLocationId() {
+            return locationId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return Objects.equals(productId, other.productId) && Objects.equals(locationId, other.locationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productId, locationId);
+        }
+
+    }
+
+}
@@ -16,6 +16,14 @@ public interface ResourceStockService {
 
     void removeResourceStock(final Entity product, final Entity location, final BigDecimal quantity);
 
+    /**
+     * Applies all deltas collected in ledger using one batched, set-based update per (product, location).
+     *
+     * @param resourceStockLedger
+     *            ledger with resource stock deltas of a document
+     */
+    void applyResourceStockLedger(final ResourceStockLedger resourceStockLedger);
+
     Optional<Entity> getResourceStockForProductAndLocation(final Entity product, final Entity location);
 
     void updateResourceStock(Map<String, Object> params, BigDecimal quantityToAdd);
@@ -23,4 +31,13 @@ public interface ResourceStockService {
     void updateResourceStock(Entity position, BigDecimal quantityToAdd);
 
     void updateResourceStock(Entity product, Entity location, BigDecimal quantityToAdd);
+
+    /**
+     * Reserves quantities of many products in locations with one batch update, like
+     * {@link #updateResourceStock(Entity, Entity, BigDecimal)} does for single product.
+     *
+     * @param quantitiesToAdd
+     *            reserved quantities to add by product and location
+     */
+    void updateResourceStocks(Map<ResourceStockLedger.Key, BigDecimal> quantitiesToAdd);
 }
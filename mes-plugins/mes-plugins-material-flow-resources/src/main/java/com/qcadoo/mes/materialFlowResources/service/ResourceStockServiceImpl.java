@@ -1,12 +1,18 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
@@ -21,6 +27,34 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 @Service
 public class ResourceStockServiceImpl implements ResourceStockService {
 
+    private static final String L_PRODUCT_ID = "product_id";
+
+    private static final String L_LOCATION_ID = "location_id";
+
+    private static final String L_DELTA = "delta";
+
+    private static final String L_QUANTITY_TO_ADD = "quantity_to_add";
+
+    private static final String UPDATE_RESOURCE_STOCK_QUERY = "UPDATE materialflowresources_resourcestock SET "
+            + "availablequantity = CASE WHEN COALESCE(quantity, 0) + :delta <= 0 THEN 0 "
+            + "ELSE COALESCE(availablequantity, 0) + :delta END, "
+            + "quantity = GREATEST(COALESCE(quantity, 0) + :delta, 0) "
+            + "WHERE product_id = :product_id AND location_id = :location_id";
+
+    // ids are bigints, so the pair is hashed into one key instead of being cast to the two integer keys
+    private static final String LOCK_RESOURCE_STOCK_QUERY = "SELECT pg_advisory_xact_lock(hashtext('resourcestock_' "
+            + "|| CAST(:location_id AS varchar) || '_' || CAST(:product_id AS varchar)))";
+
+    private static final String INSERT_RESOURCE_STOCK_QUERY = "INSERT INTO materialflowresources_resourcestock "
+            + "(location_id, product_id, quantity, reservedquantity, availablequantity) "
+            + "SELECT :location_id, :product_id, :delta, 0, :delta WHERE NOT EXISTS "
+            + "(SELECT 1 FROM materialflowresources_resourcestock WHERE product_id = :product_id AND location_id = :location_id)";
+
+    private static final String UPDATE_RESERVED_QUANTITY_QUERY = "UPDATE materialflowresources_resourcestock SET "
+            + "reservedquantity = CASE WHEN quantity = 0 THEN 0 ELSE reservedquantity + :quantity_to_add END, "
+            + "availablequantity = CASE WHEN quantity = 0 THEN 0 ELSE availablequantity - :quantity_to_add END "
+            + "WHERE product_id = :product_id AND location_id = :location_id";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -29,84 +63,92 @@ public class ResourceStockServiceImpl implements ResourceStockService {
 
     @Override
     public void addResourceStock(final Entity resource) {
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
 
-        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
-        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
-        BigDecimal quantity = resource.getDecimalField(ResourceFields.QUANTITY);
-        addResourceStock(product, location, quantity);
+        resourceStockLedger.addResourceStock(resource);
 
+        applyResourceStockLedger(resourceStockLedger);
     }
 
     @Override
-    public void addResourceStock(Entity product, Entity location, BigDecimal quantity) {
-        Entity resourceStock;
-        Optional<Entity> maybeStock = getResourceStockForProductAndLocation(product, location);
-        if (maybeStock.isPresent()) {
-            resourceStock = maybeStock.get();
-            BigDecimal oldQuantity = Optional.ofNullable(resourceStock.getDecimalField(ResourceStockFields.QUANTITY)).orElse(
-                    BigDecimal.ZERO);
-            BigDecimal oldAvailableQuantity = Optional.ofNullable(
-                    resourceStock.getDecimalField(ResourceStockFields.AVAILABLE_QUANTITY)).orElse(BigDecimal.ZERO);
-            resourceStock.setField(ResourceStockFields.QUANTITY, oldQuantity.add(quantity));
-            resourceStock.setField(ResourceStockFields.AVAILABLE_QUANTITY, oldAvailableQuantity.add(quantity));
-        } else {
-            resourceStock = createResourceStock(product, location, quantity);
-        }
-        getResourceStockDataDefinition().save(resourceStock);
+    public void addResourceStock(final Entity product, final Entity location, final BigDecimal quantity) {
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        resourceStockLedger.addResourceStock(product, location, quantity);
+
+        applyResourceStockLedger(resourceStockLedger);
     }
 
     @Override
-    public void removeResourceStock(Entity resource) {
-        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
-        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
-        BigDecimal quantity = resource.getDecimalField(ResourceFields.QUANTITY);
-        removeResourceStock(product, location, quantity);
+    public void removeResourceStock(final Entity resource) {
+        removeResourceStock(resource.getBelongsToField(ResourceFields.PRODUCT),
+                resource.getBelongsToField(ResourceFields.LOCATION), resource.getDecimalField(ResourceFields.QUANTITY));
+    }
+
+    @Override
+    public void removeResourceStock(final Entity product, final Entity location, final BigDecimal quantity) {
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        resourceStockLedger.removeResourceStock(product, location, quantity);
+
+        applyResourceStockLedger(resourceStockLedger);
     }
 
     @Override
-    public void removeResourceStock(Entity product, Entity location, BigDecimal quantity) {
-        Optional<Entity> maybeStock = getResourceStockForProductAndLocation(product, location);
-        if (maybeStock.isPresent()) {
-            Entity resourceStock = maybeStock.get();
-            BigDecimal oldQuantity = resourceStock.getDecimalField(ResourceStockFields.QUANTITY);
-            BigDecimal oldAvailableQuantity = resourceStock.getDecimalField(ResourceStockFields.AVAILABLE_QUANTITY);
-            BigDecimal newQuantity = oldQuantity.subtract(quantity);
-            BigDecimal newAvailableQuantity = oldAvailableQuantity.subtract(quantity);
-            if (newQuantity.compareTo(BigDecimal.ZERO) <= 0) {
-                newQuantity = BigDecimal.ZERO;
-                newAvailableQuantity = BigDecimal.ZERO;
+    @Transactional
+    public void applyResourceStockLedger(final ResourceStockLedger resourceStockLedger) {
+        if (resourceStockLedger.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<ResourceStockLedger.Key, BigDecimal>> deltas = resourceStockLedger.getDeltas().entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<ResourceStockLedger.Key, BigDecimal> entry) -> entry.getKey()
+                        .getLocationId()).thenComparing(entry -> entry.getKey().getProductId()))
+                .collect(Collectors.toList());
+
+        SqlParameterSource[] batchParams = deltas.stream().map(this::createDeltaParams).toArray(SqlParameterSource[]::new);
+
+        int[] updatedRows = jdbcTemplate.batchUpdate(UPDATE_RESOURCE_STOCK_QUERY, batchParams);
+
+        for (int index = 0; index < updatedRows.length; index++) {
+            BigDecimal delta = deltas.get(index).getValue();
+
+            if (updatedRows[index] == 0 && delta.signum() > 0) {
+                insertResourceStock(batchParams[index]);
             }
-            resourceStock.setField(ResourceStockFields.QUANTITY, newQuantity);
-            resourceStock.setField(ResourceStockFields.AVAILABLE_QUANTITY, newAvailableQuantity);
-            getResourceStockDataDefinition().save(resourceStock);
+        }
+
+        resourceStockLedger.clear();
+    }
+
+    private void insertResourceStock(final SqlParameterSource params) {
+        jdbcTemplate.queryForList(LOCK_RESOURCE_STOCK_QUERY, params);
+
+        if (jdbcTemplate.update(INSERT_RESOURCE_STOCK_QUERY, params) == 0) {
+            jdbcTemplate.update(UPDATE_RESOURCE_STOCK_QUERY, params);
         }
     }
 
+    private SqlParameterSource createDeltaParams(final Map.Entry<ResourceStockLedger.Key, BigDecimal> delta) {
+        return new MapSqlParameterSource().addValue(L_PRODUCT_ID, delta.getKey().getProductId())
+                .addValue(L_LOCATION_ID, delta.getKey().getLocationId()).addValue(L_DELTA, delta.getValue());
+    }
+
     @Override
-    public Optional<Entity> getResourceStockForProductAndLocation(Entity product, Entity location) {
+    public Optional<Entity> getResourceStockForProductAndLocation(final Entity product, final Entity location) {
         Entity existingResourceStock = getResourceStockDataDefinition().find()
                 .add(SearchRestrictions.belongsTo(ResourceStockFields.LOCATION, location))
                 .add(SearchRestrictions.belongsTo(ResourceStockFields.PRODUCT, product)).setMaxResults(1).uniqueResult();
         return Optional.ofNullable(existingResourceStock);
     }
 
-    private Entity createResourceStock(final Entity product, final Entity location, final BigDecimal quantity) {
-        Entity stock = getResourceStockDataDefinition().create();
-        stock.setField(ResourceStockFields.LOCATION, location);
-        stock.setField(ResourceStockFields.PRODUCT, product);
-        stock.setField(ResourceStockFields.QUANTITY, quantity);
-        stock.setField(ResourceStockFields.AVAILABLE_QUANTITY, quantity);
-        stock.setField(ResourceStockFields.RESERVED_QUANTITY, BigDecimal.ZERO);
-        return stock;
-    }
-
     private DataDefinition getResourceStockDataDefinition() {
         return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE_STOCK);
     }
 
     public void updateResourceStock(Map<String, Object> params, BigDecimal quantityToAdd) {
-        params.put("quantity_to_add", quantityToAdd);
+        params.put(L_QUANTITY_TO_ADD, quantityToAdd);
         String query = "UPDATE materialflowresources_resourcestock SET reservedquantity = reservedquantity + :quantity_to_add, "
                 + "availablequantity = availablequantity - :quantity_to_add WHERE product_id = :product_id AND "
                 + "location_id = (SELECT locationfrom_id FROM materialflowresources_document WHERE id=:document_id)";
@@ -120,23 +162,30 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     }
 
     public void updateResourceStock(Entity product, Entity location, BigDecimal quantityToAdd) {
-        Optional<Entity> maybeResourceStock = getResourceStockForProductAndLocation(product, location);
-        if (maybeResourceStock.isPresent()) {
-            Entity resourceStock = maybeResourceStock.get();
-            BigDecimal reservedQuantity = resourceStock.getDecimalField(ResourceStockFields.RESERVED_QUANTITY);
-            BigDecimal availableQuantity = resourceStock.getDecimalField(ResourceStockFields.AVAILABLE_QUANTITY);
-            BigDecimal quantity = resourceStock.getDecimalField(ResourceStockFields.QUANTITY);
-            if (quantity.compareTo(BigDecimal.ZERO) == 0) {
-                reservedQuantity = BigDecimal.ZERO;
-                availableQuantity = BigDecimal.ZERO;
-            } else {
-                availableQuantity = availableQuantity.subtract(quantityToAdd);
-                reservedQuantity = reservedQuantity.add(quantityToAdd);
-            }
-            resourceStock.setField(ResourceStockFields.AVAILABLE_QUANTITY, availableQuantity);
-            resourceStock.setField(ResourceStockFields.RESERVED_QUANTITY, reservedQuantity);
-            resourceStock.getDataDefinition().save(resourceStock);
+        if (product == null || location == null || quantityToAdd == null) {
+            return;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue(L_PRODUCT_ID, product.getId())
+                .addValue(L_LOCATION_ID, location.getId()).addValue(L_QUANTITY_TO_ADD, quantityToAdd);
+
+        jdbcTemplate.update(UPDATE_RESERVED_QUANTITY_QUERY, params);
+    }
+
+    @Override
+    public void updateResourceStocks(final Map<ResourceStockLedger.Key, BigDecimal> quantitiesToAdd) {
+        if (quantitiesToAdd.isEmpty()) {
+            return;
         }
 
+        SqlParameterSource[] batchParams = quantitiesToAdd.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<ResourceStockLedger.Key, BigDecimal> entry) -> entry.getKey()
+                        .getLocationId()).thenComparing(entry -> entry.getKey().getProductId()))
+                .map(entry -> new MapSqlParameterSource().addValue(L_PRODUCT_ID, entry.getKey().getProductId())
+                        .addValue(L_LOCATION_ID, entry.getKey().getLocationId())
+                        .addValue(L_QUANTITY_TO_ADD, entry.getValue())).toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(UPDATE_RESERVED_QUANTITY_QUERY, batchParams);
     }
+
 }
@@ -499,7 +499,7 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                             autoCompleteResult = false;
                             response([{
                                     id: 0,
-                                    code: QCD.translate('documentGrid.autocomplete.tooManyResults') + ' (' + data.numberOfResults + ')'
+                                    code: QCD.translate('documentGrid.autocomplete.tooManyResults') + ' (> ' + data.numberOfResults + ')'
                                 }]);
                         } else {
                             autoCompleteResult = true;
@@ -1728,6 +1728,41 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                 $.cookie("jqgrid_conf", JSON.stringify({
                     rowNum: $(this).getGridParam("rowNum")
                 }));
+
+                // next page is sought after the last row of previous page, other pages are loaded with offset
+                var grid = $(this);
+                var keyset = grid.data('keyset');
+                var postData = grid.getGridParam('postData');
+
+                if (keyset && keyset.sortname === grid.getGridParam('sortname') && keyset.sortorder === grid.getGridParam('sortorder')
+                        && keyset.rowNum === grid.getGridParam('rowNum') && keyset.lastPage === grid.getGridParam('page') - 1) {
+                    postData.lastPage = keyset.lastPage;
+                    postData.lastId = keyset.lastId;
+                    postData.lastValue = keyset.lastValue;
+                } else {
+                    delete postData.lastPage;
+                    delete postData.lastId;
+                    delete postData.lastValue;
+                }
+            },
+            loadComplete: function (data) {
+                var grid = $(this);
+                var rows = data && data.rows ? data.rows : [];
+
+                if (rows.length > 0) {
+                    var lastRow = rows[rows.length - 1];
+
+                    grid.data('keyset', {
+                        sortname: grid.getGridParam('sortname'),
+                        sortorder: grid.getGridParam('sortorder'),
+                        rowNum: grid.getGridParam('rowNum'),
+                        lastPage: grid.getGridParam('page'),
+                        lastId: lastRow.id,
+                        lastValue: lastRow[grid.getGridParam('sortname')]
+                    });
+                } else {
+                    grid.removeData('keyset');
+                }
             },
             ajaxRowOptions: {
                 contentType: "application/json"
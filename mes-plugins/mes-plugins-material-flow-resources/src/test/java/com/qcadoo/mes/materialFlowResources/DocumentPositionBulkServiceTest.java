@@ -0,0 +1,256 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.BasicException;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
+import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
+
+public class DocumentPositionBulkServiceTest {
+
+    private static final Long L_DOCUMENT_ID = 10L;
+
+    private static final Long L_LOCATION_ID = 20L;
+
+    private static final Long L_PRODUCT_ID = 30L;
+
+    private DocumentPositionBulkService documentPositionBulkService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DocumentPositionValidator validator;
+
+    @Mock
+    private DocumentPositionService documentPositionService;
+
+    @Mock
+    private ReservationsService reservationsService;
+
+    @Mock
+    private DocumentPositionLookups lookups;
+
+    @Mock
+    private DocumentDTO document;
+
+    private DocumentPositionDTO first, second;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        documentPositionBulkService = new DocumentPositionBulkService();
+
+        ReflectionTestUtils.setField(documentPositionBulkService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(documentPositionBulkService, "validator", validator);
+        ReflectionTestUtils.setField(documentPositionBulkService, "documentPositionService", documentPositionService);
+        ReflectionTestUtils.setField(documentPositionBulkService, "reservationsService", reservationsService);
+
+        first = new DocumentPositionDTO();
+        first.setDocument(L_DOCUMENT_ID);
+        second = new DocumentPositionDTO();
+        second.setDocument(L_DOCUMENT_ID);
+
+        given(validator.loadLookups(any())).willReturn(lookups);
+        given(lookups.getDocument(L_DOCUMENT_ID)).willReturn(document);
+        given(lookups.isDraftMakesReservation()).willReturn(true);
+        given(document.getType()).willReturn(DocumentType.RELEASE.getStringValue());
+        given(document.getInBuffer()).willReturn(false);
+        given(document.getLocationFrom_id()).willReturn(L_LOCATION_ID);
+    }
+
+    @Test
+    public void shouldNotWriteAnythingWhenAggregatedDemandExceedsAvailableQuantity() {
+        // given
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params(new BigDecimal(6)));
+        given(validator.validateAndTryMapBeforeBulkCreate(second, lookups)).willReturn(params(new BigDecimal(5)));
+
+        mockAvailableQuantity(BigDecimal.TEN);
+
+        // when
+        List<DocumentPositionBulkResult> results = documentPositionBulkService.create(Lists.newArrayList(first, second));
+
+        // then
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).hasErrors());
+        assertTrue(results.get(1).hasErrors());
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        verify(reservationsService, never()).createReservationsFromDocumentPositions(anyList());
+        verify(documentPositionService, never()).updateDocumentPositionsNumbers(any(Long.class));
+    }
+
+    @Test
+    public void shouldLockResourceStocksBeforeCheckingAvailableQuantity() {
+        // given
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params(BigDecimal.ONE));
+
+        mockAvailableQuantity(BigDecimal.TEN);
+
+        // when
+        documentPositionBulkService.create(Lists.newArrayList(first));
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).query(queryCaptor.capture(), anyMap(), any(RowCallbackHandler.class));
+
+        assertTrue(queryCaptor.getValue().endsWith("FOR UPDATE"));
+    }
+
+    @Test
+    public void shouldReportMissingDocumentWithoutCallingValidator() {
+        // given
+        DocumentPositionDTO withoutDocument = new DocumentPositionDTO();
+        DocumentPositionDTO withUnknownDocument = new DocumentPositionDTO();
+
+        withUnknownDocument.setDocument(99L);
+
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params(BigDecimal.ONE));
+
+        // when
+        List<DocumentPositionBulkResult> results = documentPositionBulkService.create(Lists.newArrayList(first,
+                withoutDocument, withUnknownDocument, null));
+
+        // then
+        assertFalse(results.get(0).hasErrors());
+        assertEquals(Lists.newArrayList("documentGrid.required.documentPosition.document"), results.get(1).getErrors());
+        assertEquals(Lists.newArrayList("documentGrid.required.documentPosition.document"), results.get(2).getErrors());
+        assertEquals(Lists.newArrayList("documentGrid.required.documentPosition"), results.get(3).getErrors());
+
+        verify(validator, times(1)).validateAndTryMapBeforeBulkCreate(any(DocumentPositionDTO.class), eq(lookups));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldReportErrorsOfInvalidPositionOnly() {
+        // given
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params(BigDecimal.ONE));
+        given(validator.validateAndTryMapBeforeBulkCreate(second, lookups)).willThrow(
+                new BasicException("first error\nsecond error"));
+
+        mockAvailableQuantity(BigDecimal.TEN);
+
+        // when
+        List<DocumentPositionBulkResult> results = documentPositionBulkService.create(Lists.newArrayList(first, second));
+
+        // then
+        assertFalse(results.get(0).hasErrors());
+        assertEquals(Lists.newArrayList("first error", "second error"), results.get(1).getErrors());
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldBatchInsertPositionsAndReservations() {
+        // given
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params(new BigDecimal(4)));
+        given(validator.validateAndTryMapBeforeBulkCreate(second, lookups)).willReturn(params(new BigDecimal(5)));
+        given(jdbcTemplate.queryForList(startsWith("SELECT nextval"), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(101L, 102L));
+
+        mockAvailableQuantity(BigDecimal.TEN);
+
+        // when
+        List<DocumentPositionBulkResult> results = documentPositionBulkService.create(Lists.newArrayList(first, second));
+
+        // then
+        assertEquals(Long.valueOf(101L), results.get(0).getId());
+        assertEquals(Long.valueOf(102L), results.get(1).getId());
+
+        ArgumentCaptor<List> reservations = ArgumentCaptor.forClass(List.class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO materialflowresources_position"), any(SqlParameterSource[].class));
+        verify(reservationsService).createReservationsFromDocumentPositions(reservations.capture());
+        verify(documentPositionService, times(1)).updateDocumentPositionsNumbers(L_DOCUMENT_ID);
+
+        assertEquals(2, reservations.getValue().size());
+        assertEquals(101L, ((Map<String, Object>) reservations.getValue().get(0)).get("id"));
+        assertEquals(L_LOCATION_ID, ((Map<String, Object>) reservations.getValue().get(0)).get("location_id"));
+    }
+
+    @Test
+    public void shouldIgnoreIdsSentByClient() {
+        // given
+        Map<String, Object> params = params(BigDecimal.ONE);
+
+        params.put("id", 5L);
+
+        given(validator.validateAndTryMapBeforeBulkCreate(first, lookups)).willReturn(params);
+        given(jdbcTemplate.queryForList(startsWith("SELECT nextval"), anyMap(), eq(Long.class))).willReturn(
+                Lists.newArrayList(101L));
+
+        mockAvailableQuantity(BigDecimal.TEN);
+
+        // when
+        List<DocumentPositionBulkResult> results = documentPositionBulkService.create(Lists.newArrayList(first));
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> inserts = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO materialflowresources_position"), inserts.capture());
+
+        assertEquals(Long.valueOf(101L), results.get(0).getId());
+        assertEquals(101L, inserts.getValue()[0].getValue("id"));
+    }
+
+    private Map<String, Object> params(final BigDecimal quantity) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("id", null);
+        params.put("product_id", L_PRODUCT_ID);
+        params.put("resource_id", null);
+        params.put("document_id", L_DOCUMENT_ID);
+        params.put("quantity", quantity);
+
+        return params;
+    }
+
+    private void mockAvailableQuantity(final BigDecimal availableQuantity) {
+        willAnswer(invocation -> {
+            ResultSet rs = mock(ResultSet.class);
+
+            given(rs.getLong("location_id")).willReturn(L_LOCATION_ID);
+            given(rs.getLong("product_id")).willReturn(L_PRODUCT_ID);
+            given(rs.getBigDecimal("availablequantity")).willReturn(availableQuantity);
+
+            ((RowCallbackHandler) invocation.getArguments()[2]).processRow(rs);
+
+            return null;
+        }).given(jdbcTemplate).query(startsWith("SELECT location_id, product_id, availablequantity"), anyMap(),
+                any(RowCallbackHandler.class));
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.qcadoo.mes.materialFlowResources.hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.materialFlow.constants.UserFieldsMF;
+import com.qcadoo.mes.materialFlow.constants.UserLocationFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.service.DraftDocumentsNotificationService;
+import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
+import com.qcadoo.mes.materialFlowResources.validators.DocumentValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.security.constants.QcadooSecurityConstants;
+
+public class DocumentModelHooksTest {
+
+    private static final Long L_DOCUMENT_ID = 1L;
+
+    private static final Long L_USER_WITHOUT_LOCATIONS_ID = 11L;
+
+    private static final Long L_USER_OF_WAREHOUSE_B_ID = 12L;
+
+    private static final Long L_USER_OF_WAREHOUSE_C_ID = 13L;
+
+    private DocumentModelHooks documentModelHooks;
+
+    private DraftDocumentsNotificationService draftDocumentsNotificationService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition documentDD, userDD;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity warehouseA, warehouseB, warehouseC;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        draftDocumentsNotificationService = new DraftDocumentsNotificationService(mock(SecurityService.class),
+                dataDefinitionService, jdbcTemplate);
+
+        documentModelHooks = new DocumentModelHooks();
+
+        ReflectionTestUtils.setField(documentModelHooks, "translationService", mock(TranslationService.class));
+        ReflectionTestUtils.setField(documentModelHooks, "documentValidators", mock(DocumentValidators.class));
+        ReflectionTestUtils.setField(documentModelHooks, "reservationsService", mock(ReservationsService.class));
+        ReflectionTestUtils.setField(documentModelHooks, "draftDocumentsNotificationService", draftDocumentsNotificationService);
+
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_DOCUMENT)).willReturn(documentDD);
+        given(dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER, QcadooSecurityConstants.MODEL_USER))
+                .willReturn(userDD);
+
+        given(warehouseA.getId()).willReturn(101L);
+        given(warehouseB.getId()).willReturn(102L);
+        given(warehouseC.getId()).willReturn(103L);
+
+        mockUser(L_USER_WITHOUT_LOCATIONS_ID);
+        mockUser(L_USER_OF_WAREHOUSE_B_ID, warehouseB);
+        mockUser(L_USER_OF_WAREHOUSE_C_ID, warehouseC);
+
+        // no draft documents in the database
+        draftDocumentsNotificationService.reloadCounts();
+    }
+
+    @Test
+    public void shouldCountCreatedDraftDocumentWithoutReadingIt() {
+        // given
+        Entity document = mockDocument(null, DocumentState.DRAFT, warehouseA, warehouseB);
+
+        // when
+        documentModelHooks.onSave(documentDD, document);
+
+        // then
+        verify(documentDD, never()).get(anyLong());
+
+        assertEquals(1, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+        assertEquals(1, countDraftDocuments(L_USER_OF_WAREHOUSE_B_ID));
+        assertEquals(0, countDraftDocuments(L_USER_OF_WAREHOUSE_C_ID));
+    }
+
+    @Test
+    public void shouldNotCountCreatedAcceptedDocument() {
+        // given
+        Entity document = mockDocument(null, DocumentState.ACCEPTED, warehouseA, warehouseB);
+
+        // when
+        documentModelHooks.onSave(documentDD, document);
+
+        // then
+        assertEquals(0, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+    }
+
+    @Test
+    public void shouldUncountDraftDocumentWhenItIsAccepted() {
+        // given
+        documentModelHooks.onSave(documentDD, mockDocument(null, DocumentState.DRAFT, warehouseA, warehouseB));
+
+        Entity documentDB = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseB);
+        Entity document = mockDocument(L_DOCUMENT_ID, DocumentState.ACCEPTED, warehouseA, warehouseB);
+
+        given(documentDD.get(L_DOCUMENT_ID)).willReturn(documentDB);
+
+        // when
+        documentModelHooks.onSave(documentDD, document);
+
+        // then
+        assertEquals(0, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+        assertEquals(0, countDraftDocuments(L_USER_OF_WAREHOUSE_B_ID));
+    }
+
+    @Test
+    public void shouldNotCountDraftDocumentTwiceWhenItIsSavedAgain() {
+        // given
+        documentModelHooks.onSave(documentDD, mockDocument(null, DocumentState.DRAFT, warehouseA, warehouseB));
+
+        Entity documentDB = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseB);
+        Entity document = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseB);
+
+        given(documentDD.get(L_DOCUMENT_ID)).willReturn(documentDB);
+
+        // when
+        documentModelHooks.onSave(documentDD, document);
+
+        // then
+        assertEquals(1, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+    }
+
+    @Test
+    public void shouldUncountDeletedDraftDocument() {
+        // given
+        Entity document = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseB);
+
+        documentModelHooks.onSave(documentDD, mockDocument(null, DocumentState.DRAFT, warehouseA, warehouseB));
+
+        // when
+        documentModelHooks.onDelete(documentDD, document);
+
+        // then
+        assertEquals(0, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+    }
+
+    @Test
+    public void shouldMoveDraftDocumentToNewLocationReadingItOnce() {
+        // given
+        documentModelHooks.onSave(documentDD, mockDocument(null, DocumentState.DRAFT, warehouseA, warehouseB));
+
+        Entity documentDB = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseB);
+        Entity document = mockDocument(L_DOCUMENT_ID, DocumentState.DRAFT, warehouseA, warehouseC);
+
+        given(documentDD.get(L_DOCUMENT_ID)).willReturn(documentDB);
+        given(document.getBooleanField(DocumentFields.IN_BUFFER)).willReturn(true);
+        given(document.getStringField(DocumentFields.TYPE)).willReturn(DocumentType.RECEIPT.getStringValue());
+        given(document.getHasManyField(DocumentFields.POSITIONS)).willReturn(mock(EntityList.class));
+
+        // when
+        documentModelHooks.onSave(documentDD, document);
+
+        // then
+        verify(documentDD, times(1)).get(L_DOCUMENT_ID);
+        verify(document).getHasManyField(DocumentFields.POSITIONS);
+
+        assertEquals(1, countDraftDocuments(L_USER_WITHOUT_LOCATIONS_ID));
+        assertEquals(0, countDraftDocuments(L_USER_OF_WAREHOUSE_B_ID));
+        assertEquals(1, countDraftDocuments(L_USER_OF_WAREHOUSE_C_ID));
+    }
+
+    private int countDraftDocuments(final Long userId) {
+        Integer count = ReflectionTestUtils.invokeMethod(draftDocumentsNotificationService, "countDraftDocumentsForUser", userId);
+
+        return count;
+    }
+
+    private Entity mockDocument(final Long id, final DocumentState state, final Entity locationFrom, final Entity locationTo) {
+        Entity document = mock(Entity.class);
+
+        given(document.getId()).willReturn(id);
+        given(document.getStringField(DocumentFields.STATE)).willReturn(state.getStringValue());
+        given(document.getField(DocumentFields.ACTIVE)).willReturn(true);
+        given(document.getBelongsToField(DocumentFields.LOCATION_FROM)).willReturn(locationFrom);
+        given(document.getBelongsToField(DocumentFields.LOCATION_TO)).willReturn(locationTo);
+
+        return document;
+    }
+
+    private void mockUser(final Long userId, final Entity... locations) {
+        Entity user = mock(Entity.class);
+        EntityList userLocations = mock(EntityList.class);
+
+        List<Entity> userLocationEntities = Stream.of(locations).map(this::mockUserLocation).collect(Collectors.toList());
+
+        given(userDD.get(userId)).willReturn(user);
+        given(user.getHasManyField(UserFieldsMF.USER_LOCATIONS)).willReturn(userLocations);
+        given(userLocations.isEmpty()).willReturn(userLocationEntities.isEmpty());
+        given(userLocations.stream()).willAnswer(invocation -> userLocationEntities.stream());
+    }
+
+    private Entity mockUserLocation(final Entity location) {
+        Entity userLocation = mock(Entity.class);
+
+        given(userLocation.getBelongsToField(UserLocationFields.LOCATION)).willReturn(location);
+
+        return userLocation;
+    }
+
+}
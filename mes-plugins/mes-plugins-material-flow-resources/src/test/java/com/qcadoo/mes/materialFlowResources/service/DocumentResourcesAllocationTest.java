@@ -0,0 +1,191 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+public class DocumentResourcesAllocationTest {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private Entity product, otherProduct, position, additionalCode;
+
+    private Entity first, second, third, fourth, otherProductResource;
+
+    private ResourceAllocationStrategies resourceAllocationStrategies;
+
+    @Before
+    public void init() {
+        resourceAllocationStrategies = new ResourceAllocationStrategies();
+
+        product = mockEntity(1L);
+        otherProduct = mockEntity(2L);
+        position = mockEntity(100L);
+        additionalCode = mockEntity(200L);
+
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn(null);
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(BigDecimal.ONE);
+
+        first = mockResource(11L, product, date(1), date(30), "5", null);
+        second = mockResource(12L, product, date(2), null, "3", additionalCode);
+        third = mockResource(13L, product, date(2), date(10), "7", null);
+        fourth = mockResource(14L, product, date(4), date(10), "2", null);
+        otherProductResource = mockResource(21L, otherProduct, date(0), date(0), "1", null);
+    }
+
+    @Test
+    public void shouldOrderResourcesLikeFifoQuery() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.FIFO, null);
+
+        // then
+        assertEquals(Lists.newArrayList(11L, 12L, 13L, 14L), ids);
+    }
+
+    @Test
+    public void shouldOrderResourcesLikeLifoQuery() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.LIFO, null);
+
+        // then
+        assertEquals(Lists.newArrayList(14L, 12L, 13L, 11L), ids);
+    }
+
+    @Test
+    public void shouldOrderResourcesLikeFefoQuery() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.FEFO, null);
+
+        // then
+        assertEquals(Lists.newArrayList(14L, 13L, 11L, 12L), ids);
+    }
+
+    @Test
+    public void shouldOrderResourcesLikeLefoQuery() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.LEFO, null);
+
+        // then
+        assertEquals(Lists.newArrayList(12L, 11L, 14L, 13L), ids);
+    }
+
+    @Test
+    public void shouldUseFifoForManualAlgorithmWithoutResource() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.MANUAL, null);
+
+        // then
+        assertEquals(getResourceIds(WarehouseAlgorithm.FIFO, null), ids);
+    }
+
+    @Test
+    public void shouldPutResourcesWithAdditionalCodeFirst() {
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.FIFO, additionalCode);
+
+        // then
+        assertEquals(Lists.newArrayList(12L, 11L, 13L, 14L), ids);
+    }
+
+    @Test
+    public void shouldSkipConsumedAndDeletedResources() {
+        // given
+        DocumentResourcesAllocation documentResourcesAllocation = createAllocation();
+
+        given(first.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.ZERO);
+        documentResourcesAllocation.updateResource(first);
+        documentResourcesAllocation.deleteResource(third);
+
+        // when
+        List<Long> ids = documentResourcesAllocation.getResources(product, null, position,
+                resourceAllocationStrategies.getStrategy(WarehouseAlgorithm.FIFO)).stream()
+                .map(Entity::getId).collect(Collectors.toList());
+
+        // then
+        assertEquals(Lists.newArrayList(12L, 14L), ids);
+        assertEquals(1, documentResourcesAllocation.getUpdatedResources().size());
+        assertEquals(Lists.newArrayList(13L), Lists.newArrayList(documentResourcesAllocation.getDeletedResourceIds()));
+    }
+
+    @Test
+    public void shouldReorderFefoResourcesAfterConsumption() {
+        // given
+        DocumentResourcesAllocation documentResourcesAllocation = createAllocation();
+
+        given(third.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.ONE);
+
+        // when
+        List<Long> ids = documentResourcesAllocation.getResources(product, null, position,
+                resourceAllocationStrategies.getStrategy(WarehouseAlgorithm.FEFO)).stream()
+                .map(Entity::getId).collect(Collectors.toList());
+
+        // then
+        assertEquals(Lists.newArrayList(13L, 14L, 11L, 12L), ids);
+    }
+
+    @Test
+    public void shouldFilterResourcesByConversion() {
+        // given
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn("szt");
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(new BigDecimal("2"));
+        given(second.getDecimalField(ResourceFields.CONVERSION)).willReturn(new BigDecimal("2.00000"));
+
+        // when
+        List<Long> ids = getResourceIds(WarehouseAlgorithm.FIFO, null);
+
+        // then
+        assertEquals(Lists.newArrayList(12L), ids);
+    }
+
+    private List<Long> getResourceIds(final WarehouseAlgorithm warehouseAlgorithm, final Entity additionalCode) {
+        return createAllocation()
+                .getResources(product, additionalCode, position, resourceAllocationStrategies.getStrategy(warehouseAlgorithm))
+                .stream().map(Entity::getId).collect(Collectors.toList());
+    }
+
+    private DocumentResourcesAllocation createAllocation() {
+        return new DocumentResourcesAllocation(Lists.newArrayList(fourth, otherProductResource, third, second, first));
+    }
+
+    private Entity mockResource(final Long id, final Entity product, final Date time, final Date expirationDate,
+            final String availableQuantity, final Entity additionalCode) {
+        Entity resource = mockEntity(id);
+
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE)).willReturn(additionalCode);
+        given(resource.getDateField(ResourceFields.TIME)).willReturn(time);
+        given(resource.getDateField(ResourceFields.EXPIRATION_DATE)).willReturn(expirationDate);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(new BigDecimal(availableQuantity));
+        given(resource.getDecimalField(ResourceFields.CONVERSION)).willReturn(BigDecimal.ONE);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(id);
+
+        return entity;
+    }
+
+    private Date date(final int day) {
+        return new Date(day * DAY);
+    }
+
+}
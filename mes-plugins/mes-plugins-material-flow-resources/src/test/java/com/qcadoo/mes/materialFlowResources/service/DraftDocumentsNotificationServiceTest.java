@@ -16,6 +16,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.search.SearchRestrictions;
@@ -35,10 +36,14 @@ public class DraftDocumentsNotificationServiceTest {
     @Mock
     private SecurityService securityService;
 
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
-        draftDocumentsNotificationService = new DraftDocumentsNotificationService(securityService, dataDefinitionService);
+        draftDocumentsNotificationService = new DraftDocumentsNotificationService(securityService, dataDefinitionService,
+                jdbcTemplate);
     }
 
     @Test
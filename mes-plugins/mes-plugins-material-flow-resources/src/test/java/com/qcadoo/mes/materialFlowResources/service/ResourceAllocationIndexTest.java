@@ -0,0 +1,85 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+public class ResourceAllocationIndexTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 2L;
+
+    private ResourceAllocationIndex resourceAllocationIndex;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        resourceAllocationIndex = new ResourceAllocationIndex();
+
+        ReflectionTestUtils.setField(resourceAllocationIndex, "jdbcTemplate", jdbcTemplate);
+
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(candidate(11L), candidate(12L)));
+    }
+
+    @Test
+    public void shouldLoadCandidatesOnce() {
+        // when
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+
+        // then
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    public void shouldReloadCandidatesAfterIndexedResourceIsInvalidated() {
+        // given
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+
+        // when
+        resourceAllocationIndex.invalidateResource(12L);
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+
+        // then
+        verify(jdbcTemplate, times(2)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    public void shouldKeepCandidatesWhenNotIndexedResourceIsInvalidated() {
+        // given
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+
+        // when
+        resourceAllocationIndex.invalidateResource(99L);
+        resourceAllocationIndex.getCandidates(L_LOCATION_ID, L_PRODUCT_ID);
+
+        // then
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    private ResourceCandidate candidate(final Long id) {
+        return new ResourceCandidate(id, "R-" + id, null, null, null, BigDecimal.ONE, BigDecimal.ONE, null);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+
+public class ResourceAllocationStrategiesTest {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private ResourceAllocationStrategies resourceAllocationStrategies;
+
+    private List<ResourceCandidate> candidates;
+
+    @Before
+    public void init() {
+        resourceAllocationStrategies = new ResourceAllocationStrategies();
+
+        candidates = Lists.newArrayList(candidate(11L, "B", date(1), date(20)), candidate(12L, "A", date(2), date(10)),
+                candidate(13L, "B", date(5), date(10)), candidate(14L, null, date(3), null),
+                candidate(15L, "A", date(4), date(30)));
+    }
+
+    @Test
+    public void shouldOrderByExpirationDateThenByTime() {
+        // when
+        List<Long> ids = order(WarehouseAlgorithm.FEFO_FIFO);
+
+        // then
+        assertEquals(Lists.newArrayList(12L, 13L, 11L, 15L, 14L), ids);
+    }
+
+    @Test
+    public void shouldReleaseWholeBatchesInOrderOfTheirFirstResource() {
+        // when
+        List<Long> ids = order(WarehouseAlgorithm.BATCH_FIFO);
+
+        // then
+        assertEquals(Lists.newArrayList(11L, 13L, 12L, 15L, 14L), ids);
+    }
+
+    @Test
+    public void shouldUseFifoForUnknownAlgorithm() {
+        // when
+        List<Long> ids = resourceAllocationStrategies.getStrategy("99unknown").order(candidates).stream()
+                .map(ResourceCandidate::getId).collect(Collectors.toList());
+
+        // then
+        assertEquals(order(WarehouseAlgorithm.FIFO), ids);
+    }
+
+    @Test
+    public void shouldPutCandidatesWithAdditionalCodeFirst() {
+        // given
+        candidates.add(new ResourceCandidate(16L, null, null, date(6), null, BigDecimal.ONE, BigDecimal.ONE, 200L));
+        candidates.add(new ResourceCandidate(17L, null, null, date(0), null, BigDecimal.ZERO, BigDecimal.ONE, 200L));
+        candidates.add(new ResourceCandidate(18L, null, null, date(0), null, BigDecimal.ONE, new BigDecimal("2"), null));
+
+        // when
+        List<Long> ids = ResourceAllocationService
+                .selectCandidates(candidates, new BigDecimal("1.000"), 200L,
+                        resourceAllocationStrategies.getStrategy(WarehouseAlgorithm.FIFO)).stream()
+                .map(ResourceCandidate::getId).collect(Collectors.toList());
+
+        // then
+        assertEquals(Lists.newArrayList(16L, 11L, 12L, 14L, 15L, 13L), ids);
+    }
+
+    private List<Long> order(final WarehouseAlgorithm warehouseAlgorithm) {
+        return resourceAllocationStrategies.getStrategy(warehouseAlgorithm).order(candidates).stream()
+                .map(ResourceCandidate::getId).collect(Collectors.toList());
+    }
+
+    private ResourceCandidate candidate(final Long id, final String batch, final Date time, final Date expirationDate) {
+        return new ResourceCandidate(id, "R" + id, batch, time, expirationDate, BigDecimal.ONE, BigDecimal.ONE, null);
+    }
+
+    private Date date(final int day) {
+        return new Date(day * DAY);
+    }
+
+}
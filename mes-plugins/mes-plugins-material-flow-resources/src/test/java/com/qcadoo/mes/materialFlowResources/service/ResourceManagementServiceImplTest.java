@@ -0,0 +1,286 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolderFactory;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.DictionaryService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.testing.model.EntityListMock;
+
+public class ResourceManagementServiceImplTest {
+
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    private static final String L_UNIT = "szt";
+
+    private ResourceManagementServiceImpl resourceManagementService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private DictionaryService dictionaryService;
+
+    @Mock
+    private ReservationsService reservationsService;
+
+    @Mock
+    private ResourceStockService resourceStockService;
+
+    @Mock
+    private ResourceAllocationService resourceAllocationService;
+
+    @Mock
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Mock
+    private DataDefinition resourceDD, positionDD, locationDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    private Entity document, warehouse, product;
+
+    private List<Entity> resources;
+
+    // resources as written through the resource data definition
+    private Map<Long, Map<String, Object>> savedResources;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        resourceManagementService = new ResourceManagementServiceImpl(dataDefinitionService, numberService);
+
+        ReflectionTestUtils.setField(resourceManagementService, "dictionaryService", dictionaryService);
+        ReflectionTestUtils.setField(resourceManagementService, "reservationsService", reservationsService);
+        ReflectionTestUtils.setField(resourceManagementService, "resourceStockService", resourceStockService);
+        ReflectionTestUtils.setField(resourceManagementService, "resourceAllocationService", resourceAllocationService);
+        ReflectionTestUtils.setField(resourceManagementService, "resourceAllocationStrategies",
+                new ResourceAllocationStrategies());
+        ReflectionTestUtils.setField(resourceManagementService, "palletNumberDisposalService", palletNumberDisposalService);
+        ReflectionTestUtils.setField(resourceManagementService, "notEnoughResourcesErrorMessageHolderFactory",
+                mock(NotEnoughResourcesErrorMessageHolderFactory.class));
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScale(any(BigDecimal.class))).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).setScale(5, RoundingMode.HALF_EVEN));
+        given(numberService.setScale(any(BigDecimal.class), anyInt())).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).setScale((Integer) invocation.getArguments()[1],
+                        RoundingMode.HALF_EVEN));
+        given(dictionaryService.checkIfUnitIsInteger(anyString())).willReturn(false);
+
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE)).willReturn(resourceDD);
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_POSITION)).willReturn(positionDD);
+
+        given(positionDD.create()).willAnswer(invocation -> mockEntity(null, positionDD));
+        given(positionDD.save(any(Entity.class))).willAnswer(invocation -> invocation.getArguments()[0]);
+
+        given(resourceDD.save(any(Entity.class))).willAnswer(invocation -> {
+            Entity resource = (Entity) invocation.getArguments()[0];
+
+            savedResources.put(resource.getId(), Maps.newHashMap(resource.getFields()));
+
+            return resource;
+        });
+        doAnswer(invocation -> {
+            for (Object id : invocation.getArguments()) {
+                savedResources.remove(id);
+            }
+
+            return null;
+        }).when(resourceDD).delete(anyVararg());
+
+        given(resourceDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willAnswer(invocation -> resources.stream()
+                .filter(resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY).signum() > 0)
+                .collect(Collectors.toList()));
+
+        given(resourceAllocationService.getResources(any(Entity.class), any(Entity.class), any(Entity.class),
+                any(Entity.class), any(WarehouseAlgorithm.class))).willAnswer(invocation -> resources.stream()
+                .filter(resource -> savedResources.containsKey(resource.getId()))
+                .filter(resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY).signum() > 0)
+                .collect(Collectors.toList()));
+
+        given(locationDD.getPluginIdentifier()).willReturn("materialFlow");
+        given(locationDD.getName()).willReturn("location");
+
+        product = mockEntity(1L, null);
+        warehouse = mockEntity(2L, locationDD);
+        warehouse.setField(LocationFieldsMFR.ALGORITHM, WarehouseAlgorithm.FIFO.getStringValue());
+
+        createDocument();
+    }
+
+    @Test
+    public void shouldLeaveSameResourcesAsPerPositionAllocation() {
+        // given
+        given(reservationsService.reservationsEnabledForDocumentPositions(any(Entity.class))).willReturn(true);
+
+        resourceManagementService.updateResourcesForReleaseDocuments(document);
+
+        Map<Long, Map<String, Object>> perPositionResources = savedResources;
+
+        createDocument();
+
+        given(reservationsService.reservationsEnabledForDocumentPositions(any(Entity.class))).willReturn(false);
+
+        // when
+        resourceManagementService.updateResourcesForReleaseDocuments(document);
+
+        // then
+        assertEquals(Lists.newArrayList(12L), Lists.newArrayList(savedResources.keySet()));
+        assertQuantities(savedResources.get(12L), "8", "4", "8");
+        assertEquals(perPositionResources, savedResources);
+    }
+
+    @Test
+    public void shouldSaveEachResourceChangedByDocumentOnce() {
+        // given
+        given(reservationsService.reservationsEnabledForDocumentPositions(document)).willReturn(false);
+
+        // when
+        resourceManagementService.updateResourcesForReleaseDocuments(document);
+
+        // then
+        verify(resourceDD, never()).save(resources.get(0));
+        verify(resourceDD, times(1)).save(resources.get(1));
+        verify(resourceDD, times(1)).delete(11L);
+        verify(resourceAllocationService, never()).getResources(any(Entity.class), any(Entity.class), any(Entity.class),
+                any(Entity.class), any(WarehouseAlgorithm.class));
+    }
+
+    @Test(expected = InvalidResourceException.class)
+    public void shouldThrowExceptionWhenChangedResourceIsInvalid() {
+        // given
+        Entity invalidResource = mockEntity(12L, resourceDD);
+
+        given(invalidResource.isValid()).willReturn(false);
+        given(resourceDD.save(resources.get(1))).willReturn(invalidResource);
+        given(reservationsService.reservationsEnabledForDocumentPositions(document)).willReturn(false);
+
+        // when
+        resourceManagementService.updateResourcesForReleaseDocuments(document);
+    }
+
+    private void createDocument() {
+        document = mockEntity(3L, null);
+        document.setField(DocumentFields.LOCATION_FROM, warehouse);
+        document.setField(DocumentFields.POSITIONS,
+                EntityListMock.create(Lists.newArrayList(mockPosition(31L, "4"), mockPosition(32L, "3"))));
+
+        resources = Lists.newArrayList(mockResource(11L, date(1), "5", "5"), mockResource(12L, date(2), "10", "6"));
+
+        savedResources = Maps.newHashMap();
+        resources.forEach(resource -> savedResources.put(resource.getId(), Maps.newHashMap(resource.getFields())));
+    }
+
+    private void assertQuantities(final Map<String, Object> resource, final String quantity, final String availableQuantity,
+            final String quantityInAdditionalUnit) {
+        assertEquals(0, new BigDecimal(quantity).compareTo((BigDecimal) resource.get(ResourceFields.QUANTITY)));
+        assertEquals(0, new BigDecimal(availableQuantity).compareTo((BigDecimal) resource.get(ResourceFields.AVAILABLE_QUANTITY)));
+        assertEquals(0, new BigDecimal(quantityInAdditionalUnit).compareTo(
+                (BigDecimal) resource.get(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT)));
+    }
+
+    private Entity mockPosition(final Long id, final String quantity) {
+        Entity position = mockEntity(id, positionDD);
+
+        position.setField(PositionFields.PRODUCT, product);
+        position.setField(PositionFields.QUANTITY, new BigDecimal(quantity));
+        position.setField(PositionFields.GIVEN_QUANTITY, new BigDecimal(quantity));
+        position.setField(PositionFields.GIVEN_UNIT, L_UNIT);
+        position.setField(PositionFields.CONVERSION, BigDecimal.ONE);
+
+        return position;
+    }
+
+    private Entity mockResource(final Long id, final Date time, final String quantity, final String availableQuantity) {
+        Entity resource = mockEntity(id, resourceDD);
+
+        resource.setField(ResourceFields.PRODUCT, product);
+        resource.setField(ResourceFields.LOCATION, warehouse);
+        resource.setField(ResourceFields.TIME, time);
+        resource.setField(ResourceFields.QUANTITY, new BigDecimal(quantity));
+        resource.setField(ResourceFields.AVAILABLE_QUANTITY, new BigDecimal(availableQuantity));
+        resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, new BigDecimal(quantity));
+        resource.setField(ResourceFields.CONVERSION, BigDecimal.ONE);
+        resource.setField(ResourceFields.GIVEN_UNIT, L_UNIT);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id, final DataDefinition dataDefinition) {
+        Entity entity = mock(Entity.class);
+        Map<String, Object> fields = Maps.newHashMap();
+
+        given(entity.getId()).willReturn(id);
+        given(entity.getDataDefinition()).willReturn(dataDefinition);
+        given(entity.isValid()).willReturn(true);
+        given(entity.getFields()).willReturn(fields);
+        given(entity.getField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(entity.getDecimalField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(entity.getStringField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(entity.getDateField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(entity.getBelongsToField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(entity.getHasManyField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1])).when(entity)
+                .setField(anyString(), any());
+
+        return entity;
+    }
+
+    private Date date(final int day) {
+        return new Date(day * DAY);
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.model.api.Entity;
+
+public class ResourceStockLedgerTest {
+
+    private ResourceStockLedger resourceStockLedger;
+
+    @Mock
+    private Entity product, otherProduct, location, otherLocation;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        given(product.getId()).willReturn(1L);
+        given(otherProduct.getId()).willReturn(2L);
+        given(location.getId()).willReturn(10L);
+        given(otherLocation.getId()).willReturn(20L);
+
+        resourceStockLedger = new ResourceStockLedger();
+    }
+
+    @Test
+    public void shouldAggregateDeltasForProductAndLocation() {
+        // when
+        resourceStockLedger.addResourceStock(product, location, new BigDecimal("10"));
+        resourceStockLedger.addResourceStock(product, location, new BigDecimal("5"));
+        resourceStockLedger.removeResourceStock(product, location, new BigDecimal("3"));
+        resourceStockLedger.removeResourceStock(product, otherLocation, new BigDecimal("4"));
+        resourceStockLedger.addResourceStock(otherProduct, location, new BigDecimal("1"));
+
+        // then
+        assertEquals(3, resourceStockLedger.getDeltas().size());
+        assertEquals(0, new BigDecimal("12").compareTo(resourceStockLedger.getDeltas().get(new ResourceStockLedger.Key(1L, 10L))));
+        assertEquals(0, new BigDecimal("-4").compareTo(resourceStockLedger.getDeltas().get(new ResourceStockLedger.Key(1L, 20L))));
+        assertEquals(0, BigDecimal.ONE.compareTo(resourceStockLedger.getDeltas().get(new ResourceStockLedger.Key(2L, 10L))));
+    }
+
+    @Test
+    public void shouldSkipEmptyDeltas() {
+        // when
+        resourceStockLedger.addResourceStock(product, location, BigDecimal.ZERO);
+        resourceStockLedger.removeResourceStock(product, location, null);
+
+        // then
+        assertTrue(resourceStockLedger.isEmpty());
+    }
+
+}
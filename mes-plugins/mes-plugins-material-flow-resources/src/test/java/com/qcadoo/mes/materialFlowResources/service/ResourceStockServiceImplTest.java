@@ -0,0 +1,134 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.model.api.Entity;
+
+public class ResourceStockServiceImplTest {
+
+    private static final String L_UPDATE_RESOURCE_STOCK = "UPDATE materialflowresources_resourcestock";
+
+    private static final String L_INSERT_RESOURCE_STOCK = "INSERT INTO materialflowresources_resourcestock";
+
+    private static final String L_LOCK_RESOURCE_STOCK = "SELECT pg_advisory_xact_lock";
+
+    private ResourceStockServiceImpl resourceStockService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity product, otherProduct, location;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        resourceStockService = new ResourceStockServiceImpl();
+
+        ReflectionTestUtils.setField(resourceStockService, "jdbcTemplate", jdbcTemplate);
+
+        given(product.getId()).willReturn(3_000_000_000L);
+        given(otherProduct.getId()).willReturn(2L);
+        given(location.getId()).willReturn(10L);
+    }
+
+    @Test
+    public void shouldApplyAllDeltasWithOneBatchUpdate() {
+        // given
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        resourceStockLedger.addResourceStock(product, location, BigDecimal.TEN);
+        resourceStockLedger.removeResourceStock(otherProduct, location, BigDecimal.ONE);
+
+        given(jdbcTemplate.batchUpdate(startsWith(L_UPDATE_RESOURCE_STOCK), any(SqlParameterSource[].class))).willReturn(
+                new int[] { 1, 1 });
+
+        // when
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> deltas = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate, times(1)).batchUpdate(startsWith(L_UPDATE_RESOURCE_STOCK), deltas.capture());
+        verify(jdbcTemplate, never()).update(startsWith(L_INSERT_RESOURCE_STOCK), any(SqlParameterSource.class));
+
+        assertEquals(2, deltas.getValue().length);
+        assertEquals(2L, deltas.getValue()[0].getValue("product_id"));
+        assertEquals(BigDecimal.ONE.negate(), deltas.getValue()[0].getValue("delta"));
+        assertEquals(3_000_000_000L, deltas.getValue()[1].getValue("product_id"));
+        assertTrue(resourceStockLedger.isEmpty());
+    }
+
+    @Test
+    public void shouldInsertMissingResourceStockUnderLockForBigintIds() {
+        // given
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        resourceStockLedger.addResourceStock(product, location, BigDecimal.TEN);
+
+        given(jdbcTemplate.batchUpdate(startsWith(L_UPDATE_RESOURCE_STOCK), any(SqlParameterSource[].class))).willReturn(
+                new int[] { 0 });
+        given(jdbcTemplate.update(startsWith(L_INSERT_RESOURCE_STOCK), any(SqlParameterSource.class))).willReturn(1);
+
+        // when
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
+
+        // then
+        ArgumentCaptor<String> lockQuery = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate).queryForList(lockQuery.capture(), any(SqlParameterSource.class));
+        verify(jdbcTemplate, times(1)).update(startsWith(L_INSERT_RESOURCE_STOCK), any(SqlParameterSource.class));
+        verify(jdbcTemplate, never()).update(startsWith(L_UPDATE_RESOURCE_STOCK), any(SqlParameterSource.class));
+
+        assertTrue(lockQuery.getValue().startsWith(L_LOCK_RESOURCE_STOCK));
+        assertFalse(lockQuery.getValue().contains("AS integer"));
+    }
+
+    @Test
+    public void shouldNotInsertResourceStockForRemovalOfMissingStock() {
+        // given
+        ResourceStockLedger resourceStockLedger = new ResourceStockLedger();
+
+        resourceStockLedger.removeResourceStock(product, location, BigDecimal.TEN);
+
+        given(jdbcTemplate.batchUpdate(startsWith(L_UPDATE_RESOURCE_STOCK), any(SqlParameterSource[].class))).willReturn(
+                new int[] { 0 });
+
+        // when
+        resourceStockService.applyResourceStockLedger(resourceStockLedger);
+
+        // then
+        verify(jdbcTemplate, never()).update(startsWith(L_INSERT_RESOURCE_STOCK), any(SqlParameterSource.class));
+    }
+
+    @Test
+    public void shouldSkipEmptyLedger() {
+        // when
+        resourceStockService.applyResourceStockLedger(new ResourceStockLedger());
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+}
@@ -28,7 +28,6 @@ import static com.qcadoo.mes.basic.constants.ProductFields.UNIT;
 import static com.qcadoo.mes.materialFlow.constants.LocationFields.EXTERNAL_NUMBER;
 import static com.qcadoo.mes.materialFlow.constants.MaterialsInLocationFields.MATERIALS_IN_LOCATION_COMPONENTS;
 import static com.qcadoo.mes.materialFlow.constants.MaterialsInLocationFields.MATERIAL_FLOW_FOR_DATE;
-import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.FOUND;
 import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.LOCATION;
 import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.PRODUCT;
 import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.SHOULD_BE;
@@ -36,14 +35,13 @@ import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.STOCK_
 import static com.qcadoo.mes.materialFlow.constants.TransferFields.LOCATION_FROM;
 import static com.qcadoo.mes.materialFlow.constants.TransferFields.LOCATION_TO;
 import static com.qcadoo.mes.materialFlow.constants.TransferFields.NUMBER;
-import static com.qcadoo.mes.materialFlow.constants.TransferFields.QUANTITY;
-import static com.qcadoo.mes.materialFlow.constants.TransferFields.TIME;
 import static com.qcadoo.mes.materialFlow.constants.TransferFields.TYPE;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.CONSUMPTION;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.PRODUCTION;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -52,6 +50,7 @@ import java.util.Map;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -95,14 +94,6 @@ public class MaterialFlowService {
 
     private static final String L_LOC_LOCATION_ID = "loc.location.id";
 
-    private static final String L_LOCATION_ID = "location.id";
-
-    private static final String L_LOCATION_FROM_ID = "locationFrom.id";
-
-    private static final String L_LOCATION_TO_ID = "locationTo.id";
-
-    private static final String L_PRODUCT_ID = "product.id";
-
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -115,69 +106,24 @@ public class MaterialFlowService {
     @Autowired
     private NumberService numberService;
 
-    public BigDecimal calculateShouldBeInLocation(final Long locationId, final Long productId, final Date forDate) {
-        BigDecimal countProductIn = BigDecimal.ZERO;
-        BigDecimal countProductOut = BigDecimal.ZERO;
-        BigDecimal countProduct = BigDecimal.ZERO;
-        Date lastCorrectionDate = null;
-        DataDefinition transferDataCorrection = dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowConstants.MODEL_STOCK_CORRECTION);
-        DataDefinition transferTo = dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowConstants.MODEL_TRANSFER);
-        DataDefinition transferFrom = dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowConstants.MODEL_TRANSFER);
-
-        Entity resultDataCorrection = transferDataCorrection.find().add(SearchRestrictions.eq(L_LOCATION_ID, locationId))
-                .add(SearchRestrictions.eq(L_PRODUCT_ID, productId)).addOrder(SearchOrders.desc(STOCK_CORRECTION_DATE))
-                .setMaxResults(1).uniqueResult();
-
-        if (resultDataCorrection != null) {
-            lastCorrectionDate = (Date) resultDataCorrection.getField(STOCK_CORRECTION_DATE);
-            countProduct = (BigDecimal) resultDataCorrection.getField(FOUND);
-        }
-
-        SearchResult resultTo = null;
-        SearchResult resultFrom = null;
-
-        if (lastCorrectionDate == null) {
-            resultTo = transferTo.find().add(SearchRestrictions.eq(L_LOCATION_TO_ID, locationId))
-                    .add(SearchRestrictions.eq(L_PRODUCT_ID, productId)).add(SearchRestrictions.le(TIME, forDate)).list();
-
-            resultFrom = transferFrom.find().add(SearchRestrictions.eq(L_LOCATION_FROM_ID, locationId))
-                    .add(SearchRestrictions.eq(L_PRODUCT_ID, productId)).add(SearchRestrictions.le(TIME, forDate)).list();
-
-        } else {
-            resultTo = transferTo.find().add(SearchRestrictions.eq(L_LOCATION_TO_ID, locationId))
-                    .add(SearchRestrictions.eq(L_PRODUCT_ID, productId)).add(SearchRestrictions.le(TIME, forDate))
-                    .add(SearchRestrictions.gt(TIME, lastCorrectionDate)).list();
-
-            resultFrom = transferFrom.find().add(SearchRestrictions.eq(L_LOCATION_FROM_ID, locationId))
-                    .add(SearchRestrictions.eq(L_PRODUCT_ID, productId)).add(SearchRestrictions.le(TIME, forDate))
-                    .add(SearchRestrictions.gt(TIME, lastCorrectionDate)).list();
-        }
-
-        for (Entity e : resultTo.getEntities()) {
-            BigDecimal quantity = (BigDecimal) e.getField(QUANTITY);
-            countProductIn = countProductIn.add(quantity, numberService.getMathContext());
-        }
+    @Autowired
+    private StockLedgerService stockLedgerService;
 
-        for (Entity e : resultFrom.getEntities()) {
-            BigDecimal quantity = (BigDecimal) e.getField(QUANTITY);
-            countProductOut = countProductOut.add(quantity, numberService.getMathContext());
-        }
+    public BigDecimal calculateShouldBeInLocation(final Long locationId, final Long productId, final Date forDate) {
+        return calculateShouldBeInLocation(locationId, Lists.newArrayList(productId), forDate).get(productId);
+    }
 
-        if (lastCorrectionDate == null) {
-            countProductIn = countProductIn.subtract(countProductOut, numberService.getMathContext());
-        } else {
-            countProductIn = countProductIn.add(countProduct, numberService.getMathContext());
-            countProductIn = countProductIn.subtract(countProductOut, numberService.getMathContext());
-        }
+    public Map<Long, BigDecimal> calculateShouldBeInLocation(final Long locationId, final Collection<Long> productIds,
+            final Date forDate) {
+        Map<Long, BigDecimal> quantities = stockLedgerService.getBalances(locationId, productIds, forDate);
 
-        if (countProductIn.compareTo(BigDecimal.ZERO) == -1) {
-            countProductIn = BigDecimal.ZERO;
+        for (Map.Entry<Long, BigDecimal> quantity : quantities.entrySet()) {
+            if (quantity.getValue().compareTo(BigDecimal.ZERO) == -1) {
+                quantity.setValue(BigDecimal.ZERO);
+            }
         }
 
-        return countProductIn;
+        return quantities;
     }
 
     public void refreshShouldBeInStockCorrectionDetails(final ViewDefinitionState state, final ComponentState componentState,
@@ -322,8 +268,11 @@ public class MaterialFlowService {
 
             Date forDate = ((Date) materialsInLocation.getField(MATERIAL_FLOW_FOR_DATE));
 
+            Map<Long, BigDecimal> quantities = calculateShouldBeInLocation(location.getId(),
+                    Lists.transform(products, Entity::getId), forDate);
+
             for (Entity product : products) {
-                BigDecimal quantity = calculateShouldBeInLocation(location.getId(), product.getId(), forDate);
+                BigDecimal quantity = quantities.get(product.getId());
 
                 if (reportData.containsKey(product)) {
                     reportData.put(product, reportData.get(product).add(quantity, numberService.getMathContext()));
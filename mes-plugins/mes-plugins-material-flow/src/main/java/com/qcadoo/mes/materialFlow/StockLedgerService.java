@@ -0,0 +1,200 @@
+package com.qcadoo.mes.materialFlow;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Point-in-time balances of products in locations, so reports don't re-sum every historical transfer.
+ *
+ * A balance at a date is its nearest earlier base - a checkpoint or a stock correction - plus transfers made after that base.
+ * Balances are only read, checkpoints are written by a nightly job at the start of the current month and removed by transfer and
+ * stock correction model hooks when a change is made at or before them. The job holds an exclusive advisory lock and hooks a
+ * shared one, so a checkpoint never misses a transfer which was uncommitted while it was written.
+ */
+@Service
+public class StockLedgerService {
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private static final String L_FOR_DATE = "forDate";
+
+    private static final String L_CHECKPOINT_DATE = "checkpointDate";
+
+    private static final String L_QUANTITY = "quantity";
+
+    private static final String CHECKPOINTS_LOCK_KEY = "hashtext('materialflow_stockledgercheckpoint')";
+
+    private static final String SQL_FIND_BASES = "SELECT DISTINCT ON (product_id) product_id, basedate, quantity FROM ("
+            + "SELECT product_id, checkpointdate AS basedate, quantity FROM materialflow_stockledgercheckpoint "
+            + "WHERE location_id = :locationId AND product_id IN (:productIds) AND checkpointdate <= :forDate "
+            + "UNION ALL SELECT product_id, stockcorrectiondate, found FROM materialflow_stockcorrection "
+            + "WHERE location_id = :locationId AND product_id IN (:productIds) AND stockcorrectiondate <= :forDate) bases "
+            + "ORDER BY product_id, basedate DESC";
+
+    private static final String SQL_SUM_TRANSFERS_AFTER_BASES = "WITH bases AS (" + SQL_FIND_BASES + ") "
+            + "SELECT t.product_id, SUM(CASE WHEN t.locationto_id = :locationId THEN t.quantity ELSE 0 END) "
+            + "- SUM(CASE WHEN t.locationfrom_id = :locationId THEN t.quantity ELSE 0 END) AS quantity "
+            + "FROM materialflow_transfer t LEFT JOIN bases b ON b.product_id = t.product_id "
+            + "WHERE (t.locationto_id = :locationId OR t.locationfrom_id = :locationId) "
+            + "AND t.product_id IN (:productIds) AND t.time <= :forDate AND (b.basedate IS NULL OR t.time > b.basedate) "
+            + "GROUP BY t.product_id";
+
+    private static final String SQL_LOCK_CHECKPOINTS = "SELECT pg_advisory_xact_lock(" + CHECKPOINTS_LOCK_KEY + ")";
+
+    private static final String SQL_LOCK_CHECKPOINTS_SHARED = "SELECT pg_advisory_xact_lock_shared(" + CHECKPOINTS_LOCK_KEY
+            + ")";
+
+    private static final String SQL_CHECKPOINTS_EXIST = "SELECT EXISTS (SELECT 1 FROM materialflow_stockledgercheckpoint "
+            + "WHERE checkpointdate = :checkpointDate)";
+
+    // balances of (location, product) pairs without a checkpoint at the given date, computed like single balances are: only
+    // transfers made after the latest base of a pair are summed, pairs with a base at the date itself are skipped
+    private static final String SQL_INSERT_CHECKPOINTS = "WITH bases AS ("
+            + "SELECT DISTINCT ON (location_id, product_id) location_id, product_id, basedate, quantity FROM ("
+            + "SELECT location_id, product_id, checkpointdate AS basedate, quantity FROM materialflow_stockledgercheckpoint "
+            + "WHERE checkpointdate <= :checkpointDate "
+            + "UNION ALL SELECT location_id, product_id, stockcorrectiondate, found FROM materialflow_stockcorrection "
+            + "WHERE location_id IS NOT NULL AND product_id IS NOT NULL AND stockcorrectiondate <= :checkpointDate) b "
+            + "ORDER BY location_id, product_id, basedate DESC), "
+            + "stocks AS (SELECT t.locationto_id AS location_id, t.product_id, t.quantity FROM materialflow_transfer t "
+            + "LEFT JOIN bases b ON b.location_id = t.locationto_id AND b.product_id = t.product_id "
+            + "WHERE t.locationto_id IS NOT NULL AND t.time <= :checkpointDate "
+            + "AND (b.basedate IS NULL OR t.time > b.basedate) "
+            + "UNION ALL SELECT t.locationfrom_id, t.product_id, -t.quantity FROM materialflow_transfer t "
+            + "LEFT JOIN bases b ON b.location_id = t.locationfrom_id AND b.product_id = t.product_id "
+            + "WHERE t.locationfrom_id IS NOT NULL AND t.time <= :checkpointDate "
+            + "AND (b.basedate IS NULL OR t.time > b.basedate)), "
+            + "changes AS (SELECT location_id, product_id, SUM(quantity) AS quantity FROM stocks GROUP BY location_id, product_id), "
+            + "keys AS (SELECT location_id, product_id FROM changes UNION SELECT location_id, product_id FROM bases) "
+            + "INSERT INTO materialflow_stockledgercheckpoint (location_id, product_id, checkpointdate, quantity, checkpointkey) "
+            + "SELECT k.location_id, k.product_id, :checkpointDate, COALESCE(b.quantity, 0) + COALESCE(c.quantity, 0), "
+            + "k.location_id || '_' || k.product_id || '_' || to_char(CAST(:checkpointDate AS date), 'YYYY-MM-DD') "
+            + "FROM keys k LEFT JOIN bases b ON b.location_id = k.location_id AND b.product_id = k.product_id "
+            + "LEFT JOIN changes c ON c.location_id = k.location_id AND c.product_id = k.product_id "
+            + "WHERE b.basedate IS NULL OR b.basedate < :checkpointDate "
+            + "ON CONFLICT (checkpointkey) DO NOTHING";
+
+    private static final String SQL_DELETE_CHECKPOINTS = "DELETE FROM materialflow_stockledgercheckpoint "
+            + "WHERE location_id = :locationId AND product_id = :productId AND checkpointdate >= :checkpointDate";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NumberService numberService;
+
+    public BigDecimal getBalance(final Long locationId, final Long productId, final Date forDate) {
+        return getBalances(locationId, Lists.newArrayList(productId), forDate).get(productId);
+    }
+
+    /**
+     * Calculates balances of many products in one location with a constant number of statements.
+     * 
+     * @param locationId
+     *            location id
+     * @param productIds
+     *            product ids
+     * @param forDate
+     *            date of balances, inclusive
+     * @return balance of each given product, zero for products which have never been in the location
+     */
+    public Map<Long, BigDecimal> getBalances(final Long locationId, final Collection<Long> productIds, final Date forDate) {
+        Map<Long, BigDecimal> balances = Maps.newHashMap();
+
+        if (productIds.isEmpty()) {
+            return balances;
+        }
+
+        MapSqlParameterSource params = balanceParams(locationId, productIds, forDate);
+
+        jdbcTemplate.query(SQL_FIND_BASES, params, rs -> {
+            balances.put(rs.getLong("product_id"), rs.getBigDecimal(L_QUANTITY));
+        });
+
+        jdbcTemplate.query(SQL_SUM_TRANSFERS_AFTER_BASES, params, rs -> {
+            Long productId = rs.getLong("product_id");
+            BigDecimal balance = balances.getOrDefault(productId, BigDecimal.ZERO);
+
+            balances.put(productId, balance.add(rs.getBigDecimal(L_QUANTITY), numberService.getMathContext()));
+        });
+
+        for (Long productId : productIds) {
+            balances.putIfAbsent(productId, BigDecimal.ZERO);
+        }
+
+        return balances;
+    }
+
+    /**
+     * Writes checkpoints at the start of the current month for all products in all locations, which don't have one yet.
+     * 
+     * Run by a nightly job, which does nothing once checkpoints of the month are written; checkpoints removed by hooks later in
+     * the month are written again next month. Waits until transactions changing transfers or stock corrections complete, and
+     * makes them wait until checkpoints are written, so their hooks remove the checkpoints which don't include them.
+     */
+    @Transactional
+    public void createCheckpoints() {
+        MapSqlParameterSource params = new MapSqlParameterSource(L_CHECKPOINT_DATE, LocalDate.now().withDayOfMonth(1).toDate());
+
+        if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(SQL_CHECKPOINTS_EXIST, params, Boolean.class))) {
+            return;
+        }
+
+        jdbcTemplate.queryForList(SQL_LOCK_CHECKPOINTS, Collections.emptyMap());
+        jdbcTemplate.update(SQL_INSERT_CHECKPOINTS, params);
+    }
+
+    /**
+     * Removes checkpoints which include a transfer or a stock correction made at the given date.
+     * 
+     * @param locationId
+     *            location id, nothing is removed if null
+     * @param productId
+     *            product id, nothing is removed if null
+     * @param changeDate
+     *            date of the change, nothing is removed if null
+     */
+    public void removeCheckpoints(final Long locationId, final Long productId, final Date changeDate) {
+        if (locationId == null || productId == null || changeDate == null) {
+            return;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue(L_LOCATION_ID, locationId);
+        params.addValue(L_PRODUCT_ID, productId);
+        params.addValue(L_CHECKPOINT_DATE, changeDate);
+
+        jdbcTemplate.queryForList(SQL_LOCK_CHECKPOINTS_SHARED, Collections.emptyMap());
+        jdbcTemplate.update(SQL_DELETE_CHECKPOINTS, params);
+    }
+
+    private MapSqlParameterSource balanceParams(final Long locationId, final Collection<Long> productIds, final Date forDate) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue(L_LOCATION_ID, locationId);
+        params.addValue(L_PRODUCT_IDS, productIds);
+        params.addValue(L_FOR_DATE, forDate);
+
+        return params;
+    }
+
+}
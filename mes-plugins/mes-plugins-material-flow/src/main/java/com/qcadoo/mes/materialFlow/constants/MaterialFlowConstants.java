@@ -41,4 +41,6 @@ public interface MaterialFlowConstants {
 
     String MODEL_TRANSFORMATIONS = "transformations";
 
+    String MODEL_STOCK_LEDGER_CHECKPOINT = "stockLedgerCheckpoint";
+
 }
@@ -0,0 +1,81 @@
+package com.qcadoo.mes.materialFlow.hooks;
+
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.materialFlow.StockLedgerService;
+import com.qcadoo.mes.materialFlow.constants.StockCorrectionFields;
+import com.qcadoo.mes.materialFlow.constants.TransferFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Removes stock ledger checkpoints which include a changed transfer or stock correction, both in its previous and new state.
+ */
+@Service
+public class StockLedgerModelHooks {
+
+    @Autowired
+    private StockLedgerService stockLedgerService;
+
+    public void onTransferSave(final DataDefinition transferDD, final Entity transfer) {
+        if (transfer.getId() != null) {
+            removeTransferCheckpoints(transferDD.get(transfer.getId()));
+        }
+
+        removeTransferCheckpoints(transfer);
+    }
+
+    public boolean onTransferDelete(final DataDefinition transferDD, final Entity transfer) {
+        removeTransferCheckpoints(transfer);
+
+        return true;
+    }
+
+    public void onStockCorrectionSave(final DataDefinition stockCorrectionDD, final Entity stockCorrection) {
+        if (stockCorrection.getId() != null) {
+            removeStockCorrectionCheckpoints(stockCorrectionDD.get(stockCorrection.getId()));
+        }
+
+        removeStockCorrectionCheckpoints(stockCorrection);
+    }
+
+    public boolean onStockCorrectionDelete(final DataDefinition stockCorrectionDD, final Entity stockCorrection) {
+        removeStockCorrectionCheckpoints(stockCorrection);
+
+        return true;
+    }
+
+    private void removeTransferCheckpoints(final Entity transfer) {
+        if (transfer == null) {
+            return;
+        }
+
+        Long productId = getId(transfer.getBelongsToField(TransferFields.PRODUCT));
+        Date time = transfer.getDateField(TransferFields.TIME);
+
+        stockLedgerService.removeCheckpoints(getId(transfer.getBelongsToField(TransferFields.LOCATION_FROM)), productId, time);
+        stockLedgerService.removeCheckpoints(getId(transfer.getBelongsToField(TransferFields.LOCATION_TO)), productId, time);
+    }
+
+    private void removeStockCorrectionCheckpoints(final Entity stockCorrection) {
+        if (stockCorrection == null) {
+            return;
+        }
+
+        stockLedgerService.removeCheckpoints(getId(stockCorrection.getBelongsToField(StockCorrectionFields.LOCATION)),
+                getId(stockCorrection.getBelongsToField(StockCorrectionFields.PRODUCT)),
+                stockCorrection.getDateField(StockCorrectionFields.STOCK_CORRECTION_DATE));
+    }
+
+    private Long getId(final Entity entity) {
+        if (entity == null) {
+            return null;
+        }
+
+        return entity.getId();
+    }
+
+}
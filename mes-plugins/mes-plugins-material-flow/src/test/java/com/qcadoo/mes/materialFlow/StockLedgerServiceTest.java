@@ -0,0 +1,223 @@
+package com.qcadoo.mes.materialFlow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.NumberService;
+
+public class StockLedgerServiceTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 10L;
+
+    private static final Long L_OTHER_PRODUCT_ID = 11L;
+
+    private static final Date L_FOR_DATE = new DateTime(2026, 3, 15, 12, 0).toDate();
+
+    private StockLedgerService stockLedgerService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NumberService numberService;
+
+    private Map<Long, Object[]> bases;
+
+    private Map<Long, BigDecimal> transfersAfterBases;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stockLedgerService = new StockLedgerService();
+
+        ReflectionTestUtils.setField(stockLedgerService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(stockLedgerService, "numberService", numberService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+
+        bases = Maps.newHashMap();
+        transfersAfterBases = Maps.newHashMap();
+
+        willAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            for (Map.Entry<Long, Object[]> base : bases.entrySet()) {
+                ResultSet rs = mock(ResultSet.class);
+
+                given(rs.getLong("product_id")).willReturn(base.getKey());
+                given(rs.getTimestamp("basedate")).willReturn((Timestamp) base.getValue()[0]);
+                given(rs.getBigDecimal("quantity")).willReturn((BigDecimal) base.getValue()[1]);
+
+                handler.processRow(rs);
+            }
+
+            return null;
+        }).given(jdbcTemplate).query(startsWith("SELECT DISTINCT ON"), any(SqlParameterSource.class),
+                any(RowCallbackHandler.class));
+
+        willAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            for (Map.Entry<Long, BigDecimal> delta : transfersAfterBases.entrySet()) {
+                ResultSet rs = mock(ResultSet.class);
+
+                given(rs.getLong("product_id")).willReturn(delta.getKey());
+                given(rs.getBigDecimal("quantity")).willReturn(delta.getValue());
+
+                handler.processRow(rs);
+            }
+
+            return null;
+        }).given(jdbcTemplate).query(startsWith("WITH bases AS"), any(SqlParameterSource.class),
+                any(RowCallbackHandler.class));
+    }
+
+    @Test
+    public void shouldAddTransfersMadeAfterNearestBase() {
+        // given
+        bases.put(L_PRODUCT_ID, new Object[] { new Timestamp(new DateTime(2026, 3, 1, 0, 0).getMillis()), BigDecimal.TEN });
+        withTransfersAfterBases(L_PRODUCT_ID, new BigDecimal(-3));
+
+        // when
+        BigDecimal balance = stockLedgerService.getBalance(L_LOCATION_ID, L_PRODUCT_ID, L_FOR_DATE);
+
+        // then
+        assertEquals(new BigDecimal(7), balance);
+
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+        verify(jdbcTemplate, times(2)).query(query.capture(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+
+        assertTrue(query.getAllValues().get(1).contains("LEFT JOIN bases b ON b.product_id = t.product_id"));
+        assertTrue(query.getAllValues().get(1).contains("t.time > b.basedate"));
+    }
+
+    @Test
+    public void shouldNotWriteCheckpointsWhenReadingBalances() {
+        // given
+        bases.put(L_PRODUCT_ID, new Object[] { new Timestamp(new DateTime(2025, 11, 20, 8, 0).getMillis()), BigDecimal.TEN });
+        withTransfersAfterBases(L_PRODUCT_ID, new BigDecimal(5));
+        withTransfersAfterBases(L_OTHER_PRODUCT_ID, new BigDecimal(2));
+
+        // when
+        Map<Long, BigDecimal> balances = stockLedgerService.getBalances(L_LOCATION_ID,
+                Lists.newArrayList(L_PRODUCT_ID, L_OTHER_PRODUCT_ID), L_FOR_DATE);
+
+        // then
+        assertEquals(new BigDecimal(15), balances.get(L_PRODUCT_ID));
+        assertEquals(new BigDecimal(2), balances.get(L_OTHER_PRODUCT_ID));
+
+        verify(jdbcTemplate, never()).update(any(String.class), any(SqlParameterSource.class));
+        verify(jdbcTemplate, never()).batchUpdate(any(String.class), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldCreateCheckpointsAtStartOfCurrentMonthUnderExclusiveLock() {
+        // given
+        given(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), any(SqlParameterSource.class), eq(Boolean.class)))
+                .willReturn(false);
+
+        // when
+        stockLedgerService.createCheckpoints();
+
+        // then
+        ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource> params = ArgumentCaptor.forClass(SqlParameterSource.class);
+        InOrder inOrder = inOrder(jdbcTemplate);
+
+        inOrder.verify(jdbcTemplate).queryForList(startsWith("SELECT pg_advisory_xact_lock("), anyMap());
+        inOrder.verify(jdbcTemplate).update(query.capture(), params.capture());
+
+        assertEquals(LocalDate.now().withDayOfMonth(1).toDate(), params.getValue().getValue("checkpointDate"));
+        assertTrue(query.getValue().contains("LEFT JOIN bases b ON b.location_id = t.locationto_id AND b.product_id = t.product_id"));
+        assertTrue(query.getValue().contains("(b.basedate IS NULL OR t.time > b.basedate)"));
+        assertTrue(query.getValue().endsWith("ON CONFLICT (checkpointkey) DO NOTHING"));
+    }
+
+    @Test
+    public void shouldSkipCheckpointsWhenCurrentMonthHasThemAlready() {
+        // given
+        given(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), any(SqlParameterSource.class), eq(Boolean.class)))
+                .willReturn(true);
+
+        // when
+        stockLedgerService.createCheckpoints();
+
+        // then
+        verify(jdbcTemplate, never()).queryForList(startsWith("SELECT pg_advisory_xact_lock("), anyMap());
+        verify(jdbcTemplate, never()).update(any(String.class), any(SqlParameterSource.class));
+    }
+
+    @Test
+    public void shouldRemoveCheckpointsUnderSharedLock() {
+        // when
+        stockLedgerService.removeCheckpoints(L_LOCATION_ID, L_PRODUCT_ID, L_FOR_DATE);
+
+        // then
+        InOrder inOrder = inOrder(jdbcTemplate);
+
+        inOrder.verify(jdbcTemplate).queryForList(startsWith("SELECT pg_advisory_xact_lock_shared("), anyMap());
+        inOrder.verify(jdbcTemplate).update(startsWith("DELETE FROM materialflow_stockledgercheckpoint"),
+                any(SqlParameterSource.class));
+    }
+
+    @Test
+    public void shouldReturnZeroForProductWhichHasNeverBeenInLocation() {
+        // when
+        BigDecimal balance = stockLedgerService.getBalance(L_LOCATION_ID, L_PRODUCT_ID, L_FOR_DATE);
+
+        // then
+        assertEquals(BigDecimal.ZERO, balance);
+    }
+
+    @Test
+    public void shouldNotRemoveCheckpointsForChangeWithoutDate() {
+        // when
+        stockLedgerService.removeCheckpoints(L_LOCATION_ID, L_PRODUCT_ID, null);
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    private void withTransfersAfterBases(final Long productId, final BigDecimal quantity) {
+        transfersAfterBases.put(productId, quantity);
+    }
+
+}
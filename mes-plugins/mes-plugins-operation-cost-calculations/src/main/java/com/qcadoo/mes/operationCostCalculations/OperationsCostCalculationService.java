@@ -29,6 +29,7 @@ import java.util.Map;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTreeNode;
 
@@ -43,6 +44,17 @@ public interface OperationsCostCalculationService {
      */
     void calculateOperationsCost(final Entity costCalculationOrProductionBalance, boolean hourlyCostFromOperation);
 
+    /**
+     * 
+     * @param costCalculationOrProductionBalance
+     *            cost calculation or production balance
+     * @param hourlyCostFromOperation
+     * @param productQuantitiesAndOperationRuns
+     *            product quantities and operation runs of technology used by given entity, already exploded by caller
+     */
+    void calculateOperationsCost(final Entity costCalculationOrProductionBalance, boolean hourlyCostFromOperation,
+            final ProductQuantitiesHolder productQuantitiesAndOperationRuns);
+
     /**
      * 
      * @param calculationOperationComponent
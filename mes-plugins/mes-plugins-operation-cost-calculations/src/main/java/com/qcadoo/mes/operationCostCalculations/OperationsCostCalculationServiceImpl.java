@@ -135,6 +135,12 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
 
     @Override
     public void calculateOperationsCost(final Entity costCalculationOrProductionBalance, boolean hourlyCostFromOperation) {
+        calculateOperationsCost(costCalculationOrProductionBalance, hourlyCostFromOperation, null);
+    }
+
+    @Override
+    public void calculateOperationsCost(final Entity costCalculationOrProductionBalance, boolean hourlyCostFromOperation,
+            final ProductQuantitiesHolder productQuantitiesAndOperationRunsOfTechnology) {
         checkArgument(costCalculationOrProductionBalance != null, "entity is null");
         String modelName = costCalculationOrProductionBalance.getDataDefinition().getName();
         checkArgument(L_COST_CALCULATION.equals(modelName) || L_PRODUCTION_BALANCE.equals(modelName), "unsupported entity type");
@@ -157,8 +163,12 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
                     TechnologiesConstants.MODEL_TECHNOLOGY).get(technologyFromOrder.getId());
         }
 
-        ProductQuantitiesHolder productQuantitiesAndOperationRuns = getProductQuantitiesAndOperationRuns(technology, quantity,
-                costCalculationOrProductionBalance);
+        ProductQuantitiesHolder productQuantitiesAndOperationRuns = productQuantitiesAndOperationRunsOfTechnology;
+
+        if (productQuantitiesAndOperationRuns == null) {
+            productQuantitiesAndOperationRuns = getProductQuantitiesAndOperationRuns(technology, quantity,
+                    costCalculationOrProductionBalance);
+        }
 
         if (order != null) {
             order.setField(L_TECHNOLOGY, technology);
@@ -31,6 +31,7 @@ import java.util.Map;
 import org.apache.commons.collections.MultiMap;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationsSchedule;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTreeNode;
@@ -106,6 +107,26 @@ public interface OrderRealizationTimeService {
             BigDecimal plannedQuantity, boolean includeTpz, boolean includeAdditionalTime,
             Entity productionLine);
 
+    /**
+     * Schedules all operations of the tree in one pass from leaves to the root and saves their offsets and realization times.
+     * 
+     * @param operationComponent
+     *            operationComponent of an operation we want to estimate, together with its children
+     * @param plannedQuantity
+     *            How many products we want this operation to produce
+     * @param includeTpz
+     *            Flag indicating if we want to include Tpz
+     * @param includeAdditionalTime
+     *            Flag indicating if we want to include Additional Time
+     * @param productionLine
+     *            production line for technology
+     * @param maxForWorkstation
+     *            Flag indicating if we want max time consumption for workstation
+     * @return schedule with offsets, durations and the critical path of operations
+     */
+    @Transactional OperationsSchedule scheduleOperations(EntityTreeNode operationComponent, BigDecimal plannedQuantity,
+            boolean includeTpz, boolean includeAdditionalTime, Entity productionLine, boolean maxForWorkstation);
+
     /**
      * 
      * @param entity
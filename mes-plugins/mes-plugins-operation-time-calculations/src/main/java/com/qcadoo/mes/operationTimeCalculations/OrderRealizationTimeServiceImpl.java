@@ -31,7 +31,10 @@ import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -46,6 +49,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationsSchedule;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationsSchedule.ScheduledOperation;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.ProductionLinesService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
@@ -64,6 +69,12 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
 
     private static final String L_ORDER = "order";
 
+    private static final String L_CHILDREN = "children";
+
+    private static final String L_NEXT_OPERATION_AFTER_PRODUCED_TYPE = "nextOperationAfterProducedType";
+
+    private static final String L_SPECIFIED = "02specified";
+
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
@@ -85,15 +96,8 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     @Transactional
     public int estimateOperationTimeConsumption(final EntityTreeNode operationComponent, final BigDecimal plannedQuantity,
             final boolean includeTpz, final boolean includeAdditionalTime, final Entity productionLine) {
-        Entity technology = operationComponent.getBelongsToField(TECHNOLOGY);
-
-        Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
-
-        OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
-                .getProductComponentQuantities(technology, plannedQuantity, operationRunsFromProductionQuantities);
-
-        return evaluateOperationTime(operationComponent, includeTpz, includeAdditionalTime,
-                operationRunsFromProductionQuantities, productionLine, false, productComponentQuantities);
+        return scheduleOperations(operationComponent, plannedQuantity, includeTpz, includeAdditionalTime, productionLine, false)
+                .getTotalTime();
     }
 
     @Override
@@ -101,6 +105,15 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     public int estimateMaxOperationTimeConsumptionForWorkstation(final EntityTreeNode operationComponent,
             final BigDecimal plannedQuantity, final boolean includeTpz, final boolean includeAdditionalTime,
             final Entity productionLine) {
+        return scheduleOperations(operationComponent, plannedQuantity, includeTpz, includeAdditionalTime, productionLine, true)
+                .getTotalTime();
+    }
+
+    @Override
+    @Transactional
+    public OperationsSchedule scheduleOperations(final EntityTreeNode operationComponent, final BigDecimal plannedQuantity,
+            final boolean includeTpz, final boolean includeAdditionalTime, final Entity productionLine,
+            final boolean maxForWorkstation) {
         Entity technology = operationComponent.getBelongsToField(TECHNOLOGY);
 
         Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
@@ -108,8 +121,14 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
                 .getProductComponentQuantities(technology, plannedQuantity, operationRunsFromProductionQuantities);
 
-        return evaluateOperationTime(operationComponent, includeTpz, includeAdditionalTime,
-                operationRunsFromProductionQuantities, productionLine, true, productComponentQuantities);
+        OperationTimeContext context = new OperationTimeContext(includeTpz, includeAdditionalTime,
+                operationRunsFromProductionQuantities, productionLine, productComponentQuantities);
+
+        OperationsSchedule schedule = scheduleOperations(operationComponent, context, maxForWorkstation);
+
+        saveTimeCalculations(schedule);
+
+        return schedule;
     }
 
     @Override
@@ -152,62 +171,73 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         productQuantitiesService
                 .getProductComponentQuantities(technology, plannedQuantity, operationRunsFromProductionQuantities);
 
+        OperationTimeContext context = new OperationTimeContext(includeTpz, includeAdditionalTime,
+                operationRunsFromProductionQuantities, productionLine, null);
+
         for (Entity operationComponent : operationComponents) {
-            evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operationComponent, includeTpz,
-                    includeAdditionalTime, operationRunsFromProductionQuantities, productionLine, maxForWorkstation);
+            evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operationComponent, context,
+                    maxForWorkstation);
         }
 
         return operationDurations;
     }
 
     private void evaluateTimesConsideringOperationCanBeReferencedTechnology(final Map<Entity, Integer> operationDurations,
-            final Entity operationComponent, final boolean includeTpz, final boolean includeAdditionalTime,
-            final Map<Long, BigDecimal> operationRuns, final Entity productionLine, final boolean maxForWorkstation) {
+            final Entity operationComponent, final OperationTimeContext context, final boolean maxForWorkstation) {
         String entityType = operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE);
 
         if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(entityType)) {
             for (Entity operComp : operationComponent.getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
                     .getTreeField(TechnologyFields.OPERATION_COMPONENTS)) {
-                evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operComp, includeTpz,
-                        includeAdditionalTime, operationRuns, productionLine, maxForWorkstation);
+                evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operComp, context,
+                        maxForWorkstation);
             }
         } else {
-            int duration = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation);
+            int duration = evaluateSingleOperationTime(context, operationComponent, maxForWorkstation);
 
             operationDurations.put(operationComponent, duration);
 
         }
     }
 
-    private int evaluateOperationTime(final Entity operationComponent, final boolean includeTpz,
-            final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
-            final boolean maxForWorkstation, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
-        String entityType = operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE);
+    private OperationsSchedule scheduleOperations(final Entity rootOperationComponent, final OperationTimeContext context,
+            final boolean maxForWorkstation) {
+        List<ScheduleNode> nodes = Lists.newArrayList();
+        Deque<ScheduleNode> nodesToVisit = new ArrayDeque<ScheduleNode>();
 
-        if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(entityType)) {
-            EntityTreeNode actualOperationComponent = operationComponent
-                    .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
-                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+        ScheduleNode root = new ScheduleNode(rootOperationComponent, getOperation(rootOperationComponent));
+
+        nodesToVisit.push(root);
+
+        while (!nodesToVisit.isEmpty()) {
+            ScheduleNode node = nodesToVisit.pop();
+
+            nodes.add(node);
+
+            for (Entity child : Lists.newArrayList(node.operation.getHasManyField(L_CHILDREN).iterator())) {
+                ScheduleNode childNode = new ScheduleNode(child, getOperation(child));
+
+                node.children.add(childNode);
+                nodesToVisit.push(childNode);
+            }
+        }
+
+        List<ScheduledOperation> scheduledOperations = Lists.newArrayList();
 
-            return evaluateOperationTime(actualOperationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation, productComponentQuantities);
-        } else if (TechnologyOperationComponentEntityType.OPERATION.getStringValue().equals(entityType)) {
-            int operationTime = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation);
+        // nodes are visited parents first, so in reversed order all children are scheduled before their parent
+        for (ScheduleNode node : Lists.reverse(nodes)) {
+            int operationTime = evaluateSingleOperationTime(context, node.operation, maxForWorkstation);
             int offset = 0;
 
-            List<Entity> childs = Lists.newArrayList(operationComponent.getHasManyField("children"));
-            for (Entity child : childs) {
-                int childTime = evaluateOperationTime(child, includeTpz, includeAdditionalTime, operationRuns, productionLine,
-                        maxForWorkstation, productComponentQuantities);
+            ScheduledOperation criticalChild = null;
 
-                if ("02specified".equals(child.getStringField("nextOperationAfterProducedType"))) {
+            for (ScheduleNode child : node.children) {
+                int childTime = child.scheduledOperation.getFinish();
 
-                    int childTimeTotal = evaluateSingleOperationTime(child, includeTpz, includeAdditionalTime, operationRuns,
-                            productionLine, true);
-                    int childTimeForQuantity = evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(child,
-                            includeTpz, false, operationRuns, productionLine, true, productComponentQuantities);
+                if (L_SPECIFIED.equals(child.operationComponent.getStringField(L_NEXT_OPERATION_AFTER_PRODUCED_TYPE))) {
+                    int childTimeTotal = evaluateSingleOperationTime(context, child.operationComponent, true);
+                    int childTimeForQuantity = evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(context,
+                            child.operationComponent, false, true);
 
                     int difference = childTimeTotal - childTimeForQuantity;
                     childTime -= difference;
@@ -215,26 +245,54 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
 
                 if (childTime > offset) {
                     offset = childTime;
+                    criticalChild = child.scheduledOperation;
                 }
             }
 
-            if (TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT.equals(operationComponent.getDataDefinition()
-                    .getName())) {
-                Entity techOperCompTimeCalculation = operationComponent
-                        .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION);
+            node.scheduledOperation = new ScheduledOperation(node.operation, offset, operationTime, criticalChild);
 
-                if (techOperCompTimeCalculation != null) {
-                    techOperCompTimeCalculation.setField("operationOffSet", offset);
-                    techOperCompTimeCalculation.setField("effectiveOperationRealizationTime", operationTime);
+            scheduledOperations.add(node.scheduledOperation);
+        }
 
-                    techOperCompTimeCalculation.getDataDefinition().save(techOperCompTimeCalculation);
-                }
-            }
+        return new OperationsSchedule(root.scheduledOperation, scheduledOperations);
+    }
+
+    private Entity getOperation(final Entity operationComponent) {
+        Entity operation = operationComponent;
+
+        while (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                operation.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+            operation = operation.getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
+                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+        }
 
-            return offset + operationTime;
+        if (!TechnologyOperationComponentEntityType.OPERATION.getStringValue().equals(
+                operation.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+            throw new IllegalStateException("entityType has to be either operation or referenceTechnology");
         }
 
-        throw new IllegalStateException("entityType has to be either operation or referenceTechnology");
+        return operation;
+    }
+
+    private void saveTimeCalculations(final OperationsSchedule schedule) {
+        for (ScheduledOperation scheduledOperation : schedule.getScheduledOperations()) {
+            Entity operationComponent = scheduledOperation.getOperationComponent();
+
+            if (!TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT.equals(operationComponent.getDataDefinition()
+                    .getName())) {
+                continue;
+            }
+
+            Entity techOperCompTimeCalculation = operationComponent
+                    .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION);
+
+            if (techOperCompTimeCalculation != null) {
+                techOperCompTimeCalculation.setField("operationOffSet", scheduledOperation.getOffset());
+                techOperCompTimeCalculation.setField("effectiveOperationRealizationTime", scheduledOperation.getDuration());
+
+                techOperCompTimeCalculation.getDataDefinition().save(techOperCompTimeCalculation);
+            }
+        }
     }
 
     private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
@@ -255,64 +313,90 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     }
 
     @Override
-    public int evaluateSingleOperationTime(Entity operationComponent, final boolean includeTpz,
+    public int evaluateSingleOperationTime(final Entity operationComponent, final boolean includeTpz,
             final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
             final boolean maxForWorkstation) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
+        return evaluateSingleOperationTime(new OperationTimeContext(includeTpz, includeAdditionalTime, operationRuns,
+                productionLine, null), operationComponent, maxForWorkstation);
+    }
+
+    private int evaluateSingleOperationTime(final OperationTimeContext context, final Entity operationComponent,
+            final boolean maxForWorkstation) {
+        return context.operationTimes.computeIfAbsent(Arrays.<Object> asList(operationComponent.getId(), maxForWorkstation), key -> {
+            Entity technologyOperationComponent = context.getOperationComponent(operationComponent);
+
+            BigDecimal cycles = context.operationRuns.get(technologyOperationComponent.getId());
+            if (cycles == null) {
+                cycles = getDefaultOperationRuns(context, technologyOperationComponent).get(
+                        technologyOperationComponent.getId());
+            }
+            return evaluateOperationDurationOutOfCycles(cycles, technologyOperationComponent, context.productionLine,
+                    maxForWorkstation, context.includeTpz, context.includeAdditionalTime);
+        });
+    }
+
+    private Map<Long, BigDecimal> getDefaultOperationRuns(final OperationTimeContext context,
+            final Entity technologyOperationComponent) {
+        Entity technology = technologyOperationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY);
 
-        BigDecimal cycles = operationRuns.get(operationComponent.getId());
-        if (cycles == null) {
+        return context.defaultOperationRuns.computeIfAbsent(technology.getId(), technologyId -> {
             Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
 
-            OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
-                    .getProductComponentQuantities(operationComponent
-                            .getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY),
-                            new BigDecimal("56", numberService.getMathContext()), operationRunsFromProductionQuantities);
-            cycles = operationRunsFromProductionQuantities.get(operationComponent.getId());
-        }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
+            productQuantitiesService.getProductComponentQuantities(technology,
+                    new BigDecimal("56", numberService.getMathContext()), operationRunsFromProductionQuantities);
+
+            return operationRunsFromProductionQuantities;
+        });
     }
 
     @Override
-    public int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(Entity operationComponent,
+    public int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(final Entity operationComponent,
             final boolean includeTpz, final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns,
             final Entity productionLine, final boolean maxForWorkstation,
             final OperationProductComponentWithQuantityContainer productComponentQuantities) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
+        return evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(new OperationTimeContext(includeTpz,
+                includeAdditionalTime, operationRuns, productionLine, productComponentQuantities), operationComponent,
+                includeAdditionalTime, maxForWorkstation);
+    }
+
+    private int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(final OperationTimeContext context,
+            final Entity operationComponent, final boolean includeAdditionalTime, final boolean maxForWorkstation) {
+        Entity technologyOperationComponent = context.getOperationComponent(operationComponent);
         BigDecimal cycles = BigDecimal.ONE;
-        BigDecimal nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(operationComponent
+        BigDecimal nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(technologyOperationComponent
                 .getDecimalField("nextOperationAfterProducedQuantity"));
-        BigDecimal productComponentQuantity = productComponentQuantities.get(getOutputProduct(operationComponent));
-        Entity technologyOperationComponent = getTechnologyOperationComponent(operationComponent);
+        BigDecimal productComponentQuantity = context.productComponentQuantities
+                .get(getOutputProduct(technologyOperationComponent));
 
         if (nextOperationAfterProducedQuantity.compareTo(productComponentQuantity) != 1) {
-            cycles = getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(technologyOperationComponent,
+            cycles = getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(context, technologyOperationComponent,
                     nextOperationAfterProducedQuantity);
         } else {
-            cycles = operationRuns.get(technologyOperationComponent.getId());
+            cycles = context.operationRuns.get(technologyOperationComponent.getId());
         }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
-    }
-
-    private Entity getTechnologyOperationComponent(final Entity operationComponent) {
-        return operationComponent;
+        return evaluateOperationDurationOutOfCycles(cycles, technologyOperationComponent, context.productionLine,
+                maxForWorkstation, context.includeTpz, includeAdditionalTime);
     }
 
     private Entity getOutputProduct(final Entity operationComponent) {
         return productQuantitiesService.getOutputProductsFromOperationComponent(operationComponent);
     }
 
-    private BigDecimal getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(final Entity operationComponent,
-            final BigDecimal nextOperationAfterProducedQuantity) {
+    private BigDecimal getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(final OperationTimeContext context,
+            final Entity operationComponent, final BigDecimal nextOperationAfterProducedQuantity) {
         MathContext mc = numberService.getMathContext();
         Entity technology = operationComponent.getBelongsToField("technology");
 
-        Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
+        if (!context.unitProductQuantities.containsKey(technology.getId())) {
+            Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
+
+            context.unitProductQuantities.put(technology.getId(), productQuantitiesService.getProductComponentQuantities(
+                    technology, BigDecimal.ONE, operationRunsFromProductionQuantities));
+            context.unitOperationRuns.put(technology.getId(), operationRunsFromProductionQuantities);
+        }
 
-        OperationProductComponentWithQuantityContainer productQuantities = productQuantitiesService
-                .getProductComponentQuantities(technology, BigDecimal.ONE, operationRunsFromProductionQuantities);
+        Map<Long, BigDecimal> operationRunsFromProductionQuantities = context.unitOperationRuns.get(technology.getId());
+        OperationProductComponentWithQuantityContainer productQuantities = context.unitProductQuantities.get(technology.getId());
 
         BigDecimal operationsRunsForOneMainProduct = operationRunsFromProductionQuantities.get(operationComponent.getId());
         BigDecimal quantityOutputProductProduced = productQuantities.get(getOutputProduct(operationComponent));
@@ -375,4 +459,65 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             Entity productionLine) {
         return estimateOperationTimeConsumption(operationComponent, plannedQuantity, true, true, productionLine);
     }
+
+    private static final class ScheduleNode {
+
+        private final Entity operationComponent;
+
+        private final Entity operation;
+
+        private final List<ScheduleNode> children = Lists.newArrayList();
+
+        private ScheduledOperation scheduledOperation;
+
+        private ScheduleNode(final Entity operationComponent, final Entity operation) {
+            this.operationComponent = operationComponent;
+            this.operation = operation;
+        }
+
+    }
+
+    /**
+     * Operation components, product quantities and operation times computed during one calculation - each of them is
+     * loaded or computed once, however many times the calculation needs it.
+     */
+    private static final class OperationTimeContext {
+
+        private final boolean includeTpz;
+
+        private final boolean includeAdditionalTime;
+
+        private final Map<Long, BigDecimal> operationRuns;
+
+        private final Entity productionLine;
+
+        private final OperationProductComponentWithQuantityContainer productComponentQuantities;
+
+        private final Map<Long, Entity> operationComponents = Maps.newHashMap();
+
+        private final Map<List<Object>, Integer> operationTimes = Maps.newHashMap();
+
+        private final Map<Long, Map<Long, BigDecimal>> defaultOperationRuns = Maps.newHashMap();
+
+        private final Map<Long, Map<Long, BigDecimal>> unitOperationRuns = Maps.newHashMap();
+
+        private final Map<Long, OperationProductComponentWithQuantityContainer> unitProductQuantities = Maps.newHashMap();
+
+        private OperationTimeContext(final boolean includeTpz, final boolean includeAdditionalTime,
+                final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
+                final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+            this.includeTpz = includeTpz;
+            this.includeAdditionalTime = includeAdditionalTime;
+            this.operationRuns = operationRuns;
+            this.productionLine = productionLine;
+            this.productComponentQuantities = productComponentQuantities;
+        }
+
+        private Entity getOperationComponent(final Entity operationComponent) {
+            return operationComponents.computeIfAbsent(operationComponent.getId(),
+                    operationComponentId -> operationComponent.getDataDefinition().get(operationComponentId));
+        }
+
+    }
+
 }
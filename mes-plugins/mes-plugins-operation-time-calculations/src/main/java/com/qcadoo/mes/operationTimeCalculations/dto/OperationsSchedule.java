@@ -0,0 +1,90 @@
+package com.qcadoo.mes.operationTimeCalculations.dto;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Start offsets and durations of all operations of a technology tree, computed in one pass from leaves to the root.
+ */
+public class OperationsSchedule {
+
+    private final ScheduledOperation root;
+
+    private final List<ScheduledOperation> scheduledOperations;
+
+    public OperationsSchedule(final ScheduledOperation root, final List<ScheduledOperation> scheduledOperations) {
+        this.root = root;
+        this.scheduledOperations = Collections.unmodifiableList(scheduledOperations);
+    }
+
+    /**
+     * @return time consumption of the whole tree in seconds - offset and duration of the root operation
+     */
+    public int getTotalTime() {
+        return root.getFinish();
+    }
+
+    /**
+     * @return scheduled operations, each one after all of its children
+     */
+    public List<ScheduledOperation> getScheduledOperations() {
+        return scheduledOperations;
+    }
+
+    /**
+     * @return operations from the root to the leaf which determine the total time
+     */
+    public List<Entity> getCriticalPath() {
+        List<Entity> criticalPath = Lists.newArrayList();
+
+        for (ScheduledOperation operation = root; operation != null; operation = operation.getCriticalChild()) {
+            criticalPath.add(operation.getOperationComponent());
+        }
+
+        return criticalPath;
+    }
+
+    public static class ScheduledOperation {
+
+        private final Entity operationComponent;
+
+        private final int offset;
+
+        private final int duration;
+
+        private final ScheduledOperation criticalChild;
+
+        public ScheduledOperation(final Entity operationComponent, final int offset, final int duration,
+                final ScheduledOperation criticalChild) {
+            this.operationComponent = operationComponent;
+            this.offset = offset;
+            this.duration = duration;
+            this.criticalChild = criticalChild;
+        }
+
+        public Entity getOperationComponent() {
+            return operationComponent;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+
+        public int getFinish() {
+            return offset + duration;
+        }
+
+        public ScheduledOperation getCriticalChild() {
+            return criticalChild;
+        }
+
+    }
+
+}
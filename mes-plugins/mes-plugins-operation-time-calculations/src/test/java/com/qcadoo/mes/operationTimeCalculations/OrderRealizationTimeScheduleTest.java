@@ -0,0 +1,212 @@
+package com.qcadoo.mes.operationTimeCalculations;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationsSchedule;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.ProductionLinesService;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.NumberService;
+
+public class OrderRealizationTimeScheduleTest {
+
+    private static final int L_CHAIN_DURATION = 10;
+
+    private static final int L_LEAF_DURATION = 5;
+
+    private OrderRealizationTimeServiceImpl orderRealizationTimeService;
+
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private ProductionLinesService productionLinesService;
+
+    @Mock
+    private DataDefinition operationComponentDD, techOperCompTimeCalculationDD;
+
+    @Mock
+    private Entity technology, parameter;
+
+    private List<Entity> operationComponents;
+
+    private Map<Entity, Entity> techOperCompTimeCalculations;
+
+    private long nextId;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        orderRealizationTimeService = new OrderRealizationTimeServiceImpl();
+
+        ReflectionTestUtils.setField(orderRealizationTimeService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "numberService", numberService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "productionLinesService", productionLinesService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(technology.getId()).willReturn(1L);
+        given(operationComponentDD.getName()).willReturn(TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+
+        operationComponents = Lists.newArrayList();
+        techOperCompTimeCalculations = Maps.newHashMap();
+        nextId = 1L;
+
+        given(productQuantitiesService.getProductComponentQuantities(eq(technology), any(BigDecimal.class), anyMap()))
+                .willAnswer(invocation -> {
+                    @SuppressWarnings("unchecked")
+                    Map<Long, BigDecimal> operationRuns = (Map<Long, BigDecimal>) invocation.getArguments()[2];
+
+                    for (Entity operationComponent : operationComponents) {
+                        operationRuns.put(operationComponent.getId(), BigDecimal.ONE);
+                    }
+
+                    return new OperationProductComponentWithQuantityContainer();
+                });
+    }
+
+    @Test
+    public void shouldScheduleDeepTechnologyInOnePass() {
+        // given
+        int depth = 300;
+
+        EntityTreeNode root = mockOperationComponent(L_CHAIN_DURATION);
+        Entity parent = root;
+
+        List<Entity> expectedCriticalPath = Lists.newArrayList(root);
+
+        for (int level = 1; level < depth; level++) {
+            Entity chainChild = mockOperationComponent(L_CHAIN_DURATION);
+
+            withChildren(parent, chainChild, mockOperationComponent(L_LEAF_DURATION));
+            expectedCriticalPath.add(chainChild);
+
+            parent = chainChild;
+        }
+
+        Entity lastLeaf = mockOperationComponent(L_LEAF_DURATION);
+
+        withChildren(parent, lastLeaf);
+        expectedCriticalPath.add(lastLeaf);
+
+        // when
+        OperationsSchedule schedule = orderRealizationTimeService.scheduleOperations(root, BigDecimal.ONE, false, false, null,
+                false);
+
+        // then
+        assertEquals(L_LEAF_DURATION + depth * L_CHAIN_DURATION, schedule.getTotalTime());
+        assertEquals(expectedCriticalPath, schedule.getCriticalPath());
+        assertEquals(operationComponents.size(), schedule.getScheduledOperations().size());
+
+        verify(productQuantitiesService, times(1)).getProductComponentQuantities(eq(technology), any(BigDecimal.class),
+                anyMap());
+
+        for (Entity operationComponent : operationComponents) {
+            verify(operationComponentDD, times(1)).get(operationComponent.getId());
+            verify(techOperCompTimeCalculationDD, times(1)).save(techOperCompTimeCalculations.get(operationComponent));
+        }
+
+        int lastLevel = depth - 1;
+
+        verify(techOperCompTimeCalculations.get(root)).setField("operationOffSet",
+                L_LEAF_DURATION + lastLevel * L_CHAIN_DURATION);
+        verify(techOperCompTimeCalculations.get(root)).setField("effectiveOperationRealizationTime", L_CHAIN_DURATION);
+        verify(techOperCompTimeCalculations.get(lastLeaf)).setField("operationOffSet", 0);
+        verify(techOperCompTimeCalculations.get(lastLeaf)).setField("effectiveOperationRealizationTime", L_LEAF_DURATION);
+    }
+
+    @Test
+    public void shouldStartOperationAfterItsLongestChild() {
+        // given
+        EntityTreeNode root = mockOperationComponent(L_CHAIN_DURATION);
+        Entity shortChild = mockOperationComponent(L_LEAF_DURATION);
+        Entity longChild = mockOperationComponent(3 * L_LEAF_DURATION);
+
+        withChildren(root, shortChild, longChild);
+
+        // when
+        OperationsSchedule schedule = orderRealizationTimeService.scheduleOperations(root, BigDecimal.ONE, false, false, null,
+                false);
+
+        // then
+        assertEquals(3 * L_LEAF_DURATION + L_CHAIN_DURATION, schedule.getTotalTime());
+        assertEquals(Lists.newArrayList(root, longChild), schedule.getCriticalPath());
+        assertEquals(root, schedule.getScheduledOperations().get(2).getOperationComponent());
+        assertEquals(3 * L_LEAF_DURATION, schedule.getScheduledOperations().get(2).getOffset());
+
+        verify(techOperCompTimeCalculations.get(root)).setField("operationOffSet", 3 * L_LEAF_DURATION);
+        verify(techOperCompTimeCalculations.get(shortChild)).setField("operationOffSet", 0);
+        verify(techOperCompTimeCalculations.get(longChild)).setField("operationOffSet", 0);
+    }
+
+    private EntityTreeNode mockOperationComponent(final int duration) {
+        EntityTreeNode operationComponent = mock(EntityTreeNode.class);
+        Entity techOperCompTimeCalculation = mock(Entity.class);
+        Long id = nextId++;
+
+        given(operationComponent.getId()).willReturn(id);
+        given(operationComponent.getDataDefinition()).willReturn(operationComponentDD);
+        given(operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE)).willReturn(
+                TechnologyOperationComponentEntityType.OPERATION.getStringValue());
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)).willReturn(technology);
+        given(operationComponent.getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS)).willReturn(1);
+        given(operationComponent.getField("tj")).willReturn(duration);
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION))
+                .willReturn(techOperCompTimeCalculation);
+        given(techOperCompTimeCalculation.getId()).willReturn(id);
+        given(techOperCompTimeCalculation.getDataDefinition()).willReturn(techOperCompTimeCalculationDD);
+        given(operationComponentDD.get(id)).willReturn(operationComponent);
+
+        withChildren(operationComponent);
+
+        operationComponents.add(operationComponent);
+        techOperCompTimeCalculations.put(operationComponent, techOperCompTimeCalculation);
+
+        return operationComponent;
+    }
+
+    private void withChildren(final Entity operationComponent, final Entity... children) {
+        EntityList childrenList = mock(EntityList.class);
+
+        given(childrenList.iterator()).willAnswer(invocation -> Lists.newArrayList(children).iterator());
+        given(operationComponent.getHasManyField("children")).willReturn(childrenList);
+    }
+
+}
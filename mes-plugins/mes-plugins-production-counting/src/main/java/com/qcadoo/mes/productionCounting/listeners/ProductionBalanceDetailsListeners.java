@@ -63,6 +63,8 @@ public class ProductionBalanceDetailsListeners {
 
     private static final String L_EMPTY_NUMBER = "";
 
+    private static final String L_XLS = "xls";
+
     @Autowired
     private TranslationService translationService;
 
@@ -199,6 +201,19 @@ public class ProductionBalanceDetailsListeners {
     }
 
     public void printProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        Long productionBalanceId = (Long) state.getFieldValue();
+
+        if (L_XLS.equals(args[0]) && productionBalanceId != null) {
+            Entity productionBalance = productionCountingService.getProductionBalance(productionBalanceId);
+
+            // balances generated before xlsx was introduced are still printed from their xls files
+            if (productionBalance != null && productionBalanceXlsService.getFile(productionBalance).exists()) {
+                view.redirectTo("/productionCounting/productionBalance.xlsx?id=" + productionBalanceId, true, false);
+
+                return;
+            }
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], ProductionCountingConstants.PLUGIN_IDENTIFIER,
                 ProductionCountingConstants.MODEL_PRODUCTION_BALANCE, args[1] });
     }
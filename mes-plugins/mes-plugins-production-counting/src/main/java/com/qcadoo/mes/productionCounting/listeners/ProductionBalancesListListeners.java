@@ -27,20 +27,44 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceAggregateService;
 import com.qcadoo.report.api.ReportService;
+import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 
 @Service
 public class ProductionBalancesListListeners {
 
+    private static final String ROLE_SUPERADMIN = "ROLE_SUPERADMIN";
+
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private SecurityService securityService;
+
+    @Autowired
+    private ProductionBalanceAggregateService productionBalanceAggregateService;
+
     public void printProductionBalance(final ViewDefinitionState view, final ComponentState state,
             final String[] args) {
         reportService.printGeneratedReport(view, state, new String[] { args[0],
                 ProductionCountingConstants.PLUGIN_IDENTIFIER, ProductionCountingConstants.MODEL_PRODUCTION_BALANCE, args[1] });
     }
 
+    public void repairAggregates(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!securityService.hasCurrentUserRole(ROLE_SUPERADMIN)) {
+            state.addMessage("productionCounting.productionBalancesList.message.repairAggregatesNotAllowed", MessageType.FAILURE);
+
+            return;
+        }
+
+        int rebuilt = productionBalanceAggregateService.repairAggregates();
+
+        state.addMessage("productionCounting.productionBalancesList.message.aggregatesRepaired", MessageType.SUCCESS,
+                String.valueOf(rebuilt));
+    }
+
 }
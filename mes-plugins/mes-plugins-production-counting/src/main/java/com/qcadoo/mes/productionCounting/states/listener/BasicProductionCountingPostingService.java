@@ -0,0 +1,147 @@
+package com.qcadoo.mes.productionCounting.states.listener;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInComponentFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Posts used and produced quantities of production tracking to basic production countings of its order.
+ *
+ * All deltas of tracking are aggregated by product and applied with one increment statement, so concurrently accepted
+ * trackings of the same order don't overwrite each other's quantities.
+ */
+@Service
+public class BasicProductionCountingPostingService {
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_USED_QUANTITY = "usedQuantity";
+
+    private static final String L_PRODUCED_QUANTITY = "producedQuantity";
+
+    private static final String LOCK_BASIC_PRODUCTION_COUNTINGS_QUERY = "SELECT bpc.id FROM basicproductioncounting_basicproductioncounting bpc "
+            + "WHERE bpc.order_id = :orderId ORDER BY bpc.id FOR UPDATE";
+
+    private static final String PRODUCED_QUANTITY_QUERY = "SELECT COALESCE(SUM(bpc.producedquantity), 0) "
+            + "FROM basicproductioncounting_basicproductioncounting bpc WHERE bpc.order_id = :orderId AND bpc.product_id = :productId";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void addTrackingQuantities(final Entity productionTracking) {
+        postTrackingQuantities(productionTracking, false);
+    }
+
+    public void subtractTrackingQuantities(final Entity productionTracking) {
+        postTrackingQuantities(productionTracking, true);
+    }
+
+    public BigDecimal getProducedQuantity(final Long orderId, final Long productId) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource(L_ORDER_ID, orderId).addValue(L_PRODUCT_ID, productId);
+
+        return jdbcTemplate.queryForObject(PRODUCED_QUANTITY_QUERY, parameters, BigDecimal.class);
+    }
+
+    private void postTrackingQuantities(final Entity productionTracking, final boolean subtract) {
+        SortedMap<Long, BigDecimal[]> deltas = Maps.newTreeMap();
+
+        collectDeltas(productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS),
+                TrackingOperationProductInComponentFields.PRODUCT, TrackingOperationProductInComponentFields.USED_QUANTITY, 0,
+                subtract, deltas);
+        collectDeltas(productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS),
+                TrackingOperationProductOutComponentFields.PRODUCT, TrackingOperationProductOutComponentFields.USED_QUANTITY, 1,
+                subtract, deltas);
+
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        Long orderId = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER).getId();
+
+        MapSqlParameterSource parameters = new MapSqlParameterSource(L_ORDER_ID, orderId);
+
+        // rows are locked in a fixed order, so concurrent postings to the same order can't deadlock
+        jdbcTemplate.queryForList(LOCK_BASIC_PRODUCTION_COUNTINGS_QUERY, parameters, Long.class);
+        jdbcTemplate.update(buildIncrementQuery(deltas, parameters), parameters);
+    }
+
+    private void collectDeltas(final List<Entity> trackingOperationProductComponents, final String productField,
+            final String quantityField, final int index, final boolean subtract, final Map<Long, BigDecimal[]> deltas) {
+        for (Entity trackingOperationProductComponent : trackingOperationProductComponents) {
+            Entity product = trackingOperationProductComponent.getBelongsToField(productField);
+
+            if (product == null) {
+                continue;
+            }
+
+            BigDecimal quantity = BigDecimalUtils.convertNullToZero(trackingOperationProductComponent
+                    .getDecimalField(quantityField));
+
+            if (subtract) {
+                quantity = quantity.negate();
+            }
+
+            BigDecimal[] productDeltas = deltas.computeIfAbsent(product.getId(), productId -> new BigDecimal[2]);
+
+            productDeltas[index] = (productDeltas[index] == null) ? quantity : productDeltas[index].add(quantity);
+        }
+    }
+
+    private String buildIncrementQuery(final SortedMap<Long, BigDecimal[]> deltas, final MapSqlParameterSource parameters) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("UPDATE basicproductioncounting_basicproductioncounting bpc SET ");
+        appendIncrement(query, L_USED_QUANTITY);
+        query.append(", ");
+        appendIncrement(query, L_PRODUCED_QUANTITY);
+        query.append(" FROM (VALUES ");
+
+        int row = 0;
+
+        for (Map.Entry<Long, BigDecimal[]> delta : deltas.entrySet()) {
+            if (row > 0) {
+                query.append(", ");
+            }
+
+            query.append("(CAST(:").append(L_PRODUCT_ID).append(row).append(" AS bigint), ");
+            query.append("CAST(:").append(L_USED_QUANTITY).append(row).append(" AS numeric), ");
+            query.append("CAST(:").append(L_PRODUCED_QUANTITY).append(row).append(" AS numeric))");
+
+            parameters.addValue(L_PRODUCT_ID + row, delta.getKey());
+            parameters.addValue(L_USED_QUANTITY + row, delta.getValue()[0]);
+            parameters.addValue(L_PRODUCED_QUANTITY + row, delta.getValue()[1]);
+
+            row++;
+        }
+
+        query.append(") AS delta (product_id, usedquantity, producedquantity) ");
+        query.append("WHERE bpc.order_id = :orderId AND bpc.product_id = delta.product_id");
+
+        return query.toString();
+    }
+
+    private void appendIncrement(final StringBuilder query, final String quantityField) {
+        String column = quantityField.toLowerCase();
+        String incremented = "COALESCE(bpc." + column + ", 0) + delta." + column;
+
+        // quantities which would become negative are left unchanged, as validators of basic production counting did
+        query.append(column).append(" = CASE WHEN delta.").append(column).append(" IS NULL OR ").append(incremented)
+                .append(" < 0 THEN bpc.").append(column).append(" ELSE ").append(incremented).append(" END");
+    }
+
+}
@@ -37,9 +37,6 @@ import org.springframework.stereotype.Service;
 import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
-import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingFields;
-import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.states.aop.OrderStateChangeAspect;
 import com.qcadoo.mes.orders.states.constants.OrderState;
@@ -51,6 +48,7 @@ import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInCom
 import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
 import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
 import com.qcadoo.mes.productionCounting.utils.OrderClosingHelper;
+import com.qcadoo.mes.productionCounting.xls.ProductionBalanceAggregateService;
 import com.qcadoo.mes.states.StateChangeContext;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.service.StateChangeContextBuilder;
@@ -63,8 +61,6 @@ import com.qcadoo.model.api.validators.ErrorMessage;
 @Service
 public final class ProductionTrackingListenerService {
 
-    private static final String L_PRODUCT = "product";
-
     @Autowired
     private NumberService numberService;
 
@@ -75,7 +71,10 @@ public final class ProductionTrackingListenerService {
     private ProductionCountingService productionCountingService;
 
     @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
+    private BasicProductionCountingPostingService basicProductionCountingPostingService;
+
+    @Autowired
+    private ProductionBalanceAggregateService productionBalanceAggregateService;
 
     @Autowired
     private OrderStateChangeAspect orderStateChangeAspect;
@@ -106,13 +105,15 @@ public final class ProductionTrackingListenerService {
     }
 
     public void onAccept(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Addition());
+        basicProductionCountingPostingService.addTrackingQuantities(productionTracking);
+        productionBalanceAggregateService.addTracking(productionTracking);
         setOrderDoneAndWastesQuantity(productionTracking, new Addition());
         closeOrder(productionTracking);
     }
 
     public void onChangeFromAcceptedToDeclined(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
+        basicProductionCountingPostingService.subtractTrackingQuantities(productionTracking);
+        productionBalanceAggregateService.subtractTracking(productionTracking);
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
     }
 
@@ -222,8 +223,8 @@ public final class ProductionTrackingListenerService {
                 .add(SearchRestrictions.belongsTo(TrackingOperationProductOutComponentFields.PRODUCT, mainProduct))
                 .setMaxResults(1).uniqueResult();
         if (mainTrackingOperationProductOutComponent != null) {
-            order.setField(OrderFields.DONE_QUANTITY,
-                    basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order));
+            order.setField(OrderFields.DONE_QUANTITY, numberService.setScale(basicProductionCountingPostingService
+                    .getProducedQuantity(order.getId(), mainProduct.getId())));
 
             order.setField(OrderFields.WASTES_QUANTITY, getWastesQuantity(productionTracking, order, operation));
             order.setField("finalProductionTracking", productionTracking.getBooleanField(ProductionTrackingFields.LAST_TRACKING));
@@ -250,54 +251,6 @@ public final class ProductionTrackingListenerService {
         return orderWastesQuantity;
     }
 
-    private void updateBasicProductionCounting(final Entity productionTracking, final Operation operation) {
-        final Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
-
-        final List<Entity> basicProductionCountings = order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS);
-
-        final List<Entity> trackingOperationProductInComponents = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS);
-        final List<Entity> trackingOperationProductOutComponents = productionTracking
-                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
-
-        for (Entity trackingOperationProductInComponent : trackingOperationProductInComponents) {
-            Entity basicProductionCounting;
-
-            try {
-                basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent,
-                        basicProductionCountings);
-            } catch (IllegalStateException e) {
-                continue;
-            }
-
-            final BigDecimal usedQuantity = basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductInComponent
-                    .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
-
-            basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, result);
-            basicProductionCounting = basicProductionCounting.getDataDefinition().save(basicProductionCounting);
-        }
-
-        for (Entity trackingOperationProductOutComponent : trackingOperationProductOutComponents) {
-            Entity productionCounting;
-
-            try {
-                productionCounting = getBasicProductionCounting(trackingOperationProductOutComponent, basicProductionCountings);
-            } catch (IllegalStateException e) {
-                continue;
-            }
-
-            final BigDecimal usedQuantity = productionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductOutComponent
-                    .getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
-
-            productionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, result);
-            productionCounting = productionCounting.getDataDefinition().save(productionCounting);
-        }
-    }
-
     public void checkIfTimesIsSet(final Entity productionTracking) {
         Entity orderEntity = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
         Entity parameter = parameterService.getParameter();
@@ -317,21 +270,9 @@ public final class ProductionTrackingListenerService {
 
     }
 
-    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent,
-            final List<Entity> basicProductionCountings) {
-        Entity product = trackingOperationProductComponent.getBelongsToField(L_PRODUCT);
-
-        for (Entity basicProductionCounting : basicProductionCountings) {
-            if (basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId().equals(product.getId())) {
-                return basicProductionCounting;
-            }
-        }
-
-        throw new IllegalStateException("No basic production counting found for product");
-    }
-
     public void onCorrected(final Entity productionTracking) {
-        updateBasicProductionCounting(productionTracking, new Substraction());
+        basicProductionCountingPostingService.subtractTrackingQuantities(productionTracking);
+        productionBalanceAggregateService.subtractTracking(productionTracking);
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
     }
 
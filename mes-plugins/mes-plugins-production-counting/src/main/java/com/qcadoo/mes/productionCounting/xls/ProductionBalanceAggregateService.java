@@ -0,0 +1,301 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Maintains per order aggregates of accepted production trackings, which are read by production balance instead of summing
+ * all trackings of balanced orders on each generation.
+ *
+ * productioncounting_balanceoperationaggregate holds times and executed cycles per order and operation,
+ * productioncounting_balanceproductoutaggregate holds produced and wasted quantities per order and product. Both are
+ * incremented when tracking is accepted and decremented when it stops being accepted. Each key has one row guarded by unique
+ * aggregateKey field of the model, and rows are incremented with upserts, so concurrent acceptances can't create duplicates.
+ * Orders tracked before aggregates were introduced are rebuilt on request of administrator, see {@link #repairAggregates()}.
+ */
+@Service
+public class ProductionBalanceAggregateService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductionBalanceAggregateService.class);
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_ORDERS_IDS = "ordersIds";
+
+    private static final String L_TECHNOLOGY_OPERATION_COMPONENT_ID = "technologyOperationComponentId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_AGGREGATE_KEY = "aggregateKey";
+
+    private static final String L_TRACKINGS_NUMBER = "trackingsNumber";
+
+    private static final String L_MACHINE_TIME = "machineTime";
+
+    private static final String L_LABOR_TIME = "laborTime";
+
+    private static final String L_EXECUTED_OPERATION_CYCLES = "executedOperationCycles";
+
+    private static final String L_USED_QUANTITY = "usedQuantity";
+
+    private static final String L_WASTES_QUANTITY = "wastesQuantity";
+
+    private static final String ORDERS_FILTER = "AND pt.order_id IN (:ordersIds) ";
+
+    private static final String EXPECTED_OPERATION_AGGREGATES_QUERY = "SELECT pt.order_id, pt.technologyoperationcomponent_id, "
+            + "COUNT(*) AS trackingsnumber, COALESCE(SUM(pt.machinetime), 0) AS machinetime, "
+            + "COALESCE(SUM(pt.labortime), 0) AS labortime, "
+            + "COALESCE(SUM(pt.executedoperationcycles), 0) AS executedoperationcycles "
+            + "FROM productioncounting_productiontracking pt WHERE pt.state = '02accepted' %s"
+            + "GROUP BY pt.order_id, pt.technologyoperationcomponent_id";
+
+    private static final String EXPECTED_PRODUCT_OUT_AGGREGATES_QUERY = "SELECT pt.order_id, topoc.product_id, "
+            + "COUNT(DISTINCT pt.id) AS trackingsnumber, COALESCE(SUM(topoc.usedquantity), 0) AS usedquantity, "
+            + "COALESCE(SUM(topoc.wastesquantity), 0) AS wastesquantity "
+            + "FROM productioncounting_productiontracking pt "
+            + "JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id "
+            + "WHERE pt.state = '02accepted' AND topoc.product_id IS NOT NULL %s"
+            + "GROUP BY pt.order_id, topoc.product_id";
+
+    private static final String INCONSISTENT_ORDERS_QUERY = "SELECT COALESCE(aggregate.order_id, expected.order_id) AS order_id "
+            + "FROM (SELECT order_id, technologyoperationcomponent_id, SUM(trackingsnumber) AS trackingsnumber, "
+            + "SUM(machinetime) AS machinetime, SUM(labortime) AS labortime, "
+            + "SUM(executedoperationcycles) AS executedoperationcycles "
+            + "FROM productioncounting_balanceoperationaggregate GROUP BY order_id, technologyoperationcomponent_id) aggregate "
+            + "FULL OUTER JOIN (" + String.format(EXPECTED_OPERATION_AGGREGATES_QUERY, "") + ") expected "
+            + "ON expected.order_id = aggregate.order_id "
+            + "AND COALESCE(expected.technologyoperationcomponent_id, 0) = COALESCE(aggregate.technologyoperationcomponent_id, 0) "
+            + "WHERE COALESCE(aggregate.trackingsnumber, 0) <> COALESCE(expected.trackingsnumber, 0) "
+            + "OR COALESCE(aggregate.machinetime, 0) <> COALESCE(expected.machinetime, 0) "
+            + "OR COALESCE(aggregate.labortime, 0) <> COALESCE(expected.labortime, 0) "
+            + "OR COALESCE(aggregate.executedoperationcycles, 0) <> COALESCE(expected.executedoperationcycles, 0) "
+            + "UNION "
+            + "SELECT COALESCE(aggregate.order_id, expected.order_id) AS order_id "
+            + "FROM (SELECT order_id, product_id, SUM(trackingsnumber) AS trackingsnumber, SUM(usedquantity) AS usedquantity, "
+            + "SUM(wastesquantity) AS wastesquantity "
+            + "FROM productioncounting_balanceproductoutaggregate GROUP BY order_id, product_id) aggregate "
+            + "FULL OUTER JOIN (" + String.format(EXPECTED_PRODUCT_OUT_AGGREGATES_QUERY, "") + ") expected "
+            + "ON expected.order_id = aggregate.order_id AND expected.product_id = aggregate.product_id "
+            + "WHERE COALESCE(aggregate.trackingsnumber, 0) <> COALESCE(expected.trackingsnumber, 0) "
+            + "OR COALESCE(aggregate.usedquantity, 0) <> COALESCE(expected.usedquantity, 0) "
+            + "OR COALESCE(aggregate.wastesquantity, 0) <> COALESCE(expected.wastesquantity, 0) "
+            + "ORDER BY order_id";
+
+    // operation of tracking is optional, so its missing id is keyed as 0 to have one row for it too
+    private static final String OPERATION_AGGREGATE_KEY = "expected.order_id || '_' "
+            + "|| COALESCE(expected.technologyoperationcomponent_id, 0)";
+
+    private static final String PRODUCT_OUT_AGGREGATE_KEY = "expected.order_id || '_' || expected.product_id";
+
+    private static final String REBUILD_OPERATION_AGGREGATES_QUERY = "INSERT INTO productioncounting_balanceoperationaggregate "
+            + "(order_id, technologyoperationcomponent_id, trackingsnumber, machinetime, labortime, executedoperationcycles, "
+            + "aggregatekey) SELECT expected.*, " + OPERATION_AGGREGATE_KEY + " FROM (" + EXPECTED_OPERATION_AGGREGATES_QUERY
+            + ") expected";
+
+    private static final String REBUILD_PRODUCT_OUT_AGGREGATES_QUERY = "INSERT INTO productioncounting_balanceproductoutaggregate "
+            + "(order_id, product_id, trackingsnumber, usedquantity, wastesquantity, aggregatekey) SELECT expected.*, "
+            + PRODUCT_OUT_AGGREGATE_KEY + " FROM (" + EXPECTED_PRODUCT_OUT_AGGREGATES_QUERY + ") expected";
+
+    private static final String DELETE_OPERATION_AGGREGATES_QUERY = "DELETE FROM productioncounting_balanceoperationaggregate pt "
+            + "WHERE TRUE %s";
+
+    private static final String DELETE_PRODUCT_OUT_AGGREGATES_QUERY = "DELETE FROM productioncounting_balanceproductoutaggregate pt "
+            + "WHERE TRUE %s";
+
+    private static final String AGGREGATES_WITHOUT_KEY_QUERY = "SELECT EXISTS (SELECT 1 FROM "
+            + "productioncounting_balanceoperationaggregate WHERE aggregatekey IS NULL) OR EXISTS (SELECT 1 FROM "
+            + "productioncounting_balanceproductoutaggregate WHERE aggregatekey IS NULL)";
+
+    private static final String UPSERT_OPERATION_AGGREGATE_QUERY = "INSERT INTO productioncounting_balanceoperationaggregate AS aggregate "
+            + "(order_id, technologyoperationcomponent_id, trackingsnumber, machinetime, labortime, executedoperationcycles, "
+            + "aggregatekey) VALUES (:orderId, :technologyOperationComponentId, :trackingsNumber, :machineTime, :laborTime, "
+            + ":executedOperationCycles, :aggregateKey) ON CONFLICT (aggregatekey) DO UPDATE SET "
+            + "trackingsnumber = COALESCE(aggregate.trackingsnumber, 0) + EXCLUDED.trackingsnumber, "
+            + "machinetime = COALESCE(aggregate.machinetime, 0) + EXCLUDED.machinetime, "
+            + "labortime = COALESCE(aggregate.labortime, 0) + EXCLUDED.labortime, "
+            + "executedoperationcycles = COALESCE(aggregate.executedoperationcycles, 0) + EXCLUDED.executedoperationcycles";
+
+    private static final String UPSERT_PRODUCT_OUT_AGGREGATE_QUERY = "INSERT INTO productioncounting_balanceproductoutaggregate AS aggregate "
+            + "(order_id, product_id, trackingsnumber, usedquantity, wastesquantity, aggregatekey) "
+            + "VALUES (:orderId, :productId, :trackingsNumber, :usedQuantity, :wastesQuantity, :aggregateKey) "
+            + "ON CONFLICT (aggregatekey) DO UPDATE SET "
+            + "trackingsnumber = COALESCE(aggregate.trackingsnumber, 0) + EXCLUDED.trackingsnumber, "
+            + "usedquantity = COALESCE(aggregate.usedquantity, 0) + EXCLUDED.usedquantity, "
+            + "wastesquantity = COALESCE(aggregate.wastesquantity, 0) + EXCLUDED.wastesquantity";
+
+    private static final String DELETE_EMPTY_OPERATION_AGGREGATES_QUERY = "DELETE FROM productioncounting_balanceoperationaggregate "
+            + "WHERE order_id = :orderId AND trackingsnumber = 0";
+
+    private static final String DELETE_EMPTY_PRODUCT_OUT_AGGREGATES_QUERY = "DELETE FROM productioncounting_balanceproductoutaggregate "
+            + "WHERE order_id = :orderId AND trackingsnumber = 0";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void addTracking(final Entity productionTracking) {
+        postTracking(productionTracking, false);
+    }
+
+    public void subtractTracking(final Entity productionTracking) {
+        postTracking(productionTracking, true);
+    }
+
+    /**
+     * Repairs aggregates on request of administrator. All aggregates are rebuilt when some rows don't have key yet, e.g. after
+     * upgrade, otherwise only orders, which aggregates differ from accepted production trackings, are rebuilt.
+     *
+     * @return number of rebuilt aggregates
+     */
+    @Transactional
+    public int repairAggregates() {
+        Boolean withoutKeys = jdbcTemplate.queryForObject(AGGREGATES_WITHOUT_KEY_QUERY, Collections.emptyMap(), Boolean.class);
+
+        if (Boolean.TRUE.equals(withoutKeys)) {
+            return rebuildAggregates();
+        }
+
+        return rebuildAggregates(findInconsistentOrders());
+    }
+
+    /**
+     * Finds orders, which aggregates differ from values computed from accepted production trackings.
+     *
+     * @return ids of inconsistent orders
+     */
+    public List<Long> findInconsistentOrders() {
+        return jdbcTemplate.queryForList(INCONSISTENT_ORDERS_QUERY, Maps.newHashMap(), Long.class);
+    }
+
+    /**
+     * Rebuilds aggregates of all orders from accepted production trackings.
+     *
+     * @return number of rebuilt aggregates
+     */
+    @Transactional
+    public int rebuildAggregates() {
+        return rebuildAggregates("", Maps.newHashMap());
+    }
+
+    /**
+     * Rebuilds aggregates of given orders from accepted production trackings.
+     *
+     * @param ordersIds
+     *            ids of orders to rebuild
+     * @return number of rebuilt aggregates
+     */
+    @Transactional
+    public int rebuildAggregates(final List<Long> ordersIds) {
+        if (ordersIds.isEmpty()) {
+            return 0;
+        }
+
+        return rebuildAggregates(ORDERS_FILTER, Collections.singletonMap(L_ORDERS_IDS, ordersIds));
+    }
+
+    private int rebuildAggregates(final String ordersFilter, final Map<String, ?> parameters) {
+        jdbcTemplate.getJdbcOperations().execute("LOCK TABLE productioncounting_balanceoperationaggregate IN EXCLUSIVE MODE");
+        jdbcTemplate.getJdbcOperations().execute("LOCK TABLE productioncounting_balanceproductoutaggregate IN EXCLUSIVE MODE");
+
+        jdbcTemplate.update(String.format(DELETE_OPERATION_AGGREGATES_QUERY, ordersFilter), parameters);
+        jdbcTemplate.update(String.format(DELETE_PRODUCT_OUT_AGGREGATES_QUERY, ordersFilter), parameters);
+
+        int operations = jdbcTemplate.update(String.format(REBUILD_OPERATION_AGGREGATES_QUERY, ordersFilter), parameters);
+        int products = jdbcTemplate.update(String.format(REBUILD_PRODUCT_OUT_AGGREGATES_QUERY, ordersFilter), parameters);
+
+        LOG.info("Production balance aggregates rebuilt: operations = " + operations + ", products = " + products);
+
+        return operations + products;
+    }
+
+    private void postTracking(final Entity productionTracking, final boolean subtract) {
+        Long orderId = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER).getId();
+        Entity technologyOperationComponent = productionTracking
+                .getBelongsToField(ProductionTrackingFields.TECHNOLOGY_OPERATION_COMPONENT);
+        int sign = subtract ? -1 : 1;
+
+        Long technologyOperationComponentId = (technologyOperationComponent == null) ? null : technologyOperationComponent.getId();
+
+        MapSqlParameterSource operationParameters = new MapSqlParameterSource(L_ORDER_ID, orderId)
+                .addValue(L_TECHNOLOGY_OPERATION_COMPONENT_ID, technologyOperationComponentId)
+                .addValue(L_AGGREGATE_KEY, orderId + "_" + Optional.ofNullable(technologyOperationComponentId).orElse(0L))
+                .addValue(L_TRACKINGS_NUMBER, sign)
+                .addValue(L_MACHINE_TIME, sign * getIntegerValue(productionTracking, ProductionTrackingFields.MACHINE_TIME))
+                .addValue(L_LABOR_TIME, sign * getIntegerValue(productionTracking, ProductionTrackingFields.LABOR_TIME))
+                .addValue(L_EXECUTED_OPERATION_CYCLES, signed(
+                        productionTracking.getDecimalField(ProductionTrackingFields.EXECUTED_OPERATION_CYCLES), subtract));
+
+        jdbcTemplate.update(UPSERT_OPERATION_AGGREGATE_QUERY, operationParameters);
+
+        for (Map.Entry<Long, BigDecimal[]> productQuantities : collectProductOutQuantities(productionTracking).entrySet()) {
+            MapSqlParameterSource productParameters = new MapSqlParameterSource(L_ORDER_ID, orderId)
+                    .addValue(L_PRODUCT_ID, productQuantities.getKey())
+                    .addValue(L_AGGREGATE_KEY, orderId + "_" + productQuantities.getKey()).addValue(L_TRACKINGS_NUMBER, sign)
+                    .addValue(L_USED_QUANTITY, signed(productQuantities.getValue()[0], subtract))
+                    .addValue(L_WASTES_QUANTITY, signed(productQuantities.getValue()[1], subtract));
+
+            jdbcTemplate.update(UPSERT_PRODUCT_OUT_AGGREGATE_QUERY, productParameters);
+        }
+
+        if (subtract) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource(L_ORDER_ID, orderId);
+
+            // balance shows operations and products of accepted trackings only, so emptied aggregates are removed
+            jdbcTemplate.update(DELETE_EMPTY_OPERATION_AGGREGATES_QUERY, parameters);
+            jdbcTemplate.update(DELETE_EMPTY_PRODUCT_OUT_AGGREGATES_QUERY, parameters);
+        }
+    }
+
+    private Map<Long, BigDecimal[]> collectProductOutQuantities(final Entity productionTracking) {
+        Map<Long, BigDecimal[]> quantities = Maps.newTreeMap();
+
+        for (Entity trackingOperationProductOutComponent : productionTracking
+                .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS)) {
+            Entity product = trackingOperationProductOutComponent
+                    .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT);
+
+            if (product == null) {
+                continue;
+            }
+
+            BigDecimal[] productQuantities = quantities.computeIfAbsent(product.getId(),
+                    productId -> new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO });
+
+            productQuantities[0] = productQuantities[0].add(BigDecimalUtils.convertNullToZero(
+                    trackingOperationProductOutComponent.getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY)));
+            productQuantities[1] = productQuantities[1].add(BigDecimalUtils.convertNullToZero(
+                    trackingOperationProductOutComponent.getDecimalField(TrackingOperationProductOutComponentFields.WASTES_QUANTITY)));
+        }
+
+        return quantities;
+    }
+
+    private int getIntegerValue(final Entity productionTracking, final String field) {
+        Integer value = productionTracking.getIntegerField(field);
+
+        return (value == null) ? 0 : value;
+    }
+
+    private BigDecimal signed(final BigDecimal value, final boolean subtract) {
+        BigDecimal quantity = BigDecimalUtils.convertNullToZero(value);
+
+        return subtract ? quantity.negate() : quantity;
+    }
+
+}
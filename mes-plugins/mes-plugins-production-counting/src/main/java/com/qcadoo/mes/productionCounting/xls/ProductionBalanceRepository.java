@@ -1,13 +1,19 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import com.qcadoo.mes.basic.util.StreamingQueryService;
 import com.qcadoo.mes.costCalculation.constants.CalculateMaterialCostsMode;
 import com.qcadoo.mes.costCalculation.constants.SourceOfMaterialCosts;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
@@ -26,7 +32,11 @@ class ProductionBalanceRepository {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    List<ProducedQuantity> getProducedQuantities(final List<Long> ordersIds) {
+    // rows of the biggest sheets are fetched with cursor instead of being loaded into list at once
+    @Autowired
+    private StreamingQueryService streamingQueryService;
+
+    void streamProducedQuantities(final List<Long> ordersIds, final Consumer<ProducedQuantity> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -42,9 +52,7 @@ class ProductionBalanceRepository {
         query.append("prod.unit AS productUnit ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProductOutAggregateJoin(query);
         query.append("LEFT JOIN ");
         query.append(
                 "(SELECT pcq.order_id as orderId, wastePt.order_id AS wastePtOrderId, COALESCE(SUM(wasteTopoc.usedquantity), 0) AS producedWastes ");
@@ -60,8 +68,12 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
+        stream(query.toString(), ordersIds, ProducedQuantity.class, consumer);
+    }
+
+    private void appendProductOutAggregateJoin(StringBuilder query) {
+        query.append(
+                "LEFT JOIN productioncounting_balanceproductoutaggregate topoc ON topoc.order_id = o.id AND topoc.product_id = prod.id ");
     }
 
     private void appendProducedQuantity(StringBuilder query) {
@@ -72,7 +84,7 @@ class ProductionBalanceRepository {
         query.append("WHERE o.id IN (:ordersIds) ");
     }
 
-    List<MaterialCost> getMaterialCosts(Entity entity, List<Long> ordersIds) {
+    void streamMaterialCosts(final Entity entity, final List<Long> ordersIds, final Consumer<MaterialCost> consumer) {
         StringBuilder query = new StringBuilder();
         appendCumulatedPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
@@ -97,8 +109,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit) ");
         query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(MaterialCost.class));
+        stream(query.toString(), ordersIds, MaterialCost.class, consumer);
     }
 
     private void appendForEachPlannedQuantities(StringBuilder query) {
@@ -230,14 +241,14 @@ class ProductionBalanceRepository {
         query.append("COALESCE(SUM(topic.usedquantity), 0) ");
     }
 
-    List<PieceworkDetails> getPieceworkDetails(List<Long> ordersIds) {
+    void streamPieceworkDetails(final List<Long> ordersIds, final Consumer<PieceworkDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
         query.append("op.number AS operationNumber, ");
         query.append("COALESCE(SUM(pt.executedoperationcycles), 0) AS totalexecutedoperationcycles ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
+        appendOperationAggregateJoin(query);
         query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
         appendWhereClause(query);
@@ -245,11 +256,10 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
+        stream(query.toString(), ordersIds, PieceworkDetails.class, consumer);
     }
 
-    List<LaborTimeDetails> getLaborTimeDetails(List<Long> ordersIds) {
+    void streamLaborTimeDetails(final List<Long> ordersIds, final Consumer<LaborTimeDetails> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
@@ -268,11 +278,17 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
+        stream(query.toString(), ordersIds, LaborTimeDetails.class, consumer);
+    }
+
+    private <T> void stream(final String query, final List<Long> ordersIds, final Class<T> rowClass, final Consumer<T> consumer) {
+        RowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+
+        streamingQueryService.query(query, new MapSqlParameterSource("ordersIds", ordersIds),
+                (RowCallbackHandler) resultSet -> consumer.accept(rowMapper.mapRow(resultSet, resultSet.getRow())));
     }
 
-    List<ProductionCost> getProductionCosts(Entity entity, List<Long> ordersIds) {
+    void streamProductionCosts(final Entity entity, final List<Long> ordersIds, final Consumer<ProductionCost> consumer) {
         StringBuilder query = new StringBuilder();
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
         appendPlannedStaffTime(entity, query);
@@ -333,7 +349,7 @@ class ProductionBalanceRepository {
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
         query.append("JOIN planned_time plt ON plt.order_id = o.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
+        appendOperationAggregateJoin(query);
         query.append("CROSS JOIN basic_parameter bp ");
         query.append("GROUP BY orderId, orderNumber) ");
         query.append("UNION ");
@@ -385,7 +401,7 @@ class ProductionBalanceRepository {
         appendForEachPlannedMachineCosts(entity, query);
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
+        appendOperationAggregateJoin(query);
         query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
         query.append(
                 "LEFT JOIN basicproductioncounting_productioncountingoperationrun pcor ON pcor.order_id = o.id AND pcor.technologyoperationcomponent_id = toc.id ");
@@ -396,8 +412,12 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderId, orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProductionCost.class));
+        stream(query.toString(), ordersIds, ProductionCost.class, consumer);
+    }
+
+    // one row per order and operation, so planned times of operation are summed once, not once per its accepted tracking
+    private void appendOperationAggregateJoin(StringBuilder query) {
+        query.append("LEFT JOIN productioncounting_balanceoperationaggregate pt ON o.id = pt.order_id ");
     }
 
     private void appendRealMachineTime(StringBuilder query) {
@@ -503,10 +523,11 @@ class ProductionBalanceRepository {
         }
     }
 
-    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, List<MaterialCost> materialCosts,
-                                        List<ProductionCost> productionCosts) {
+    // real costs are summed per order while the cost sheets are streamed, so only one value per order is sent here
+    List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, Map<Long, BigDecimal> realMaterialCosts,
+                                        Map<Long, BigDecimal> realProductionCosts) {
         StringBuilder query = new StringBuilder();
-        appendOrdersBalanceWithQueries(materialCosts, productionCosts, query);
+        appendOrdersBalanceWithQueries(realMaterialCosts, realProductionCosts, query);
         appendOrdersBalanceSelectionClause(entity, query);
         query.append("MIN(COALESCE(gmc.cost, 0)) AS materialCosts, ");
         query.append("MIN(gpc.cost) AS productionCosts, ");
@@ -531,9 +552,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProductOutAggregateJoin(query);
         query.append("LEFT JOIN grouped_material_cost gmc ON gmc.order_id = o.id ");
         query.append("JOIN grouped_production_cost gpc ON gpc.order_id = o.id ");
         appendWhereClause(query);
@@ -544,35 +563,31 @@ class ProductionBalanceRepository {
                 BeanPropertyRowMapper.newInstance(OrderBalance.class));
     }
 
-    private void appendOrdersBalanceWithQueries(List<MaterialCost> materialCosts, List<ProductionCost> productionCosts,
-                                                StringBuilder query) {
+    private void appendOrdersBalanceWithQueries(Map<Long, BigDecimal> realMaterialCosts,
+                                                Map<Long, BigDecimal> realProductionCosts, StringBuilder query) {
         query.append("WITH real_material_cost (order_id, cost) AS (VALUES ");
-        if (materialCosts.isEmpty()) {
-            query.append("(NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < materialCosts.size(); i++) {
-                MaterialCost materialCost = materialCosts.get(i);
-                query.append("(" + materialCost.getOrderId() + ", " + materialCost.getRealCost() + ") ");
-                if (i != materialCosts.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
+        appendCostsValues(realMaterialCosts, query);
         query.append("), ");
         query.append("grouped_material_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_material_cost GROUP BY order_id), ");
         query.append("real_production_cost (order_id, cost) AS (VALUES ");
-        for (int i = 0; i < productionCosts.size(); i++) {
-            ProductionCost productionCost = productionCosts.get(i);
-            query.append("(" + productionCost.getOrderId() + ", " + productionCost.getRealCostsSum() + ") ");
-            if (i != productionCosts.size() - 1) {
-                query.append(", ");
-            }
-        }
+        appendCostsValues(realProductionCosts, query);
         query.append("), ");
         query.append(
                 "grouped_production_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_production_cost GROUP BY order_id) ");
     }
 
+    private void appendCostsValues(Map<Long, BigDecimal> costs, StringBuilder query) {
+        if (costs.isEmpty()) {
+            query.append("(NULL::numeric, NULL::numeric) ");
+        } else {
+            String separator = "";
+            for (Map.Entry<Long, BigDecimal> cost : costs.entrySet()) {
+                query.append(separator).append("(" + cost.getKey() + ", " + cost.getValue() + ") ");
+                separator = ", ";
+            }
+        }
+    }
+
     private void appendOrdersBalanceSelectionClause(Entity entity, StringBuilder query) {
         query.append("SELECT ");
         query.append("o.id AS orderId, ");
@@ -711,9 +726,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProductOutAggregateJoin(query);
         query.append("JOIN order_balance_rec obr ON obr.order_id = o.id ");
         appendWhereClause(query);
         query.append("AND o.root_id IS NULL ");
@@ -1,37 +1,46 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.stream.Collectors;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.IndexedColors;
-import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
-import com.qcadoo.mes.productionCounting.xls.dto.LaborTimeDetails;
-import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
 import com.qcadoo.mes.productionCounting.xls.dto.OrderBalance;
-import com.qcadoo.mes.productionCounting.xls.dto.PieceworkDetails;
-import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
-import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.report.api.xls.XlsDocumentService;
 
+/**
+ * Writes production balance to xlsx file with streaming workbook, so only last rows of sheet are kept in memory.
+ */
 @Service
-public class ProductionBalanceXlsService extends XlsDocumentService {
+public class ProductionBalanceXlsService {
+
+    public static final String XLSX_EXTENSION = "xlsx";
+
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
 
     @Autowired
     private TranslationService translationService;
@@ -45,52 +54,39 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     private static final List<String> PRODUCTION_QUANTITIES_HEADERS = Lists.newArrayList("orderNumber", "productNumber",
             "productName", "plannedQuantity", "producedQuantity", "wastesQuantity", "producedWastes", "deviation", "productUnit");
 
-    @Override
-    protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
+    public void generateDocument(final Entity productionBalance, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
+        workbook.setCompressTempFiles(true);
 
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
-        int columnIndex = 0;
-        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
-                    columnIndex, HSSFCellStyle.ALIGN_LEFT);
-            columnIndex++;
+        try (OutputStream outputStream = new FileOutputStream(getFile(productionBalance))) {
+            createSheets(workbook, productionBalance, locale);
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
         }
     }
 
-    @Override
-    protected void addSeries(HSSFSheet sheet, Entity entity) {
-        List<Long> ordersIds = getOrdersIds(entity);
-
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
-    }
-
-    @Override
-    public String getReportTitle(Locale locale) {
-        return translationService.translate("productionCounting.productionBalance.report.xls.sheet.producedQuantities", locale);
+    public File getFile(final Entity productionBalance) {
+        return new File(productionBalance.getStringField(ProductionBalanceFields.FILE_NAME) + "." + XLSX_EXTENSION);
     }
 
-    @Override
-    protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
+    private void createSheets(final Workbook workbook, final Entity entity, final Locale locale) {
         List<Long> ordersIds = getOrdersIds(entity);
-        List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
-        createMaterialCostsSheet(materialCosts, createSheet(workbook,
+        createProducedQuantitiesSheet(createSheet(workbook,
+                translationService.translate("productionCounting.productionBalance.report.xls.sheet.producedQuantities", locale)),
+                ordersIds, locale);
+        Map<Long, BigDecimal> realMaterialCosts = createMaterialCostsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
                 locale);
         createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
                 ordersIds, locale);
         createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
                 ordersIds, locale);
-        List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
-        createProductionCostsSheet(productionCosts, createSheet(workbook,
+        Map<Long, BigDecimal> realProductionCosts = createProductionCostsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
                 locale);
-        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
-                productionCosts);
+        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, realMaterialCosts,
+                realProductionCosts);
         createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
                 locale);
@@ -104,6 +100,9 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 locale);
     }
 
+    private Sheet createSheet(final Workbook workbook, final String title) {
+        return workbook.createSheet(WorkbookUtil.createSafeSheetName(title));
+    }
 
     private List<Long> getOrdersIds(final Entity productionBalance) {
 
@@ -111,11 +110,21 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
-        int rowIndex = 1;
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+    private void createProducedQuantitiesSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
+        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
+        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+        Row headerRow = sheet.createRow(0);
+        int columnIndex = 0;
+        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
+                    columnIndex, CellStyle.ALIGN_LEFT);
+            columnIndex++;
+        }
+
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
+        productionBalanceRepository.streamProducedQuantities(ordersIds, producedQuantity -> {
+            Row row = rowAppender.createRow();
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
@@ -125,19 +134,15 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes());
             createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation());
             createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
-            rowIndex++;
-        }
+        });
 
-        for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        rowAppender.fitColumnWidths();
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
+    private Map<Long, BigDecimal> createMaterialCostsSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.orderNumber", locale),
@@ -189,34 +194,33 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.unit", locale),
                 12, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
-        for (MaterialCost materialCost : materialCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, materialCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, materialCost.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, materialCost.getProductNumber());
-            createRegularCell(stylesContainer, row, 3, materialCost.getProductName());
-            createNumericCell(stylesContainer, row, 4, materialCost.getPlannedQuantity());
-            createNumericCell(stylesContainer, row, 5, materialCost.getUsedQuantity());
-            createNumericCell(stylesContainer, row, 6, materialCost.getQuantitativeDeviation());
-            createRegularCell(stylesContainer, row, 7, materialCost.getProductUnit());
-            createNumericCell(stylesContainer, row, 8, materialCost.getPlannedCost());
-            createNumericCell(stylesContainer, row, 9, materialCost.getRealCost());
-            createNumericCell(stylesContainer, row, 10, materialCost.getValueDeviation());
-            createNumericCell(stylesContainer, row, 11, materialCost.getUsedWasteQuantity());
-            createRegularCell(stylesContainer, row, 12, materialCost.getUsedWasteUnit());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 12; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        Map<Long, BigDecimal> realMaterialCosts = Maps.newHashMap();
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
+        productionBalanceRepository.streamMaterialCosts(entity, ordersIds, materialCost -> {
+            Row costRow = rowAppender.createRow();
+            createRegularCell(stylesContainer, costRow, 0, materialCost.getOrderNumber());
+            createRegularCell(stylesContainer, costRow, 1, materialCost.getOperationNumber());
+            createRegularCell(stylesContainer, costRow, 2, materialCost.getProductNumber());
+            createRegularCell(stylesContainer, costRow, 3, materialCost.getProductName());
+            createNumericCell(stylesContainer, costRow, 4, materialCost.getPlannedQuantity());
+            createNumericCell(stylesContainer, costRow, 5, materialCost.getUsedQuantity());
+            createNumericCell(stylesContainer, costRow, 6, materialCost.getQuantitativeDeviation());
+            createRegularCell(stylesContainer, costRow, 7, materialCost.getProductUnit());
+            createNumericCell(stylesContainer, costRow, 8, materialCost.getPlannedCost());
+            createNumericCell(stylesContainer, costRow, 9, materialCost.getRealCost());
+            createNumericCell(stylesContainer, costRow, 10, materialCost.getValueDeviation());
+            createNumericCell(stylesContainer, costRow, 11, materialCost.getUsedWasteQuantity());
+            createRegularCell(stylesContainer, costRow, 12, materialCost.getUsedWasteUnit());
+            addRealCost(realMaterialCosts, materialCost.getOrderId(), materialCost.getRealCost());
+        });
+        rowAppender.fitColumnWidths();
+        return realMaterialCosts;
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createPieceworkSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -225,25 +229,20 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 CellStyle.ALIGN_LEFT);
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-        int rowCounter = 0;
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 2; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
+        productionBalanceRepository.streamPieceworkDetails(ordersIds, pieceworkDetails -> {
+            Row detailsRow = rowAppender.createRow();
+            createRegularCell(stylesContainer, detailsRow, 0, pieceworkDetails.getOrderNumber());
+            createRegularCell(stylesContainer, detailsRow, 1, pieceworkDetails.getOperationNumber());
+            createNumericCell(stylesContainer, detailsRow, 2, pieceworkDetails.getTotalExecutedOperationCycles());
+        });
+        rowAppender.fitColumnWidths();
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createLaborTimeSheet(Sheet sheet, List<Long> ordersIds, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -257,28 +256,23 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 5,
                 CellStyle.ALIGN_LEFT);
 
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(ordersIds);
-        int rowCounter = 0;
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getStaffNumber());
-            createRegularCell(stylesContainer, row, 3, laborTimeDetails.getStaffName());
-            createRegularCell(stylesContainer, row, 4, laborTimeDetails.getStaffSurname());
-            createTimeCell(stylesContainer, row, 5, laborTimeDetails.getLaborTime());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 5; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
+        productionBalanceRepository.streamLaborTimeDetails(ordersIds, laborTimeDetails -> {
+            Row detailsRow = rowAppender.createRow();
+            createRegularCell(stylesContainer, detailsRow, 0, laborTimeDetails.getOrderNumber());
+            createRegularCell(stylesContainer, detailsRow, 1, laborTimeDetails.getOperationNumber());
+            createRegularCell(stylesContainer, detailsRow, 2, laborTimeDetails.getStaffNumber());
+            createRegularCell(stylesContainer, detailsRow, 3, laborTimeDetails.getStaffName());
+            createRegularCell(stylesContainer, detailsRow, 4, laborTimeDetails.getStaffSurname());
+            createTimeCell(stylesContainer, detailsRow, 5, laborTimeDetails.getLaborTime());
+        });
+        rowAppender.fitColumnWidths();
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
+    private Map<Long, BigDecimal> createProductionCostsSheet(Entity entity, List<Long> ordersIds, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.productionCosts.orderNumber", locale),
@@ -348,38 +342,47 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.productionCosts.sumCostsDeviation", locale),
                 16, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
-        for (ProductionCost productionCost : productionCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, productionCost.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, productionCost.getOperationNumber());
-            createTimeCell(stylesContainer, row, 2, productionCost.getPlannedStaffTime());
-            createTimeCell(stylesContainer, row, 3, productionCost.getRealStaffTime());
-            createTimeCell(stylesContainer, row, 4, productionCost.getPlannedMachineTime());
-            createTimeCell(stylesContainer, row, 5, productionCost.getRealMachineTime());
-            createNumericCell(stylesContainer, row, 6, productionCost.getPlannedStaffCosts());
-            createNumericCell(stylesContainer, row, 7, productionCost.getRealStaffCosts());
-            createNumericCell(stylesContainer, row, 8, productionCost.getStaffCostsDeviation());
-            createNumericCell(stylesContainer, row, 9, productionCost.getPlannedMachineCosts());
-            createNumericCell(stylesContainer, row, 10, productionCost.getRealMachineCosts());
-            createNumericCell(stylesContainer, row, 11, productionCost.getMachineCostsDeviation());
-            createNumericCell(stylesContainer, row, 12, productionCost.getPlannedPieceworkCosts());
-            createNumericCell(stylesContainer, row, 13, productionCost.getRealPieceworkCosts());
-            createNumericCell(stylesContainer, row, 14, productionCost.getPlannedCostsSum());
-            createNumericCell(stylesContainer, row, 15, productionCost.getRealCostsSum());
-            createNumericCell(stylesContainer, row, 16, productionCost.getSumCostsDeviation());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 16; i++) {
-            sheet.autoSizeColumn(i, false);
+        Map<Long, BigDecimal> realProductionCosts = Maps.newHashMap();
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
+        productionBalanceRepository.streamProductionCosts(entity, ordersIds, productionCost -> {
+            Row costRow = rowAppender.createRow();
+            createRegularCell(stylesContainer, costRow, 0, productionCost.getOrderNumber());
+            createRegularCell(stylesContainer, costRow, 1, productionCost.getOperationNumber());
+            createTimeCell(stylesContainer, costRow, 2, productionCost.getPlannedStaffTime());
+            createTimeCell(stylesContainer, costRow, 3, productionCost.getRealStaffTime());
+            createTimeCell(stylesContainer, costRow, 4, productionCost.getPlannedMachineTime());
+            createTimeCell(stylesContainer, costRow, 5, productionCost.getRealMachineTime());
+            createNumericCell(stylesContainer, costRow, 6, productionCost.getPlannedStaffCosts());
+            createNumericCell(stylesContainer, costRow, 7, productionCost.getRealStaffCosts());
+            createNumericCell(stylesContainer, costRow, 8, productionCost.getStaffCostsDeviation());
+            createNumericCell(stylesContainer, costRow, 9, productionCost.getPlannedMachineCosts());
+            createNumericCell(stylesContainer, costRow, 10, productionCost.getRealMachineCosts());
+            createNumericCell(stylesContainer, costRow, 11, productionCost.getMachineCostsDeviation());
+            createNumericCell(stylesContainer, costRow, 12, productionCost.getPlannedPieceworkCosts());
+            createNumericCell(stylesContainer, costRow, 13, productionCost.getRealPieceworkCosts());
+            createNumericCell(stylesContainer, costRow, 14, productionCost.getPlannedCostsSum());
+            createNumericCell(stylesContainer, costRow, 15, productionCost.getRealCostsSum());
+            createNumericCell(stylesContainer, costRow, 16, productionCost.getSumCostsDeviation());
+            addRealCost(realProductionCosts, productionCost.getOrderId(), productionCost.getRealCostsSum());
+        });
+        rowAppender.fitColumnWidths();
+        return realProductionCosts;
+    }
+
+    // sums costs like SQL SUM does, so order with only unknown costs keeps null cost
+    private void addRealCost(Map<Long, BigDecimal> realCosts, Long orderId, BigDecimal cost) {
+        BigDecimal currentCost = realCosts.get(orderId);
+        if (currentCost == null || cost == null) {
+            realCosts.put(orderId, currentCost == null ? cost : currentCost);
+        } else {
+            realCosts.put(orderId, currentCost.add(cost));
         }
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
+    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -468,9 +471,9 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 20, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
         for (OrderBalance orderBalance : ordersBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
+            row = rowAppender.createRow();
             createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
             createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
@@ -492,18 +495,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 18, orderBalance.getProfit());
             createNumericCell(stylesContainer, row, 19, orderBalance.getProfitValue());
             createNumericCell(stylesContainer, row, 20, orderBalance.getSellPrice());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 20; i++) {
-            sheet.autoSizeColumn(i, false);
         }
+        rowAppender.fitColumnWidths();
     }
 
-    private void createComponentsBalanceSheet(List<OrderBalance> componentsBalance, HSSFSheet sheet, Locale locale) {
+    private void createComponentsBalanceSheet(List<OrderBalance> componentsBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -592,9 +591,9 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 20, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
         for (OrderBalance orderBalance : componentsBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
+            row = rowAppender.createRow();
             createRegularCell(stylesContainer, row, 0, orderBalance.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, orderBalance.getProductNumber());
             createRegularCell(stylesContainer, row, 2, orderBalance.getProductName());
@@ -616,18 +615,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 18, orderBalance.getProfit());
             createNumericCell(stylesContainer, row, 19, orderBalance.getProfitValue());
             createNumericCell(stylesContainer, row, 20, orderBalance.getSellPrice());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 20; i++) {
-            sheet.autoSizeColumn(i, false);
         }
+        rowAppender.fitColumnWidths();
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
+    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.productNumber", locale),
@@ -712,9 +707,9 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.sellPrice", locale),
                 19, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
+        SheetRowAppender rowAppender = new SheetRowAppender(sheet);
         for (OrderBalance orderBalance : productsBalance) {
-            row = sheet.createRow(rowOffset + rowCounter);
+            row = rowAppender.createRow();
             createRegularCell(stylesContainer, row, 0, orderBalance.getProductNumber());
             createRegularCell(stylesContainer, row, 1, orderBalance.getProductName());
             createNumericCell(stylesContainer, row, 2, orderBalance.getProducedQuantity());
@@ -735,60 +730,165 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 17, orderBalance.getProfit());
             createNumericCell(stylesContainer, row, 18, orderBalance.getProfitValue());
             createNumericCell(stylesContainer, row, 19, orderBalance.getSellPrice());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 19; i++) {
-            sheet.autoSizeColumn(i, false);
         }
+        rowAppender.fitColumnWidths();
     }
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
-        cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HSSFCellStyle.ALIGN_LEFT));
+        cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, CellStyle.ALIGN_LEFT));
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(numberService.setScale(value, 2).doubleValue());
-        cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberStyle, HSSFCellStyle.ALIGN_RIGHT));
+        cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberStyle, CellStyle.ALIGN_RIGHT));
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(value == null ? 0d : value / 86400d);
-        cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeStyle, HSSFCellStyle.ALIGN_RIGHT));
+        cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeStyle, CellStyle.ALIGN_RIGHT));
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column, short align) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column, short align) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, align));
         return cell;
     }
 
+    /**
+     * Appends rows below header of sheet, continuing on next sheets with copied header when xlsx row limit is reached. Column
+     * widths are fitted to length of written values, because streamed rows can't be measured once flushed.
+     */
+    private static class SheetRowAppender {
+
+        private static final int MAX_SHEET_NAME_LENGTH = 31;
+
+        private static final int MAX_COLUMN_WIDTH = 255 * 256;
+
+        private static final int MIN_NUMERIC_LENGTH = 8;
+
+        private final List<Sheet> sheets = Lists.newArrayList();
+
+        private final List<Cell> headerCells = Lists.newArrayList();
+
+        private final Map<Integer, Integer> columnLengths = Maps.newHashMap();
+
+        private Sheet sheet;
+
+        private Row row;
+
+        private int rowIndex = 1;
+
+        SheetRowAppender(final Sheet sheet) {
+            this.sheet = sheet;
+
+            sheets.add(sheet);
+
+            Row headerRow = sheet.getRow(0);
+
+            if (headerRow != null) {
+                for (Cell headerCell : headerRow) {
+                    headerCells.add(headerCell);
+                    measure(headerCell);
+                }
+            }
+        }
+
+        Row createRow() {
+            measureRow();
+
+            if (rowIndex > SpreadsheetVersion.EXCEL2007.getLastRowIndex()) {
+                sheet = createContinuationSheet();
+                sheets.add(sheet);
+                rowIndex = 1;
+            }
+
+            row = sheet.createRow(rowIndex++);
+
+            return row;
+        }
+
+        void fitColumnWidths() {
+            measureRow();
+
+            for (Sheet fittedSheet : sheets) {
+                for (Map.Entry<Integer, Integer> columnLength : columnLengths.entrySet()) {
+                    fittedSheet.setColumnWidth(columnLength.getKey(),
+                            Math.min((columnLength.getValue() + 2) * 256, MAX_COLUMN_WIDTH));
+                }
+            }
+        }
+
+        private void measureRow() {
+            if (row != null) {
+                for (Cell cell : row) {
+                    measure(cell);
+                }
+                row = null;
+            }
+        }
+
+        private void measure(final Cell cell) {
+            int length;
+
+            if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
+                // integer part with two decimal places, at least as wide as [HH]:MM:SS of time cells
+                length = Math.max(String.valueOf(Math.round(cell.getNumericCellValue())).length() + 3, MIN_NUMERIC_LENGTH);
+            } else {
+                length = StringUtils.length(cell.getStringCellValue());
+            }
+
+            columnLengths.merge(cell.getColumnIndex(), length, Math::max);
+        }
+
+        private Sheet createContinuationSheet() {
+            Sheet firstSheet = sheets.get(0);
+            String suffix = " (" + (sheets.size() + 1) + ")";
+            String sheetName = StringUtils.left(firstSheet.getSheetName(), MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix;
+
+            Sheet continuationSheet = firstSheet.getWorkbook().createSheet(sheetName);
+
+            if (!headerCells.isEmpty()) {
+                Row continuationHeaderRow = continuationSheet.createRow(0);
+
+                for (Cell headerCell : headerCells) {
+                    Cell cell = continuationHeaderRow.createCell(headerCell.getColumnIndex());
+                    cell.setCellValue(headerCell.getStringCellValue());
+                    cell.setCellStyle(headerCell.getCellStyle());
+                }
+            }
+
+            return continuationSheet;
+        }
+
+    }
+
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
-            regularStyle.setVerticalAlignment(HSSFCellStyle.VERTICAL_CENTER);
+            regularStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
 
             headerStyle = workbook.createCellStyle();
             headerStyle.setFont(fontsContainer.headerFont);
-            headerStyle.setFillPattern(XSSFCellStyle.SOLID_FOREGROUND);
+            headerStyle.setFillPattern(CellStyle.SOLID_FOREGROUND);
             headerStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-            headerStyle.setBorderBottom(XSSFCellStyle.BORDER_MEDIUM);
+            headerStyle.setBorderBottom(CellStyle.BORDER_MEDIUM);
             headerStyle.setWrapText(true);
 
             timeStyle = workbook.createCellStyle();
@@ -798,7 +898,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             numberStyle.setDataFormat(workbook.createDataFormat().getFormat("0.00###"));
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, short align) {
+        private static CellStyle aligned(CellStyle style, short align) {
             style.setAlignment(align);
             return style;
         }
@@ -809,7 +909,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font headerFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
 
             headerFont = workbook.createFont();
             headerFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
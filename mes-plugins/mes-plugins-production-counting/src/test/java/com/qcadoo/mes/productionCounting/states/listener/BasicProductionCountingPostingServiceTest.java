@@ -0,0 +1,112 @@
+package com.qcadoo.mes.productionCounting.states.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class BasicProductionCountingPostingServiceTest {
+
+    private BasicProductionCountingPostingService basicProductionCountingPostingService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity productionTracking, order, product1, product2;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        basicProductionCountingPostingService = new BasicProductionCountingPostingService();
+
+        ReflectionTestUtils.setField(basicProductionCountingPostingService, "jdbcTemplate", jdbcTemplate);
+
+        given(order.getId()).willReturn(100L);
+        given(product1.getId()).willReturn(1L);
+        given(product2.getId()).willReturn(2L);
+        given(productionTracking.getBelongsToField(ProductionTrackingFields.ORDER)).willReturn(order);
+    }
+
+    @Test
+    public void shouldAggregateTrackingQuantitiesIntoOneIncrement() {
+        // given
+        mockComponents(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS,
+                mockComponent(product1, new BigDecimal(2)), mockComponent(product1, new BigDecimal(3)));
+        mockComponents(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS,
+                mockComponent(product2, new BigDecimal(4)));
+
+        // when
+        basicProductionCountingPostingService.subtractTrackingQuantities(productionTracking);
+
+        // then
+        ArgumentCaptor<SqlParameterSource> parameters = ArgumentCaptor.forClass(SqlParameterSource.class);
+
+        verify(jdbcTemplate).update(anyString(), parameters.capture());
+
+        SqlParameterSource capturedParameters = parameters.getValue();
+
+        assertEquals(100L, capturedParameters.getValue("orderId"));
+        assertEquals(1L, capturedParameters.getValue("productId0"));
+        assertEquals(0, new BigDecimal(-5).compareTo((BigDecimal) capturedParameters.getValue("usedQuantity0")));
+        assertNull(capturedParameters.getValue("producedQuantity0"));
+        assertEquals(2L, capturedParameters.getValue("productId1"));
+        assertNull(capturedParameters.getValue("usedQuantity1"));
+        assertEquals(0, new BigDecimal(-4).compareTo((BigDecimal) capturedParameters.getValue("producedQuantity1")));
+        assertFalse(capturedParameters.hasValue("productId2"));
+    }
+
+    @Test
+    public void shouldNotUpdateWithoutComponents() {
+        // given
+        mockComponents(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS);
+        mockComponents(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
+
+        // when
+        basicProductionCountingPostingService.addTrackingQuantities(productionTracking);
+
+        // then
+        verify(jdbcTemplate, never()).update(anyString(), any(MapSqlParameterSource.class));
+        verify(jdbcTemplate, never()).queryForList(anyString(), any(MapSqlParameterSource.class), eq(Long.class));
+    }
+
+    private Entity mockComponent(final Entity product, final BigDecimal usedQuantity) {
+        Entity component = mock(Entity.class);
+        given(component.getBelongsToField("product")).willReturn(product);
+        given(component.getDecimalField("usedQuantity")).willReturn(usedQuantity);
+        return component;
+    }
+
+    private void mockComponents(final String field, final Entity... components) {
+        List<Entity> entities = Lists.newArrayList(components);
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        given(productionTracking.getHasManyField(field)).willReturn(entityList);
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class ProductionBalanceAggregateServiceTest {
+
+    private ProductionBalanceAggregateService productionBalanceAggregateService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private JdbcOperations jdbcOperations;
+
+    @Mock
+    private Entity productionTracking, order, product;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productionBalanceAggregateService = new ProductionBalanceAggregateService();
+
+        ReflectionTestUtils.setField(productionBalanceAggregateService, "jdbcTemplate", jdbcTemplate);
+
+        given(order.getId()).willReturn(100L);
+        given(product.getId()).willReturn(1L);
+        given(productionTracking.getBelongsToField(ProductionTrackingFields.ORDER)).willReturn(order);
+        given(productionTracking.getIntegerField(ProductionTrackingFields.MACHINE_TIME)).willReturn(60);
+        given(productionTracking.getIntegerField(ProductionTrackingFields.LABOR_TIME)).willReturn(120);
+        given(productionTracking.getDecimalField(ProductionTrackingFields.EXECUTED_OPERATION_CYCLES)).willReturn(BigDecimal.ONE);
+
+        mockProductOutComponents(mockComponent(new BigDecimal(2), new BigDecimal(1)), mockComponent(new BigDecimal(3), null));
+    }
+
+    @Test
+    public void shouldUpsertAggregatesByTheirKeys() {
+        // given
+        given(jdbcTemplate.update(anyString(), any(SqlParameterSource.class))).willReturn(1);
+
+        // when
+        productionBalanceAggregateService.addTracking(productionTracking);
+
+        // then
+        ArgumentCaptor<String> queries = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource> parameters = ArgumentCaptor.forClass(SqlParameterSource.class);
+
+        verify(jdbcTemplate, times(2)).update(queries.capture(), parameters.capture());
+        verify(jdbcTemplate, never()).update(startsWith("UPDATE"), any(SqlParameterSource.class));
+
+        assertTrue(queries.getAllValues().get(0).contains("ON CONFLICT (aggregatekey) DO UPDATE"));
+        assertTrue(queries.getAllValues().get(1).contains("ON CONFLICT (aggregatekey) DO UPDATE"));
+        verify(jdbcTemplate, never()).update(startsWith("DELETE"), any(SqlParameterSource.class));
+
+        SqlParameterSource operationParameters = parameters.getAllValues().get(0);
+
+        assertEquals("100_0", operationParameters.getValue("aggregateKey"));
+        assertEquals(1, operationParameters.getValue("trackingsNumber"));
+        assertEquals(60, operationParameters.getValue("machineTime"));
+        assertEquals(120, operationParameters.getValue("laborTime"));
+
+        SqlParameterSource productParameters = parameters.getAllValues().get(1);
+
+        assertEquals(1L, productParameters.getValue("productId"));
+        assertEquals("100_1", productParameters.getValue("aggregateKey"));
+        assertEquals(0, new BigDecimal(5).compareTo((BigDecimal) productParameters.getValue("usedQuantity")));
+        assertEquals(0, BigDecimal.ONE.compareTo((BigDecimal) productParameters.getValue("wastesQuantity")));
+    }
+
+    @Test
+    public void shouldDecrementAggregatesAndRemoveEmptiedOnes() {
+        // given
+        given(jdbcTemplate.update(anyString(), any(SqlParameterSource.class))).willReturn(1);
+
+        // when
+        productionBalanceAggregateService.subtractTracking(productionTracking);
+
+        // then
+        ArgumentCaptor<SqlParameterSource> parameters = ArgumentCaptor.forClass(SqlParameterSource.class);
+
+        verify(jdbcTemplate, times(2)).update(startsWith("INSERT"), parameters.capture());
+        verify(jdbcTemplate, times(2)).update(startsWith("DELETE"), any(MapSqlParameterSource.class));
+
+        SqlParameterSource operationParameters = parameters.getAllValues().get(0);
+
+        assertEquals(-1, operationParameters.getValue("trackingsNumber"));
+        assertEquals(-60, operationParameters.getValue("machineTime"));
+        assertEquals(0, BigDecimal.ONE.negate().compareTo((BigDecimal) operationParameters.getValue("executedOperationCycles")));
+
+        SqlParameterSource productParameters = parameters.getAllValues().get(1);
+
+        assertEquals(0, new BigDecimal(-5).compareTo((BigDecimal) productParameters.getValue("usedQuantity")));
+    }
+
+    @Test
+    public void shouldRebuildAllAggregatesWhenSomeHaveNoKey() {
+        // given
+        given(jdbcTemplate.getJdbcOperations()).willReturn(jdbcOperations);
+        given(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), anyMap(), eq(Boolean.class))).willReturn(true);
+
+        // when
+        productionBalanceAggregateService.repairAggregates();
+
+        // then
+        InOrder inOrder = inOrder(jdbcTemplate, jdbcOperations);
+
+        inOrder.verify(jdbcOperations).execute(startsWith("LOCK TABLE productioncounting_balanceoperationaggregate"));
+        inOrder.verify(jdbcTemplate).update(eq("DELETE FROM productioncounting_balanceoperationaggregate pt WHERE TRUE "),
+                anyMap());
+        inOrder.verify(jdbcTemplate).update(startsWith("INSERT INTO productioncounting_balanceoperationaggregate"), anyMap());
+        verify(jdbcTemplate, never()).queryForList(anyString(), anyMap(), eq(Long.class));
+    }
+
+    @Test
+    public void shouldRebuildOnlyInconsistentOrdersWhenAllAggregatesHaveKeys() {
+        // given
+        given(jdbcTemplate.getJdbcOperations()).willReturn(jdbcOperations);
+        given(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), anyMap(), eq(Boolean.class))).willReturn(false);
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(Lists.newArrayList(100L));
+
+        // when
+        productionBalanceAggregateService.repairAggregates();
+
+        // then
+        verify(jdbcTemplate).update(startsWith("INSERT INTO productioncounting_balanceoperationaggregate"),
+                eq(Collections.singletonMap("ordersIds", Lists.newArrayList(100L))));
+        verify(jdbcTemplate).update(startsWith("INSERT INTO productioncounting_balanceproductoutaggregate"),
+                eq(Collections.singletonMap("ordersIds", Lists.newArrayList(100L))));
+    }
+
+    @Test
+    public void shouldNotRebuildAnythingWhenAggregatesAreConsistent() {
+        // given
+        given(jdbcTemplate.queryForObject(startsWith("SELECT EXISTS"), anyMap(), eq(Boolean.class))).willReturn(false);
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(Lists.newArrayList());
+
+        // when
+        int rebuilt = productionBalanceAggregateService.repairAggregates();
+
+        // then
+        assertEquals(0, rebuilt);
+        verify(jdbcTemplate, never()).update(anyString(), anyMap());
+    }
+
+    private Entity mockComponent(final BigDecimal usedQuantity, final BigDecimal wastesQuantity) {
+        Entity component = mock(Entity.class);
+        given(component.getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT)).willReturn(product);
+        given(component.getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY)).willReturn(usedQuantity);
+        given(component.getDecimalField(TrackingOperationProductOutComponentFields.WASTES_QUANTITY)).willReturn(wastesQuantity);
+        return component;
+    }
+
+    private void mockProductOutComponents(final Entity... components) {
+        List<Entity> entities = Lists.newArrayList(components);
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        given(productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(entityList);
+    }
+
+}
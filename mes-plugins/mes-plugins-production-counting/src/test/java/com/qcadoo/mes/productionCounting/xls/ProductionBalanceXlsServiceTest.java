@@ -0,0 +1,321 @@
+package com.qcadoo.mes.productionCounting.xls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
+import com.qcadoo.mes.productionCounting.xls.dto.LaborTimeDetails;
+import com.qcadoo.mes.productionCounting.xls.dto.MaterialCost;
+import com.qcadoo.mes.productionCounting.xls.dto.OrderBalance;
+import com.qcadoo.mes.productionCounting.xls.dto.PieceworkDetails;
+import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
+import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.NumberService;
+
+public class ProductionBalanceXlsServiceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductionBalanceXlsServiceTest.class);
+
+    private static final int HSSF_ROW_LIMIT = 65536;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ProductionBalanceXlsService productionBalanceXlsService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductionBalanceRepository productionBalanceRepository;
+
+    @Mock
+    private Entity productionBalance;
+
+    @Mock
+    private EntityList orders;
+
+    @Before
+    public void init() throws IOException {
+        MockitoAnnotations.initMocks(this);
+
+        productionBalanceXlsService = new ProductionBalanceXlsService();
+
+        ReflectionTestUtils.setField(productionBalanceXlsService, "translationService", translationService);
+        ReflectionTestUtils.setField(productionBalanceXlsService, "numberService", numberService);
+        ReflectionTestUtils.setField(productionBalanceXlsService, "productionBalanceRepository", productionBalanceRepository);
+
+        given(translationService.translate(anyString(), any(Locale.class))).willAnswer(
+                invocation -> StringUtils.substringAfterLast((String) invocation.getArguments()[0], "."));
+        given(numberService.setScale(any(BigDecimal.class), anyInt())).willAnswer(invocation -> {
+            BigDecimal value = (BigDecimal) invocation.getArguments()[0];
+            return value == null ? BigDecimal.ZERO : value.setScale((Integer) invocation.getArguments()[1], RoundingMode.HALF_UP);
+        });
+
+        given(productionBalance.getStringField(ProductionBalanceFields.FILE_NAME)).willReturn(
+                new File(temporaryFolder.getRoot(), "productionBalance").getAbsolutePath());
+        given(productionBalance.getHasManyField(ProductionBalanceFields.ORDERS)).willReturn(orders);
+
+        stubOrders(2);
+        stubStreamedRows(0, 0, 0, 0, 0);
+    }
+
+    @Test
+    public void shouldWriteAllSheetsToXlsxFile() throws IOException {
+        // given
+        stubStreamedRows(3, 2, 1, 1, 2);
+
+        // when
+        productionBalanceXlsService.generateDocument(productionBalance, Locale.ENGLISH);
+
+        // then
+        File file = productionBalanceXlsService.getFile(productionBalance);
+
+        assertTrue(file.getName().endsWith(".xlsx"));
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            XSSFWorkbook workbook = new XSSFWorkbook(inputStream);
+
+            assertEquals(8, workbook.getNumberOfSheets());
+            assertEquals("producedQuantities", workbook.getSheetName(0));
+            assertEquals("materialCosts", workbook.getSheetName(1));
+            assertEquals("productsBalance", workbook.getSheetName(7));
+            assertEquals("orderNumber", workbook.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+            assertEquals(2 * 3, workbook.getSheetAt(0).getLastRowNum());
+            assertEquals(2 * 2, workbook.getSheetAt(1).getLastRowNum());
+            assertEquals("order2", workbook.getSheetAt(1).getRow(4).getCell(0).getStringCellValue());
+            assertTrue(workbook.getSheetAt(1).getColumnWidth(0) > 0);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldPassRealCostsSummedPerOrderToOrdersBalance() throws IOException {
+        // given
+        stubStreamedRows(1, 3, 1, 1, 2);
+
+        ArgumentCaptor<Map> realMaterialCosts = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map> realProductionCosts = ArgumentCaptor.forClass(Map.class);
+
+        // when
+        productionBalanceXlsService.generateDocument(productionBalance, Locale.ENGLISH);
+
+        // then
+        verify(productionBalanceRepository).getOrdersBalance(eq(productionBalance), eq(Lists.newArrayList(1L, 2L)),
+                realMaterialCosts.capture(), realProductionCosts.capture());
+
+        assertEquals(2, realMaterialCosts.getValue().size());
+        assertEquals(new BigDecimal("6"), realMaterialCosts.getValue().get(1L));
+        assertEquals(new BigDecimal("12"), realMaterialCosts.getValue().get(2L));
+        assertEquals(2, realProductionCosts.getValue().size());
+        assertEquals(new BigDecimal("3"), realProductionCosts.getValue().get(1L));
+        assertEquals(new BigDecimal("6"), realProductionCosts.getValue().get(2L));
+    }
+
+    @Test
+    public void shouldWriteRowsAboveXlsLimitToOneSheet() throws IOException {
+        // given
+        int rowsPerOrder = HSSF_ROW_LIMIT / 2 + 1000;
+
+        stubStreamedRows(rowsPerOrder, 0, 0, 0, 0);
+
+        // when
+        productionBalanceXlsService.generateDocument(productionBalance, Locale.ENGLISH);
+
+        // then
+        try (ZipFile zipFile = new ZipFile(productionBalanceXlsService.getFile(productionBalance))) {
+            assertEquals(8, countEntries(zipFile, "xl/worksheets/sheet"));
+            assertEquals(1 + 2 * rowsPerOrder, countRows(zipFile, "xl/worksheets/sheet1.xml"));
+        }
+    }
+
+    @Ignore("benchmark, run manually")
+    @Test
+    public void shouldGenerateBalanceOfTenThousandOrders() throws IOException {
+        // given
+        stubOrders(10000);
+        stubStreamedRows(5, 20, 3, 3, 3);
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.currentTimeMillis();
+
+        // when
+        productionBalanceXlsService.generateDocument(productionBalance, Locale.ENGLISH);
+
+        // then
+        long time = System.currentTimeMillis() - start;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+
+        LOG.info("Production balance of 10000 orders generated in " + time + " ms, peak heap " + (peakHeap >> 20) + " MB, file "
+                + (productionBalanceXlsService.getFile(productionBalance).length() >> 20) + " MB");
+    }
+
+    private void stubOrders(final int ordersCount) {
+        List<Entity> orderEntities = LongStream.rangeClosed(1, ordersCount).mapToObj(this::mockOrder)
+                .collect(Collectors.toList());
+
+        given(orders.stream()).willAnswer(invocation -> orderEntities.stream());
+        given(orders.size()).willReturn(ordersCount);
+    }
+
+    private Entity mockOrder(final long id) {
+        Entity order = mock(Entity.class);
+
+        given(order.getId()).willReturn(id);
+
+        return order;
+    }
+
+    // every order gets given number of rows in each streamed sheet, costs of order n are n, 2n, 3n...
+    private void stubStreamedRows(final int producedQuantities, final int materialCosts, final int laborTimes,
+            final int pieceworks, final int productionCosts) {
+        int ordersCount = orders.size();
+
+        doAnswer(streamRows(1, ordersCount, producedQuantities, (order, i) -> {
+            ProducedQuantity producedQuantity = new ProducedQuantity();
+            producedQuantity.setOrderNumber("order" + order);
+            producedQuantity.setProductNumber("product" + i);
+            producedQuantity.setPlannedQuantity(BigDecimal.valueOf(i));
+            return producedQuantity;
+        })).when(productionBalanceRepository).streamProducedQuantities(anyListOf(Long.class), any(Consumer.class));
+        doAnswer(streamRows(2, ordersCount, materialCosts, (order, i) -> {
+            MaterialCost materialCost = new MaterialCost();
+            materialCost.setOrderId((long) order);
+            materialCost.setOrderNumber("order" + order);
+            materialCost.setProductNumber("product" + i);
+            materialCost.setRealCost(BigDecimal.valueOf((long) order * (i + 1)));
+            return materialCost;
+        })).when(productionBalanceRepository).streamMaterialCosts(any(Entity.class), anyListOf(Long.class), any(Consumer.class));
+        doAnswer(streamRows(1, ordersCount, laborTimes, (order, i) -> {
+            LaborTimeDetails laborTimeDetails = new LaborTimeDetails();
+            laborTimeDetails.setOrderNumber("order" + order);
+            laborTimeDetails.setLaborTime(3600 * (i + 1));
+            return laborTimeDetails;
+        })).when(productionBalanceRepository).streamLaborTimeDetails(anyListOf(Long.class), any(Consumer.class));
+        doAnswer(streamRows(1, ordersCount, pieceworks, (order, i) -> {
+            PieceworkDetails pieceworkDetails = new PieceworkDetails();
+            pieceworkDetails.setOrderNumber("order" + order);
+            pieceworkDetails.setTotalExecutedOperationCycles(BigDecimal.valueOf(i));
+            return pieceworkDetails;
+        })).when(productionBalanceRepository).streamPieceworkDetails(anyListOf(Long.class), any(Consumer.class));
+        doAnswer(streamRows(2, ordersCount, productionCosts, (order, i) -> {
+            ProductionCost productionCost = new ProductionCost();
+            productionCost.setOrderId((long) order);
+            productionCost.setOrderNumber("order" + order);
+            productionCost.setRealCostsSum(BigDecimal.valueOf((long) order * (i + 1)));
+            return productionCost;
+        })).when(productionBalanceRepository).streamProductionCosts(any(Entity.class), anyListOf(Long.class),
+                any(Consumer.class));
+
+        List<OrderBalance> ordersBalance = LongStream.rangeClosed(1, ordersCount).mapToObj(order -> {
+            OrderBalance orderBalance = new OrderBalance();
+            orderBalance.setOrderId(order);
+            orderBalance.setOrderNumber("order" + order);
+            return orderBalance;
+        }).collect(Collectors.toList());
+
+        given(productionBalanceRepository.getOrdersBalance(any(Entity.class), anyListOf(Long.class),
+                anyMapOf(Long.class, BigDecimal.class), anyMapOf(Long.class, BigDecimal.class))).willReturn(ordersBalance);
+        given(productionBalanceRepository.getComponentsBalance(any(Entity.class), anyListOf(Long.class), anyListOf(OrderBalance.class)))
+                .willReturn(ordersBalance);
+        given(productionBalanceRepository.getProductsBalance(any(Entity.class), anyListOf(Long.class), anyListOf(OrderBalance.class)))
+                .willReturn(Collections.emptyList());
+    }
+
+    // rows are created while consumed, like rows of streamed query, so they are never held in memory together
+    @SuppressWarnings("unchecked")
+    private <T> Answer<Void> streamRows(final int consumerIndex, final int ordersCount, final int rowsPerOrder,
+            final RowFactory<T> rowFactory) {
+        return invocation -> {
+            Consumer<T> consumer = (Consumer<T>) invocation.getArguments()[consumerIndex];
+            for (int order = 1; order <= ordersCount; order++) {
+                for (int i = 0; i < rowsPerOrder; i++) {
+                    consumer.accept(rowFactory.create(order, i));
+                }
+            }
+            return null;
+        };
+    }
+
+    private int countEntries(final ZipFile zipFile, final String prefix) {
+        return (int) zipFile.stream().filter(entry -> entry.getName().startsWith(prefix)).count();
+    }
+
+    private int countRows(final ZipFile zipFile, final String entryName) throws IOException {
+        int rows = 0;
+
+        try (InputStream inputStream = zipFile.getInputStream(zipFile.getEntry(entryName));
+                Scanner scanner = new Scanner(inputStream, "UTF-8")) {
+            scanner.useDelimiter("<row ");
+            while (scanner.hasNext()) {
+                scanner.next();
+                rows++;
+            }
+        }
+
+        return rows - 1;
+    }
+
+    private interface RowFactory<T> {
+
+        T create(int order, int index);
+
+    }
+
+}
@@ -30,14 +30,15 @@ import java.util.concurrent.TimeUnit;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.commons.dateTime.TimeRange;
-import com.qcadoo.mes.basic.constants.ShiftFields;
-import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftTimetableException;
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionPerShift.constants.DailyProgressFields;
 import com.qcadoo.model.api.Entity;
@@ -45,12 +46,15 @@ import com.qcadoo.model.api.Entity;
 @Service
 public class PpsTimeHelper {
 
+    @Autowired
+    private ShiftsDataProvider shiftsDataProvider;
+
     public Date findFinishDate(final Entity dailyProgress, Date dateOfDay, Entity order) {
         DateTime endDate = null;
         DateTime dateOfDayDT = new DateTime(dateOfDay, DateTimeZone.getDefault());
         DateTime orderStartDate = new DateTime(order.getDateField(OrderFields.START_DATE), DateTimeZone.getDefault());
         Entity shiftEntity = dailyProgress.getBelongsToField(DailyProgressFields.SHIFT);
-        Shift shift = new Shift(shiftEntity);
+        Shift shift = shiftsDataProvider.getShift(shiftEntity);
         int time = dailyProgress.getIntegerField(DailyProgressFields.EFFICIENCY_TIME);
         List<TimeRange> shiftWorkTime = Lists.newArrayList();
         List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
@@ -65,7 +69,7 @@ public class PpsTimeHelper {
             }
         }
 
-        shiftWorkDateTime = manageExceptions(shiftWorkDateTime, shift.getEntity(), dateOfDay);
+        shiftWorkDateTime = manageExceptions(shiftWorkDateTime, shift, dateOfDay);
 
         for (DateTimeRange range : shiftWorkDateTime) {
             if (range.durationInMins() >= time && time > 0) {
@@ -80,54 +84,54 @@ public class PpsTimeHelper {
     }
 
     public List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, Entity shiftEntity, Date dateOfDay) {
-        List<Entity> exceptions = Lists.newArrayList(shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS));
-        if (!exceptions.isEmpty()) {
-            trimWorkExceptions(exceptions, dateOfDay);
+        return manageExceptions(shiftWorkDateTime, shiftsDataProvider.getShift(shiftEntity), dateOfDay);
+    }
+
+    /**
+     * Removes free time exceptions from and adds work time exceptions starting at given day to shift's work times. Only
+     * exceptions which may affect given day are taken from shift's parsed timetable exceptions.
+     */
+    public List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, Shift shift, Date dateOfDay) {
+        Date dayStart = new Date(dateOfDay.getYear(), dateOfDay.getMonth(), dateOfDay.getDate());
+        Date dayEnd = new Date(dayStart.getTime() + TimeUnit.DAYS.toMillis(1));
+        Date nextDayEnd = new Date(dayEnd.getTime() + TimeUnit.DAYS.toMillis(1));
+
+        if (!shiftWorkDateTime.isEmpty()) {
+            DateTime workFrom = shiftWorkDateTime.stream().map(DateTimeRange::getFrom).min(DateTime::compareTo).get();
+            DateTime workTo = shiftWorkDateTime.stream().map(DateTimeRange::getTo).max(DateTime::compareTo).get();
 
-            for (Entity exception : exceptions) {
-                if (TimetableExceptionType.FREE_TIME.getStringValue().equals(
-                        exception.getStringField(ShiftTimetableExceptionFields.TYPE))) {
+            for (ShiftTimetableException exception : shift.findTimetableExceptions(workFrom.toDate(), workTo.toDate())) {
+                if (TimetableExceptionType.FREE_TIME == exception.getType()) {
                     shiftWorkDateTime = removeFreeTimeException(shiftWorkDateTime, exception);
                 }
             }
-            for (Entity exception : exceptions) {
-                if (TimetableExceptionType.WORK_TIME.getStringValue().equals(
-                        exception.getStringField(ShiftTimetableExceptionFields.TYPE))) {
-                    shiftWorkDateTime = addWorkTimeException(shiftWorkDateTime, exception);
-                }
+        }
+
+        for (ShiftTimetableException exception : shift.findTimetableExceptions(dayStart, nextDayEnd)) {
+            if (TimetableExceptionType.WORK_TIME == exception.getType() && startsAt(exception, dayStart, dayEnd, nextDayEnd)) {
+                shiftWorkDateTime = addWorkTimeException(shiftWorkDateTime, exception);
             }
         }
+
         return shiftWorkDateTime;
     }
 
-    private void trimWorkExceptions(final List<Entity> exceptions, Date dateOfDay) {
-        Date dayStart = new Date(dateOfDay.getYear(), dateOfDay.getMonth(), dateOfDay.getDate());
-        Date dayEnd = new Date(dayStart.getTime() + TimeUnit.DAYS.toMillis(1));
-        Date nextDayEnd = new Date(dayEnd.getTime() + TimeUnit.DAYS.toMillis(1));
-
-        List<Entity> hoursToRemove = Lists.newArrayList();
+    private boolean startsAt(final ShiftTimetableException exception, final Date dayStart, final Date dayEnd,
+            final Date nextDayEnd) {
+        Date fromDate = exception.getFromDate();
 
-        for (Entity exception : exceptions) {
-            if (TimetableExceptionType.WORK_TIME.getStringValue().equals(
-                    exception.getStringField(ShiftTimetableExceptionFields.TYPE))) {
-
-                Date fromDate = exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE);
-                Boolean relatesToPrevDay = exception.getBooleanField(ShiftTimetableExceptionFields.RELATES_TO_PREV_DAY);
-                if (!relatesToPrevDay && (fromDate.before(dayStart) || !fromDate.before(dayEnd))) {
-                    hoursToRemove.add(exception);
-                }
-                if (relatesToPrevDay && (fromDate.before(dayEnd) || !fromDate.before(nextDayEnd))) {
-                    hoursToRemove.add(exception);
-                }
-            }
+        if (exception.isRelatesToPrevDay()) {
+            return !fromDate.before(dayEnd) && fromDate.before(nextDayEnd);
         }
-        exceptions.removeAll(hoursToRemove);
+
+        return !fromDate.before(dayStart) && fromDate.before(dayEnd);
     }
 
-    private List<DateTimeRange> removeFreeTimeException(final List<DateTimeRange> shiftWorkDateTime, final Entity exception) {
+    private List<DateTimeRange> removeFreeTimeException(final List<DateTimeRange> shiftWorkDateTime,
+            final ShiftTimetableException exception) {
 
-        Date fromDate = exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE);
-        Date toDate = exception.getDateField(ShiftTimetableExceptionFields.TO_DATE);
+        Date fromDate = exception.getFromDate();
+        Date toDate = exception.getToDate();
         DateTimeRange exceptionRange = new DateTimeRange(fromDate, toDate);
 
         List<DateTimeRange> result = Lists.newArrayList();
@@ -139,10 +143,11 @@ public class PpsTimeHelper {
         return result;
     }
 
-    private List<DateTimeRange> addWorkTimeException(List<DateTimeRange> shiftWorkDateTime, final Entity exception) {
+    private List<DateTimeRange> addWorkTimeException(List<DateTimeRange> shiftWorkDateTime,
+            final ShiftTimetableException exception) {
 
-        Date fromDate = exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE);
-        Date toDate = exception.getDateField(ShiftTimetableExceptionFields.TO_DATE);
+        Date fromDate = exception.getFromDate();
+        Date toDate = exception.getToDate();
         DateTimeRange exceptionRange = new DateTimeRange(fromDate, toDate);
 
         if (shiftWorkDateTime.isEmpty()) {
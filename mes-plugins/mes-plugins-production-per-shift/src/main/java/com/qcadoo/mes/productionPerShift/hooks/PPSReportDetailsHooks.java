@@ -25,14 +25,19 @@ package com.qcadoo.mes.productionPerShift.hooks;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.basic.reports.ReportJobService;
+import com.qcadoo.mes.basic.reports.ReportJobStatus;
 import com.qcadoo.mes.productionPerShift.constants.PPSReportFields;
 import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FieldComponent;
 import com.qcadoo.view.api.components.FormComponent;
@@ -52,6 +57,9 @@ public final class PPSReportDetailsHooks {
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void generateReportNumber(final ViewDefinitionState view) {
         numberGeneratorService.generateAndInsertNumber(view, ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
                 ProductionPerShiftConstants.MODEL_PPS_REPORT, L_FORM, PPSReportFields.NUMBER);
@@ -78,6 +86,31 @@ public final class PPSReportDetailsHooks {
         }
     }
 
+    public void showReportJobStatus(final ViewDefinitionState view) {
+        FormComponent form = (FormComponent) view.getComponentByReference(L_FORM);
+        Long reportId = form.getEntityId();
+
+        if (reportId == null) {
+            return;
+        }
+
+        Optional<ReportJob> reportJob = reportJobService.findJob(ProductionPerShiftConstants.MODEL_PPS_REPORT, reportId);
+
+        if (!reportJob.isPresent()) {
+            return;
+        }
+
+        ReportJobStatus status = reportJob.get().getStatus();
+
+        if (!status.isDone()) {
+            form.addMessage("productionPerShift.report.message.generationInProgress", MessageType.INFO, false,
+                    String.valueOf(reportJob.get().getProgress()));
+        } else if (ReportJobStatus.FAILED.equals(status)) {
+            form.addMessage("productionPerShift.report.error.generationFailed", MessageType.FAILURE, false,
+                    reportJob.get().getErrorMessage());
+        }
+    }
+
     private void setFieldsState(final ViewDefinitionState view, final List<String> fieldNames, final boolean enabled) {
         for (String fieldName : fieldNames) {
             FieldComponent fieldComponent = (FieldComponent) view.getComponentByReference(fieldName);
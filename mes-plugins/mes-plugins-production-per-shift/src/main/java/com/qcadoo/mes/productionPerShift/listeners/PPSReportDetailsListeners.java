@@ -25,6 +25,7 @@ package com.qcadoo.mes.productionPerShift.listeners;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -33,6 +34,8 @@ import org.springframework.util.StringUtils;
 
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.PageSize;
+import com.qcadoo.mes.basic.reports.ReportJob;
+import com.qcadoo.mes.basic.reports.ReportJobService;
 import com.qcadoo.mes.productionPerShift.constants.PPSReportFields;
 import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
 import com.qcadoo.mes.productionPerShift.report.print.PPSReportXlsService;
@@ -59,6 +62,9 @@ public class PPSReportDetailsListeners {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     public void printReport(final ViewDefinitionState viewDefinitionState, final ComponentState state, final String[] args) {
         reportService.printGeneratedReport(viewDefinitionState, state, new String[] { args[0],
                 ProductionPerShiftConstants.PLUGIN_IDENTIFIER, ProductionPerShiftConstants.MODEL_PPS_REPORT });
@@ -79,25 +85,36 @@ public class PPSReportDetailsListeners {
                 return;
             }
 
-            if (!report.getBooleanField(PPSReportFields.GENERATED)) {
-                fillReportValues(report);
-            }
-            report = getReportFromDB((Long) state.getFieldValue());
+            Long reportId = report.getId();
+            Locale locale = state.getLocale();
 
-            try {
-                generateReportDocuments(report, state.getLocale());
+            Optional<ReportJob> reportJob = reportJobService.submit(ProductionPerShiftConstants.MODEL_PPS_REPORT, reportId,
+                    job -> generateReport(reportId, locale));
 
-                state.performEvent(viewDefinitionState, "reset", new String[0]);
+            state.performEvent(viewDefinitionState, "reset", new String[0]);
 
-                state.addMessage("productionPerShift.window.mainTab.goodFoodReportDetails.generatedMessage", MessageType.SUCCESS);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            } catch (DocumentException e) {
-                throw new IllegalStateException(e.getMessage(), e);
+            if (reportJob.isPresent()) {
+                state.addMessage("productionPerShift.report.message.generationQueued", MessageType.INFO);
+            } else {
+                state.addMessage("productionPerShift.report.error.tooManyReportJobs", MessageType.FAILURE);
             }
         }
     }
 
+    private void generateReport(final Long reportId, final Locale locale) throws IOException, DocumentException {
+        Entity report = getReportFromDB(reportId);
+
+        if (report == null) {
+            throw new IllegalStateException("PPS report with id=" + reportId + " doesn't exist");
+        }
+
+        if (!report.getBooleanField(PPSReportFields.GENERATED)) {
+            fillReportValues(report);
+        }
+
+        generateReportDocuments(getReportFromDB(reportId), locale);
+    }
+
     public void generateReportDocuments(final Entity goodFoodReport, final Locale locale) throws IOException, DocumentException {
 
         String localePrefix = "productionPerShift.report.fileName";
@@ -23,8 +23,6 @@
  */
 package com.qcadoo.mes.productionPerShift.report.print;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -43,14 +41,16 @@ import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.joda.time.LocalTime;
 import org.joda.time.Seconds;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Maps;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.reports.ReportJobService;
 import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
 import com.qcadoo.mes.orders.constants.OrderFields;
@@ -69,9 +69,8 @@ import com.qcadoo.report.api.xls.XlsDocumentService;
 @Service
 public class PPSReportXlsService extends XlsDocumentService {
 
-    private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", LocaleContextHolder.getLocale());
-
-    private DateFormat updateFormat = new SimpleDateFormat("yyyy-MM-dd", LocaleContextHolder.getLocale());
+    // reports are generated concurrently by report jobs, so formatter has to be thread-safe
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd");
 
     @Autowired
     private TranslationService translationService;
@@ -88,6 +87,9 @@ public class PPSReportXlsService extends XlsDocumentService {
     @Autowired
     private PPSReportColumnHelper ppsReportColumnHelper;
 
+    @Autowired
+    private ReportJobService reportJobService;
+
     @Override
     public String getReportTitle(final Locale locale) {
         return translationService.translate(PPSReportConstants.TITLE, locale);
@@ -184,7 +186,7 @@ public class PPSReportXlsService extends XlsDocumentService {
             HSSFCell cellDay = headerProductionLine.createCell(columnNumber);
             cellDay.setCellValue(translationService.translate(PPSReportConstants.COLUMN_HEADER_DAY, locale,
 
-                    dateFormat.format(new Date(day.getMillis()))));
+                    DATE_FORMATTER.print(day)));
             ppsReportXlsStyleHelper.setHeaderStyle2(cellDay, styleContainer);
 
             int shiftColumnNumber = columnNumber;
@@ -220,7 +222,7 @@ public class PPSReportXlsService extends XlsDocumentService {
         HSSFRow row = sheet.createRow(1);
 
         HSSFCell updateDateCell = row.createCell(0);
-        updateDateCell.setCellValue(updateFormat.format(report.getDateField(PPSReportFields.UPDATE_DATE)));
+        updateDateCell.setCellValue(DATE_FORMATTER.print(report.getDateField(PPSReportFields.UPDATE_DATE).getTime()));
 
         HSSFCell authorCell = row.createCell(2);
         authorCell.setCellValue(ppsReportXlsHelper.getDocumentAuthor(report.getStringField(PPSReportFields.CREATE_USER)));
@@ -250,6 +252,7 @@ public class PPSReportXlsService extends XlsDocumentService {
         String newProductionLineNumber;
 
         int rowNum = 6;
+        int processedProductionPerShifts = 0;
         boolean isFirstRow;
         boolean greyBg = false;
 
@@ -310,6 +313,8 @@ public class PPSReportXlsService extends XlsDocumentService {
             addSeriesOfDailyProgress(sheet, report, row, productionPerShift, greyBg, styleContainer, columns);
 
             oldProductionLineNumber = newProductionLineNumber;
+
+            reportJobService.reportProgress(++processedProductionPerShifts, productionPerShifts.size());
         }
 
         setColumnWidths(sheet, columns);
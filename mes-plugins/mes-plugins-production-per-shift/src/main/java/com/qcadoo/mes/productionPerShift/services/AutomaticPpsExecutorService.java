@@ -4,6 +4,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionPerShift.DateTimeRange;
 import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
@@ -36,6 +37,9 @@ public class AutomaticPpsExecutorService {
     @Autowired
     private PpsTimeHelper ppsTimeHelper;
 
+    @Autowired
+    private ShiftsDataProvider shiftsDataProvider;
+
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
         PpsAlgorithm algorithm = parametersService.getPpsAlgorithm();
         if (PpsAlgorithm.STANDARD_TECHNOLOGY == algorithm) {
@@ -125,7 +129,7 @@ public class AutomaticPpsExecutorService {
         DateTime endDate = null;
         DateTime dateOfDayDT = new DateTime(dateOfDay, DateTimeZone.getDefault());
         DateTime orderStartDate = new DateTime(order.getDateField(OrderFields.START_DATE), DateTimeZone.getDefault());
-        Shift shift = new Shift(shiftEntity);
+        Shift shift = shiftsDataProvider.getShift(shiftEntity);
         List<TimeRange> shiftWorkTime = Lists.newArrayList();
         List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
         if (shift.worksAt(dateOfDay.getDay() == 0 ? 7 : dateOfDay.getDay())) {
@@ -139,7 +143,7 @@ public class AutomaticPpsExecutorService {
             }
         }
 
-        shiftWorkDateTime = ppsTimeHelper.manageExceptions(shiftWorkDateTime, shift.getEntity(), dateOfDay);
+        shiftWorkDateTime = ppsTimeHelper.manageExceptions(shiftWorkDateTime, shift, dateOfDay);
 
         for (DateTimeRange range : shiftWorkDateTime) {
             if (range.durationInMins() >= time && time > 0) {
@@ -7,6 +7,7 @@ import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftsDataProvider;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
@@ -45,6 +46,9 @@ public abstract class PpsBaseAlgorithmService {
     @Autowired
     private PpsTimeHelper ppsTimeHelper;
 
+    @Autowired
+    private ShiftsDataProvider shiftsDataProvider;
+
     @Autowired
     private ParameterService parameterService;
 
@@ -193,7 +197,7 @@ public abstract class PpsBaseAlgorithmService {
             shiftWorkDateTime.add(new DateTimeRange(dateOfDayDT, range));
         }
 
-        shiftWorkDateTime = ppsTimeHelper.manageExceptions(shiftWorkDateTime, shift.getEntity(), dateOfDay.toDate());
+        shiftWorkDateTime = ppsTimeHelper.manageExceptions(shiftWorkDateTime, shift, dateOfDay.toDate());
 
         return shiftWorkDateTime;
     }
@@ -221,7 +225,7 @@ public abstract class PpsBaseAlgorithmService {
 
             @Override
             public Shift apply(final Entity shiftEntity) {
-                return new Shift(shiftEntity);
+                return shiftsDataProvider.getShift(shiftEntity);
             }
         }).toList();
     }
@@ -26,6 +26,7 @@ package com.qcadoo.mes.simpleMaterialBalance.internal.print;
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -175,6 +176,9 @@ public final class SimpleMaterialBalancePdfService extends PdfDocumentService {
         List<Entity> simpleMaterialBalanceLocationComponents = simpleMaterialBalance
                 .getHasManyField(L_SIMPLE_MATERIAL_BALANCE_LOCATIONS_COMPONENTS);
 
+        Map<Long, BigDecimal> availableQuantities = getAvailableQuantities(simpleMaterialBalanceLocationComponents,
+                neededProductQuantities.keySet(), (Date) simpleMaterialBalance.getField(L_DATE));
+
         for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
             Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
 
@@ -182,11 +186,7 @@ public final class SimpleMaterialBalancePdfService extends PdfDocumentService {
             table.addCell(new Phrase(product.getField(L_NAME).toString(), FontUtils.getDejavuRegular7Dark()));
             table.getDefaultCell().setHorizontalAlignment(Element.ALIGN_RIGHT);
             table.addCell(new Phrase(numberService.format(neededProductQuantity.getValue()), FontUtils.getDejavuRegular7Dark()));
-            BigDecimal available = BigDecimal.ZERO;
-            for (Entity simpleMaterialBalanceLocationComponent : simpleMaterialBalanceLocationComponents) {
-                available = available.add(materialFlowService.calculateShouldBeInLocation(simpleMaterialBalanceLocationComponent
-                        .getBelongsToField(L_LOCATION).getId(), product.getId(), (Date) simpleMaterialBalance.getField(L_DATE)));
-            }
+            BigDecimal available = availableQuantities.getOrDefault(product.getId(), BigDecimal.ZERO);
             table.addCell(new Phrase(numberService.format(available), FontUtils.getDejavuRegular7Dark()));
             table.addCell(new Phrase(numberService.format(available.subtract(neededProductQuantity.getValue(),
                     numberService.getMathContext())), FontUtils.getDejavuBold7Dark()));
@@ -250,4 +250,19 @@ public final class SimpleMaterialBalancePdfService extends PdfDocumentService {
         return translationService.translate("simpleMaterialBalance.simpleMaterialBalance.report.title", locale);
     }
 
+    private Map<Long, BigDecimal> getAvailableQuantities(final List<Entity> simpleMaterialBalanceLocationComponents,
+            final Collection<Long> productIds, final Date date) {
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        for (Entity simpleMaterialBalanceLocationComponent : simpleMaterialBalanceLocationComponents) {
+            Long locationId = simpleMaterialBalanceLocationComponent.getBelongsToField(L_LOCATION).getId();
+
+            materialFlowService.calculateShouldBeInLocation(locationId, productIds, date).forEach(
+                    (productId, quantity) -> availableQuantities.merge(productId, quantity,
+                            (available, added) -> available.add(added, numberService.getMathContext())));
+        }
+
+        return availableQuantities;
+    }
+
 }
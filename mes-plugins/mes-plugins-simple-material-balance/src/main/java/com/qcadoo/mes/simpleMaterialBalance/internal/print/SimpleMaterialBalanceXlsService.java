@@ -24,6 +24,7 @@
 package com.qcadoo.mes.simpleMaterialBalance.internal.print;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -36,6 +37,7 @@ import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.materialFlow.MaterialFlowService;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
@@ -118,6 +120,9 @@ public final class SimpleMaterialBalanceXlsService extends XlsDocumentService {
         List<Entity> simpleMaterialBalanceLocationComponents = simpleMaterialBalance
                 .getHasManyField(L_SIMPLE_MATERIAL_BALANCE_LOCATIONS_COMPONENTS);
 
+        Map<Long, BigDecimal> availableQuantities = getAvailableQuantities(simpleMaterialBalanceLocationComponents,
+                neededProductQuantities.keySet(), (Date) simpleMaterialBalance.getField(L_DATE));
+
         for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
             Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
 
@@ -126,12 +131,7 @@ public final class SimpleMaterialBalanceXlsService extends XlsDocumentService {
             row.createCell(1).setCellValue(product.getField(L_NAME).toString());
             row.createCell(2).setCellValue(product.getField(L_UNIT).toString());
             row.createCell(3).setCellValue(numberService.format(neededProductQuantity.getValue()));
-            BigDecimal available = BigDecimal.ZERO;
-            for (Entity simpleMaterialBalanceLocationComponent : simpleMaterialBalanceLocationComponents) {
-                available = available.add(materialFlowService.calculateShouldBeInLocation(simpleMaterialBalanceLocationComponent
-                        .getBelongsToField(L_LOCATION).getId(), product.getId(), (Date) simpleMaterialBalance.getField(L_DATE)),
-                        numberService.getMathContext());
-            }
+            BigDecimal available = availableQuantities.getOrDefault(product.getId(), BigDecimal.ZERO);
             row.createCell(4).setCellValue(numberService.format(available));
             row.createCell(5)
                     .setCellValue(
@@ -151,4 +151,19 @@ public final class SimpleMaterialBalanceXlsService extends XlsDocumentService {
         return translationService.translate("simpleMaterialBalance.simpleMaterialBalance.report.title", locale);
     }
 
+    private Map<Long, BigDecimal> getAvailableQuantities(final List<Entity> simpleMaterialBalanceLocationComponents,
+            final Collection<Long> productIds, final Date date) {
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        for (Entity simpleMaterialBalanceLocationComponent : simpleMaterialBalanceLocationComponents) {
+            Long locationId = simpleMaterialBalanceLocationComponent.getBelongsToField(L_LOCATION).getId();
+
+            materialFlowService.calculateShouldBeInLocation(locationId, productIds, date).forEach(
+                    (productId, quantity) -> availableQuantities.merge(productId, quantity,
+                            (available, added) -> available.add(added, numberService.getMathContext())));
+        }
+
+        return availableQuantities;
+    }
+
 }
@@ -0,0 +1,101 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Writes state change history rows of many owners with batch statements.
+ *
+ * Ids are reserved from the table sequence first, so inserted rows can be passed to state services and then updated by id. Only
+ * the generic state change fields of {@link StateChangeEntityDescriber} are written.
+ */
+@Service
+public class StateChangeHistoryService {
+
+    private static final String RESERVE_IDS_QUERY = "SELECT nextval('%s_id_seq') FROM generate_series(1, :count)";
+
+    private static final String INSERT_QUERY = "INSERT INTO %s (id, %s, %s, %s, %s, %s, %s, %s_id, %s_id) "
+            + "VALUES (:id, :dateAndTime, :sourceState, :targetState, :status, :phase, :worker, :shiftId, :ownerId)";
+
+    private static final String UPDATE_STATUS_QUERY = "UPDATE %s SET %s = :status, entityversion = entityversion + 1 WHERE id = :id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void insert(final StateChangeEntityDescriber describer, final List<Entity> stateChangeEntities) {
+        if (stateChangeEntities.isEmpty()) {
+            return;
+        }
+
+        String tableName = getTableName(describer.getDataDefinition());
+
+        List<Long> ids = jdbcTemplate.queryForList(String.format(RESERVE_IDS_QUERY, tableName),
+                Collections.singletonMap("count", stateChangeEntities.size()), Long.class);
+
+        Iterator<Long> idsIterator = ids.iterator();
+        SqlParameterSource[] batchParams = new SqlParameterSource[stateChangeEntities.size()];
+        int index = 0;
+
+        for (Entity stateChangeEntity : stateChangeEntities) {
+            stateChangeEntity.setId(idsIterator.next());
+
+            Entity shift = stateChangeEntity.getBelongsToField(describer.getShiftFieldName());
+            Entity owner = stateChangeEntity.getBelongsToField(describer.getOwnerFieldName());
+
+            MapSqlParameterSource params = new MapSqlParameterSource();
+
+            params.addValue("id", stateChangeEntity.getId());
+            params.addValue("dateAndTime", stateChangeEntity.getDateField(describer.getDateTimeFieldName()));
+            params.addValue("sourceState", stateChangeEntity.getStringField(describer.getSourceStateFieldName()));
+            params.addValue("targetState", stateChangeEntity.getStringField(describer.getTargetStateFieldName()));
+            params.addValue("status", stateChangeEntity.getStringField(describer.getStatusFieldName()));
+            params.addValue("phase", stateChangeEntity.getIntegerField(describer.getPhaseFieldName()));
+            params.addValue("worker", stateChangeEntity.getStringField(describer.getWorkerFieldName()));
+            params.addValue("shiftId", shift == null ? null : shift.getId());
+            params.addValue("ownerId", owner.getId());
+
+            batchParams[index++] = params;
+        }
+
+        jdbcTemplate.batchUpdate(
+                String.format(INSERT_QUERY, tableName, getColumnName(describer.getDateTimeFieldName()),
+                        getColumnName(describer.getSourceStateFieldName()), getColumnName(describer.getTargetStateFieldName()),
+                        getColumnName(describer.getStatusFieldName()), getColumnName(describer.getPhaseFieldName()),
+                        getColumnName(describer.getWorkerFieldName()), getColumnName(describer.getShiftFieldName()),
+                        getColumnName(describer.getOwnerFieldName())), batchParams);
+    }
+
+    public void updateStatuses(final StateChangeEntityDescriber describer, final List<Entity> stateChangeEntities) {
+        if (stateChangeEntities.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = stateChangeEntities.stream()
+                .map(stateChangeEntity -> new MapSqlParameterSource().addValue("id", stateChangeEntity.getId()).addValue("status",
+                        stateChangeEntity.getStringField(describer.getStatusFieldName())))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(String.format(UPDATE_STATUS_QUERY, getTableName(describer.getDataDefinition()),
+                getColumnName(describer.getStatusFieldName())), batchParams);
+    }
+
+    private String getTableName(final DataDefinition dataDefinition) {
+        return (dataDefinition.getPluginIdentifier() + "_" + dataDefinition.getName()).toLowerCase();
+    }
+
+    private String getColumnName(final String fieldName) {
+        return fieldName.toLowerCase();
+    }
+
+}
@@ -3,25 +3,27 @@ package com.qcadoo.mes.newstates;
 import static com.qcadoo.mes.states.constants.StateChangeStatus.IN_PROGRESS;
 import static com.qcadoo.mes.states.constants.StateChangeStatus.PAUSED;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
-import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
@@ -35,8 +37,6 @@ import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.model.api.validators.GlobalMessage;
-import com.qcadoo.plugin.api.PluginUtils;
-import com.qcadoo.plugin.api.RunIfEnabled;
 import com.qcadoo.security.api.SecurityService;
 import com.qcadoo.view.api.ComponentMessagesHolder;
 import com.qcadoo.view.api.ComponentState;
@@ -50,8 +50,13 @@ public class StateExecutorService {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(StateExecutorService.class);
 
+    private static final int BATCH_SIZE = 50;
+
+    @Autowired
+    private StateServiceResolver stateServiceResolver;
+
     @Autowired
-    private ApplicationContext applicationContext;
+    private StateChangeHistoryService stateChangeHistoryService;
 
     @Autowired
     private ShiftsService shiftsService;
@@ -68,13 +73,7 @@ public class StateExecutorService {
 
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference("grid");
         if (maybeGridComponent.isPresent()) {
-            maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
-                entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
-                entity = changeState(serviceMarker, entity, args[0]);
-
-                copyMessages(entity);
-            });
-
+            changeState(serviceMarker, maybeGridComponent.get().getSelectedEntities(), args[0]);
         } else {
             Optional<FormComponent> maybeForm = view.tryFindComponentByReference("form");
             if (maybeForm.isPresent()) {
@@ -88,29 +87,125 @@ public class StateExecutorService {
         }
     }
 
+    /**
+     * Changes state of given entities, e.g. selected in grid.
+     *
+     * Master model entities are loaded, state services are resolved and unfinished state changes are checked once per batch of
+     * entities, instead of once per entity. State change history rows of a batch are inserted and then updated with batch
+     * statements. Each entity is read again just before its state is changed, because changing state of one entity can change
+     * others. Messages of failed changes are reported for each entity, successful changes are summarized.
+     *
+     * @param serviceMarker
+     *            state service marker
+     * @param entities
+     *            entities (or their dto entities)
+     * @param targetState
+     *            target state
+     * @return state change status of each entity, by entity id
+     */
+    public <M extends StateService> Map<Long, StateChangeStatus> changeState(final Class<M> serviceMarker,
+            final List<Entity> entities, final String targetState) {
+        Map<Long, StateChangeStatus> statuses = Maps.newLinkedHashMap();
+
+        if (entities.isEmpty()) {
+            return statuses;
+        }
+
+        List<M> services = stateServiceResolver.getServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
+
+        for (List<Entity> batch : Lists.partition(entities, BATCH_SIZE)) {
+            List<Entity> masterModelEntities = getMasterModelEntities(batch);
+            Set<Long> ownersWithUnfinishedStateChange = findOwnersWithUnfinishedStateChange(describer, masterModelEntities);
+            Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+
+            List<Entity> stateChangeEntities = Lists.newArrayList();
+
+            for (Entity entity : masterModelEntities) {
+                Entity stateChangeEntity = buildStateChangeEntity(describer, entity,
+                        entity.getStringField(describer.getOwnerStateFieldName()), targetState, shift);
+
+                stateChangeEntity.setField(describer.getStatusFieldName(), StateChangeStatus.IN_PROGRESS.getStringValue());
+                stateChangeEntities.add(stateChangeEntity);
+            }
+
+            stateChangeHistoryService.insert(describer, stateChangeEntities);
+
+            for (int index = 0; index < masterModelEntities.size(); index++) {
+                Entity entity = masterModelEntities.get(index);
+                Long entityId = entity.getId();
+
+                entity = changeState(services, describer, entity, stateChangeEntities.get(index), targetState,
+                        ownersWithUnfinishedStateChange, false, false);
+
+                copyMessages(entity);
+
+                statuses.put(entityId, isStateChanged(describer, entity, targetState) ? StateChangeStatus.SUCCESSFUL
+                        : StateChangeStatus.FAILURE);
+            }
+
+            stateChangeHistoryService.updateStatuses(describer, stateChangeEntities);
+        }
+
+        long successful = statuses.values().stream().filter(StateChangeStatus.SUCCESSFUL::equals).count();
+
+        if (successful == statuses.size()) {
+            message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+        } else if (successful > 0) {
+            message("states.messages.change.partiallySuccessful", ComponentState.MessageType.INFO, String.valueOf(successful),
+                    String.valueOf(statuses.size()));
+        }
+
+        LOG.info(String.format("Bulk state change finished. Target state : %S. Successful : %d of %d", targetState, successful,
+                statuses.size()));
+
+        return statuses;
+    }
+
     public <M extends StateService> Entity changeState(Class<M> serviceMarker, Entity entity, String targetState) {
-        List<M> services = lookupChangeStateServices(serviceMarker);
+        List<M> services = stateServiceResolver.getServices(serviceMarker);
         StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
-        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+        Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity,
+                entity.getStringField(describer.getOwnerStateFieldName()), targetState, shift);
 
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, sourceState, targetState);
+        return changeState(services, describer, entity, stateChangeEntity, targetState,
+                findOwnersWithUnfinishedStateChange(describer, Lists.newArrayList(entity)), true, true);
+    }
+
+    /**
+     * Changes state of single entity.
+     *
+     * When history is not saved, the state change entity has to be already inserted, only its status is set here. Then the
+     * entity is read again and the change fails when its state is no longer the source state of the state change entity.
+     */
+    private <M extends StateService> Entity changeState(List<M> services, StateChangeEntityDescriber describer, Entity entity,
+            Entity stateChangeEntity, String targetState, Set<Long> ownersWithUnfinishedStateChange, boolean addSuccessMessage,
+            boolean saveHistory) {
+        String sourceState = stateChangeEntity.getStringField(describer.getSourceStateFieldName());
 
         try {
 
             stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
-                    StateChangeStatus.IN_PROGRESS);
+                    StateChangeStatus.IN_PROGRESS, ownersWithUnfinishedStateChange, saveHistory);
+
+            if (!saveHistory) {
+                entity = reloadUnchangedEntity(describer, entity, sourceState);
+            }
 
             entity = performChangeState(services, entity, stateChangeEntity, describer);
 
             if (entity.isValid()) {
                 copyMessages(entity);
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
-                message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                setStateChangeStatus(stateChangeEntity, StateChangeStatus.SUCCESSFUL, saveHistory);
+                if (addSuccessMessage) {
+                    message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                }
                 LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S", entity
                         .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
                         .getTargetStateFieldName())));
             } else {
-                saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+                setStateChangeStatus(stateChangeEntity, StateChangeStatus.FAILURE, saveHistory);
                 entity = rollbackStateChange(entity, sourceState);
                 message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
                 LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S", entity
@@ -121,27 +216,27 @@ public class StateExecutorService {
         } catch (EntityRuntimeException entityException) {
             copyMessages(entityException.getEntity(), entity);
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            setStateChangeStatus(stateChangeEntity, StateChangeStatus.FAILURE, saveHistory);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             return entity;
 
         } catch (AnotherChangeInProgressException e) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            setStateChangeStatus(stateChangeEntity, StateChangeStatus.FAILURE, saveHistory);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("Another state change in progress. Entity name : %S id : %d. Target state : %S", entity
                     .getDataDefinition().getName(), entity.getId(), targetState));
         } catch (StateTransitionNotAlloweException e) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            setStateChangeStatus(stateChangeEntity, StateChangeStatus.FAILURE, saveHistory);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change - transition not allowed. Entity name : %S id : %d. Target state : %S", entity
                     .getDataDefinition().getName(), entity.getId(), targetState));
         } catch (Exception exception) {
             entity = rollbackStateChange(entity, sourceState);
-            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            setStateChangeStatus(stateChangeEntity, StateChangeStatus.FAILURE, saveHistory);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change exception. Entity name : %S id : %d. Target state : %S", entity
@@ -152,15 +247,50 @@ public class StateExecutorService {
         return entity;
     }
 
+    private List<Entity> getMasterModelEntities(final List<Entity> entities) {
+        Entity entity = entities.get(0);
+        Entity masterModelEntity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
+
+        if (entities.size() == 1) {
+            return Lists.newArrayList(masterModelEntity);
+        }
+
+        List<Long> ids = entities.stream().map(Entity::getId).collect(Collectors.toList());
+
+        Map<Long, Entity> masterModelEntitiesById = masterModelEntity.getDataDefinition().find()
+                .add(SearchRestrictions.in("id", ids)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, Function.identity()));
+
+        return ids.stream().map(masterModelEntitiesById::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private boolean isStateChanged(final StateChangeEntityDescriber describer, final Entity entity, final String targetState) {
+        return entity.isValid() && targetState.equals(entity.getStringField(describer.getOwnerStateFieldName()));
+    }
+
+    private Entity reloadUnchangedEntity(final StateChangeEntityDescriber describer, final Entity entity, final String sourceState) {
+        Entity reloadedEntity = entity.getDataDefinition().get(entity.getId());
+
+        if (reloadedEntity == null
+                || !Objects.equals(sourceState, reloadedEntity.getStringField(describer.getOwnerStateFieldName()))) {
+            throw new AnotherChangeInProgressException();
+        }
+
+        return reloadedEntity;
+    }
+
     private Entity saveStateChangeContext(Entity entity, Entity stateChangeEntity, StateChangeEntityDescriber describer,
-            String _sourceState, String _targetState, StateChangeStatus status) {
+            String _sourceState, String _targetState, StateChangeStatus status, Set<Long> ownersWithUnfinishedStateChange,
+            boolean saveHistory) {
         final StateEnum sourceState = describer.parseStateEnum(_sourceState);
         final StateEnum targetState = describer.parseStateEnum(_targetState);
         if (sourceState != null && !sourceState.canChangeTo(targetState)) {
             throw new StateTransitionNotAlloweException(sourceState, targetState);
         }
-        checkForUnfinishedStateChange(describer, entity);
-        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, status);
+        if (ownersWithUnfinishedStateChange.contains(entity.getId())) {
+            throw new AnotherChangeInProgressException();
+        }
+        stateChangeEntity = setStateChangeStatus(stateChangeEntity, status, saveHistory);
         return stateChangeEntity;
     }
 
@@ -197,6 +327,17 @@ public class StateExecutorService {
         return entity;
     }
 
+    private Entity setStateChangeStatus(final Entity stateChangeEntity, final StateChangeStatus stateChangeStatus,
+            final boolean saveHistory) {
+        if (saveHistory) {
+            return saveStateChangeEntity(stateChangeEntity, stateChangeStatus);
+        }
+
+        stateChangeEntity.setField("status", stateChangeStatus.getStringValue());
+
+        return stateChangeEntity;
+    }
+
     private Entity saveStateChangeEntity(final Entity stateChangeEntity, StateChangeStatus stateChangeStatus) {
         stateChangeEntity.setField("status", stateChangeStatus.getStringValue());
 
@@ -205,9 +346,8 @@ public class StateExecutorService {
     }
 
     private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String sourceState,
-            String targetState) {
+            String targetState, Entity shift) {
         final Entity stateChangeEntity = describer.getDataDefinition().create();
-        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
 
         stateChangeEntity.setField(describer.getDateTimeFieldName(), new Date());
         stateChangeEntity.setField(describer.getSourceStateFieldName(), sourceState);
@@ -271,27 +411,12 @@ public class StateExecutorService {
         return entity.isValid();
     }
 
-    private <M extends StateService> List<M> lookupChangeStateServices(Class<M> serviceMarker) {
-        Map<String, M> stateServices = applicationContext.getBeansOfType(serviceMarker);
-
-        List<M> services = new ArrayList<>();
-
-        for (M service : stateServices.values()) {
-            if (serviceEnabled(service)) {
-                services.add(service);
-            }
-        }
-
-        AnnotationAwareOrderComparator.sort(services);
-
-        return services;
-    }
-
     public <M extends StateService> void buildInitial(Class<M> serviceMarker, Entity entity, String initialState) {
-        List<M> services = lookupChangeStateServices(serviceMarker);
+        List<M> services = stateServiceResolver.getServices(serviceMarker);
 
         StateChangeEntityDescriber describer = services.get(0).getChangeEntityDescriber();
-        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, null, initialState);
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, null, initialState,
+                shiftsService.getShiftFromDateWithTime(new Date()));
         stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
 
         entity.setField(describer.getOwnerStateFieldName(), initialState);
@@ -299,20 +424,6 @@ public class StateExecutorService {
 
     }
 
-    private <M extends Object & StateService> boolean serviceEnabled(M service) {
-        RunIfEnabled runIfEnabled = service.getClass().getAnnotation(RunIfEnabled.class);
-        if (runIfEnabled == null) {
-            return true;
-        }
-        for (String pluginIdentifier : runIfEnabled.value()) {
-            if (!PluginUtils.isEnabled(pluginIdentifier)) {
-                return false;
-            }
-        }
-
-        return true;
-    }
-
     private void copyMessages(Entity entity, Entity mainEntity) {
         if (mainEntity != null && mainEntity.equals(entity)) {
             return;
@@ -349,23 +460,29 @@ public class StateExecutorService {
         return saved;
     }
 
-    private void message(String msg, ComponentState.MessageType messageType) {
+    private void message(String msg, ComponentState.MessageType messageType, String... args) {
         if (componentMessagesHolder != null) {
-            componentMessagesHolder.addMessage(msg, messageType);
+            componentMessagesHolder.addMessage(msg, messageType, args);
         }
     }
 
-    private void checkForUnfinishedStateChange(final StateChangeEntityDescriber describer, final Entity owner) {
+    private Set<Long> findOwnersWithUnfinishedStateChange(final StateChangeEntityDescriber describer, final List<Entity> owners) {
         final String ownerFieldName = describer.getOwnerFieldName();
         final String statusFieldName = describer.getStatusFieldName();
         final Set<String> unfinishedStatuses = Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue());
 
+        if (owners.isEmpty()) {
+            return Collections.emptySet();
+        }
+
         final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
         searchCriteria.createAlias(ownerFieldName, ownerFieldName);
-        searchCriteria.add(SearchRestrictions.eq(ownerFieldName + ".id", owner.getId()));
+        searchCriteria.add(SearchRestrictions.in(ownerFieldName + ".id",
+                owners.stream().map(Entity::getId).collect(Collectors.toList())));
         searchCriteria.add(SearchRestrictions.in(statusFieldName, unfinishedStatuses));
-        if (searchCriteria.list().getTotalNumberOfEntities() > 0) {
-            throw new AnotherChangeInProgressException();
-        }
+
+        return searchCriteria.list().getEntities().stream()
+                .map(stateChangeEntity -> stateChangeEntity.getBelongsToField(ownerFieldName).getId())
+                .collect(Collectors.toSet());
     }
 }
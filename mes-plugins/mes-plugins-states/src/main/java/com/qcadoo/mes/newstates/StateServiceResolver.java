@@ -0,0 +1,63 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.plugin.api.PluginUtils;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+/**
+ * Resolves ordered state services for service markers.
+ *
+ * Beans are looked up and sorted once per marker, only plugin enabled checks are done on each call, because plugins can be
+ * enabled and disabled at runtime.
+ */
+@Service
+public class StateServiceResolver {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    private final ConcurrentMap<Class<?>, List<StateService>> servicesByMarker = new ConcurrentHashMap<>();
+
+    public <M extends StateService> List<M> getServices(final Class<M> serviceMarker) {
+        List<StateService> services = servicesByMarker.computeIfAbsent(serviceMarker, this::lookupServices);
+
+        return services.stream().filter(this::serviceEnabled).map(serviceMarker::cast).collect(Collectors.toList());
+    }
+
+    private List<StateService> lookupServices(final Class<?> serviceMarker) {
+        List<StateService> services = new ArrayList<>();
+
+        for (Object service : applicationContext.getBeansOfType(serviceMarker).values()) {
+            services.add((StateService) service);
+        }
+
+        AnnotationAwareOrderComparator.sort(services);
+
+        return services;
+    }
+
+    private boolean serviceEnabled(final StateService service) {
+        RunIfEnabled runIfEnabled = service.getClass().getAnnotation(RunIfEnabled.class);
+        if (runIfEnabled == null) {
+            return true;
+        }
+        for (String pluginIdentifier : runIfEnabled.value()) {
+            if (!PluginUtils.isEnabled(pluginIdentifier)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+public class StateChangeHistoryServiceTest {
+
+    private StateChangeHistoryService stateChangeHistoryService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private StateChangeEntityDescriber describer;
+
+    @Mock
+    private DataDefinition stateChangeDD;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateChangeHistoryService = new StateChangeHistoryService();
+
+        ReflectionTestUtils.setField(stateChangeHistoryService, "jdbcTemplate", jdbcTemplate);
+
+        given(describer.getDataDefinition()).willReturn(stateChangeDD);
+        given(stateChangeDD.getPluginIdentifier()).willReturn("productionCounting");
+        given(stateChangeDD.getName()).willReturn("productionTrackingStateChange");
+        given(describer.getDateTimeFieldName()).willReturn("dateAndTime");
+        given(describer.getSourceStateFieldName()).willReturn("sourceState");
+        given(describer.getTargetStateFieldName()).willReturn("targetState");
+        given(describer.getStatusFieldName()).willReturn("status");
+        given(describer.getPhaseFieldName()).willReturn("phase");
+        given(describer.getWorkerFieldName()).willReturn("worker");
+        given(describer.getShiftFieldName()).willReturn("shift");
+        given(describer.getOwnerFieldName()).willReturn("productionTracking");
+    }
+
+    @Test
+    public final void shouldInsertAllRowsWithOneBatchUsingReservedIds() {
+        // given
+        Entity first = mockStateChange(1L);
+        Entity second = mockStateChange(2L);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(Lists.newArrayList(101L, 102L));
+
+        // when
+        stateChangeHistoryService.insert(describer, Lists.newArrayList(first, second));
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource[]> paramsCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).queryForList(eq("SELECT nextval('productioncounting_productiontrackingstatechange_id_seq') "
+                + "FROM generate_series(1, :count)"), eq(Collections.singletonMap("count", 2)), eq(Long.class));
+        verify(jdbcTemplate).batchUpdate(queryCaptor.capture(), paramsCaptor.capture());
+        verify(first).setId(101L);
+        verify(second).setId(102L);
+
+        assertTrue(queryCaptor.getValue().startsWith("INSERT INTO productioncounting_productiontrackingstatechange "
+                + "(id, dateandtime, sourcestate, targetstate, status, phase, worker, shift_id, productiontracking_id)"));
+
+        SqlParameterSource[] params = paramsCaptor.getValue();
+
+        assertEquals(2, params.length);
+        assertEquals(2L, params[1].getValue("ownerId"));
+        assertEquals("01inProgress", params[1].getValue("status"));
+    }
+
+    @Test
+    public final void shouldUpdateStatusesWithOneBatch() {
+        // given
+        Entity first = mockStateChange(1L);
+        Entity second = mockStateChange(2L);
+
+        given(first.getId()).willReturn(101L);
+        given(second.getId()).willReturn(102L);
+        given(second.getStringField("status")).willReturn("04failure");
+
+        // when
+        stateChangeHistoryService.updateStatuses(describer, Lists.newArrayList(first, second));
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> paramsCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(eq("UPDATE productioncounting_productiontrackingstatechange SET status = :status, "
+                + "entityversion = entityversion + 1 WHERE id = :id"), paramsCaptor.capture());
+
+        SqlParameterSource[] params = paramsCaptor.getValue();
+
+        assertEquals(102L, params[1].getValue("id"));
+        assertEquals("04failure", params[1].getValue("status"));
+    }
+
+    @Test
+    public final void shouldNotTouchDatabaseForEmptyHistory() {
+        // given
+        List<Entity> stateChangeEntities = Collections.emptyList();
+
+        // when
+        stateChangeHistoryService.insert(describer, stateChangeEntities);
+        stateChangeHistoryService.updateStatuses(describer, stateChangeEntities);
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    private Entity mockStateChange(final Long ownerId) {
+        Entity stateChange = mock(Entity.class);
+        Entity owner = mock(Entity.class);
+
+        given(owner.getId()).willReturn(ownerId);
+        given(stateChange.getBelongsToField("productionTracking")).willReturn(owner);
+        given(stateChange.getDateField("dateAndTime")).willReturn(new Date());
+        given(stateChange.getStringField("targetState")).willReturn("02accepted");
+        given(stateChange.getStringField("status")).willReturn("01inProgress");
+        given(stateChange.getIntegerField("phase")).willReturn(0);
+
+        return stateChange;
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+
+public class StateServiceResolverTest {
+
+    private interface TestStateServiceMarker extends StateService {
+    }
+
+    private StateServiceResolver stateServiceResolver;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateServiceResolver = new StateServiceResolver();
+
+        ReflectionTestUtils.setField(stateServiceResolver, "applicationContext", applicationContext);
+    }
+
+    @Test
+    public void shouldLookupServicesOncePerMarker() {
+        // given
+        TestStateServiceMarker service = mock(TestStateServiceMarker.class);
+        Map<String, TestStateServiceMarker> services = ImmutableMap.of("service", service);
+
+        given(applicationContext.getBeansOfType(TestStateServiceMarker.class)).willReturn(services);
+
+        // when
+        List<TestStateServiceMarker> first = stateServiceResolver.getServices(TestStateServiceMarker.class);
+        List<TestStateServiceMarker> second = stateServiceResolver.getServices(TestStateServiceMarker.class);
+
+        // then
+        assertEquals(1, first.size());
+        assertEquals(service, first.get(0));
+        assertEquals(first, second);
+
+        verify(applicationContext, times(1)).getBeansOfType(TestStateServiceMarker.class);
+    }
+
+}
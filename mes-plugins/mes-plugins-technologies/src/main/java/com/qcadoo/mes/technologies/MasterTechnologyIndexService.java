@@ -0,0 +1,95 @@
+package com.qcadoo.mes.technologies;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ImmutableSet;
+import com.qcadoo.mes.basic.util.VersionedCache;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+
+/**
+ * Index of products, which have accepted master technology, loaded with one query instead of one query per product.
+ *
+ * Index is kept in {@link VersionedCache} and invalidated on technology state changes and technology saves (master flag
+ * changes).
+ */
+@Service
+public class MasterTechnologyIndexService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MasterTechnologyIndexService.class);
+
+    private static final String PRODUCTS_WITH_ACCEPTED_MASTER_TECHNOLOGY_QUERY = "SELECT DISTINCT technology.product_id "
+            + "FROM technologies_technology technology WHERE technology.master = true AND technology.state = :state";
+
+    private static final String L_INDEX = "index";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final AtomicLong savedQueries = new AtomicLong();
+
+    private final VersionedCache<String, Set<Long>> indexCache = new VersionedCache<>(1, 0);
+
+    /**
+     * Finds products with accepted master technology among given products.
+     *
+     * @param productIds
+     *            ids of products
+     * @return ids of products with accepted master technology
+     */
+    public Set<Long> findProductsWithAcceptedMasterTechnology(final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        AtomicBoolean loaded = new AtomicBoolean();
+
+        Set<Long> productsWithAcceptedMasterTechnology = indexCache.get(L_INDEX, () -> {
+            loaded.set(true);
+
+            return loadProductsWithAcceptedMasterTechnology();
+        });
+
+        long savedQueriesInCall = productIds.size() - (loaded.get() ? 1 : 0);
+
+        savedQueries.addAndGet(savedQueriesInCall);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Master technology lookup for " + productIds.size() + " products saved " + savedQueriesInCall
+                    + " queries, " + savedQueries.get() + " in total");
+        }
+
+        return productIds.stream().filter(productsWithAcceptedMasterTechnology::contains).collect(Collectors.toSet());
+    }
+
+    public boolean hasAcceptedMasterTechnology(final Long productId) {
+        return !findProductsWithAcceptedMasterTechnology(Collections.singleton(productId)).isEmpty();
+    }
+
+    /**
+     * @return number of per product queries saved since start
+     */
+    public long getSavedQueries() {
+        return savedQueries.get();
+    }
+
+    public void invalidate() {
+        indexCache.invalidateAll();
+    }
+
+    private Set<Long> loadProductsWithAcceptedMasterTechnology() {
+        return ImmutableSet.copyOf(jdbcTemplate.queryForList(PRODUCTS_WITH_ACCEPTED_MASTER_TECHNOLOGY_QUERY,
+                Collections.singletonMap("state", TechnologyStateStringValues.ACCEPTED), Long.class));
+    }
+
+}
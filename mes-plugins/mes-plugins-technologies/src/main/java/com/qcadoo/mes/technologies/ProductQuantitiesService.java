@@ -51,6 +51,15 @@ public interface ProductQuantitiesService {
 
     ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity);
 
+    /**
+     * @param productQuantitiesHolder Product quantities and operation runs of already exploded technology.
+     * @param mrpAlgorithm            MRP Algorithm
+     * @return Map with product as the key and its quantity as the value, same as the one returned by
+     * {@link #getNeededProductQuantities(Entity, BigDecimal, MrpAlgorithm)}, but without exploding technology again.
+     */
+    Map<Long, BigDecimal> getNeededProductQuantities(final ProductQuantitiesHolder productQuantitiesHolder,
+            final MrpAlgorithm mrpAlgorithm);
+
     /**
      * @param order Order
      * @return Map with operationProductComponents (in or out) as the keys and its quantities as the values. Be aware that
@@ -25,10 +25,12 @@ package com.qcadoo.mes.technologies;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -48,12 +50,12 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
-import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.mes.technologies.tree.CompiledTechnology;
+import com.qcadoo.mes.technologies.tree.CompiledTechnologyService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTree;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
 public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
@@ -72,13 +74,32 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private CompiledTechnologyService compiledTechnologyService;
+
+    @Autowired
+    private MasterTechnologyIndexService masterTechnologyIndexService;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
-        OperationProductComponentWithQuantityContainer productQuantities = getProductComponentQuantities(technology,
-                givenQuantity, operationRuns);
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        OperationProductComponentWithQuantityContainer productQuantities = getProductComponentWithQuantitiesForTechnology(
+                technology, givenQuantity, operationRuns, nonComponents);
 
-        return new ProductQuantitiesHolder(productQuantities, operationRuns);
+        return new ProductQuantitiesHolder(productQuantities, operationRuns, nonComponents);
+    }
+
+    @Override
+    public Map<Long, BigDecimal> getNeededProductQuantities(final ProductQuantitiesHolder productQuantitiesHolder,
+            final MrpAlgorithm mrpAlgorithm) {
+        OperationProductComponentWithQuantityContainer productComponentWithQuantities = new OperationProductComponentWithQuantityContainer();
+
+        productQuantitiesHolder.getProductQuantities().forEach(productComponentWithQuantities::put);
+
+        return getProductWithQuantities(productComponentWithQuantities, productQuantitiesHolder.getNonComponents(),
+                mrpAlgorithm, TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
     }
 
     @Override
@@ -207,29 +228,19 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     public OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForTechnology(final Entity technology,
             final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
             final Set<OperationProductComponentHolder> nonComponents) {
-        OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
+        CompiledTechnology compiledTechnology = compiledTechnologyService.getCompiledTechnology(technology);
 
-        EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
-        Entity root = operationComponents.getRoot();
+        nonComponents.addAll(compiledTechnology.getNonComponents());
 
-        if (root != null) {
-            preloadProductQuantitiesAndOperationRuns(operationComponents, operationProductComponentWithQuantityContainer,
-                    operationRuns);
-            traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, root, null,
-                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
-        }
-
-        return operationProductComponentWithQuantityContainer;
-    }
-
-    private EntityTree getOperationComponentsFromTechnology(final Entity technology) {
-        return technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+        return compiledTechnology.calculate(givenQuantity, numberService.getMathContext(), operationRuns);
     }
 
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
             final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
             final boolean onTheFly) {
         Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+        Map<Long, Map<BigDecimal, OperationProductComponentWithQuantityContainer>> productComponentWithQuantitiesForTechnologies = Maps
+                .newHashMap();
 
         for (Entity order : orders) {
             BigDecimal plannedQuantity = order.getDecimalField(L_PLANNED_QUANTITY);
@@ -240,8 +251,20 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 throw new IllegalStateException("Order doesn't contain technology.");
             }
 
-            productComponentWithQuantitiesForOrders.put(order.getId(),
-                    getProductComponentWithQuantitiesForTechnology(technology, plannedQuantity, operationRuns, nonComponents));
+            Map<BigDecimal, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForTechnology = productComponentWithQuantitiesForTechnologies
+                    .computeIfAbsent(technology.getId(), technologyId -> Maps.newHashMap());
+
+            OperationProductComponentWithQuantityContainer productComponentWithQuantities = productComponentWithQuantitiesForTechnology
+                    .get(plannedQuantity);
+
+            if ((technology.getId() == null) || (productComponentWithQuantities == null)) {
+                productComponentWithQuantities = getProductComponentWithQuantitiesForTechnology(technology, plannedQuantity,
+                        operationRuns, nonComponents);
+
+                productComponentWithQuantitiesForTechnology.put(plannedQuantity, productComponentWithQuantities);
+            }
+
+            productComponentWithQuantitiesForOrders.put(order.getId(), productComponentWithQuantities);
         }
 
         return groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
@@ -545,6 +568,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Set<OperationProductComponentHolder> nonComponents, final boolean onlyComponents, final boolean onlyMaterials) {
         Map<Long, BigDecimal> productWithQuantities = Maps.newHashMap();
 
+        Set<Long> productsWithAcceptedMasterTechnology = getProductsWithAcceptedMasterTechnology(
+                productComponentWithQuantities, onlyMaterials);
+
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentWithQuantities
                 .asMap().entrySet()) {
             OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
@@ -552,11 +578,8 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             if (onlyComponents && nonComponents.contains(operationProductComponentHolder)) {
                 continue;
             }
-            if (onlyMaterials) {
-                Entity product = operationProductComponentHolder.getProduct();
-                if (hasAcceptedMasterTechnology(product)) {
-                    continue;
-                }
+            if (onlyMaterials && productsWithAcceptedMasterTechnology.contains(operationProductComponentHolder.getProductId())) {
+                continue;
             }
 
             addProductQuantitiesToList(productComponentWithQuantity, productWithQuantities);
@@ -565,17 +588,16 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
         return productWithQuantities;
     }
 
-    private boolean hasAcceptedMasterTechnology(final Entity product) {
-        DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_TECHNOLOGY);
-        Entity masterTechnology = technologyDD
-                .find()
-                .add(SearchRestrictions.and(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product),
-                        (SearchRestrictions.eq("state", "02accepted"))))
-                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult();
+    private Set<Long> getProductsWithAcceptedMasterTechnology(
+            final OperationProductComponentWithQuantityContainer productComponentWithQuantities, final boolean onlyMaterials) {
+        if (!onlyMaterials) {
+            return Collections.emptySet();
+        }
 
-        return masterTechnology != null;
+        Set<Long> productIds = productComponentWithQuantities.asMap().keySet().stream()
+                .map(OperationProductComponentHolder::getProductId).collect(Collectors.toSet());
 
+        return masterTechnologyIndexService.findProductsWithAcceptedMasterTechnology(productIds);
     }
 
     @Override
@@ -583,15 +605,15 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Map<Long, BigDecimal> productWithQuantities) {
         OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
 
-        Entity product = operationProductComponentHolder.getProduct();
+        Long productId = operationProductComponentHolder.getProductId();
         BigDecimal newQuantity = productComponentWithQuantity.getValue();
 
-        BigDecimal oldQuantity = productWithQuantities.get(product.getId());
+        BigDecimal oldQuantity = productWithQuantities.get(productId);
         if (oldQuantity != null) {
             newQuantity = newQuantity.add(oldQuantity);
         }
 
-        productWithQuantities.put(product.getId(), newQuantity);
+        productWithQuantities.put(productId, newQuantity);
     }
 
     @Override
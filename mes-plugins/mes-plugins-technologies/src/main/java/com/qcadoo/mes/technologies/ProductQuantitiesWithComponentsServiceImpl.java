@@ -32,11 +32,9 @@ import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
-import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTree;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.utils.EntityTreeUtilsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,9 +42,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductQuantitiesWithComponentsServiceImpl implements ProductQuantitiesWithComponentsService {
@@ -62,6 +62,9 @@ public class ProductQuantitiesWithComponentsServiceImpl implements ProductQuanti
     @Autowired
     DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    MasterTechnologyIndexService masterTechnologyIndexService;
+
     @Override
     public Map<OperationProductComponentHolder, BigDecimal> getNeededProductQuantitiesByOPC(Entity technology,
             BigDecimal givenQuantity, MrpAlgorithm mrpAlgorithm) {
@@ -97,6 +100,9 @@ public class ProductQuantitiesWithComponentsServiceImpl implements ProductQuanti
             final Set<OperationProductComponentHolder> nonComponents, final boolean onlyComponents, final boolean onlyMaterials) {
         Map<OperationProductComponentHolder, BigDecimal> productWithQuantities = Maps.newHashMap();
 
+        Set<Long> productsWithAcceptedMasterTechnology = getProductsWithAcceptedMasterTechnology(
+                productComponentWithQuantities, onlyMaterials);
+
         for (Map.Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentWithQuantities
                 .asMap().entrySet()) {
             OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
@@ -104,11 +110,8 @@ public class ProductQuantitiesWithComponentsServiceImpl implements ProductQuanti
             if (onlyComponents && nonComponents.contains(operationProductComponentHolder)) {
                 continue;
             }
-            if (onlyMaterials) {
-                Entity product = operationProductComponentHolder.getProduct();
-                if (hasAcceptedMasterTechnology(product)) {
-                    continue;
-                }
+            if (onlyMaterials && productsWithAcceptedMasterTechnology.contains(operationProductComponentHolder.getProductId())) {
+                continue;
             }
 
             addOPCQuantitiesToList(productComponentWithQuantity, productWithQuantities);
@@ -117,17 +120,16 @@ public class ProductQuantitiesWithComponentsServiceImpl implements ProductQuanti
         return productWithQuantities;
     }
 
-    private boolean hasAcceptedMasterTechnology(final Entity product) {
-        DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_TECHNOLOGY);
-        Entity masterTechnology = technologyDD
-                .find()
-                .add(SearchRestrictions.and(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product),
-                        (SearchRestrictions.eq("state", "02accepted"))))
-                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult();
+    private Set<Long> getProductsWithAcceptedMasterTechnology(
+            final OperationProductComponentWithQuantityContainer productComponentWithQuantities, final boolean onlyMaterials) {
+        if (!onlyMaterials) {
+            return Collections.emptySet();
+        }
 
-        return masterTechnology != null;
+        Set<Long> productIds = productComponentWithQuantities.asMap().keySet().stream()
+                .map(OperationProductComponentHolder::getProductId).collect(Collectors.toSet());
 
+        return masterTechnologyIndexService.findProductsWithAcceptedMasterTechnology(productIds);
     }
 
     public void addOPCQuantitiesToList(final Map.Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity,
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.technologies.hooks;
 
 import com.qcadoo.mes.states.service.StateChangeEntityBuilder;
+import com.qcadoo.mes.technologies.MasterTechnologyIndexService;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
@@ -48,6 +49,9 @@ public class TechnologyModelHooks {
     @Autowired
     private StateChangeEntityBuilder stateChangeEntityBuilder;
 
+    @Autowired
+    private MasterTechnologyIndexService masterTechnologyIndexService;
+
     @Autowired
     private TechnologyStateChangeDescriber describer;
 
@@ -75,6 +79,8 @@ public class TechnologyModelHooks {
             technology.setField(TechnologyFields.TEMPLATE, false);
         }
         setNewMasterTechnology(technologyDD, technology);
+
+        masterTechnologyIndexService.invalidate();
     }
 
     public void onUpdate(final DataDefinition technologyDD, final Entity technology) {
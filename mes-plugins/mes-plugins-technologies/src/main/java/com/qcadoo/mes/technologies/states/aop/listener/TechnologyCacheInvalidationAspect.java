@@ -0,0 +1,41 @@
+package com.qcadoo.mes.technologies.states.aop.listener;
+
+import org.aspectj.lang.annotation.After;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.states.StateChangeContext;
+import com.qcadoo.mes.states.annotation.RunInPhase;
+import com.qcadoo.mes.states.aop.AbstractStateListenerAspect;
+import com.qcadoo.mes.technologies.MasterTechnologyIndexService;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.states.aop.TechnologyStateChangeAspect;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangePhase;
+import com.qcadoo.mes.technologies.tree.CompiledTechnologyService;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+@Aspect
+@Configurable
+@RunIfEnabled(TechnologiesConstants.PLUGIN_IDENTIFIER)
+public class TechnologyCacheInvalidationAspect extends AbstractStateListenerAspect {
+
+    @Autowired
+    private CompiledTechnologyService compiledTechnologyService;
+
+    @Autowired
+    private MasterTechnologyIndexService masterTechnologyIndexService;
+
+    @Pointcut(TechnologyStateChangeAspect.SELECTOR_POINTCUT)
+    protected void targetServicePointcut() {
+    }
+
+    @RunInPhase(TechnologyStateChangePhase.LAST)
+    @After(PHASE_EXECUTION_POINTCUT)
+    public void invalidateCachesOnStateChange(final StateChangeContext stateChangeContext, final int phase) {
+        compiledTechnologyService.invalidate();
+        masterTechnologyIndexService.invalidate();
+    }
+
+}
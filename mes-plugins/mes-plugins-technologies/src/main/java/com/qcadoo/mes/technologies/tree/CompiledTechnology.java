@@ -0,0 +1,332 @@
+package com.qcadoo.mes.technologies.tree;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Flat, index based form of technology operation tree (including referenced technologies), used to calculate product quantities
+ * and operation runs without traversing entities.
+ *
+ * Product components are kept as slots with base quantities, operations as arrays of slot indexes and the traversal as a list of
+ * steps in the same order, as in ProductQuantitiesServiceImpl#traverseProductQuantitiesAndOperationRuns, so calculated
+ * quantities, including rounding, are the same.
+ */
+public final class CompiledTechnology {
+
+    private static final int GIVEN_QUANTITY = -1;
+
+    private static final int QUANTITY_SCALE = 5;
+
+    private final OperationProductComponentHolder[] holders;
+
+    private final BigDecimal[] baseQuantities;
+
+    private final Long[] operationIds;
+
+    private final int[][] operationSlots;
+
+    private final boolean[] areProductQuantitiesDivisible;
+
+    private final boolean[] isTjDivisible;
+
+    private final int[] stepOperations;
+
+    private final int[] stepNeededSlots;
+
+    private final int[] stepActualSlots;
+
+    private final Set<OperationProductComponentHolder> nonComponents;
+
+    private final boolean immutable;
+
+    private CompiledTechnology(final Builder builder) {
+        this.holders = builder.holders.toArray(new OperationProductComponentHolder[builder.holders.size()]);
+        this.baseQuantities = builder.baseQuantities.toArray(new BigDecimal[builder.baseQuantities.size()]);
+        this.operationIds = builder.operationIds.toArray(new Long[builder.operationIds.size()]);
+        this.operationSlots = builder.operationSlots.toArray(new int[builder.operationSlots.size()][]);
+        this.areProductQuantitiesDivisible = toArray(builder.areProductQuantitiesDivisible);
+        this.isTjDivisible = toArray(builder.isTjDivisible);
+        this.stepOperations = Ints.toArray(builder.stepOperations);
+        this.stepNeededSlots = Ints.toArray(builder.stepNeededSlots);
+        this.stepActualSlots = Ints.toArray(builder.stepActualSlots);
+        this.nonComponents = ImmutableSet.copyOf(builder.nonComponents);
+        this.immutable = builder.immutable;
+    }
+
+    private static boolean[] toArray(final List<Boolean> values) {
+        boolean[] array = new boolean[values.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+
+        return array;
+    }
+
+    public static CompiledTechnology compile(final Entity technology) {
+        Builder builder = new Builder();
+
+        EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+        Entity root = operationComponents.getRoot();
+
+        builder.checkState(technology);
+
+        if (root != null) {
+            builder.addOperations(operationComponents);
+            builder.addSteps(technology, root, null);
+        }
+
+        return new CompiledTechnology(builder);
+    }
+
+    /**
+     * Calculates product component quantities for given quantity of technology product.
+     *
+     * @param givenQuantity
+     *            quantity of technology product
+     * @param mathContext
+     *            math context
+     * @param operationRuns
+     *            map, to which operation runs are put
+     * @return product component quantities
+     */
+    public OperationProductComponentWithQuantityContainer calculate(final BigDecimal givenQuantity,
+            final MathContext mathContext, final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal[] quantities = baseQuantities.clone();
+        BigDecimal[] runs = new BigDecimal[operationIds.length];
+
+        for (int step = 0; step < stepOperations.length; step++) {
+            int operation = stepOperations[step];
+
+            BigDecimal needed = (stepNeededSlots[step] == GIVEN_QUANTITY) ? givenQuantity : quantities[stepNeededSlots[step]];
+            BigDecimal actual = quantities[stepActualSlots[step]];
+
+            BigDecimal multiplier = needed.divide(actual, mathContext);
+
+            if (!areProductQuantitiesDivisible[operation]) {
+                // It's intentional to round up the operation runs
+                multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+            }
+
+            runs[operation] = isTjDivisible[operation] ? multiplier : multiplier.setScale(0, RoundingMode.CEILING);
+
+            for (int slot : operationSlots[operation]) {
+                quantities[slot] = quantities[slot].multiply(multiplier, mathContext).setScale(QUANTITY_SCALE,
+                        RoundingMode.CEILING);
+            }
+        }
+
+        for (int operation = 0; operation < operationIds.length; operation++) {
+            operationRuns.put(operationIds[operation], (runs[operation] == null) ? BigDecimal.ONE : runs[operation]);
+        }
+
+        OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+
+        for (int slot = 0; slot < holders.length; slot++) {
+            container.put(holders[slot], quantities[slot]);
+        }
+
+        return container;
+    }
+
+    public Set<OperationProductComponentHolder> getNonComponents() {
+        return nonComponents;
+    }
+
+    /**
+     * @return true, if technology and all referenced technologies can't be changed anymore (are accepted or outdated)
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private static final class Builder {
+
+        private final List<OperationProductComponentHolder> holders = Lists.newArrayList();
+
+        private final List<BigDecimal> baseQuantities = Lists.newArrayList();
+
+        private final Map<OperationProductComponentHolder, Integer> slotsByHolder = Maps.newHashMap();
+
+        private final List<Long> operationIds = Lists.newArrayList();
+
+        private final List<int[]> operationSlots = Lists.newArrayList();
+
+        private final List<Boolean> areProductQuantitiesDivisible = Lists.newArrayList();
+
+        private final List<Boolean> isTjDivisible = Lists.newArrayList();
+
+        private final Map<Long, Integer> operationsById = Maps.newHashMap();
+
+        private final List<Integer> stepOperations = Lists.newArrayList();
+
+        private final List<Integer> stepNeededSlots = Lists.newArrayList();
+
+        private final List<Integer> stepActualSlots = Lists.newArrayList();
+
+        private final Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        private boolean immutable = true;
+
+        private void checkState(final Entity technology) {
+            String state = technology.getStringField(TechnologyFields.STATE);
+
+            if (!TechnologyState.ACCEPTED.getStringValue().equals(state)
+                    && !TechnologyState.OUTDATED.getStringValue().equals(state)) {
+                immutable = false;
+            }
+        }
+
+        private void addOperations(final EntityTree operationComponents) {
+            for (Entity operationComponent : operationComponents) {
+                if (isReferenceTechnology(operationComponent)) {
+                    Entity referenceTechnology = operationComponent
+                            .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                    checkState(referenceTechnology);
+
+                    addOperations(referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+
+                    continue;
+                }
+
+                List<Integer> slots = Lists.newArrayList();
+
+                for (Entity operationProductInComponent : operationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+                    slots.add(putBaseQuantity(operationProductInComponent));
+                }
+                for (Entity operationProductOutComponent : operationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS)) {
+                    slots.add(putBaseQuantity(operationProductOutComponent));
+                }
+
+                Integer operation = operationsById.get(operationComponent.getId());
+
+                if (operation == null) {
+                    operation = operationIds.size();
+
+                    operationIds.add(operationComponent.getId());
+                    operationSlots.add(null);
+                    areProductQuantitiesDivisible.add(false);
+                    isTjDivisible.add(false);
+                    operationsById.put(operationComponent.getId(), operation);
+                }
+
+                operationSlots.set(operation, Ints.toArray(slots));
+                areProductQuantitiesDivisible.set(operation,
+                        operationComponent.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE));
+                isTjDivisible.set(operation, operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE));
+            }
+        }
+
+        private int putBaseQuantity(final Entity operationProductComponent) {
+            OperationProductComponentHolder holder = new OperationProductComponentHolder(operationProductComponent);
+            BigDecimal quantity = operationProductComponent.getDecimalField(OperationProductInComponentFields.QUANTITY);
+
+            Integer slot = slotsByHolder.get(holder);
+
+            if (slot == null) {
+                slot = holders.size();
+
+                holders.add(holder);
+                baseQuantities.add(quantity);
+                slotsByHolder.put(holder, slot);
+            } else {
+                baseQuantities.set(slot, quantity);
+            }
+
+            return slot;
+        }
+
+        private int getSlot(final Entity operationProductComponent) {
+            return slotsByHolder.get(new OperationProductComponentHolder(operationProductComponent));
+        }
+
+        private void addSteps(final Entity technology, final Entity operationComponent, final Entity previousOperationComponent) {
+            if (isReferenceTechnology(operationComponent)) {
+                Entity referenceTechnology = operationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+                EntityTree referenceOperationComponents = referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+                addSteps(referenceTechnology, referenceOperationComponents.getRoot(), previousOperationComponent);
+
+                return;
+            }
+
+            int operation = operationsById.get(operationComponent.getId());
+
+            List<Entity> operationProductOutComponents = operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
+
+            if (previousOperationComponent == null) {
+                Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+                for (Entity operationProductOutComponent : operationProductOutComponents) {
+                    if (getProductId(operationProductOutComponent).equals(technologyProductId)) {
+                        addStep(operation, GIVEN_QUANTITY, getSlot(operationProductOutComponent));
+
+                        break;
+                    }
+                }
+            } else {
+                for (Entity operationProductInComponent : previousOperationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+                    Long productId = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT)
+                            .getId();
+
+                    for (Entity operationProductOutComponent : operationProductOutComponents) {
+                        if (getProductId(operationProductOutComponent).equals(productId)) {
+                            nonComponents.add(new OperationProductComponentHolder(operationProductInComponent));
+
+                            addStep(operation, getSlot(operationProductInComponent), getSlot(operationProductOutComponent));
+
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (Entity child : operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+                addSteps(technology, child, operationComponent);
+            }
+        }
+
+        private void addStep(final int operation, final int neededSlot, final int actualSlot) {
+            stepOperations.add(operation);
+            stepNeededSlots.add(neededSlot);
+            stepActualSlots.add(actualSlot);
+        }
+
+        private Long getProductId(final Entity operationProductOutComponent) {
+            return operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId();
+        }
+
+        private boolean isReferenceTechnology(final Entity operationComponent) {
+            return TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                    operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE));
+        }
+
+    }
+
+}
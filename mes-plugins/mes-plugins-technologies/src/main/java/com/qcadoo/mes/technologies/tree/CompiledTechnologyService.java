@@ -0,0 +1,42 @@
+package com.qcadoo.mes.technologies.tree;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps compiled technologies, which can't be changed anymore, until any technology changes its state.
+ */
+@Service
+public class CompiledTechnologyService {
+
+    private final Map<Long, CompiledTechnology> compiledTechnologies = new ConcurrentHashMap<Long, CompiledTechnology>();
+
+    public CompiledTechnology getCompiledTechnology(final Entity technology) {
+        Long technologyId = technology.getId();
+
+        if (technologyId == null) {
+            return CompiledTechnology.compile(technology);
+        }
+
+        CompiledTechnology compiledTechnology = compiledTechnologies.get(technologyId);
+
+        if (compiledTechnology == null) {
+            compiledTechnology = CompiledTechnology.compile(technology);
+
+            if (compiledTechnology.isImmutable()) {
+                compiledTechnologies.put(technologyId, compiledTechnology);
+            }
+        }
+
+        return compiledTechnology;
+    }
+
+    public void invalidate() {
+        compiledTechnologies.clear();
+    }
+
+}
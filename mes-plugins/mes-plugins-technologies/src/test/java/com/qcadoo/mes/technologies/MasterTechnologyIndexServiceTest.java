@@ -0,0 +1,75 @@
+package com.qcadoo.mes.technologies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class MasterTechnologyIndexServiceTest {
+
+    private MasterTechnologyIndexService masterTechnologyIndexService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        masterTechnologyIndexService = new MasterTechnologyIndexService();
+
+        ReflectionTestUtils.setField(masterTechnologyIndexService, "jdbcTemplate", jdbcTemplate);
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(Lists.newArrayList(1L, 3L));
+    }
+
+    @Test
+    public void shouldFindProductsWithAcceptedMasterTechnologyWithOneQuery() {
+        // when
+        Set<Long> productIds = masterTechnologyIndexService.findProductsWithAcceptedMasterTechnology(Sets.newHashSet(1L, 2L,
+                3L, 4L));
+
+        // then
+        assertEquals(Sets.newHashSet(1L, 3L), productIds);
+        assertTrue(masterTechnologyIndexService.hasAcceptedMasterTechnology(3L));
+        assertFalse(masterTechnologyIndexService.hasAcceptedMasterTechnology(4L));
+        assertEquals(5L, masterTechnologyIndexService.getSavedQueries());
+
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), anyMap(), eq(Long.class));
+    }
+
+    @Test
+    public void shouldReloadIndexAfterInvalidation() {
+        // given
+        masterTechnologyIndexService.findProductsWithAcceptedMasterTechnology(Sets.newHashSet(1L));
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willReturn(Lists.newArrayList(2L));
+
+        // when
+        masterTechnologyIndexService.invalidate();
+
+        // then
+        assertTrue(masterTechnologyIndexService.hasAcceptedMasterTechnology(2L));
+        assertFalse(masterTechnologyIndexService.hasAcceptedMasterTechnology(1L));
+
+        verify(jdbcTemplate, times(2)).queryForList(anyString(), anyMap(), eq(Long.class));
+    }
+
+}
@@ -46,6 +46,7 @@ import org.springframework.test.util.ReflectionTestUtils;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.tree.CompiledTechnologyService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
@@ -114,6 +115,7 @@ public class ProductQuantitiesServiceImplTest {
         productQuantitiesService = new ProductQuantitiesServiceImpl();
 
         ReflectionTestUtils.setField(productQuantitiesService, "numberService", numberService);
+        ReflectionTestUtils.setField(productQuantitiesService, "compiledTechnologyService", new CompiledTechnologyService());
 
         orders = mockEntityListIterator(asList(order));
 
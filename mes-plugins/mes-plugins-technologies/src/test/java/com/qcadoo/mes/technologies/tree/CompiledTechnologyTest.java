@@ -0,0 +1,189 @@
+package com.qcadoo.mes.technologies.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+
+public class CompiledTechnologyTest {
+
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
+
+    @Mock
+    private Entity technology, product1, product2, product3, product4;
+
+    @Mock
+    private Entity operationComponent1, operationComponent2;
+
+    @Mock
+    private Entity productInComponent1, productInComponent2, productInComponent3, productOutComponent2, productOutComponent4;
+
+    @Mock
+    private DataDefinition productDD, operationComponentDD, productInComponentDD, productOutComponentDD;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        given(productInComponentDD.getName()).willReturn("operationProductInComponent");
+        given(productOutComponentDD.getName()).willReturn("operationProductOutComponent");
+
+        mockEntity(product1, 1L, productDD);
+        mockEntity(product2, 2L, productDD);
+        mockEntity(product3, 3L, productDD);
+        mockEntity(product4, 4L, productDD);
+        mockEntity(operationComponent1, 11L, operationComponentDD);
+        mockEntity(operationComponent2, 12L, operationComponentDD);
+
+        mockProductComponent(productInComponent1, 21L, productInComponentDD, operationComponent1, product1, "5");
+        mockProductComponent(productOutComponent2, 22L, productOutComponentDD, operationComponent1, product2, "1");
+        mockProductComponent(productInComponent2, 23L, productInComponentDD, operationComponent2, product2, "2");
+        mockProductComponent(productInComponent3, 24L, productInComponentDD, operationComponent2, product3, "1");
+        mockProductComponent(productOutComponent4, 25L, productOutComponentDD, operationComponent2, product4, "1");
+
+        mockOperationComponent(operationComponent1, Lists.newArrayList(productInComponent1),
+                Lists.newArrayList(productOutComponent2), Collections.<Entity> emptyList());
+        mockOperationComponent(operationComponent2, Lists.newArrayList(productInComponent2, productInComponent3),
+                Lists.newArrayList(productOutComponent4), Lists.newArrayList(operationComponent1));
+
+        EntityTree operationComponents = mock(EntityTree.class);
+        given(operationComponents.getRoot()).willReturn(operationComponent2);
+        given(operationComponents.iterator()).willAnswer(
+                invocation -> Lists.newArrayList(operationComponent2, operationComponent1).iterator());
+
+        given(technology.getId()).willReturn(100L);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product4);
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyState.ACCEPTED.getStringValue());
+    }
+
+    @Test
+    public void shouldCalculateQuantitiesAndRoundUpIndivisibleOperations() {
+        // given
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        OperationProductComponentWithQuantityContainer quantities = CompiledTechnology.compile(technology).calculate(
+                new BigDecimal("4.5"), MATH_CONTEXT, operationRuns);
+
+        // then
+        assertEquals(0, new BigDecimal(50).compareTo(quantities.get(productInComponent1)));
+        assertEquals(0, new BigDecimal(10).compareTo(quantities.get(productInComponent2)));
+        assertEquals(0, new BigDecimal(5).compareTo(quantities.get(productInComponent3)));
+        assertEquals(0, new BigDecimal(10).compareTo(quantities.get(productOutComponent2)));
+        assertEquals(0, new BigDecimal(5).compareTo(quantities.get(productOutComponent4)));
+        assertEquals(0, new BigDecimal(5).compareTo(operationRuns.get(12L)));
+        assertEquals(0, new BigDecimal(10).compareTo(operationRuns.get(11L)));
+    }
+
+    @Test
+    public void shouldCalculateQuantitiesForDivisibleOperations() {
+        // given
+        given(operationComponent1.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE))
+                .willReturn(true);
+        given(operationComponent2.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE))
+                .willReturn(true);
+        given(operationComponent2.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE)).willReturn(true);
+
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        OperationProductComponentWithQuantityContainer quantities = CompiledTechnology.compile(technology).calculate(
+                new BigDecimal("4.5"), MATH_CONTEXT, operationRuns);
+
+        // then
+        assertEquals(0, new BigDecimal(45).compareTo(quantities.get(productInComponent1)));
+        assertEquals(0, new BigDecimal(9).compareTo(quantities.get(productInComponent2)));
+        assertEquals(0, new BigDecimal("4.5").compareTo(quantities.get(productInComponent3)));
+        assertEquals(0, new BigDecimal("4.5").compareTo(operationRuns.get(12L)));
+        assertEquals(0, new BigDecimal(9).compareTo(operationRuns.get(11L)));
+    }
+
+    @Test
+    public void shouldReuseCompiledTechnologyForDifferentQuantities() {
+        // given
+        CompiledTechnology compiledTechnology = CompiledTechnology.compile(technology);
+
+        // when
+        OperationProductComponentWithQuantityContainer first = compiledTechnology.calculate(BigDecimal.ONE, MATH_CONTEXT,
+                Maps.<Long, BigDecimal> newHashMap());
+        OperationProductComponentWithQuantityContainer second = compiledTechnology.calculate(new BigDecimal(2), MATH_CONTEXT,
+                Maps.<Long, BigDecimal> newHashMap());
+
+        // then
+        assertEquals(0, new BigDecimal(10).compareTo(first.get(productInComponent1)));
+        assertEquals(0, new BigDecimal(20).compareTo(second.get(productInComponent1)));
+    }
+
+    @Test
+    public void shouldCollectNonComponentsAndState() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyState.DRAFT.getStringValue());
+
+        // when
+        CompiledTechnology compiledTechnology = CompiledTechnology.compile(technology);
+
+        // then
+        assertEquals(1, compiledTechnology.getNonComponents().size());
+        assertTrue(compiledTechnology.getNonComponents().contains(new OperationProductComponentHolder(productInComponent2)));
+        assertFalse(compiledTechnology.isImmutable());
+    }
+
+    private void mockEntity(final Entity entity, final Long id, final DataDefinition dataDefinition) {
+        given(entity.getId()).willReturn(id);
+        given(entity.getDataDefinition()).willReturn(dataDefinition);
+    }
+
+    private void mockProductComponent(final Entity productComponent, final Long id, final DataDefinition dataDefinition,
+            final Entity operationComponent, final Entity product, final String quantity) {
+        mockEntity(productComponent, id, dataDefinition);
+
+        given(productComponent.getBelongsToField("operationComponent")).willReturn(operationComponent);
+        given(productComponent.getBelongsToField("product")).willReturn(product);
+        given(productComponent.getDecimalField("quantity")).willReturn(new BigDecimal(quantity));
+    }
+
+    private void mockOperationComponent(final Entity operationComponent, final List<Entity> productInComponents,
+            final List<Entity> productOutComponents, final List<Entity> children) {
+        EntityList productInComponentsList = mockEntityList(productInComponents);
+        EntityList productOutComponentsList = mockEntityList(productOutComponents);
+        EntityList childrenList = mockEntityList(children);
+
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)).willReturn(
+                productInComponentsList);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(productOutComponentsList);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)).willReturn(childrenList);
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        return entityList;
+    }
+
+}